@@ -0,0 +1,18 @@
+package com.mscloud.files.reactive;
+
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+
+/**
+ * 基于WebFlux的非阻塞文件服务，与 mscloud-api 使用相同的存储模块和配置
+ */
+@SpringBootApplication(scanBasePackages = "com.mscloud.files")
+public class ReactiveServerApplication {
+
+    public static void main(String[] args) {
+        new SpringApplicationBuilder(ReactiveServerApplication.class)
+                .web(WebApplicationType.REACTIVE)
+                .run(args);
+    }
+}
@@ -0,0 +1,88 @@
+package com.mscloud.files.reactive.api;
+
+import com.mscloud.files.core.FileUtil;
+import com.mscloud.files.core.constants.StoreType;
+import com.mscloud.files.core.pojo.HttpResponse;
+import com.mscloud.files.local.service.LocalService;
+import com.mscloud.files.reactive.service.ReactiveFileService;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiParam;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+/**
+ * 文件存储，非阻塞接口
+ * 上传接口的参数与 mscloud-api 相同，可以放在查询参数中，或作为表单字段放在文件之前
+ */
+@RequestMapping("/file")
+@RestController
+public class ReactiveFileController {
+
+    @Autowired
+    ReactiveFileService reactiveFileService;
+
+    @Autowired
+    LocalService localService;
+
+    @ApiOperation(value = "上传文件", notes = "上传文件,文件内容流式写入存储,参数storeType、isRename、fileDirType、fileDirPath、keyStrategy、isBackShareLink、formId、moduleName放在查询参数或文件之前的表单字段中")
+    @PostMapping("/uploadFile")
+    public Mono<HttpResponse> uploadFile(ServerHttpRequest request){
+
+        return reactiveFileService.uploadFile(request);
+    }
+
+    @ApiOperation(value = "上传多个文件", notes = "上传多文件,文件按顺序流式写入存储,参数同/file/uploadFile")
+    @PostMapping("/uploadFiles")
+    public Mono<HttpResponse> uploadFiles(ServerHttpRequest request){
+
+        return reactiveFileService.uploadFiles(request);
+    }
+
+    @ApiOperation(value = "分片上传文件", notes = "分片上传文件，支持续传,参数fileName、sliceIndex、totalPieces、md5String必填,sliceMd5、storeType等可选,放在查询参数或文件之前的表单字段中")
+    @PostMapping("/uploadPieceFile")
+    public Mono<HttpResponse> uploadPieceFile(ServerHttpRequest request){
+
+        return reactiveFileService.uploadPieceFile(request);
+    }
+
+    @ApiOperation(value = "下载文件", notes = "从存储桶下载文件,支持Range断点续传以及ETag协商缓存(304)")
+    @GetMapping("/downloadFile")
+    public Mono<Void> downloadFile(@ApiParam("文件存储路径,如oa/test.txt") @RequestParam("filePath") String filePath,
+                                   @ApiParam("下载文件重命名名字") @RequestParam(value = "storeAsFilename",required = false) String storeAsFilename,
+                                   @ApiParam("存储方式：为空 MINIO默认，阿里：OSS，华为：OBS") @RequestParam(value = "storeType",required = false) StoreType storeType,
+                                   ServerWebExchange exchange){
+
+        return reactiveFileService.downloadFile(filePath,storeAsFilename,storeType,exchange);
+    }
+
+    @ApiOperation(value = "本地存储分享链接下载", notes = "校验本地存储分享链接的签名和有效期后下载文件")
+    @GetMapping("/local/share")
+    public Mono<Void> localShare(@ApiParam("文件存储路径") @RequestParam("filePath") String filePath,
+                                 @ApiParam("过期时间戳,单位秒") @RequestParam("expireAt") long expireAt,
+                                 @ApiParam("签名") @RequestParam("sign") String sign,
+                                 ServerWebExchange exchange){
+
+        if(! localService.verifyShareLink(filePath,expireAt,sign)){
+            exchange.getResponse().setStatusCode(HttpStatus.FORBIDDEN);
+            return exchange.getResponse().setComplete();
+        }
+        return reactiveFileService.downloadFile(filePath,FileUtil.getFileName(filePath),StoreType.LOCAL,exchange);
+    }
+
+    @ApiOperation(value = "获取文件的分享链接",notes = "获取文件的分享链接")
+    @GetMapping("/getShareLink")
+    public Mono<HttpResponse> getShareLink(@ApiParam("文件存储路径") @RequestParam("filePath") String filePath,
+                                           @ApiParam("存储方式：为空 MINIO默认，阿里：OSS，华为：OBS")  @RequestParam(value = "storeType",required = false) StoreType storeType,
+                                           @ApiParam("链接有效时长:单位为秒，为空则为默认值") @RequestParam(value = "expires",required = false) Integer expires){
+
+        return reactiveFileService.getShareLink(filePath,expires,storeType);
+    }
+}
@@ -0,0 +1,747 @@
+package com.mscloud.files.reactive.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mscloud.files.core.FileAllowSuffix;
+import com.mscloud.files.core.constants.FileDirType;
+import com.mscloud.files.core.constants.KeyStrategy;
+import com.mscloud.files.core.constants.StoreType;
+import com.mscloud.files.core.download.DownloadCacheControl;
+import com.mscloud.files.core.download.FileDownloadSupport;
+import com.mscloud.files.core.download.HttpRange;
+import com.mscloud.files.core.pojo.FileInfo;
+import com.mscloud.files.core.pojo.FileResult;
+import com.mscloud.files.core.pojo.FileStat;
+import com.mscloud.files.core.pojo.HttpResponse;
+import com.mscloud.files.core.transfer.MultipartSession;
+import com.mscloud.files.core.transfer.MultipartUploadEngine;
+import com.mscloud.files.core.transfer.PushUpload;
+import com.mscloud.files.core.upload.BytesMultipartFile;
+import com.mscloud.files.core.upload.UploadParams;
+import com.mscloud.files.ftp.service.FtpService;
+import com.mscloud.files.local.service.LocalService;
+import com.mscloud.files.local.util.LocalStoreUtil;
+import com.mscloud.files.minio.service.MinioService;
+import com.mscloud.files.oss.service.OssService;
+import com.mscloud.files.reactive.support.DataBufferInputStream;
+import com.mscloud.files.reactive.support.StreamingMultipartReader;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ZeroCopyHttpOutputMessage;
+import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 非阻塞文件服务
+ * 请求和响应都以DataBuffer流式传输，事件循环线程不执行任何阻塞操作；
+ * 存储客户端(MinIO、OSS、FTP)只提供阻塞接口，调用放在每种存储单独的有界线程池中执行；
+ * 上传到MinIO、OSS时DataBuffer先按分块大小聚合，只有分块上传提交到线程池，等待客户端数据时不占用线程；
+ * 上传到本地存储时通过异步文件通道写入临时文件，同样不占用线程；
+ * FTP客户端只有阻塞的流式接口，存储线程从有限预取的DataBuffer队列读取数据，每个上传在整个传输期间占用一个线程，
+ * 客户端上传得慢时FTP并发上传数受 threads 限制；
+ * 下载时按客户端的请求量逐块读取，客户端读得慢不会占用线程；本地存储通过异步文件通道读取，支持时直接零拷贝发送
+ */
+@Slf4j
+@Service
+public class ReactiveFileService implements DisposableBean {
+
+    /**
+     * 缓冲额度不足时重试申请的间隔，单位毫秒
+     */
+    private static final long RESERVE_RETRY_MILLIS=20;
+
+    /**
+     * 每种存储方式调用存储客户端的线程数
+     */
+    @Value("${mscloud.files.reactive.threads:64}")
+    private int threads;
+    /**
+     * 每种存储方式等待执行的任务数，超过后拒绝请求
+     */
+    @Value("${mscloud.files.reactive.queuedTasks:1024}")
+    private int queuedTasks;
+    /**
+     * 上传到FTP时每个文件最多预取的数据块数
+     */
+    @Value("${mscloud.files.reactive.prefetch:8}")
+    private int prefetch;
+    /**
+     * 上传时等待客户端数据的超时时间，单位毫秒
+     */
+    @Value("${mscloud.files.reactive.readTimeout:60000}")
+    private long readTimeout;
+    /**
+     * 下载时每次读取的数据块大小，单位字节
+     */
+    @Value("${mscloud.files.reactive.bufferSize:65536}")
+    private int bufferSize;
+    /**
+     * 分片上传时单个分片的最大大小，分片需要完整读入内存，单位字节
+     */
+    @Value("${mscloud.files.reactive.maxPieceSize:33554432}")
+    private int maxPieceSize;
+
+    @Autowired
+    private MinioService minioService;
+    @Autowired
+    private OssService ossService;
+    @Autowired
+    private FtpService ftpService;
+    @Autowired
+    private LocalService localService;
+    @Autowired
+    private LocalStoreUtil localStoreUtil;
+    @Autowired
+    private FileAllowSuffix fileAllowSuffix;
+    @Autowired
+    private DownloadCacheControl downloadCacheControl;
+    @Autowired
+    private StreamingMultipartReader streamingMultipartReader;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private MultipartUploadEngine multipartUploadEngine;
+
+    private final Map<StoreType,Scheduler> schedulers=new ConcurrentHashMap<>();
+
+    /**
+     * 上传单个文件，使用请求中的第一个文件
+     * @param request 请求，参数可以放在查询参数或文件之前的表单字段中
+     * @return
+     */
+    public Mono<HttpResponse> uploadFile(ServerHttpRequest request){
+        return streamingMultipartReader.readFiles(request,this::uploadPart)
+                .next()
+                .map(fileResult->{
+                    if(fileResult.isOk()){//上传成功
+                        return HttpResponse.success("上传成功",fileResult);
+                    }else{//失败
+                        return HttpResponse.error(fileResult.getMsg());
+                    }
+                })
+                .defaultIfEmpty(HttpResponse.error("上传文件不能为空"))
+                .onErrorResume(e->Mono.just(HttpResponse.error(errorMessage(e))));
+    }
+
+    /**
+     * 上传多个文件，文件按到达顺序依次上传，格式不允许的文件在结果中返回失败，不影响后面的文件
+     * @param request 请求，参数可以放在查询参数或文件之前的表单字段中
+     * @return
+     */
+    public Mono<HttpResponse> uploadFiles(ServerHttpRequest request){
+        return streamingMultipartReader.readFiles(request,this::uploadPart)
+                .collectList()
+                .map(fileResults->HttpResponse.success("上传成功",fileResults))
+                .onErrorResume(e->Mono.just(HttpResponse.error(errorMessage(e))));
+    }
+
+    /**
+     * 分片上传文件，分片读入内存后交给存储的分片上传
+     * @param request 请求，参数可以放在查询参数或文件之前的表单字段中
+     * @return
+     */
+    public Mono<HttpResponse> uploadPieceFile(ServerHttpRequest request){
+        return streamingMultipartReader.readFiles(request,this::uploadPiece)
+                .next()
+                .map(fileResult->{
+                    if(fileResult.isOk()){//上传成功
+                        return HttpResponse.success("上传成功",fileResult);
+                    }else{//失败
+                        return HttpResponse.error(fileResult.getMsg());
+                    }
+                })
+                .defaultIfEmpty(HttpResponse.error("上传文件不能为空"))
+                .onErrorResume(e->Mono.just(HttpResponse.error(errorMessage(e))));
+    }
+
+    /**
+     * 上传一个文件，文件内容直接流向存储客户端；MinIO、OSS按分块非阻塞上传，本地存储异步写入文件
+     */
+    private Mono<FileResult> uploadPart(FilePart part,MultiValueMap<String,String> params){
+        StoreType storeType=UploadParams.enumParam(params::getFirst,"storeType",StoreType.class,StoreType.MINIO);
+        FileDirType fileDirType=UploadParams.enumParam(params::getFirst,"fileDirType",FileDirType.class,null);
+        String fileDirPath=params.getFirst("fileDirPath");
+        KeyStrategy keyStrategy=UploadParams.enumParam(params::getFirst,"keyStrategy",KeyStrategy.class,null);
+        String formId=params.getFirst("formId");
+        String moduleName=params.getFirst("moduleName");
+        boolean isRename=UploadParams.booleanParam(params::getFirst,"isRename",true);
+        boolean isBackShareLink=UploadParams.booleanParam(params::getFirst,"isBackShareLink",false);
+
+        String orignalFilename=part.filename();//文件原始名称
+        String fileSuffix;
+        try {
+            fileSuffix=UploadParams.checkUpload(fileAllowSuffix,orignalFilename,formId,moduleName);
+        }catch (IllegalStateException e){
+            //跳过不允许上传的文件，读完内容后面的文件才能到达
+            return part.content().doOnNext(DataBufferUtils::release)
+                    .then(Mono.just(FileResult.builder().isOk(false).msg(e.getMessage()).orignalName(orignalFilename).build()));
+        }
+        HttpHeaders headers=part.headers();
+        //文件基本信息，表单中的文件大小通常未知，存储按流式分块上传
+        FileInfo fileInfo=FileInfo.builder()
+                .fileSize(headers.getContentLength()<0?null:headers.getContentLength())
+                .contentType(headers.getContentType()==null?null:headers.getContentType().toString())
+                .orignalName(orignalFilename).fileSuffix(fileSuffix).build();
+        if(storeType==StoreType.MINIO || storeType==StoreType.OSS){
+            Long userId =0L;
+            PushUpload upload;
+            try {
+                upload=storeType==StoreType.MINIO
+                        ?this.minioService.pushUpload(fileInfo,isRename,fileDirType,fileDirPath,keyStrategy,isBackShareLink,tags(formId,moduleName,userId))
+                        :this.ossService.pushUpload(fileInfo,isRename,fileDirType,fileDirPath,keyStrategy,isBackShareLink,tags(formId,moduleName,userId));
+            }catch (IllegalStateException e){
+                //读完文件内容，后面的文件才能到达
+                return part.content().doOnNext(DataBufferUtils::release)
+                        .then(Mono.just(FileResult.builder().isOk(false).msg(e.getMessage()).build()));
+            }
+            return pushUpload(part.content(),fileInfo.getFileSize(),upload,scheduler(storeType))
+                    .onErrorResume(e->{
+                        log.warn("上传失败{}",e.getMessage());
+                        return Mono.just(FileResult.builder().isOk(false).msg("上传失败,"+errorMessage(e)).build());
+                    });
+        }
+        if(storeType==StoreType.LOCAL){
+            return localUpload(part.content(),fileInfo,isRename,fileDirType,fileDirPath,keyStrategy,isBackShareLink,scheduler(storeType));
+        }
+        return Mono.using(()->new DataBufferInputStream(part.content(),prefetch,readTimeout),
+                inputStream->Mono.fromCallable(()->{
+                    try {
+                        return storeUpload(inputStream,fileInfo,storeType,isRename,fileDirType,fileDirPath,keyStrategy,isBackShareLink);
+                    }finally {
+                        inputStream.close();
+                    }
+                }).subscribeOn(scheduler(storeType)),
+                DataBufferInputStream::cancel);
+    }
+
+    /**
+     * 上传到本地存储：DataBuffer通过异步文件通道写入临时文件，等待客户端数据和写盘都不占用线程；
+     * 创建目录、重命名等文件操作在存储线程池中执行，失败或取消时删除临时文件
+     */
+    private Mono<FileResult> localUpload(Flux<DataBuffer> content,FileInfo fileInfo,boolean isRename,FileDirType fileDirType,String fileDirPath,KeyStrategy keyStrategy,boolean isBackShareLink,Scheduler scheduler){
+        return Mono.fromCallable(()->this.localService.pushUpload(fileInfo,isRename,fileDirType,fileDirPath,keyStrategy,isBackShareLink))
+                .subscribeOn(scheduler)
+                .flatMap(upload->{
+                    AtomicLong written=new AtomicLong();
+                    AtomicBoolean completed=new AtomicBoolean();
+                    return DataBufferUtils.write(content.doOnNext(buffer->written.addAndGet(buffer.readableByteCount())),
+                                    upload.getTempFile(),StandardOpenOption.CREATE_NEW,StandardOpenOption.WRITE)
+                            .then(Mono.fromCallable(()->{
+                                completed.set(true);
+                                return upload.complete(written.get());
+                            }).subscribeOn(scheduler))
+                            .doFinally(signal->{
+                                if(! completed.get()){
+                                    Mono.fromRunnable(upload::discard).subscribeOn(scheduler).subscribe(null,e->log.warn("删除临时文件失败{}",e.getMessage()));
+                                }
+                            })
+                            .onErrorResume(e->{
+                                log.warn("上传失败{}",e.getMessage());
+                                return Mono.just(FileResult.builder().isOk(false).msg("上传失败,"+errorMessage(e)).build());
+                            });
+                })
+                //没有开始写入，读完文件内容，后面的文件才能到达
+                .onErrorResume(e->content.doOnNext(DataBufferUtils::release).then(Mono.just(FileResult.builder().isOk(false)
+                        .msg(e instanceof IllegalStateException?e.getMessage():"上传失败,"+errorMessage(e)).build())));
+    }
+
+    /**
+     * 按分块上传到对象存储：DataBuffer聚合到分块大小后转为数组并释放，分块上传提交到存储线程池；
+     * 数据不超过一个分块时直接上传，否则每个文件最多同时上传 parallelism 个分块，另有一个分块在聚合；
+     * 每个分块开始聚合前先申请全局缓冲额度 mscloud.files.multipart.maxBufferBytes，拿到额度后才继续读取请求数据，
+     * 分块上传结束后归还；失败或取消时清理已上传的分块
+     */
+    private Mono<FileResult> pushUpload(Flux<DataBuffer> content,Long fileSize,PushUpload upload,Scheduler scheduler){
+        int partSize=multipartUploadEngine.partSizeFor(fileSize);
+        BufferReservation reservation=new BufferReservation(partSize);
+        Flux<byte[]> parts=Flux.defer(()->{
+            long[] buffered={0};
+            //逐个DataBuffer向上游请求，分块的第一个DataBuffer等到申请到额度后才放行，T2标记分块结束
+            return content.concatMap(buffer->{
+                boolean partStart=buffered[0]==0;
+                buffered[0]+=buffer.readableByteCount();
+                boolean partEnd=buffered[0]>=partSize;
+                if(partEnd){
+                    buffered[0]=0;
+                }
+                Tuple2<DataBuffer,Boolean> next=Tuples.of(buffer,partEnd);
+                if(! partStart){
+                    return Mono.just(next);
+                }
+                return reservation.reserve()
+                        .doOnError(e->DataBufferUtils.release(buffer))
+                        .doOnCancel(()->DataBufferUtils.release(buffer))
+                        .thenReturn(next);
+            },1).bufferUntil(Tuple2::getT2);
+        }).map(ReactiveFileService::toBytes)
+                .doOnDiscard(Tuple2.class,tuple->DataBufferUtils.release((DataBuffer)tuple.getT1()))
+                .doOnDiscard(DataBuffer.class,DataBufferUtils::release);
+        return parts.switchOnFirst((first,flux)->{
+            if(! first.hasValue() || first.get().length<partSize){
+                //数据在第一个分块内结束，直接上传
+                byte[] data=first.hasValue()?first.get():new byte[0];
+                return flux.then(Mono.fromCallable(()->upload.complete(upload.target().put(data,data.length),data.length))
+                        .subscribeOn(scheduler));
+            }
+            return Mono.fromCallable(()->upload.target().create())
+                    .subscribeOn(scheduler)
+                    .flatMap(session->{
+                        AtomicLong total=new AtomicLong();
+                        AtomicBoolean completed=new AtomicBoolean();
+                        return flux.index()
+                                .flatMapSequential(indexed->uploadPart(session,indexed.getT1(),indexed.getT2(),total,reservation,scheduler),multipartUploadEngine.getParallelism(),1)
+                                .collectList()
+                                .publishOn(scheduler)
+                                .map(etags->{
+                                    try {
+                                        String etag=session.complete(etags);
+                                        completed.set(true);
+                                        return upload.complete(etag,total.get());
+                                    } catch (Exception e) {
+                                        throw Exceptions.propagate(e);
+                                    }
+                                })
+                                .doFinally(signal->{
+                                    if(! completed.get()){
+                                        abort(session,scheduler);
+                                    }
+                                });
+                    });
+        }).next().doFinally(signal->reservation.releaseAll());
+    }
+
+    /**
+     * 在存储线程池中上传一个分块，上传结束后归还分块的缓冲额度
+     */
+    private Mono<String> uploadPart(MultipartSession session,long index,byte[] data,AtomicLong total,BufferReservation reservation,Scheduler scheduler){
+        return Mono.fromCallable(()->{
+            try {
+                if(index>=MultipartUploadEngine.MAX_PARTS){
+                    throw new IOException("分块数超过"+MultipartUploadEngine.MAX_PARTS+",请调大 mscloud.files.multipart.partSize");
+                }
+                String etag=session.uploadPart((int)index+1,data,data.length);
+                total.addAndGet(data.length);
+                return etag;
+            }finally {
+                reservation.release();
+            }
+        }).subscribeOn(scheduler);
+    }
+
+    /**
+     * 单个上传占用的缓冲额度，每个分块开始聚合前申请一个分块大小；
+     * 额度不足时按 RESERVE_RETRY_MILLIS 间隔重试，最多 bufferWaitMillis，等待期间不占用线程
+     */
+    private class BufferReservation {
+        private final int partSize;
+        /**
+         * 已申请未归还的分块数
+         */
+        private final AtomicInteger parts=new AtomicInteger();
+
+        BufferReservation(int partSize){
+            this.partSize=partSize;
+        }
+
+        Mono<Void> reserve(){
+            long retries=Math.max(1,multipartUploadEngine.getBufferWaitMillis()/RESERVE_RETRY_MILLIS);
+            return Mono.fromCallable(()->multipartUploadEngine.tryReserveBuffer(partSize))
+                    .filter(Boolean::booleanValue)
+                    .repeatWhenEmpty(empty->empty.take(retries).delayElements(Duration.ofMillis(RESERVE_RETRY_MILLIS)))
+                    .switchIfEmpty(Mono.error(()->new IOException("分块上传缓冲不足,请稍后重试")))
+                    .doOnNext(reserved->parts.incrementAndGet())
+                    .then();
+        }
+
+        /**
+         * 归还一个分块的额度，上传已结束并归还全部额度时忽略
+         */
+        void release(){
+            if(parts.getAndUpdate(count->count>0?count-1:0)>0){
+                multipartUploadEngine.releaseBuffer(partSize);
+            }
+        }
+
+        /**
+         * 上传结束时归还剩余的额度，包括聚合中和未上传的分块
+         */
+        void releaseAll(){
+            int count=parts.getAndSet(0);
+            for(int i=0;i<count;i++){
+                multipartUploadEngine.releaseBuffer(partSize);
+            }
+        }
+    }
+
+    private void abort(MultipartSession session,Scheduler scheduler){
+        Mono.fromRunnable(()->{
+            try {
+                session.abort();
+            } catch (Exception e) {
+                log.warn("取消分块上传失败{}",e.getMessage());
+            }
+        }).subscribeOn(scheduler).subscribe(null,e->log.warn("取消分块上传失败{}",e.getMessage()));
+    }
+
+    private static byte[] toBytes(List<Tuple2<DataBuffer,Boolean>> buffers){
+        int length=0;
+        for(Tuple2<DataBuffer,Boolean> buffer:buffers){
+            length+=buffer.getT1().readableByteCount();
+        }
+        byte[] bytes=new byte[length];
+        int offset=0;
+        try {
+            for(Tuple2<DataBuffer,Boolean> buffer:buffers){
+                int count=buffer.getT1().readableByteCount();
+                buffer.getT1().read(bytes,offset,count);
+                offset+=count;
+            }
+        }finally {
+            buffers.forEach(buffer->DataBufferUtils.release(buffer.getT1()));
+        }
+        return bytes;
+    }
+
+    private FileResult storeUpload(InputStream inputStream,FileInfo fileInfo,StoreType storeType,boolean isRename,FileDirType fileDirType,String fileDirPath,KeyStrategy keyStrategy,boolean isBackShareLink){
+        if( storeType== StoreType.FTP){//FTP方式
+            return this.ftpService.uploadFile(inputStream,fileInfo,isRename,fileDirType,fileDirPath,keyStrategy,isBackShareLink);
+        }else if( storeType== StoreType.OBS){//华为OBS方式
+            return FileResult.builder().isOk(false).msg("存储方式开发中").build();
+        }
+        return FileResult.builder().isOk(false).msg("存储方式不支持").build();
+    }
+
+    /**
+     * 上传一个分片
+     */
+    private Mono<FileResult> uploadPiece(FilePart part,MultiValueMap<String,String> params){
+        StoreType storeType=UploadParams.enumParam(params::getFirst,"storeType",StoreType.class,StoreType.MINIO);
+        FileDirType fileDirType=UploadParams.enumParam(params::getFirst,"fileDirType",FileDirType.class,null);
+        String fileDirPath=params.getFirst("fileDirPath");
+        KeyStrategy keyStrategy=UploadParams.enumParam(params::getFirst,"keyStrategy",KeyStrategy.class,null);
+        String formId=params.getFirst("formId");
+        String moduleName=params.getFirst("moduleName");
+        boolean isRename=UploadParams.booleanParam(params::getFirst,"isRename",true);
+        boolean isBackShareLink=UploadParams.booleanParam(params::getFirst,"isBackShareLink",false);
+        String fileName=UploadParams.requiredParam(params::getFirst,"fileName");
+        int sliceIndex=Integer.parseInt(UploadParams.requiredParam(params::getFirst,"sliceIndex"));
+        int totalPieces=Integer.parseInt(UploadParams.requiredParam(params::getFirst,"totalPieces"));
+        String md5String=UploadParams.requiredParam(params::getFirst,"md5String");
+        String sliceMd5=params.getFirst("sliceMd5");
+
+        UploadParams.checkUpload(fileAllowSuffix,part.filename(),formId,moduleName);
+        if(storeType!=StoreType.MINIO && storeType!=StoreType.OSS && storeType!=StoreType.FTP){
+            return Mono.error(new IllegalStateException("存储方式开发中"));
+        }
+        MediaType contentType=part.headers().getContentType();
+        return DataBufferUtils.join(part.content(),maxPieceSize)
+                .map(buffer->{
+                    byte[] bytes=new byte[buffer.readableByteCount()];
+                    buffer.read(bytes);
+                    DataBufferUtils.release(buffer);
+                    return new BytesMultipartFile(part.name(),part.filename(),contentType==null?null:contentType.toString(),bytes);
+                })
+                .publishOn(scheduler(storeType))
+                .map(file->{
+                    Long userId =0L;
+                    if( storeType== StoreType.MINIO){//MINIO方式
+                        return this.minioService.uploadPieceFile(file,fileName,sliceIndex,totalPieces,md5String,sliceMd5,isRename,fileDirType,fileDirPath,keyStrategy,isBackShareLink,tags(formId,moduleName,userId));
+                    }else if( storeType== StoreType.OSS){//阿里OSS方式
+                        return this.ossService.uploadPieceFile(file,fileName,sliceIndex,totalPieces,md5String,sliceMd5,isRename,fileDirType,fileDirPath,keyStrategy,isBackShareLink,tags(formId,moduleName,userId));
+                    }
+                    return this.ftpService.uploadPieceFile(file,fileName,sliceIndex,totalPieces,md5String,sliceMd5,isRename,fileDirType,fileDirPath,keyStrategy,isBackShareLink);
+                });
+    }
+
+    /**
+     * 下载文件，支持单区间Range下载和ETag协商缓存(304)，多区间请求返回完整文件
+     * @param filePath 文件存储路径
+     * @param storeAsFilename 下载后文件名
+     * @param storeType 存储方式
+     * @param exchange 请求和响应
+     * @return
+     */
+    public Mono<Void> downloadFile(String filePath,String storeAsFilename,StoreType storeType,ServerWebExchange exchange){
+        if(storeType==null){//默认MINIO方式
+            storeType=StoreType.MINIO;
+        }
+        ServerHttpResponse response=exchange.getResponse();
+        if( storeType== StoreType.OBS){//华为OBS方式
+            return writeJson(response,HttpResponse.error("存储方式开发中"));
+        }else if(storeType!=StoreType.MINIO && storeType!=StoreType.OSS && storeType!=StoreType.LOCAL && storeType!=StoreType.FTP){
+            return writeJson(response,HttpResponse.error("存储方式不支持"));
+        }
+        StoreType type=storeType;
+        return Mono.fromCallable(()->Optional.ofNullable(statFile(type,filePath)))
+                .subscribeOn(scheduler(type))
+                .flatMap(stat->{
+                    if(! stat.isPresent()){
+                        return writeJson(response,HttpResponse.error("下载失败,文件不存在"));
+                    }
+                    return writeFile(type,stat.get(),storeAsFilename,exchange);
+                })
+                .onErrorResume(e->{
+                    log.warn("下载失败{}",e.getMessage());
+                    if(response.isCommitted()){
+                        return Mono.error(e);
+                    }
+                    return writeJson(response,HttpResponse.error("下载失败,"+errorMessage(e)));
+                });
+    }
+
+    private FileStat statFile(StoreType storeType,String filePath) throws Exception {
+        if( storeType== StoreType.MINIO){
+            return this.minioService.statFile(filePath);
+        }else if( storeType== StoreType.OSS){
+            return this.ossService.statFile(filePath);
+        }else if( storeType== StoreType.LOCAL){
+            return this.localService.statFile(filePath);
+        }
+        return this.ftpService.statFile(filePath);
+    }
+
+    private Mono<Void> writeFile(StoreType storeType,FileStat stat,String storeAsFilename,ServerWebExchange exchange) {
+        ServerHttpRequest request=exchange.getRequest();
+        ServerHttpResponse response=exchange.getResponse();
+        HttpHeaders headers=response.getHeaders();
+        long fileSize=stat.getFileSize();
+        String etag=FileDownloadSupport.quoteEtag(stat.getEtag());
+        Instant lastModified=stat.getLastModified()==null?null:Instant.ofEpochMilli(stat.getLastModified());
+        //下载名称
+        String storeAs = storeAsFilename==null?stat.getFilePath():storeAsFilename;
+        if(etag !=null){
+            headers.setETag(etag);
+        }
+        if(lastModified !=null){
+            headers.setLastModified(lastModified);
+        }
+        String cacheControl=downloadCacheControl.resolve(stat.getContentType(),storeAs);
+        if(cacheControl !=null){
+            headers.setCacheControl(cacheControl);
+        }
+        if(isNotModified(exchange,etag,lastModified)){
+            //客户端缓存仍然有效，不读取文件内容
+            return response.setComplete();
+        }
+        try {
+            headers.set(HttpHeaders.CONTENT_DISPOSITION,"attachment;filename=" + URLEncoder.encode(storeAs, "UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            return Mono.error(e);
+        }
+        headers.set(HttpHeaders.ACCEPT_RANGES,"bytes");
+
+        List<HttpRange> ranges=null;
+        String rangeHeader=request.getHeaders().getFirst(HttpHeaders.RANGE);
+        if(rangeHeader !=null && isIfRangeMatched(request,etag,stat.getLastModified())){
+            ranges=HttpRange.parse(rangeHeader,fileSize);
+        }
+        if(ranges !=null && ranges.isEmpty()){//区间无法满足
+            response.setStatusCode(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+            headers.set(HttpHeaders.CONTENT_RANGE,"bytes */"+fileSize);
+            return response.setComplete();
+        }
+        long offset=0;
+        long length=fileSize;
+        if(ranges !=null && ranges.size()==1){//单区间
+            HttpRange range=ranges.get(0);
+            response.setStatusCode(HttpStatus.PARTIAL_CONTENT);
+            headers.set(HttpHeaders.CONTENT_RANGE,range.toContentRange(fileSize));
+            offset=range.getStart();
+            length=range.length();
+        }
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        headers.setContentLength(length);
+        if(length==0){
+            return response.setComplete();
+        }
+        if(storeType==StoreType.LOCAL){
+            Path path=localStoreUtil.resolveFile(stat.getFilePath());
+            if(response instanceof ZeroCopyHttpOutputMessage){//零拷贝发送
+                return ((ZeroCopyHttpOutputMessage)response).writeWith(path,offset,length);
+            }
+            long position=offset;
+            Flux<DataBuffer> body=DataBufferUtils.readAsynchronousFileChannel(
+                    ()->AsynchronousFileChannel.open(path,StandardOpenOption.READ),position,response.bufferFactory(),bufferSize);
+            return response.writeWith(DataBufferUtils.takeUntilByteCount(body,length));
+        }
+        long position=offset;
+        long count=length;
+        Scheduler scheduler=scheduler(storeType);
+        //按需读取，关闭数据流可能有网络交互，同样放在存储线程中执行
+        Flux<DataBuffer> body=DataBufferUtils.readInputStream(()->openFile(storeType,stat.getFilePath(),position,count),response.bufferFactory(),bufferSize)
+                .subscribeOn(scheduler)
+                .cancelOn(scheduler);
+        return response.writeWith(DataBufferUtils.takeUntilByteCount(body,length));
+    }
+
+    private InputStream openFile(StoreType storeType,String filePath,long offset,long length) throws Exception {
+        if( storeType== StoreType.MINIO){
+            return this.minioService.openFile(filePath,offset,length);
+        }else if( storeType== StoreType.OSS){
+            return this.ossService.openFile(filePath,offset,length);
+        }
+        return this.ftpService.openFile(filePath,offset,length);
+    }
+
+    private boolean isNotModified(ServerWebExchange exchange,String etag,Instant lastModified){
+        if(etag !=null && lastModified !=null){
+            return exchange.checkNotModified(etag,lastModified);
+        }else if(etag !=null){
+            return exchange.checkNotModified(etag);
+        }else if(lastModified !=null){
+            return exchange.checkNotModified(lastModified);
+        }
+        return false;
+    }
+
+    /**
+     * If-Range 与当前文件一致时才按区间返回
+     */
+    private boolean isIfRangeMatched(ServerHttpRequest request,String etag,Long lastModified){
+        String ifRange=request.getHeaders().getFirst(HttpHeaders.IF_RANGE);
+        if(StringUtils.isBlank(ifRange)){
+            return true;
+        }
+        ifRange=ifRange.trim();
+        if(ifRange.startsWith("\"") || ifRange.startsWith("W/")){
+            //强校验，弱ETag不匹配
+            return etag !=null && ! etag.startsWith("W/") && etag.equals(ifRange);
+        }
+        if(lastModified==null){
+            return false;
+        }
+        try {
+            long since=request.getHeaders().getFirstDate(HttpHeaders.IF_RANGE);
+            return since>=0 && lastModified/1000==since/1000;
+        }catch (IllegalArgumentException e){
+            return false;
+        }
+    }
+
+    /**
+     * 获取文件的分享链接
+     * @param filePath 文件存储路径
+     * @param expires 链接有效时长，单位秒
+     * @param storeType 存储方式
+     * @return
+     */
+    public Mono<HttpResponse> getShareLink(String filePath,Integer expires,StoreType storeType){
+        if(storeType==null){//默认MINIO方式
+            storeType=StoreType.MINIO;
+        }
+        StoreType type=storeType;
+        if( type== StoreType.OBS || type== StoreType.FTP){
+            return Mono.just(HttpResponse.error("存储方式开发中"));
+        }else if(type!=StoreType.MINIO && type!=StoreType.OSS && type!=StoreType.LOCAL){
+            return Mono.just(HttpResponse.error("存储方式不支持"));
+        }
+        return Mono.fromCallable(()->{
+                    if( type== StoreType.MINIO){//MINIO方式
+                        return this.minioService.getShareLink(filePath,expires);
+                    }else if( type== StoreType.OSS){//阿里OSS方式
+                        return this.ossService.getShareLink(filePath,expires);
+                    }
+                    return this.localService.getShareLink(filePath,expires);
+                })
+                .subscribeOn(scheduler(type))
+                .map(fileResult->{
+                    if(fileResult.isOk()){
+                        return HttpResponse.success("成功",fileResult.getFilePath());
+                    }else{//失败
+                        return HttpResponse.error(fileResult.getMsg());
+                    }
+                })
+                .onErrorResume(e->Mono.just(HttpResponse.error(errorMessage(e))));
+    }
+
+    /**
+     * 下载失败时以JSON返回错误信息
+     */
+    private Mono<Void> writeJson(ServerHttpResponse response,HttpResponse httpResponse){
+        try {
+            byte[] body=objectMapper.writeValueAsBytes(httpResponse);
+            response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+            response.getHeaders().setContentLength(body.length);
+            return response.writeWith(Mono.fromSupplier(()->response.bufferFactory().wrap(body)));
+        } catch (JsonProcessingException e) {
+            return Mono.error(e);
+        }
+    }
+
+    /**
+     * 存储方式对应的线程池，任务超过队列长度时拒绝，不会在事件循环线程中执行
+     */
+    private Scheduler scheduler(StoreType storeType){
+        return schedulers.computeIfAbsent(storeType,type->Schedulers.newBoundedElastic(threads,queuedTasks,"mscloud-reactive-"+type.name().toLowerCase()));
+    }
+
+    private Map<String,String> tags(String formId,String moduleName,Long userId){
+        Map<String,String> tags=new HashMap<>();
+        if(StringUtils.isNotBlank(formId)){
+            tags.put("formId",formId);
+        }
+        if(StringUtils.isNotBlank(moduleName)){
+            tags.put("moduleName",moduleName);
+        }
+        if(userId !=null){
+            tags.put("userId",userId+"");
+        }
+        return tags;
+    }
+
+    private static String errorMessage(Throwable e){
+        if(e instanceof IllegalStateException){
+            return e.getMessage();
+        }
+        if(e instanceof NumberFormatException){
+            return "参数错误,"+e.getMessage();
+        }
+        if(e instanceof RejectedExecutionException){
+            return "服务繁忙,请稍后重试";
+        }
+        return "请求处理失败,"+e.getMessage();
+    }
+
+    @Override
+    public void destroy() {
+        schedulers.values().forEach(Scheduler::dispose);
+    }
+}
@@ -0,0 +1,222 @@
+package com.mscloud.files.reactive.support;
+
+import lombok.extern.slf4j.Slf4j;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscription;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import reactor.core.publisher.BaseSubscriber;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 把请求体的DataBuffer流转换为输入流，由存储线程阻塞读取后交给存储客户端
+ * 最多预取 prefetch 个数据块，读取方消费后再向上游请求，客户端上传慢时不会堆积数据；
+ * 事件循环线程只把数据块放入队列，不会被阻塞。
+ * 正在读取的数据块只由读取线程释放：读取线程通过 close 关闭，其它线程通过 cancel 取消
+ */
+@Slf4j
+public class DataBufferInputStream extends InputStream {
+
+    /**
+     * 数据结束标记
+     */
+    private static final Object COMPLETE=new Object();
+    /**
+     * 取消标记，唤醒正在等待的读取线程
+     */
+    private static final Object CANCELLED=new Object();
+
+    private final int prefetch;
+    /**
+     * 每消费多少个数据块向上游补充请求
+     */
+    private final int replenish;
+    /**
+     * 等待下一个数据块的超时时间，单位毫秒
+     */
+    private final long readTimeout;
+    /**
+     * 已请求未消费的数据块不超过prefetch，再加结束和取消信号，队列不会溢出
+     */
+    private final BlockingQueue<Object> queue;
+    private final BufferSubscriber subscriber=new BufferSubscriber();
+
+    private DataBuffer current;
+    private int consumed;
+    private boolean done;
+    private volatile boolean closed;
+    /**
+     * 上游发送的数据块超过请求数量，上传数据已不完整
+     */
+    private volatile boolean overflow;
+
+    public DataBufferInputStream(Publisher<DataBuffer> content, int prefetch, long readTimeout) {
+        this.prefetch=Math.max(1,prefetch);
+        this.replenish=Math.max(1,this.prefetch/2);
+        this.readTimeout=readTimeout;
+        this.queue=new ArrayBlockingQueue<>(this.prefetch+2);
+        content.subscribe(subscriber);
+    }
+
+    @Override
+    public int read() throws IOException {
+        DataBuffer buffer=nextBuffer();
+        return buffer==null?-1:buffer.read() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if(len==0){
+            return 0;
+        }
+        DataBuffer buffer=nextBuffer();
+        if(buffer==null){
+            return -1;
+        }
+        int count=Math.min(len,buffer.readableByteCount());
+        buffer.read(b,off,count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+        DataBuffer buffer=current;
+        return buffer==null?0:buffer.readableByteCount();
+    }
+
+    /**
+     * 当前可读的数据块，读完后释放并按需向上游请求，数据结束返回null
+     */
+    private DataBuffer nextBuffer() throws IOException {
+        while(current==null || current.readableByteCount()==0){
+            if(closed){
+                releaseAll();
+                throw new IOException("数据流已关闭");
+            }
+            if(current !=null){
+                DataBufferUtils.release(current);
+                current=null;
+                if(++consumed>=replenish){
+                    subscriber.request(consumed);
+                    consumed=0;
+                }
+            }
+            if(done){
+                return null;
+            }
+            if(overflow){
+                throw new IOException("请求数据超出预取数量");
+            }
+            Object next;
+            try {
+                next=queue.poll(readTimeout,TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("读取请求数据被中断");
+            }
+            if(next==null){
+                throw new SocketTimeoutException("读取请求数据超时");
+            }
+            if(closed){
+                if(next instanceof DataBuffer){
+                    DataBufferUtils.release((DataBuffer)next);
+                }
+                continue;
+            }
+            if(next==COMPLETE){
+                done=true;
+                return null;
+            }
+            if(next instanceof Throwable){
+                done=true;
+                throw new IOException("读取请求数据失败,"+((Throwable)next).getMessage(),(Throwable)next);
+            }
+            current=(DataBuffer)next;
+        }
+        return current;
+    }
+
+    /**
+     * 读取线程关闭数据流，取消订阅并释放未读取的数据块
+     */
+    @Override
+    public void close() {
+        closed=true;
+        subscriber.dispose();
+        releaseAll();
+    }
+
+    /**
+     * 其它线程取消读取，例如请求被取消或任务被拒绝；
+     * 正在读取的数据块由读取线程下次读取时释放，读取线程没有开始时数据块都在队列中
+     */
+    public void cancel() {
+        if(closed){
+            return;
+        }
+        closed=true;
+        subscriber.dispose();
+        releaseQueued();
+        queue.offer(CANCELLED);
+    }
+
+    private void releaseAll(){
+        if(current !=null){
+            DataBufferUtils.release(current);
+            current=null;
+        }
+        releaseQueued();
+    }
+
+    private void releaseQueued(){
+        Object next;
+        while((next=queue.poll()) !=null){
+            if(next instanceof DataBuffer){
+                DataBufferUtils.release((DataBuffer)next);
+            }
+        }
+    }
+
+    private class BufferSubscriber extends BaseSubscriber<DataBuffer> {
+
+        @Override
+        protected void hookOnSubscribe(Subscription subscription) {
+            subscription.request(prefetch);
+        }
+
+        @Override
+        protected void hookOnNext(DataBuffer buffer) {
+            if(closed){
+                DataBufferUtils.release(buffer);
+                return;
+            }
+            if(! queue.offer(buffer)){
+                DataBufferUtils.release(buffer);
+                log.warn("请求数据超出预取数量,prefetch={}",prefetch);
+                overflow=true;
+                cancel();
+                return;
+            }
+            if(closed){//读取方已关闭，释放关闭之后放入的数据块
+                releaseQueued();
+            }
+        }
+
+        @Override
+        protected void hookOnComplete() {
+            queue.offer(COMPLETE);
+        }
+
+        @Override
+        protected void hookOnError(Throwable throwable) {
+            queue.offer(throwable);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.mscloud.files.reactive.support;
+
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.codec.multipart.DefaultPartHttpMessageReader;
+import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.http.codec.multipart.FormFieldPart;
+import org.springframework.http.codec.multipart.Part;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.function.BiFunction;
+
+/**
+ * 流式读取multipart请求，文件内容不在内存或磁盘中缓存，按到达顺序逐个交给处理方
+ * 普通字段和查询参数合并后作为请求参数，文件只能使用在它之前出现的字段，因此参数字段需要放在文件之前
+ */
+@Component
+public class StreamingMultipartReader implements InitializingBean {
+
+    /**
+     * 单个请求最多的表单项数
+     */
+    @Value("${mscloud.files.reactive.maxParts:128}")
+    private int maxParts;
+    /**
+     * 普通字段的最大长度，单位字节
+     */
+    @Value("${mscloud.files.reactive.maxFieldSize:262144}")
+    private int maxFieldSize;
+    /**
+     * 每个表单项头部的最大长度，单位字节
+     */
+    @Value("${mscloud.files.reactive.maxHeadersSize:8192}")
+    private int maxHeadersSize;
+
+    private DefaultPartHttpMessageReader partReader;
+
+    @Override
+    public void afterPropertiesSet() {
+        partReader=new DefaultPartHttpMessageReader();
+        partReader.setStreaming(true);
+        partReader.setMaxParts(maxParts);
+        partReader.setMaxInMemorySize(maxFieldSize);
+        partReader.setMaxHeadersSize(maxHeadersSize);
+    }
+
+    /**
+     * 按顺序读取表单，普通字段加入请求参数，文件交给handler处理；
+     * handler必须读完或取消文件内容，否则后面的表单项不会到达
+     * @param request 请求
+     * @param handler 文件处理，参数为文件和当前的请求参数
+     * @return 每个文件的处理结果
+     */
+    public <T> Flux<T> readFiles(ServerHttpRequest request, BiFunction<FilePart,MultiValueMap<String,String>,Mono<T>> handler){
+        MultiValueMap<String,String> params=new LinkedMultiValueMap<>(request.getQueryParams());
+        return partReader.read(ResolvableType.forClass(Part.class),request,Collections.emptyMap())
+                .concatMap(part->{
+                    if(part instanceof FilePart){
+                        return handler.apply((FilePart)part,params);
+                    }
+                    return fieldValue(part)
+                            .doOnNext(value->params.add(part.name(),value))
+                            .then(Mono.<T>empty());
+                });
+    }
+
+    private Mono<String> fieldValue(Part part){
+        if(part instanceof FormFieldPart){
+            return Mono.just(((FormFieldPart)part).value());
+        }
+        return DataBufferUtils.join(part.content(),maxFieldSize)
+                .map(buffer->{
+                    String value=buffer.toString(StandardCharsets.UTF_8);
+                    DataBufferUtils.release(buffer);
+                    return value;
+                });
+    }
+}
@@ -0,0 +1,333 @@
+package com.mscloud.files.reactive.api;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mscloud.files.core.FileAllowSuffix;
+import com.mscloud.files.core.download.DownloadCacheControl;
+import com.mscloud.files.core.pojo.FileResult;
+import com.mscloud.files.core.pojo.FileStat;
+import com.mscloud.files.core.transfer.MultipartSession;
+import com.mscloud.files.core.transfer.MultipartTarget;
+import com.mscloud.files.core.transfer.MultipartUploadEngine;
+import com.mscloud.files.core.transfer.PushUpload;
+import com.mscloud.files.local.service.LocalPushUpload;
+import com.mscloud.files.local.service.LocalService;
+import com.mscloud.files.minio.service.MinioService;
+import com.mscloud.files.reactive.service.ReactiveFileService;
+import com.mscloud.files.reactive.support.StreamingMultipartReader;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.MultipartBodyBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.util.MultiValueMap;
+import org.springframework.validation.Errors;
+import org.springframework.validation.Validator;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.reactive.config.EnableWebFlux;
+import org.springframework.web.reactive.config.WebFluxConfigurer;
+import org.springframework.web.reactive.function.BodyInserters;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ReactiveFileControllerTest {
+
+    private static final int PART_SIZE=MultipartUploadEngine.MIN_PART_SIZE;
+
+    private MinioService minioService;
+    private LocalService localService;
+    private MultipartUploadEngine multipartUploadEngine;
+    private ReactiveFileService reactiveFileService;
+    private AnnotationConfigApplicationContext context;
+    private WebTestClient client;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        minioService=mock(MinioService.class);
+        localService=mock(LocalService.class);
+
+        multipartUploadEngine=new MultipartUploadEngine();
+        ReflectionTestUtils.setField(multipartUploadEngine,"partSize",PART_SIZE);
+        ReflectionTestUtils.setField(multipartUploadEngine,"threshold",(long)PART_SIZE);
+        ReflectionTestUtils.setField(multipartUploadEngine,"parallelism",2);
+        ReflectionTestUtils.setField(multipartUploadEngine,"threads",2);
+        ReflectionTestUtils.setField(multipartUploadEngine,"maxBufferBytes",PART_SIZE*2L);
+        ReflectionTestUtils.setField(multipartUploadEngine,"bufferWaitMillis",5000L);
+        multipartUploadEngine.afterPropertiesSet();
+
+        StreamingMultipartReader streamingMultipartReader=new StreamingMultipartReader();
+        ReflectionTestUtils.setField(streamingMultipartReader,"maxParts",128);
+        ReflectionTestUtils.setField(streamingMultipartReader,"maxFieldSize",262144);
+        ReflectionTestUtils.setField(streamingMultipartReader,"maxHeadersSize",8192);
+        streamingMultipartReader.afterPropertiesSet();
+
+        FileAllowSuffix fileAllowSuffix=new FileAllowSuffix();
+        fileAllowSuffix.afterPropertiesSet();
+
+        reactiveFileService=new ReactiveFileService();
+        ReflectionTestUtils.setField(reactiveFileService,"threads",4);
+        ReflectionTestUtils.setField(reactiveFileService,"queuedTasks",16);
+        ReflectionTestUtils.setField(reactiveFileService,"prefetch",8);
+        ReflectionTestUtils.setField(reactiveFileService,"readTimeout",5000L);
+        ReflectionTestUtils.setField(reactiveFileService,"bufferSize",8192);
+        ReflectionTestUtils.setField(reactiveFileService,"maxPieceSize",1024*1024);
+        ReflectionTestUtils.setField(reactiveFileService,"minioService",minioService);
+        ReflectionTestUtils.setField(reactiveFileService,"localService",localService);
+        ReflectionTestUtils.setField(reactiveFileService,"fileAllowSuffix",fileAllowSuffix);
+        ReflectionTestUtils.setField(reactiveFileService,"downloadCacheControl",new DownloadCacheControl());
+        ReflectionTestUtils.setField(reactiveFileService,"streamingMultipartReader",streamingMultipartReader);
+        ReflectionTestUtils.setField(reactiveFileService,"objectMapper",new ObjectMapper());
+        ReflectionTestUtils.setField(reactiveFileService,"multipartUploadEngine",multipartUploadEngine);
+
+        //已创建的服务直接注册为单例，只由容器创建控制器
+        context=new AnnotationConfigApplicationContext();
+        context.getBeanFactory().registerSingleton("reactiveFileService",reactiveFileService);
+        context.getBeanFactory().registerSingleton("localService",localService);
+        context.register(WebConfig.class,ReactiveFileController.class);
+        context.refresh();
+        client=WebTestClient.bindToApplicationContext(context).configureClient().responseTimeout(Duration.ofSeconds(30)).build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        context.close();
+        reactiveFileService.destroy();
+        multipartUploadEngine.destroy();
+    }
+
+    @Test
+    void uploadFileInParts() {
+        byte[] data=randomBytes(PART_SIZE*2+100);
+        FakePushUpload upload=new FakePushUpload();
+        when(minioService.pushUpload(any(),anyBoolean(),any(),any(),any(),anyBoolean(),anyMap())).thenReturn(upload);
+
+        client.post().uri("/file/uploadFile?storeType=MINIO")
+                .body(BodyInserters.fromMultipartData(multipart("a.txt",data)))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.code").isEqualTo(200)
+                .jsonPath("$.data.fileSize").isEqualTo(data.length);
+
+        assertEquals(3,upload.parts.size());
+        assertArrayEquals(data,upload.content());
+        //分块上传结束后缓冲额度全部归还
+        assertEquals(0L,multipartUploadEngine.getStats().get("bufferBytes"));
+    }
+
+    @Test
+    void uploadWaitsForBufferBudget() {
+        //全局额度只够一个分块，下一个分块要等上一个分块上传完成才开始聚合
+        multipartUploadEngine.destroy();
+        ReflectionTestUtils.setField(multipartUploadEngine,"maxBufferBytes",(long)PART_SIZE);
+        multipartUploadEngine.afterPropertiesSet();
+        byte[] data=randomBytes(PART_SIZE*3);
+        AtomicLong maxBufferBytes=new AtomicLong();
+        FakePushUpload upload=new FakePushUpload(){
+            @Override
+            public String uploadPart(int partNumber, byte[] data, int length) {
+                maxBufferBytes.accumulateAndGet((Long)multipartUploadEngine.getStats().get("bufferBytes"),Math::max);
+                return super.uploadPart(partNumber,data,length);
+            }
+        };
+        when(minioService.pushUpload(any(),anyBoolean(),any(),any(),any(),anyBoolean(),anyMap())).thenReturn(upload);
+
+        client.post().uri("/file/uploadFile?storeType=MINIO")
+                .body(BodyInserters.fromMultipartData(multipart("a.txt",data)))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.code").isEqualTo(200);
+
+        assertArrayEquals(data,upload.content());
+        assertEquals((long)PART_SIZE,maxBufferBytes.get());
+        assertEquals(0L,multipartUploadEngine.getStats().get("bufferBytes"));
+    }
+
+    @Test
+    void uploadLocalFileThroughFileChannel() throws Exception {
+        byte[] data=randomBytes(1024*1024+7);
+        Path tempFile=tempDir.resolve("a.txt.tmp");
+        LocalPushUpload upload=mock(LocalPushUpload.class);
+        when(upload.getTempFile()).thenReturn(tempFile);
+        when(upload.complete(data.length)).thenReturn(FileResult.builder().isOk(true).msg("上传成功").fileSize((long)data.length).build());
+        when(localService.pushUpload(any(),anyBoolean(),any(),any(),any(),anyBoolean())).thenReturn(upload);
+
+        client.post().uri("/file/uploadFile?storeType=LOCAL")
+                .body(BodyInserters.fromMultipartData(multipart("a.txt",data)))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.code").isEqualTo(200)
+                .jsonPath("$.data.fileSize").isEqualTo(data.length);
+
+        assertArrayEquals(data,Files.readAllBytes(tempFile));
+        verify(upload,never()).discard();
+    }
+
+    @Test
+    void rejectsDisallowedSuffix() {
+        client.post().uri("/file/uploadFile?storeType=MINIO")
+                .body(BodyInserters.fromMultipartData(multipart("a.exe",new byte[16])))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.code").isEqualTo(500)
+                .jsonPath("$.msg").isEqualTo(".exe文件格式不允许上传");
+    }
+
+    @Test
+    void downloadRange() throws Exception {
+        byte[] data=randomBytes(1000);
+        when(minioService.statFile("a.txt")).thenReturn(FileStat.builder().filePath("a.txt").fileSize(1000L).etag("abc").build());
+        when(minioService.openFile("a.txt",100L,100L)).thenReturn(new ByteArrayInputStream(data,100,100));
+
+        client.get().uri("/file/downloadFile?filePath=a.txt&storeType=MINIO")
+                .header(HttpHeaders.RANGE,"bytes=100-199")
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.PARTIAL_CONTENT)
+                .expectHeader().valueEquals(HttpHeaders.CONTENT_RANGE,"bytes 100-199/1000")
+                .expectHeader().valueEquals(HttpHeaders.ETAG,"\"abc\"")
+                .expectBody(byte[].class).isEqualTo(Arrays.copyOfRange(data,100,200));
+    }
+
+    @Test
+    void uploadPiece() throws Exception {
+        byte[] data=randomBytes(4096);
+        when(minioService.uploadPieceFile(any(),eq("a.txt"),eq(0),eq(2),eq("md5"),isNull(),eq(true),isNull(),isNull(),isNull(),eq(false),anyMap()))
+                .thenReturn(FileResult.builder().isOk(true).msg("分片上传成功").build());
+
+        client.post().uri("/file/uploadPieceFile?storeType=MINIO&fileName=a.txt&sliceIndex=0&totalPieces=2&md5String=md5")
+                .body(BodyInserters.fromMultipartData(multipart("a.txt",data)))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.code").isEqualTo(200);
+
+        ArgumentCaptor<MultipartFile> file=ArgumentCaptor.forClass(MultipartFile.class);
+        verify(minioService).uploadPieceFile(file.capture(),eq("a.txt"),eq(0),eq(2),eq("md5"),isNull(),eq(true),isNull(),isNull(),isNull(),eq(false),anyMap());
+        assertEquals("a.txt",file.getValue().getOriginalFilename());
+        assertArrayEquals(data,file.getValue().getBytes());
+    }
+
+    private static MultiValueMap<String,HttpEntity<?>> multipart(String filename,byte[] data){
+        MultipartBodyBuilder builder=new MultipartBodyBuilder();
+        builder.part("file",new ByteArrayResource(data){
+            @Override
+            public String getFilename() {
+                return filename;
+            }
+        });
+        return builder.build();
+    }
+
+    private static byte[] randomBytes(int length){
+        byte[] data=new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    @Configuration
+    @EnableWebFlux
+    static class WebConfig implements WebFluxConfigurer {
+
+        /**
+         * 接口没有参数校验，不创建依赖EL的默认校验器
+         */
+        @Override
+        public Validator getValidator() {
+            return new Validator() {
+                @Override
+                public boolean supports(Class<?> clazz) {
+                    return false;
+                }
+
+                @Override
+                public void validate(Object target, Errors errors) {
+                }
+            };
+        }
+    }
+
+    /**
+     * 把分块保存在内存中的上传目标
+     */
+    private static class FakePushUpload implements PushUpload, MultipartTarget, MultipartSession {
+        private final Map<Integer,byte[]> parts=new ConcurrentSkipListMap<>();
+
+        @Override
+        public MultipartTarget target() {
+            return this;
+        }
+
+        @Override
+        public FileResult complete(String etag, long fileSize) {
+            return FileResult.builder().isOk(true).msg("上传成功").fileSize(fileSize).build();
+        }
+
+        @Override
+        public String put(byte[] data, int length) {
+            parts.put(1,Arrays.copyOf(data,length));
+            return "etag";
+        }
+
+        @Override
+        public MultipartSession create() {
+            return this;
+        }
+
+        @Override
+        public String uploadPart(int partNumber, byte[] data, int length) {
+            parts.put(partNumber,Arrays.copyOf(data,length));
+            return "etag-"+partNumber;
+        }
+
+        @Override
+        public String complete(List<String> partETags) {
+            return "etag";
+        }
+
+        @Override
+        public void abort() {
+        }
+
+        byte[] content(){
+            ByteArrayOutputStream out=new ByteArrayOutputStream();
+            parts.values().forEach(part->out.write(part,0,part.length));
+            return out.toByteArray();
+        }
+    }
+}
@@ -3,25 +3,28 @@ package com.mscloud.files.api;
 import com.mscloud.files.core.FileAllowSuffix;
 import com.mscloud.files.core.FileUtil;
 import com.mscloud.files.core.constants.FileDirType;
+import com.mscloud.files.core.constants.KeyStrategy;
 import com.mscloud.files.core.constants.StoreType;
+import com.mscloud.files.core.ingest.UrlFetcher;
+import com.mscloud.files.core.ingest.UrlResource;
 import com.mscloud.files.core.pojo.FileInfo;
 import com.mscloud.files.core.pojo.HttpResponse;
+import com.mscloud.files.core.upload.UploadParams;
+import com.mscloud.files.local.service.LocalService;
 import com.mscloud.files.service.IFileService;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiParam;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLConnection;
+import java.util.List;
 
 /**
  * 文件存储
@@ -37,6 +40,12 @@ public class FileController {
     @Autowired
     FileAllowSuffix fileAllowSuffix;
 
+    @Autowired
+    LocalService localService;
+
+    @Autowired
+    UrlFetcher urlFetcher;
+
     @ApiOperation(value = "上传文件", notes = "上传文件,根据网络URL地址")
     @PostMapping("/uploadFileByUrl")
     public HttpResponse uploadFile(@ApiParam("网络URL地址") @RequestParam("url") String url ,
@@ -44,55 +53,70 @@ public class FileController {
                                    @ApiParam("是否重命名存储：默认为false，可为空") @RequestParam(value = "isRename",required = false) Boolean isRename,
                                    @ApiParam("路径目录格式:YEAR，MONTH，DAY三种,默认为DAY，EMPTY则不需要目录，ROOT指定目录") @RequestParam(value = "fileDirType",required = false) FileDirType fileDirType,
                                    @ApiParam("指定存储目录") @RequestParam(value = "fileDirPath",required = false) String fileDirPath,
+                                   @ApiParam("目录策略:DATE，HASH_PREFIX，HASH_DATE，默认为全局配置mscloud.files.key.strategy") @RequestParam(value = "keyStrategy",required = false) KeyStrategy keyStrategy,
                                    @ApiParam("是否返回临时链接，默认为否") @RequestParam(value = "isBackShareLink",required = false) Boolean isBackShareLink,
                                    @ApiParam("表单ID,不为空则插入表单和文件之间关系") @RequestParam( value = "formId",required = false) String formId,
                                    @ApiParam("模块标识") @RequestParam(value = "moduleName",required = false) String moduleName
     ){
-        InputStream inputStream= null;
         try {
-            URL fileUrl = new URL(url);
-
-            URLConnection connection = fileUrl.openConnection();
-            inputStream = connection.getInputStream();
-
-
-            if(StringUtils.isNotBlank(formId)){
-                if(StringUtils.isBlank(moduleName)){//绑定表单和文档关系，需要传入模块标识
-                    return HttpResponse.error("绑定formId时，需要传递参数：moduleName模块标识");
-                }
-            }
-            if(isBackShareLink==null){//默认否
-                isBackShareLink=false;
-            }
+            UploadParams.checkForm(formId,moduleName);
+        }catch (IllegalStateException e){
+            return HttpResponse.error(e.getMessage());
+        }
+        if(isBackShareLink==null){//默认否
+            isBackShareLink=false;
+        }
+        if(isRename==null){
+            isRename=true;
+        }
+        //连接和读取都有超时限制
+        try (UrlResource resource=urlFetcher.open(url)){
             String orignalFilename="";//文件原始名称
-            String fileSuffix= FileUtil.splitUrlFileSuffix(fileUrl);//后缀
-            if(StringUtils.isNotBlank(fileSuffix)){//统一转为小写
-                fileSuffix =fileSuffix.toLowerCase();
-            }
-            if(this.fileAllowSuffix.getEnabled()){//开启后缀过滤
-                boolean isAllow=this.fileAllowSuffix.isAllow(fileSuffix);
-                if(! isAllow){//不允许上传
-                    return HttpResponse.error(fileSuffix+"文件格式不允许上传");
-                }
-            }
-            if(isRename==null){
-                isRename=true;
+            String fileSuffix;
+            try {
+                fileSuffix=UploadParams.checkSuffix(fileAllowSuffix,resource.getFileSuffix());
+            }catch (IllegalStateException e){//不允许上传
+                return HttpResponse.error(e.getMessage());
             }
             //根据系统获取用户ID
             Long userId =0L;
             //文件基本信息
-            FileInfo fileInfo=FileInfo.builder().fileSize(Long.parseLong(connection.getContentLength()+"")).contentType(connection.getContentType()).orignalName(orignalFilename).fileSuffix(fileSuffix).build();
-            return this.fileService.uploadFile(inputStream,fileInfo,storeType,isRename,fileDirType,fileDirPath,formId,moduleName,isBackShareLink,userId);
+            FileInfo fileInfo=FileInfo.builder().fileSize(resource.getContentLength()).contentType(resource.getContentType()).orignalName(orignalFilename).fileSuffix(fileSuffix).build();
+            return this.fileService.uploadFile(resource.getInputStream(),fileInfo,storeType,isRename,fileDirType,fileDirPath,keyStrategy,formId,moduleName,isBackShareLink,false,userId);
         }catch (MalformedURLException e) {
             log.error("url地址解析错误:"+url);
-            return HttpResponse.error("url地址解析错误");
-        }catch (FileNotFoundException e) {
-            log.error("url地址错误，文件不存在:"+url);
-            return HttpResponse.error("url地址错误，文件不存在");
+            return HttpResponse.error("url地址解析错误,"+e.getMessage());
         } catch (IOException e) {
             log.error("url地址解析错误,{},:{}",url,e.getMessage());
+            return HttpResponse.error("url地址下载失败,"+e.getMessage());
         }
-        return HttpResponse.error("url地址解析错误");
+    }
+
+    @ApiOperation(value = "后台上传网络文件", notes = "后台下载网络URL地址的文件并上传,立即返回每个地址的任务ID,通过/file/job查询上传结果;同一主机同时下载数受限")
+    @PostMapping("/ingest")
+    public HttpResponse ingest(@ApiParam("网络URL地址数组") @RequestBody List<String> urls,
+                               @ApiParam("存储方式：为空 MINIO默认，阿里：OSS，华为：OBS,FTP") @RequestParam(value = "storeType",required = false) StoreType storeType,
+                               @ApiParam("是否重命名存储：默认为false，可为空") @RequestParam(value = "isRename",required = false) Boolean isRename,
+                               @ApiParam("路径目录格式:YEAR，MONTH，DAY三种,默认为DAY，EMPTY则不需要目录，ROOT指定目录") @RequestParam(value = "fileDirType",required = false) FileDirType fileDirType,
+                               @ApiParam("指定存储目录") @RequestParam(value = "fileDirPath",required = false) String fileDirPath,
+                               @ApiParam("目录策略:DATE，HASH_PREFIX，HASH_DATE，默认为全局配置mscloud.files.key.strategy") @RequestParam(value = "keyStrategy",required = false) KeyStrategy keyStrategy,
+                               @ApiParam("是否返回临时链接，默认为否") @RequestParam(value = "isBackShareLink",required = false) Boolean isBackShareLink,
+                               @ApiParam("表单ID,不为空则插入表单和文件之间关系") @RequestParam( value = "formId",required = false) String formId,
+                               @ApiParam("模块标识") @RequestParam(value = "moduleName",required = false) String moduleName
+    ){
+        try {
+            UploadParams.checkForm(formId,moduleName);
+        }catch (IllegalStateException e){
+            return HttpResponse.error(e.getMessage());
+        }
+        if(isBackShareLink==null){//默认否
+            isBackShareLink=false;
+        }
+        if(isRename==null){
+            isRename=true;
+        }
+        Long userId =0L;
+        return this.fileService.ingestUrls(urls,storeType,isRename,fileDirType,fileDirPath,keyStrategy,formId,moduleName,isBackShareLink,userId);
     }
 
     @ApiOperation(value = "上传文件", notes = "上传文件")
@@ -102,31 +126,25 @@ public class FileController {
                                    @ApiParam("是否重命名存储：默认为false，可为空") @RequestParam(value = "isRename",required = false) Boolean isRename,
                                    @ApiParam("路径目录格式:YEAR，MONTH，DAY三种,默认为DAY，EMPTY则不需要目录，ROOT指定目录") @RequestParam(value = "fileDirType",required = false)FileDirType fileDirType,
                                    @ApiParam("指定存储目录") @RequestParam(value = "fileDirPath",required = false) String fileDirPath,
+                                   @ApiParam("目录策略:DATE，HASH_PREFIX，HASH_DATE，默认为全局配置mscloud.files.key.strategy") @RequestParam(value = "keyStrategy",required = false) KeyStrategy keyStrategy,
                                    @ApiParam("是否返回临时链接，默认为否") @RequestParam(value = "isBackShareLink",required = false) Boolean isBackShareLink,
                                    @ApiParam("表单ID,不为空则插入表单和文件之间关系") @RequestParam( value = "formId",required = false) String formId,
-                                   @ApiParam("模块标识") @RequestParam(value = "moduleName",required = false) String moduleName
+                                   @ApiParam("模块标识") @RequestParam(value = "moduleName",required = false) String moduleName,
+                                   @ApiParam("是否内容寻址存储，相同内容只存储一份，默认为否,支持MINIO、OSS、LOCAL") @RequestParam(value = "dedup",required = false) Boolean dedup,
+                                   @ApiParam("文件内容SHA-256,内容寻址存储时内容已存在则秒传") @RequestParam(value = "contentHash",required = false) String contentHash
     ){
 
 
-        if(StringUtils.isNotBlank(formId)){
-            if(StringUtils.isBlank(moduleName)){//绑定表单和文档关系，需要传入模块标识
-                return HttpResponse.error("绑定formId时，需要传递参数：moduleName模块标识");
-            }
+        String orignalFilename=file.getOriginalFilename();//文件原始名称
+        String fileSuffix;
+        try {
+            fileSuffix=UploadParams.checkUpload(fileAllowSuffix,orignalFilename,formId,moduleName);
+        }catch (IllegalStateException e){//参数错误或格式不允许上传
+            return HttpResponse.error(e.getMessage());
         }
         if(isBackShareLink==null){//默认否
             isBackShareLink=false;
         }
-        String orignalFilename=file.getOriginalFilename();//文件原始名称
-        String fileSuffix= FileUtil.splitFileSuffix(orignalFilename);//后缀
-        if(StringUtils.isNotBlank(fileSuffix)){//统一转为小写
-            fileSuffix =fileSuffix.toLowerCase();
-        }
-        if(this.fileAllowSuffix.getEnabled()){//开启后缀过滤
-            boolean isAllow=this.fileAllowSuffix.isAllow(fileSuffix);
-            if(! isAllow){//不允许上传
-                return HttpResponse.error(fileSuffix+"文件格式不允许上传");
-            }
-        }
         if(isRename==null){
             isRename=true;
         }
@@ -136,13 +154,26 @@ public class FileController {
             Long userId =0L;
             inputStream = file.getInputStream();
             //文件基本信息
-            FileInfo fileInfo=FileInfo.builder().fileSize(file.getSize()).contentType(file.getContentType()).orignalName(orignalFilename).fileSuffix(fileSuffix).build();
-            return this.fileService.uploadFile(inputStream,fileInfo,storeType,isRename,fileDirType,fileDirPath,formId,moduleName,isBackShareLink,userId);
+            FileInfo fileInfo=FileInfo.builder().fileSize(file.getSize()).contentType(file.getContentType()).orignalName(orignalFilename).fileSuffix(fileSuffix).contentHash(contentHash).build();
+            return this.fileService.uploadFile(inputStream,fileInfo,storeType,isRename,fileDirType,fileDirPath,keyStrategy,formId,moduleName,isBackShareLink,Boolean.TRUE.equals(dedup),userId);
         } catch (IOException e) {
             e.printStackTrace();
         }
         return  HttpResponse.error("文件错误");
     }
+    @ApiOperation(value = "秒传文件", notes = "相同内容已通过内容寻址方式上传时直接引用已有文件,不需要上传文件内容;返回404时需要调用/file/uploadFile上传;"
+            +"返回428时data为挑战区间,需要带上challengeId以及文件[offset,offset+length)区间的SHA-256(proof)再次调用")
+    @PostMapping("/instantUpload")
+    public HttpResponse instantUpload(@ApiParam("文件内容SHA-256") @RequestParam("contentHash") String contentHash,
+                                      @ApiParam("文件名") @RequestParam(value = "fileName",required = false) String fileName,
+                                      @ApiParam("存储方式：为空 MINIO默认，阿里：OSS，LOCAL") @RequestParam(value = "storeType",required = false) StoreType storeType,
+                                      @ApiParam("是否返回临时链接，默认为否") @RequestParam(value = "isBackShareLink",required = false) Boolean isBackShareLink,
+                                      @ApiParam("挑战ID，第一次调用返回") @RequestParam(value = "challengeId",required = false) String challengeId,
+                                      @ApiParam("挑战区间的SHA-256") @RequestParam(value = "proof",required = false) String proof){
+
+        return this.fileService.instantUpload(contentHash,fileName,storeType,Boolean.TRUE.equals(isBackShareLink),challengeId,proof);
+    }
+
     @ApiOperation(value = "上传多个文件", notes = "上传多文件")
     @PostMapping("/uploadFiles")
     public HttpResponse uploadFiles(@ApiParam("文件流数组") @RequestParam("files") MultipartFile[] files ,
@@ -150,28 +181,18 @@ public class FileController {
                                    @ApiParam("是否重命名存储：默认为false，可为空") @RequestParam(value = "isRename",required = false) Boolean isRename,
                                    @ApiParam("路径目录格式:YEAR，MONTH，DAY三种,默认为DAY，EMPTY则不需要目录，ROOT指定目录") @RequestParam(value = "fileDirType",required = false) FileDirType fileDirType,
                                    @ApiParam("指定存储目录") @RequestParam(value = "fileDirPath",required = false) String fileDirPath,
+                                   @ApiParam("目录策略:DATE，HASH_PREFIX，HASH_DATE，默认为全局配置mscloud.files.key.strategy") @RequestParam(value = "keyStrategy",required = false) KeyStrategy keyStrategy,
                                    @ApiParam("是否返回临时链接，默认为是") @RequestParam(value = "isBackShareLink",required = false) Boolean isBackShareLink,
                                    @ApiParam("表单ID,不为空则插入表单和文件之间关系") @RequestParam( value = "formId",required = false) String formId,
                                    @ApiParam("模块标识") @RequestParam(value = "moduleName",required = false) String moduleName
                                     ){
 
-        if(StringUtils.isNotBlank(formId)){
-            if(StringUtils.isBlank(moduleName)){//绑定表单和文档关系，需要传入模块标识
-                return HttpResponse.error("绑定formId时，需要传递参数：moduleName模块标识");
-            }
-        }
-        for(MultipartFile file:files){
-            String orignalFilename=file.getOriginalFilename();//文件原始名称
-            String fileSuffix= FileUtil.splitFileSuffix(orignalFilename);//后缀
-            if(StringUtils.isNotBlank(fileSuffix)){//统一转为小写
-                fileSuffix =fileSuffix.toLowerCase();
-            }
-            if(this.fileAllowSuffix.getEnabled()){//开启后缀过滤
-                boolean isAllow=this.fileAllowSuffix.isAllow(fileSuffix);
-                if(! isAllow){//不允许上传
-                    return HttpResponse.error(fileSuffix+"文件格式不允许上传");
-                }
+        try {
+            for(MultipartFile file:files){
+                UploadParams.checkUpload(fileAllowSuffix,file.getOriginalFilename(),formId,moduleName);
             }
+        }catch (IllegalStateException e){
+            return HttpResponse.error(e.getMessage());
         }
         if(isRename==null){
             isRename=true;
@@ -180,60 +201,75 @@ public class FileController {
             isBackShareLink=false;
         }
         Long userId =0L;
-        return this.fileService.uploadFiles(files,storeType,isRename,fileDirType,fileDirPath,formId,moduleName,isBackShareLink,userId);
+        return this.fileService.uploadFiles(files,storeType,isRename,fileDirType,fileDirPath,keyStrategy,formId,moduleName,isBackShareLink,userId);
     }
 
-    @ApiOperation(value = "分片上传文件", notes = "分片上传文件，支持续传,前端需要将文件分片并循环顺序调用本接口")
+    @ApiOperation(value = "分片上传文件", notes = "分片上传文件，支持续传,分片可以乱序、并发上传,返回下一个缺少的分片序号;全部分片收到后返回-2和合并任务jobId,通过/file/job查询合并结果,结果中digest为各分片MD5组成的哈希树根节点")
     @PostMapping("/uploadPieceFile")
     public HttpResponse uploadPieceFile(@ApiParam("分片文件流") @RequestParam("file") MultipartFile file ,
                                            @ApiParam("文件名") @RequestParam(value = "fileName",required = true) String fileName,
                                            @ApiParam("分片索引") @RequestParam(value = "sliceIndex",required = true) int sliceIndex,
                                            @ApiParam("切片总数") @RequestParam(value = "totalPieces",required = true) int totalPieces,
                                            @ApiParam("文件MD5加密文本") @RequestParam(value = "md5String",required = true) String md5String,
-                                           @ApiParam("存储方式：为空 MINIO默认，阿里：OSS，华为：OBS") @RequestParam(value = "storeType",required = false) StoreType storeType,
+                                           @ApiParam("分片MD5,不为空则校验分片,校验失败需要重新上传该分片") @RequestParam(value = "sliceMd5",required = false) String sliceMd5,
+                                           @ApiParam("存储方式：为空 MINIO默认，阿里：OSS，FTP") @RequestParam(value = "storeType",required = false) StoreType storeType,
                                            @ApiParam("是否重命名存储：默认为false，可为空") @RequestParam(value = "isRename",required = false) Boolean isRename,
                                            @ApiParam("路径目录格式:YEAR，MONTH，DAY三种,默认为DAY，EMPTY则不需要目录，ROOT指定目录") @RequestParam(value = "fileDirType",required = false)FileDirType fileDirType,
                                            @ApiParam("指定存储目录") @RequestParam(value = "fileDirPath",required = false) String fileDirPath,
+                                           @ApiParam("目录策略:DATE，HASH_PREFIX，HASH_DATE，默认为全局配置mscloud.files.key.strategy") @RequestParam(value = "keyStrategy",required = false) KeyStrategy keyStrategy,
                                            @ApiParam("是否返回临时链接，默认为否") @RequestParam(value = "isBackShareLink",required = false) Boolean isBackShareLink,
                                            @ApiParam("表单ID,不为空则插入表单和文件之间关系") @RequestParam( value = "formId",required = false) String formId,
                                            @ApiParam("模块标识") @RequestParam(value = "moduleName",required = false) String moduleName){
 
 
-        if(StringUtils.isNotBlank(formId)){
-            if(StringUtils.isBlank(moduleName)){//绑定表单和文档关系，需要传入模块标识
-                return HttpResponse.error("绑定formId时，需要传递参数：moduleName模块标识");
-            }
+        try {
+            UploadParams.checkUpload(fileAllowSuffix,file.getOriginalFilename(),formId,moduleName);
+        }catch (IllegalStateException e){//参数错误或格式不允许上传
+            return HttpResponse.error(e.getMessage());
         }
         if(isBackShareLink==null){//默认否
             isBackShareLink=false;
         }
-        String orignalFilename=file.getOriginalFilename();//文件原始名称
-        String fileSuffix= FileUtil.splitFileSuffix(orignalFilename);//后缀
-        if(StringUtils.isNotBlank(fileSuffix)){//统一转为小写
-            fileSuffix =fileSuffix.toLowerCase();
-        }
-        if(this.fileAllowSuffix.getEnabled()){//开启后缀过滤
-            boolean isAllow=this.fileAllowSuffix.isAllow(fileSuffix);
-            if(! isAllow){//不允许上传
-                return HttpResponse.error(fileSuffix+"文件格式不允许上传");
-            }
-        }
         if(isRename==null){
             isRename=true;
         }
         Long userId =0L;
-        return this.fileService.uploadPieceFile(file,fileName,sliceIndex, totalPieces, md5String,storeType,isRename,fileDirType,fileDirPath,formId,moduleName,isBackShareLink,userId);
+        return this.fileService.uploadPieceFile(file,fileName,sliceIndex, totalPieces, md5String,sliceMd5,storeType,isRename,fileDirType,fileDirPath,keyStrategy,formId,moduleName,isBackShareLink,userId);
 
     }
 
-    @ApiOperation(value = "下载文件", notes = "从存储桶下载文件")
+    @ApiOperation(value = "分片上传进度", notes = "查询分片上传会话已收到和缺少的分片，用于续传")
+    @GetMapping("/uploadStatus")
+    public HttpResponse uploadStatus(@ApiParam("文件MD5加密文本") @RequestParam(value = "md5String") String md5String,
+                                     @ApiParam("存储方式：为空 MINIO默认，阿里：OSS，华为：OBS") @RequestParam(value = "storeType",required = false) StoreType storeType){
+
+        return this.fileService.getUploadStatus(md5String,storeType);
+    }
+
+    @ApiOperation(value = "下载文件", notes = "从存储桶下载文件,支持Range断点续传、多区间下载以及ETag协商缓存(304)")
     @GetMapping("/downloadFile")
     public void downloadFile(@ApiParam("文件存储路径,如oa/test.txt") @RequestParam("filePath") String filePath,
                                   @ApiParam("下载文件重命名名字") @RequestParam(value = "storeAsFilename",required = false) String storeAsFilename,
                                   @ApiParam("存储方式：为空 MINIO默认，阿里：OSS，华为：OBS") @RequestParam(value = "storeType",required = false) StoreType storeType,
+                                  HttpServletRequest request,
                                   HttpServletResponse response){
 
-        fileService.downloadFile(filePath,storeAsFilename,storeType,response);
+        fileService.downloadFile(filePath,storeAsFilename,storeType,request,response);
+    }
+
+    @ApiOperation(value = "本地存储分享链接下载", notes = "校验本地存储分享链接的签名和有效期后下载文件")
+    @GetMapping("/local/share")
+    public void localShare(@ApiParam("文件存储路径") @RequestParam("filePath") String filePath,
+                           @ApiParam("过期时间戳,单位秒") @RequestParam("expireAt") long expireAt,
+                           @ApiParam("签名") @RequestParam("sign") String sign,
+                           HttpServletRequest request,
+                           HttpServletResponse response) throws IOException {
+
+        if(! localService.verifyShareLink(filePath,expireAt,sign)){
+            response.sendError(HttpServletResponse.SC_FORBIDDEN,"链接无效或已过期");
+            return;
+        }
+        fileService.downloadFile(filePath,FileUtil.getFileName(filePath),StoreType.LOCAL,request,response);
     }
 
 
@@ -248,22 +284,52 @@ public class FileController {
         return fileService.getShareLink(filePath,expires,storeType);
     }
 
+    @ApiOperation(value = "获取文件元数据",notes = "获取文件大小、ETag、文件类型、最后修改时间，不下载文件")
+    @GetMapping("/stat")
+    public HttpResponse statFile(@ApiParam("文件存储路径") @RequestParam("filePath") String filePath,
+                                 @ApiParam("存储方式：为空 MINIO默认，阿里：OSS，华为：OBS") @RequestParam(value = "storeType",required = false) StoreType storeType){
+
+        return fileService.statFile(filePath,storeType);
+    }
+
     @ApiOperation(value = "删除文件",notes = "删除文件")
     @PostMapping("/deleteFile")
     public HttpResponse deleteFile(@ApiParam("文件存储路径") @RequestParam("filePath") String filePath,
+                                   @ApiParam("引用键：内容寻址上传或秒传时返回，删除共享内容的文件时必填") @RequestParam(value = "refKey",required = false) String refKey,
                                    @ApiParam("存储方式：为空 MINIO默认，阿里：OSS，华为：OBS") @RequestParam(value = "storeType",required = false) StoreType storeType){
 
         Long systemId =0L;
-        return fileService.deleteFile(filePath,storeType);
+        return fileService.deleteFile(filePath,refKey,storeType);
+    }
+
+    @ApiOperation(value = "批量删除文件",notes = "批量删除文件,返回每个文件的删除结果")
+    @PostMapping("/deleteFiles")
+    public HttpResponse deleteFiles(@ApiParam("文件存储路径数组") @RequestBody List<String> filePaths,
+                                    @ApiParam("引用键数组，与文件存储路径顺序对应，删除共享内容的文件时必填") @RequestParam(value = "refKeys",required = false) List<String> refKeys,
+                                    @ApiParam("存储方式：为空 MINIO默认，阿里：OSS，华为：OBS") @RequestParam(value = "storeType",required = false) StoreType storeType){
+
+        return fileService.deleteFiles(filePaths,refKeys,storeType);
     }
 
-    @ApiOperation(value = "删除目录及文件",notes = "删除目录及文件")
+    @ApiOperation(value = "删除目录及文件",notes = "删除目录及文件,目录较大时可指定async=true后台删除,通过/file/job查询进度")
     @PostMapping("/deleteDirFile")
     public HttpResponse deleteDirFile(@ApiParam("文件存储路径") @RequestParam("dirPath") String dirPath,
-                                      @ApiParam("存储方式：为空 MINIO默认，阿里：OSS，华为：OBS") @RequestParam(value = "storeType",required = false) StoreType storeType){
+                                      @ApiParam("存储方式：为空 MINIO默认，阿里：OSS，华为：OBS") @RequestParam(value = "storeType",required = false) StoreType storeType,
+                                      @ApiParam("是否后台删除，默认为否") @RequestParam(value = "async",required = false) Boolean async){
 
         Long systemId =0L;
+        if(Boolean.TRUE.equals(async)){
+            return fileService.deleteDirFileAsync(dirPath,storeType);
+        }
         return fileService.deleteDirFile(dirPath,storeType);
     }
 
+    @ApiOperation(value = "查询后台任务",notes = "查询后台任务状态、进度以及结果,指定wait时任务未完成则等待完成或超时后返回")
+    @GetMapping("/job")
+    public HttpResponse getJob(@ApiParam("任务ID") @RequestParam("jobId") String jobId,
+                               @ApiParam("最长等待秒数，默认不等待") @RequestParam(value = "wait",required = false) Integer wait){
+
+        return fileService.getJob(jobId,wait);
+    }
+
 }
@@ -0,0 +1,146 @@
+package com.mscloud.files.api;
+
+import com.mscloud.files.core.FileAllowSuffix;
+import com.mscloud.files.core.constants.FileDirType;
+import com.mscloud.files.core.constants.KeyStrategy;
+import com.mscloud.files.core.constants.StoreType;
+import com.mscloud.files.core.pojo.FileInfo;
+import com.mscloud.files.core.pojo.FileResult;
+import com.mscloud.files.core.pojo.HttpResponse;
+import com.mscloud.files.core.upload.BytesMultipartFile;
+import com.mscloud.files.core.upload.UploadParams;
+import com.mscloud.files.service.IFileService;
+import com.mscloud.files.upload.StreamingMultipartReader;
+import io.swagger.annotations.ApiOperation;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.List;
+
+/**
+ * 文件流式上传
+ * 文件内容边接收边写入存储，不生成临时文件；参数与 /file 下对应的接口相同，放在查询参数中，或作为表单字段放在文件之前
+ * 内存占用(括号内为默认配置)：
+ * MinIO、OSS 的文件大小未知，数据不超过一个分块时只占用从64KB开始按需加倍的缓冲，不超过 partSize；
+ * 超过一个分块时单个文件最多占用 parallelism×partSize(4×16MB=64MB)，
+ * 所有上传的分块缓冲合计不超过 mscloud.files.multipart.maxBufferBytes(256MB)，额度不足时等待 bufferWaitMillis 后上传失败；
+ * FTP、本地存储直接写入，只占用复制缓冲；
+ * 分片上传时每个分片完整读入内存，不超过 maxPieceSize(32MB)，不计入分块缓冲额度
+ */
+@Slf4j
+@RequestMapping("/file/stream")
+@RestController
+public class FileStreamController {
+
+    @Autowired
+    IFileService fileService;
+
+    @Autowired
+    FileAllowSuffix fileAllowSuffix;
+
+    @Autowired
+    StreamingMultipartReader streamingMultipartReader;
+
+    /**
+     * 分片需要完整读入内存，单个分片的最大大小，单位字节；同时上传的分片数受容器请求线程数限制
+     */
+    @Value("${mscloud.files.upload.maxPieceSize:33554432}")
+    private int maxPieceSize;
+
+    @ApiOperation(value = "流式上传文件", notes = "文件内容直接写入存储,不生成临时文件;参数同/file/uploadFile,放在查询参数或文件之前的表单字段中")
+    @PostMapping("/uploadFile")
+    public HttpResponse uploadFile(HttpServletRequest request){
+        try {
+            List<HttpResponse> responses=streamingMultipartReader.readFiles(request,1,(fileName,contentType,inputStream,params)->{
+                String formId=params.get("formId");
+                String moduleName=params.get("moduleName");
+                String fileSuffix=UploadParams.checkUpload(fileAllowSuffix,fileName,formId,moduleName);
+                Long userId =0L;
+                //文件大小未知，存储按流式分块上传
+                FileInfo fileInfo=FileInfo.builder().contentType(contentType).orignalName(fileName).fileSuffix(fileSuffix).contentHash(params.get("contentHash")).build();
+                return this.fileService.uploadFile(inputStream,fileInfo,UploadParams.enumParam(params::get,"storeType",StoreType.class,null),UploadParams.booleanParam(params::get,"isRename",true),
+                        UploadParams.enumParam(params::get,"fileDirType",FileDirType.class,null),params.get("fileDirPath"),UploadParams.enumParam(params::get,"keyStrategy",KeyStrategy.class,null),formId,moduleName,
+                        UploadParams.booleanParam(params::get,"isBackShareLink",false),UploadParams.booleanParam(params::get,"dedup",false),userId);
+            });
+            return responses.isEmpty()?HttpResponse.error("上传文件不能为空"):responses.get(0);
+        } catch (Exception e) {
+            return error(e);
+        }
+    }
+
+    @ApiOperation(value = "流式上传多个文件", notes = "文件按顺序直接写入存储,格式不允许的文件跳过并在结果中返回失败;参数同/file/uploadFiles,放在查询参数或文件之前的表单字段中")
+    @PostMapping("/uploadFiles")
+    public HttpResponse uploadFiles(HttpServletRequest request){
+        try {
+            List<FileResult> fileResults=streamingMultipartReader.readFiles(request,Integer.MAX_VALUE,(fileName,contentType,inputStream,params)->{
+                String formId=params.get("formId");
+                String moduleName=params.get("moduleName");
+                String fileSuffix;
+                try {
+                    fileSuffix=UploadParams.checkUpload(fileAllowSuffix,fileName,formId,moduleName);
+                }catch (IllegalStateException e){
+                    //跳过该文件，未读取的内容在关闭文件流时丢弃
+                    return FileResult.builder().isOk(false).msg(e.getMessage()).orignalName(fileName).build();
+                }
+                Long userId =0L;
+                FileInfo fileInfo=FileInfo.builder().contentType(contentType).orignalName(fileName).fileSuffix(fileSuffix).build();
+                HttpResponse response=this.fileService.uploadFile(inputStream,fileInfo,UploadParams.enumParam(params::get,"storeType",StoreType.class,null),UploadParams.booleanParam(params::get,"isRename",true),
+                        UploadParams.enumParam(params::get,"fileDirType",FileDirType.class,null),params.get("fileDirPath"),UploadParams.enumParam(params::get,"keyStrategy",KeyStrategy.class,null),formId,moduleName,
+                        UploadParams.booleanParam(params::get,"isBackShareLink",false),false,userId);
+                if(response.isOK()){
+                    return (FileResult)response.getData();
+                }
+                return FileResult.builder().isOk(false).msg(response.getMsg()).orignalName(fileName).fileSuffix(fileSuffix).build();
+            });
+            if(fileResults.isEmpty()){
+                return HttpResponse.error("上传文件不能为空");
+            }
+            return HttpResponse.success("上传成功",fileResults);
+        } catch (Exception e) {
+            return error(e);
+        }
+    }
+
+    @ApiOperation(value = "流式分片上传文件", notes = "分片读入内存后直接交给存储,不生成临时文件;参数同/file/uploadPieceFile,放在查询参数或文件之前的表单字段中")
+    @PostMapping("/uploadPieceFile")
+    public HttpResponse uploadPieceFile(HttpServletRequest request){
+        try {
+            List<HttpResponse> responses=streamingMultipartReader.readFiles(request,1,(fileName,contentType,inputStream,params)->{
+                String formId=params.get("formId");
+                String moduleName=params.get("moduleName");
+                UploadParams.checkUpload(fileAllowSuffix,fileName,formId,moduleName);
+                byte[] bytes=IOUtils.toByteArray(new BoundedInputStream(inputStream,maxPieceSize+1L));
+                if(bytes.length>maxPieceSize){
+                    throw new IllegalStateException("分片大小超出限制:"+maxPieceSize);
+                }
+                Long userId =0L;
+                return this.fileService.uploadPieceFile(new BytesMultipartFile("file",fileName,contentType,bytes),UploadParams.requiredParam(params::get,"fileName"),
+                        Integer.parseInt(UploadParams.requiredParam(params::get,"sliceIndex")),Integer.parseInt(UploadParams.requiredParam(params::get,"totalPieces")),
+                        UploadParams.requiredParam(params::get,"md5String"),params.get("sliceMd5"),UploadParams.enumParam(params::get,"storeType",StoreType.class,null),UploadParams.booleanParam(params::get,"isRename",true),
+                        UploadParams.enumParam(params::get,"fileDirType",FileDirType.class,null),params.get("fileDirPath"),UploadParams.enumParam(params::get,"keyStrategy",KeyStrategy.class,null),formId,moduleName,
+                        UploadParams.booleanParam(params::get,"isBackShareLink",false),userId);
+            });
+            return responses.isEmpty()?HttpResponse.error("上传文件不能为空"):responses.get(0);
+        } catch (Exception e) {
+            return error(e);
+        }
+    }
+
+    private HttpResponse error(Exception e){
+        if(e instanceof IllegalStateException){
+            return HttpResponse.error(e.getMessage());
+        }
+        if(e instanceof NumberFormatException){
+            return HttpResponse.error("参数错误,"+e.getMessage());
+        }
+        log.warn("流式上传失败{}",e.getMessage());
+        return HttpResponse.error("文件错误,"+e.getMessage());
+    }
+}
@@ -0,0 +1,100 @@
+package com.mscloud.files.api;
+
+import com.mscloud.files.cache.HotObjectCache;
+import com.mscloud.files.core.concurrent.StoreExecutors;
+import com.mscloud.files.core.dedup.ContentIndex;
+import com.mscloud.files.core.ingest.UrlFetcher;
+import com.mscloud.files.core.link.ShareLinkCache;
+import com.mscloud.files.core.meta.FileMetaCache;
+import com.mscloud.files.core.pojo.HttpResponse;
+import com.mscloud.files.core.transfer.FileTransferEngine;
+import com.mscloud.files.core.transfer.MultipartUploadEngine;
+import com.mscloud.files.core.upload.UploadSessionRegistry;
+import com.mscloud.files.ftp.util.FtpClientUtil;
+import com.mscloud.files.minio.util.MinioClientUtil;
+import com.mscloud.files.oss.util.OssUtil;
+import io.swagger.annotations.ApiOperation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 存储客户端运行状态
+ */
+@RequestMapping("/monitor")
+@RestController
+public class MonitorController {
+
+    @Autowired
+    MinioClientUtil minioClientUtil;
+
+    @Autowired
+    OssUtil ossUtil;
+
+    @Autowired
+    FtpClientUtil ftpClientUtil;
+
+    @Autowired
+    FileTransferEngine fileTransferEngine;
+
+    @Autowired
+    MultipartUploadEngine multipartUploadEngine;
+
+    @Autowired
+    UploadSessionRegistry uploadSessionRegistry;
+
+    @Autowired
+    ContentIndex contentIndex;
+
+    @Autowired
+    UrlFetcher urlFetcher;
+
+    @Autowired
+    HotObjectCache hotObjectCache;
+
+    @Autowired
+    ShareLinkCache shareLinkCache;
+
+    @Autowired
+    FileMetaCache fileMetaCache;
+
+    @Autowired
+    StoreExecutors storeExecutors;
+
+    @ApiOperation(value = "连接池状态", notes = "各存储方式客户端连接池使用情况")
+    @GetMapping("/pool")
+    public HttpResponse pool(){
+        Map<String,Object> stats=new LinkedHashMap<>();
+        stats.put("MINIO",minioClientUtil.getPoolStats());
+        stats.put("OSS",ossUtil.getPoolStats());
+        stats.put("FTP",ftpClientUtil.getPoolStats());
+        return HttpResponse.success(stats);
+    }
+
+    @ApiOperation(value = "传输状态", notes = "传输缓冲池、各存储方式任务线程池、分块上传、分片上传会话、内容去重、网络文件下载使用情况")
+    @GetMapping("/transfer")
+    public HttpResponse transfer(){
+        Map<String,Object> stats=new LinkedHashMap<>();
+        stats.put("buffer",fileTransferEngine.getStats());
+        stats.put("executor",storeExecutors.getStats());
+        stats.put("multipart",multipartUploadEngine.getStats());
+        stats.put("uploadSession",uploadSessionRegistry.getStats());
+        stats.put("dedup",contentIndex.getStats());
+        stats.put("ingest",urlFetcher.getStats());
+        return HttpResponse.success(stats);
+    }
+
+    @ApiOperation(value = "缓存状态", notes = "热点文件缓存、分享链接缓存、元数据缓存命中情况")
+    @GetMapping("/cache")
+    public HttpResponse cache(){
+        Map<String,Object> stats=new LinkedHashMap<>();
+        stats.put("download",hotObjectCache.getStats());
+        stats.put("shareLink",shareLinkCache.getStats());
+        stats.put("meta",fileMetaCache.getStats());
+        return HttpResponse.success(stats);
+    }
+}
@@ -0,0 +1,454 @@
+package com.mscloud.files.cache;
+
+import com.mscloud.files.core.constants.StoreType;
+import com.mscloud.files.core.download.DownloadCache;
+import com.mscloud.files.core.download.FileRangeReader;
+import com.mscloud.files.core.download.RangeReader;
+import com.mscloud.files.core.pojo.FileStat;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 热点文件缓存
+ * 内存层和本地磁盘层两级LRU，内存层淘汰的文件降级到磁盘层，磁盘层命中后提升回内存层。
+ * 缓存键为 存储方式+桶+路径，每次下载前各存储方式已经获取了元数据，ETag(无ETag时为修改时间和大小)一致才使用缓存。
+ * 只缓存不超过 maxObjectSize 的文件，本地存储不经过缓存；同一文件同一版本同时未命中时只读取一次存储，其余请求等待读取结果
+ */
+@Slf4j
+@Component
+public class HotObjectCache implements DownloadCache, InitializingBean, DisposableBean {
+
+    /**
+     * 是否启用缓存
+     */
+    @Value("${mscloud.files.cache.enabled:false}")
+    private boolean enabled;
+    /**
+     * 允许缓存的最大文件大小，单位字节
+     */
+    @Value("${mscloud.files.cache.maxObjectSize:1048576}")
+    private long maxObjectSize;
+    /**
+     * 内存层容量，单位字节
+     */
+    @Value("${mscloud.files.cache.memoryMaxBytes:67108864}")
+    private long memoryMaxBytes;
+    /**
+     * 是否启用磁盘层
+     */
+    @Value("${mscloud.files.cache.diskEnabled:true}")
+    private boolean diskEnabled;
+    /**
+     * 磁盘层目录，启动和关闭时清空
+     */
+    @Value("${mscloud.files.cache.diskDir:./mscloud-cache}")
+    private String diskDir;
+    /**
+     * 磁盘层容量，单位字节
+     */
+    @Value("${mscloud.files.cache.diskMaxBytes:1073741824}")
+    private long diskMaxBytes;
+
+    private Path diskPath;
+
+    private final LinkedHashMap<String,MemoryEntry> memoryEntries=new LinkedHashMap<>(256,0.75f,true);
+    private long memoryBytes;
+
+    private final LinkedHashMap<String,DiskEntry> diskEntries=new LinkedHashMap<>(256,0.75f,true);
+    private long diskBytes;
+
+    /**
+     * 正在从存储读取的文件，键为缓存键加文件版本
+     */
+    private final ConcurrentHashMap<String,CompletableFuture<byte[]>> loading=new ConcurrentHashMap<>();
+
+    private final AtomicLong memoryHits=new AtomicLong();
+    private final AtomicLong diskHits=new AtomicLong();
+    private final AtomicLong misses=new AtomicLong();
+    private final AtomicLong coalescedMisses=new AtomicLong();
+    private final AtomicLong staleMisses=new AtomicLong();
+    private final AtomicLong rejects=new AtomicLong();
+    private final AtomicLong memoryEvictions=new AtomicLong();
+    private final AtomicLong diskEvictions=new AtomicLong();
+    private final AtomicLong invalidations=new AtomicLong();
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        if(! enabled){
+            return;
+        }
+        if(diskEnabled){
+            diskPath=Paths.get(diskDir).toAbsolutePath().normalize();
+            Files.createDirectories(diskPath);
+            //索引只在内存中，上次运行留下的文件直接清理
+            FileUtils.cleanDirectory(diskPath.toFile());
+        }
+        log.info("热点文件缓存已启用,maxObjectSize={},memoryMaxBytes={},diskDir={},diskMaxBytes={}",maxObjectSize,memoryMaxBytes,diskEnabled?diskPath:"未启用",diskMaxBytes);
+    }
+
+    @Override
+    public void destroy() {
+        if(diskPath !=null){
+            try {
+                FileUtils.cleanDirectory(diskPath.toFile());
+            } catch (Exception e) {
+                log.warn("清理缓存目录失败{}",e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public RangeReader wrap(FileStat stat, RangeReader reader) {
+        if(! enabled || reader instanceof FileRangeReader || stat.getStoreType()==null || stat.getFileSize()==null){
+            return reader;
+        }
+        if(stat.getFileSize()>maxObjectSize){
+            rejects.incrementAndGet();
+            return reader;
+        }
+        String key=key(stat.getStoreType(),stat.getBucket(),stat.getFilePath());
+        return (offset,length)->open(key,stat,reader,offset,length);
+    }
+
+    /**
+     * 读取区间，未命中时从存储读取完整文件放入缓存
+     */
+    private InputStream open(String key,FileStat stat,RangeReader reader,long offset,long length) throws Exception {
+        byte[] data=getMemory(key,stat);
+        if(data !=null){
+            memoryHits.incrementAndGet();
+            return slice(data,offset,length);
+        }
+        data=getDisk(key,stat);
+        if(data !=null){
+            diskHits.incrementAndGet();
+            putMemory(key,stat,data);
+            return slice(data,offset,length);
+        }
+        data=load(key,stat,reader);
+        return slice(data,offset,length);
+    }
+
+    /**
+     * 从存储读取完整文件放入缓存；同一文件同一版本已经在读取时等待读取结果，不重复读取存储
+     */
+    private byte[] load(String key,FileStat stat,RangeReader reader) throws Exception {
+        String loadKey=key+"|"+stat.getEtag()+"|"+stat.getLastModified()+"|"+stat.getFileSize();
+        CompletableFuture<byte[]> future=new CompletableFuture<>();
+        CompletableFuture<byte[]> current=loading.putIfAbsent(loadKey,future);
+        if(current !=null){
+            coalescedMisses.incrementAndGet();
+            try {
+                return current.get();
+            } catch (ExecutionException e) {
+                Throwable cause=e.getCause();
+                if(cause instanceof Exception){
+                    throw (Exception)cause;
+                }
+                throw e;
+            }
+        }
+        misses.incrementAndGet();
+        try {
+            long size=stat.getFileSize();
+            byte[] data;
+            try(InputStream inputStream=reader.open(0,size)){
+                data=IOUtils.toByteArray(inputStream,size);
+            }
+            putMemory(key,stat,data);
+            future.complete(data);
+            return data;
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(loadKey,future);
+        }
+    }
+
+    private static InputStream slice(byte[] data,long offset,long length){
+        return new ByteArrayInputStream(data,(int)offset,(int)Math.min(length,data.length-offset));
+    }
+
+    private byte[] getMemory(String key,FileStat stat){
+        synchronized (memoryEntries){
+            MemoryEntry entry=memoryEntries.get(key);
+            if(entry==null){
+                return null;
+            }
+            if(entry.matches(stat)){
+                return entry.data;
+            }
+            //文件已变更
+            memoryEntries.remove(key);
+            memoryBytes-=entry.data.length;
+            staleMisses.incrementAndGet();
+            return null;
+        }
+    }
+
+    private byte[] getDisk(String key,FileStat stat){
+        if(diskPath==null){
+            return null;
+        }
+        DiskEntry entry;
+        synchronized (diskEntries){
+            entry=diskEntries.remove(key);
+            if(entry==null){
+                return null;
+            }
+            diskBytes-=entry.size;
+        }
+        //命中后提升到内存层，磁盘文件删除
+        try {
+            if(entry.matches(stat)){
+                return Files.readAllBytes(entry.file);
+            }
+            staleMisses.incrementAndGet();
+            return null;
+        } catch (IOException e) {
+            log.warn("读取缓存文件失败{}",e.getMessage());
+            return null;
+        }finally {
+            deleteQuietly(entry.file);
+        }
+    }
+
+    private void putMemory(String key,FileStat stat,byte[] data){
+        if(data.length>memoryMaxBytes){
+            putDisk(key,stat,data);
+            return;
+        }
+        List<Map.Entry<String,MemoryEntry>> evicted=new ArrayList<>();
+        synchronized (memoryEntries){
+            MemoryEntry old=memoryEntries.put(key,new MemoryEntry(stat,data));
+            if(old !=null){
+                memoryBytes-=old.data.length;
+            }
+            memoryBytes+=data.length;
+            Iterator<Map.Entry<String,MemoryEntry>> iterator=memoryEntries.entrySet().iterator();
+            while(memoryBytes>memoryMaxBytes && iterator.hasNext()){
+                Map.Entry<String,MemoryEntry> eldest=iterator.next();
+                iterator.remove();
+                memoryBytes-=eldest.getValue().data.length;
+                memoryEvictions.incrementAndGet();
+                evicted.add(eldest);
+            }
+        }
+        //内存层淘汰的文件降级到磁盘层
+        for(Map.Entry<String,MemoryEntry> entry:evicted){
+            putDisk(entry.getKey(),entry.getValue().stat,entry.getValue().data);
+        }
+    }
+
+    private void putDisk(String key,FileStat stat,byte[] data){
+        if(diskPath==null || data.length>diskMaxBytes){
+            return;
+        }
+        Path file=diskPath.resolve(UUID.randomUUID().toString());
+        try {
+            Files.write(file,data);
+        } catch (IOException e) {
+            log.warn("写入缓存文件失败{}",e.getMessage());
+            deleteQuietly(file);
+            return;
+        }
+        List<Path> evicted=new ArrayList<>();
+        synchronized (diskEntries){
+            DiskEntry old=diskEntries.put(key,new DiskEntry(stat,file,data.length));
+            if(old !=null){
+                diskBytes-=old.size;
+                evicted.add(old.file);
+            }
+            diskBytes+=data.length;
+            Iterator<DiskEntry> iterator=diskEntries.values().iterator();
+            while(diskBytes>diskMaxBytes && iterator.hasNext()){
+                DiskEntry eldest=iterator.next();
+                iterator.remove();
+                diskBytes-=eldest.size;
+                diskEvictions.incrementAndGet();
+                evicted.add(eldest.file);
+            }
+        }
+        evicted.forEach(HotObjectCache::deleteQuietly);
+    }
+
+    /**
+     * 文件删除或覆盖后清除缓存
+     * @param storeType 存储方式
+     * @param bucket 桶名称
+     * @param filePath 文件路径
+     */
+    @Override
+    public void invalidate(StoreType storeType,String bucket,String filePath){
+        if(! enabled || filePath==null){
+            return;
+        }
+        String key=key(storeType,bucket,filePath);
+        synchronized (memoryEntries){
+            MemoryEntry entry=memoryEntries.remove(key);
+            if(entry !=null){
+                memoryBytes-=entry.data.length;
+                invalidations.incrementAndGet();
+            }
+        }
+        DiskEntry entry;
+        synchronized (diskEntries){
+            entry=diskEntries.remove(key);
+            if(entry !=null){
+                diskBytes-=entry.size;
+                invalidations.incrementAndGet();
+            }
+        }
+        if(entry !=null){
+            deleteQuietly(entry.file);
+        }
+    }
+
+    /**
+     * 目录删除后清除目录下所有文件的缓存
+     * @param storeType 存储方式
+     * @param bucket 桶名称
+     * @param dirPrefix 目录前缀
+     */
+    @Override
+    public void invalidatePrefix(StoreType storeType,String bucket,String dirPrefix){
+        if(! enabled || dirPrefix==null){
+            return;
+        }
+        String prefix=key(storeType,bucket,dirPrefix);
+        synchronized (memoryEntries){
+            Iterator<Map.Entry<String,MemoryEntry>> iterator=memoryEntries.entrySet().iterator();
+            while(iterator.hasNext()){
+                Map.Entry<String,MemoryEntry> entry=iterator.next();
+                if(entry.getKey().startsWith(prefix)){
+                    iterator.remove();
+                    memoryBytes-=entry.getValue().data.length;
+                    invalidations.incrementAndGet();
+                }
+            }
+        }
+        List<Path> removed=new ArrayList<>();
+        synchronized (diskEntries){
+            Iterator<Map.Entry<String,DiskEntry>> iterator=diskEntries.entrySet().iterator();
+            while(iterator.hasNext()){
+                Map.Entry<String,DiskEntry> entry=iterator.next();
+                if(entry.getKey().startsWith(prefix)){
+                    iterator.remove();
+                    diskBytes-=entry.getValue().size;
+                    invalidations.incrementAndGet();
+                    removed.add(entry.getValue().file);
+                }
+            }
+        }
+        removed.forEach(HotObjectCache::deleteQuietly);
+    }
+
+    /**
+     * 缓存命中情况
+     * @return
+     */
+    public Map<String,Object> getStats(){
+        Map<String,Object> stats=new LinkedHashMap<>();
+        long hits=memoryHits.get()+diskHits.get();
+        long total=hits+misses.get();
+        stats.put("enabled",enabled);
+        stats.put("hits",hits);
+        stats.put("memoryHits",memoryHits.get());
+        stats.put("diskHits",diskHits.get());
+        stats.put("misses",misses.get());
+        stats.put("coalescedMisses",coalescedMisses.get());
+        stats.put("staleMisses",staleMisses.get());
+        stats.put("hitRate",total==0?0:(double)hits/total);
+        stats.put("rejects",rejects.get());
+        stats.put("memoryEvictions",memoryEvictions.get());
+        stats.put("diskEvictions",diskEvictions.get());
+        stats.put("invalidations",invalidations.get());
+        synchronized (memoryEntries){
+            stats.put("memoryEntries",memoryEntries.size());
+            stats.put("memoryBytes",memoryBytes);
+        }
+        synchronized (diskEntries){
+            stats.put("diskEntries",diskEntries.size());
+            stats.put("diskBytes",diskBytes);
+        }
+        return stats;
+    }
+
+    private static String key(StoreType storeType,String bucket,String filePath){
+        return storeType+"|"+(bucket==null?"":bucket)+"|"+filePath;
+    }
+
+    private static void deleteQuietly(Path file){
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("删除缓存文件失败{}",e.getMessage());
+        }
+    }
+
+    /**
+     * ETag一致，无ETag时修改时间和大小一致
+     */
+    private static boolean sameVersion(FileStat cached,FileStat current){
+        if(cached.getEtag() !=null || current.getEtag() !=null){
+            return Objects.equals(cached.getEtag(),current.getEtag());
+        }
+        return current.getLastModified() !=null
+                && Objects.equals(cached.getLastModified(),current.getLastModified())
+                && Objects.equals(cached.getFileSize(),current.getFileSize());
+    }
+
+    private static class MemoryEntry{
+        private final FileStat stat;
+        private final byte[] data;
+
+        MemoryEntry(FileStat stat, byte[] data) {
+            this.stat = stat;
+            this.data = data;
+        }
+
+        boolean matches(FileStat current){
+            return sameVersion(stat,current);
+        }
+    }
+
+    private static class DiskEntry{
+        private final FileStat stat;
+        private final Path file;
+        private final long size;
+
+        DiskEntry(FileStat stat, Path file, long size) {
+            this.stat = stat;
+            this.file = file;
+            this.size = size;
+        }
+
+        boolean matches(FileStat current){
+            return sameVersion(stat,current);
+        }
+    }
+}
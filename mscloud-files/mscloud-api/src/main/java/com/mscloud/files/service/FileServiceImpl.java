@@ -2,14 +2,35 @@ package com.mscloud.files.service;
 
 
 import cn.hutool.json.JSONUtil;
+import com.mscloud.files.core.FileAllowSuffix;
+import com.mscloud.files.core.FileUtil;
 import com.mscloud.files.core.constants.FileDirType;
+import com.mscloud.files.core.constants.KeyStrategy;
 import com.mscloud.files.core.constants.StoreType;
+import com.mscloud.files.core.dedup.ContentChallenge;
+import com.mscloud.files.core.dedup.ContentChallenges;
+import com.mscloud.files.core.dedup.ContentEntry;
+import com.mscloud.files.core.dedup.ContentIndex;
+import com.mscloud.files.core.ingest.UrlFetcher;
+import com.mscloud.files.core.ingest.UrlResource;
+import com.mscloud.files.core.job.FileJob;
+import com.mscloud.files.core.job.FileJobManager;
 import com.mscloud.files.core.pojo.FileInfo;
+import com.mscloud.files.core.upload.SliceDigest;
+import com.mscloud.files.core.upload.UploadParams;
+import com.mscloud.files.core.upload.UploadSession;
+import com.mscloud.files.core.upload.UploadSessionRegistry;
 import com.mscloud.files.core.pojo.FileResult;
+import com.mscloud.files.core.pojo.FileStat;
 import com.mscloud.files.core.pojo.HttpResponse;
 import com.mscloud.files.ftp.service.FtpService;
+import com.mscloud.files.ftp.util.FtpClientUtil;
+import com.mscloud.files.local.service.LocalService;
 import com.mscloud.files.minio.service.MinioService;
+import com.mscloud.files.minio.util.MinioClientUtil;
 import com.mscloud.files.oss.service.OssService;
+import com.mscloud.files.oss.util.OssUtil;
+import org.apache.commons.io.input.CountingInputStream;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpHeaders;
@@ -17,13 +38,21 @@ import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
+import java.net.MalformedURLException;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * 各存储方式的文件处理实现类
@@ -40,6 +69,36 @@ public class FileServiceImpl implements IFileService {
     @Autowired
     FtpService ftpService;
 
+    @Autowired
+    LocalService localService;
+
+    @Autowired
+    MinioClientUtil minioClientUtil;
+
+    @Autowired
+    OssUtil ossUtil;
+
+    @Autowired
+    FtpClientUtil ftpClientUtil;
+
+    @Autowired
+    FileJobManager fileJobManager;
+
+    @Autowired
+    UploadSessionRegistry uploadSessionRegistry;
+
+    @Autowired
+    ContentIndex contentIndex;
+
+    @Autowired
+    ContentChallenges contentChallenges;
+
+    @Autowired
+    UrlFetcher urlFetcher;
+
+    @Autowired
+    FileAllowSuffix fileAllowSuffix;
+
 
     /**
      * 上传文件
@@ -52,15 +111,233 @@ public class FileServiceImpl implements IFileService {
      * @param formId 表单ID,不为空则插入表单和文件之间关系
      * @param moduleName 模块标识
      * @param isBackShareLink 是否返回临时链接，默认为是
+     * @param dedup 是否内容寻址存储，相同内容只存储一份，fileInfo指定contentHash且内容已存在时秒传
      * @return
      */
     @Override
-    public HttpResponse uploadFile(InputStream inputStream, FileInfo fileInfo, StoreType storeType, boolean isRename, FileDirType fileDirType, String fileDirPath, String formId, String moduleName, boolean isBackShareLink, Long userId) {
+    public HttpResponse uploadFile(InputStream inputStream, FileInfo fileInfo, StoreType storeType, boolean isRename, FileDirType fileDirType, String fileDirPath, KeyStrategy keyStrategy, String formId, String moduleName, boolean isBackShareLink, boolean dedup, Long userId) {
 
         if(storeType==null){//默认MINIO方式
             storeType= StoreType.MINIO;
         }
+        if(dedup){//内容寻址方式，相同内容只存储一份
+            return uploadContent(inputStream,fileInfo,storeType,isRename,fileDirType,fileDirPath,keyStrategy,formId,moduleName,isBackShareLink,userId);
+        }
+        return storeFile(inputStream,fileInfo,storeType,isRename,fileDirType,fileDirPath,keyStrategy,formId,moduleName,isBackShareLink,userId);
+    }
+
+    /**
+     * 内容寻址上传：上传时计算SHA-256，上传后内容已存在则删除新上传的对象并引用已有对象；
+     * 指定了contentHash时只用于校验内容，不传输内容的秒传需要通过 instantUpload 提交内容证明；
+     * 内容寻址的对象总是重命名存储，避免同名覆盖其它文件共享的对象
+     */
+    private HttpResponse uploadContent(InputStream inputStream, FileInfo fileInfo, StoreType storeType, boolean isRename, FileDirType fileDirType, String fileDirPath, KeyStrategy keyStrategy, String formId, String moduleName, boolean isBackShareLink, Long userId) {
+        if(storeType!=StoreType.MINIO && storeType!=StoreType.OSS && storeType!=StoreType.LOCAL){
+            return HttpResponse.error("存储方式不支持秒传");
+        }
+        String contentHash=fileInfo.getContentHash();
+        DigestInputStream digestStream=new DigestInputStream(inputStream,sha256());
+        CountingInputStream countingStream=new CountingInputStream(digestStream);
+        HttpResponse response=storeFile(countingStream,fileInfo,storeType,true,fileDirType,fileDirPath,keyStrategy,formId,moduleName,isBackShareLink,userId);
+        if(! response.isOK()){
+            return response;
+        }
+        FileResult fileResult=(FileResult)response.getData();
+        String hash=SliceDigest.hex(digestStream.getMessageDigest().digest());
+        if(StringUtils.isNotBlank(contentHash) && ! contentHash.equalsIgnoreCase(hash)){//内容和声明的不一致，不登记
+            storeDelete(fileResult.getStoreName(),storeType);
+            return HttpResponse.error("上传失败,文件内容与contentHash不一致");
+        }
+        String refKey=FileUtil.uuid();
+        ContentEntry entry=contentIndex.register(storeType,hash,fileResult.getStoreName(),fileResult.getFilePath(),countingStream.getByteCount(),fileResult.getContentType(),refKey);
+        if(! entry.getStoreName().equals(fileResult.getStoreName())){//内容已存在，删除新上传的重复对象
+            storeDelete(fileResult.getStoreName(),storeType);
+            return HttpResponse.success("上传成功,内容已存在",entryResult(entry,refKey,fileInfo.getOrignalName(),isBackShareLink));
+        }
+        fileResult.setContentHash(entry.getHash());
+        fileResult.setRefKey(refKey);
+        return response;
+    }
+
+    /**
+     * 后台下载网络文件并上传，立即返回每个地址的任务，通过 getJob 查询结果
+     * 下载在独立线程池中执行，同一主机同时下载数受限，文件边下载边上传到存储
+     * @param urls 网络URL地址
+     * @param storeType 存储方式
+     * @return 每个地址的任务ID，提交失败的地址返回失败原因
+     */
+    @Override
+    public HttpResponse ingestUrls(List<String> urls, StoreType storeType, boolean isRename, FileDirType fileDirType, String fileDirPath, KeyStrategy keyStrategy, String formId, String moduleName, boolean isBackShareLink, Long userId) {
+        if(urls==null || urls.isEmpty()){
+            return HttpResponse.error("网络URL地址为空");
+        }
+        if(storeType==null){//默认MINIO方式
+            storeType= StoreType.MINIO;
+        }
+        StoreType type=storeType;
+        List<Map<String,Object>> items=new ArrayList<>(urls.size());
+        for(String url:urls){
+            Map<String,Object> item=new LinkedHashMap<>();
+            item.put("url",url);
+            try {
+                FileJob job=fileJobManager.submit(FileJob.TYPE_INGEST_URL,
+                        j->ingestUrl(j,url,type,isRename,fileDirType,fileDirPath,keyStrategy,formId,moduleName,isBackShareLink,userId),urlFetcher.executor(url));
+                item.put("jobId",job.getJobId());
+            }catch (MalformedURLException e){
+                item.put("msg","url地址解析错误,"+e.getMessage());
+            }catch (RejectedExecutionException e){
+                item.put("msg","任务过多,请稍后重试");
+            }
+            items.add(item);
+        }
+        return HttpResponse.success("任务已提交",items);
+    }
+
+    /**
+     * 下载网络文件并上传
+     * @return 上传结果
+     */
+    private FileResult ingestUrl(FileJob job, String url, StoreType storeType, boolean isRename, FileDirType fileDirType, String fileDirPath, KeyStrategy keyStrategy, String formId, String moduleName, boolean isBackShareLink, Long userId) throws IOException {
+        try (UrlResource resource=urlFetcher.open(url)){
+            String fileSuffix=UploadParams.checkSuffix(this.fileAllowSuffix,resource.getFileSuffix());//小写的后缀
+            FileInfo fileInfo=FileInfo.builder().fileSize(resource.getContentLength()).contentType(resource.getContentType()).orignalName("").fileSuffix(fileSuffix).build();
+            HttpResponse response=uploadFile(resource.getInputStream(),fileInfo,storeType,isRename,fileDirType,fileDirPath,keyStrategy,formId,moduleName,isBackShareLink,false,userId);
+            if(! response.isOK()){
+                throw new IllegalStateException(response.getMsg());
+            }
+            job.setMsg(response.getMsg());
+            return (FileResult)response.getData();
+        }
+    }
+
+    /**
+     * 秒传：相同内容已存在时引用已有对象，不需要上传文件内容
+     * 第一次调用不传challengeId，内容存在时返回428和挑战区间；第二次调用提交该区间的SHA-256，校验通过才引用已有对象
+     * @param contentHash 文件内容SHA-256
+     * @param fileName 文件原始名称
+     * @param storeType 存储方式
+     * @param isBackShareLink 是否返回临时链接
+     * @param challengeId 第一次调用返回的挑战ID
+     * @param proof 挑战区间的SHA-256
+     * @return 内容不存在时返回失败，需要上传文件
+     */
+    @Override
+    public HttpResponse instantUpload(String contentHash, String fileName, StoreType storeType, boolean isBackShareLink, String challengeId, String proof) {
+        if(storeType==null){//默认MINIO方式
+            storeType= StoreType.MINIO;
+        }
+        if(storeType!=StoreType.MINIO && storeType!=StoreType.OSS && storeType!=StoreType.LOCAL){
+            return HttpResponse.error("存储方式不支持秒传");
+        }
+        ContentEntry entry=contentIndex.find(storeType,contentHash);
+        if(StringUtils.isBlank(challengeId)){
+            if(entry==null){
+                return HttpResponse.error(404,"文件内容不存在,请上传文件");
+            }
+            ContentChallenge challenge=contentChallenges.create(storeType,entry.getHash(),entry.getFileSize());
+            if(challenge==null){
+                return HttpResponse.error("秒传请求过多,请稍后重试");
+            }
+            return HttpResponse.error(428,"请提交文件指定区间的SHA-256作为内容证明",challenge);
+        }
+        ContentChallenge challenge=contentChallenges.take(challengeId,storeType,contentHash);
+        if(challenge==null){
+            return HttpResponse.error("内容证明已过期,请重新秒传");
+        }
+        if(entry==null){
+            return HttpResponse.error(404,"文件内容不存在,请上传文件");
+        }
+        if(! verifyProof(entry,challenge,proof)){
+            return HttpResponse.error(403,"内容证明不正确");
+        }
+        FileResult fileResult=instantResult(storeType,contentHash,fileName,isBackShareLink);
+        if(fileResult==null){
+            return HttpResponse.error(404,"文件内容不存在,请上传文件");
+        }
+        return HttpResponse.success("秒传成功",fileResult);
+    }
 
+    /**
+     * 读取存储对象的挑战区间，和客户端提交的SHA-256比较
+     */
+    private boolean verifyProof(ContentEntry entry,ContentChallenge challenge,String proof){
+        if(StringUtils.isBlank(proof)){
+            return false;
+        }
+        MessageDigest digest=sha256();
+        if(challenge.getLength()>0){
+            try (InputStream inputStream=openFile(entry.getStoreType(),entry.getStoreName(),challenge.getOffset(),challenge.getLength())){
+                byte[] buffer=new byte[8192];
+                long total=0;
+                int count;
+                while((count=inputStream.read(buffer))>0){
+                    digest.update(buffer,0,count);
+                    total+=count;
+                }
+                if(total!=challenge.getLength()){
+                    return false;
+                }
+            } catch (Exception e) {//对象不可读时不能证明内容
+                return false;
+            }
+        }
+        return SliceDigest.hex(digest.digest()).equalsIgnoreCase(proof.trim());
+    }
+
+    /**
+     * 打开存储对象指定区间的数据流
+     */
+    private InputStream openFile(StoreType storeType,String filePath,long offset,long length) throws Exception {
+        if(storeType==StoreType.MINIO){
+            return this.minioService.openFile(filePath,offset,length);
+        }else if(storeType==StoreType.OSS){
+            return this.ossService.openFile(filePath,offset,length);
+        }
+        return this.localService.openFile(filePath,offset,length);
+    }
+
+    /**
+     * 引用已有的相同内容对象，对象已不存在时移除索引
+     * @return 内容不存在时返回null
+     */
+    private FileResult instantResult(StoreType storeType,String contentHash,String fileName,boolean isBackShareLink){
+        String refKey=FileUtil.uuid();
+        ContentEntry entry=contentIndex.acquire(storeType,contentHash,refKey);
+        if(entry==null){
+            return null;
+        }
+        if(! statFile(entry.getStoreName(),storeType).isOK()){//对象已被删除
+            contentIndex.invalidate(storeType,entry.getStoreName());
+            return null;
+        }
+        return entryResult(entry,refKey,fileName,isBackShareLink);
+    }
+
+    private FileResult entryResult(ContentEntry entry,String refKey,String fileName,boolean isBackShareLink){
+        String shareLink="";
+        if(isBackShareLink){
+            HttpResponse linkResponse=getShareLink(entry.getStoreName(),null,entry.getStoreType());
+            if(linkResponse.isOK()){
+                shareLink=(String)linkResponse.getData();
+            }
+        }
+        return FileResult.builder().isOk(true).msg("秒传成功").bucketName(cacheBucket(entry.getStoreType())).storeType(entry.getStoreType().value())
+                .filePath(entry.getFilePath()).shareLink(shareLink).fileSize(entry.getFileSize()).contentType(entry.getContentType()).storeName(entry.getStoreName())
+                .orignalName(fileName).fileSuffix(FileUtil.splitFileSuffix(fileName)).contentHash(entry.getHash()).refKey(refKey).build();
+    }
+
+    private static MessageDigest sha256(){
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 上传文件到存储
+     */
+    private HttpResponse storeFile(InputStream inputStream, FileInfo fileInfo, StoreType storeType, boolean isRename, FileDirType fileDirType, String fileDirPath, KeyStrategy keyStrategy, String formId, String moduleName, boolean isBackShareLink, Long userId) {
         FileResult fileResult=null;
         if( storeType== StoreType.MINIO){//MINIO方式
             Map<String,String> tags=new HashMap<>();
@@ -73,7 +350,7 @@ public class FileServiceImpl implements IFileService {
             if(userId !=null){
                 tags.put("userId",userId+"");
             }
-            fileResult=this.minioService.uploadFile(inputStream,fileInfo,isRename,fileDirType,fileDirPath,isBackShareLink,tags);
+            fileResult=this.minioService.uploadFile(inputStream,fileInfo,isRename,fileDirType,fileDirPath,keyStrategy,isBackShareLink,tags);
 
         }else if( storeType== StoreType.OSS){//阿里OSS方式
             Map<String,String> tags=new HashMap<>();
@@ -86,14 +363,14 @@ public class FileServiceImpl implements IFileService {
             if(userId !=null){
                 tags.put("userId",userId+"");
             }
-            fileResult=this.ossService.uploadFile(inputStream,fileInfo,isRename,fileDirType,fileDirPath,isBackShareLink,tags);
+            fileResult=this.ossService.uploadFile(inputStream,fileInfo,isRename,fileDirType,fileDirPath,keyStrategy,isBackShareLink,tags);
 
         }else if( storeType== StoreType.OBS){//华为OBS方式
             return HttpResponse.error("存储方式开发中");
         }else if( storeType== StoreType.LOCAL){//本地服务器方式
-            return HttpResponse.error("存储方式开发中");
+            fileResult=this.localService.uploadFile(inputStream,fileInfo,isRename,fileDirType,fileDirPath,keyStrategy,isBackShareLink);
         }else if( storeType== StoreType.FTP){//FTP方式
-            fileResult=this.ftpService.uploadFile(inputStream,fileInfo,isRename,fileDirType,fileDirPath,isBackShareLink);
+            fileResult=this.ftpService.uploadFile(inputStream,fileInfo,isRename,fileDirType,fileDirPath,keyStrategy,isBackShareLink);
         }else{
             return HttpResponse.error("存储方式不支持");
         }
@@ -122,7 +399,7 @@ public class FileServiceImpl implements IFileService {
      * @return
      */
     @Override
-    public HttpResponse uploadFiles(MultipartFile[] files, StoreType storeType, boolean isRename, FileDirType fileDirType,String fileDirPath,String formId,String moduleName,boolean isBackShareLink,Long userId) {
+    public HttpResponse uploadFiles(MultipartFile[] files, StoreType storeType, boolean isRename, FileDirType fileDirType,String fileDirPath,KeyStrategy keyStrategy,String formId,String moduleName,boolean isBackShareLink,Long userId) {
         if(storeType==null){//默认MINIO方式
             storeType=StoreType.MINIO;
         }
@@ -138,7 +415,7 @@ public class FileServiceImpl implements IFileService {
             if(userId !=null){
                 tags.put("userId",userId+"");
             }
-            fileResults=this.minioService.uploadFiles(files,isRename,fileDirType,fileDirPath,isBackShareLink,tags);
+            fileResults=this.minioService.uploadFiles(files,isRename,fileDirType,fileDirPath,keyStrategy,isBackShareLink,tags);
         }else if( storeType== StoreType.OSS){//阿里OSS方式
             Map<String,String> tags=new HashMap<>();
             if(StringUtils.isNotBlank(formId)){
@@ -150,13 +427,13 @@ public class FileServiceImpl implements IFileService {
             if(userId !=null){
                 tags.put("userId",userId+"");
             }
-            fileResults=this.ossService.uploadFiles(files,isRename,fileDirType,fileDirPath,isBackShareLink,tags);
+            fileResults=this.ossService.uploadFiles(files,isRename,fileDirType,fileDirPath,keyStrategy,isBackShareLink,tags);
         }else if( storeType== StoreType.OBS){//华为OBS方式
             return HttpResponse.error("存储方式开发中");
         }else if( storeType== StoreType.LOCAL){//本地服务器方式
-            return HttpResponse.error("存储方式开发中");
+            fileResults=this.localService.uploadFiles(files,isRename,fileDirType,fileDirPath,keyStrategy,isBackShareLink);
         }else if( storeType== StoreType.FTP){//FTP方式
-            fileResults=this.ftpService.uploadFiles(files,isRename,fileDirType,fileDirPath,isBackShareLink);
+            fileResults=this.ftpService.uploadFiles(files,isRename,fileDirType,fileDirPath,keyStrategy,isBackShareLink);
         }else{
             return HttpResponse.error("存储方式不支持");
         }
@@ -164,7 +441,6 @@ public class FileServiceImpl implements IFileService {
         if(fileResults==null){
             return HttpResponse.error("存储方式不支持");
         }else {
-
             return HttpResponse.success("上传成功",fileResults);
         }
     }
@@ -175,6 +451,7 @@ public class FileServiceImpl implements IFileService {
      * @param sliceIndex 分片索引
      * @param totalPieces 切片总数
      * @param md5String 文件MD5加密文本
+     * @param sliceMd5 分片MD5，不为空则校验分片
      * @param storeType 存储方式
      * @param isRename 是否重命名，默认为false， true则使用UUID重命名存储
      * @param fileDirType 目录格式，默认年月日格式目录
@@ -185,7 +462,10 @@ public class FileServiceImpl implements IFileService {
      * @return
      */
     @Override
-    public HttpResponse uploadPieceFile(MultipartFile file, String fileName, int sliceIndex, int totalPieces, String md5String, StoreType storeType, boolean isRename, FileDirType fileDirType, String fileDirPath,String formId, String moduleName, boolean isBackShareLink,Long userId) {
+    public HttpResponse uploadPieceFile(MultipartFile file, String fileName, int sliceIndex, int totalPieces, String md5String, String sliceMd5, StoreType storeType, boolean isRename, FileDirType fileDirType, String fileDirPath,KeyStrategy keyStrategy,String formId, String moduleName, boolean isBackShareLink,Long userId) {
+        if(! SliceDigest.isMd5(md5String)){
+            return HttpResponse.error("md5String必须是32位十六进制MD5");
+        }
 
         if(storeType==null){//默认MINIO方式
             storeType=StoreType.MINIO;
@@ -202,17 +482,26 @@ public class FileServiceImpl implements IFileService {
             if(userId !=null){
                 tags.put("userId",userId+"");
             }
-            fileResult=this.minioService.uploadPieceFile(file,fileName,sliceIndex,totalPieces,md5String,isRename,fileDirType,fileDirPath,isBackShareLink,tags);
+            fileResult=this.minioService.uploadPieceFile(file,fileName,sliceIndex,totalPieces,md5String,sliceMd5,isRename,fileDirType,fileDirPath,keyStrategy,isBackShareLink,tags);
 
         }else if( storeType== StoreType.OSS){//阿里OSS方式
-
-            return HttpResponse.error("存储方式开发中");
+            Map<String,String> tags=new HashMap<>();
+            if(StringUtils.isNotBlank(formId)){
+                tags.put("formId",formId);
+            }
+            if(StringUtils.isNotBlank(moduleName)){
+                tags.put("moduleName",moduleName);
+            }
+            if(userId !=null){
+                tags.put("userId",userId+"");
+            }
+            fileResult=this.ossService.uploadPieceFile(file,fileName,sliceIndex,totalPieces,md5String,sliceMd5,isRename,fileDirType,fileDirPath,keyStrategy,isBackShareLink,tags);
         }else if( storeType== StoreType.OBS){//华为OBS方式
             return HttpResponse.error("存储方式开发中");
         }else if( storeType== StoreType.LOCAL){//本地服务器方式
             return HttpResponse.error("存储方式开发中");
         }else if( storeType== StoreType.FTP){//FTP方式
-            return HttpResponse.error("存储方式开发中");
+            fileResult=this.ftpService.uploadPieceFile(file,fileName,sliceIndex,totalPieces,md5String,sliceMd5,isRename,fileDirType,fileDirPath,keyStrategy,isBackShareLink);
         }else{
             return HttpResponse.error("存储方式不支持");
         }
@@ -221,7 +510,6 @@ public class FileServiceImpl implements IFileService {
             return HttpResponse.error("存储方式不支持");
         }else {
             if(fileResult.isOk()){//上传成功
-
                 return HttpResponse.success(fileResult);
 
             }else{//失败
@@ -230,6 +518,35 @@ public class FileServiceImpl implements IFileService {
         }
     }
 
+    /**
+     * 查询分片上传进度，只读取上传会话，不访问存储
+     * @param md5String 文件MD5加密文本
+     * @param storeType 存储方式
+     * @return 已收到和缺少的分片
+     */
+    @Override
+    public HttpResponse getUploadStatus(String md5String, StoreType storeType) {
+        if(! SliceDigest.isMd5(md5String)){
+            return HttpResponse.error("md5String必须是32位十六进制MD5");
+        }
+        if(storeType==null){//默认MINIO方式
+            storeType=StoreType.MINIO;
+        }
+        UploadSession session=uploadSessionRegistry.get(storeType,md5String);
+        if(session==null){
+            return HttpResponse.error("上传任务不存在或已过期");
+        }
+        Map<String,Object> status=new LinkedHashMap<>();
+        status.put("md5String",md5String);
+        status.put("fileName",session.getFileName());
+        status.put("totalPieces",session.getTotalPieces());
+        status.put("receivedPieces",session.getReceivedCount());
+        status.put("uploadedBytes",session.getUploadedBytes());
+        status.put("missing",session.getMissing());
+        status.put("finishJobId",session.getFinishJobId());
+        return HttpResponse.success(status);
+    }
+
     /**
      * 下载文件
      * @param filePath 指定下载文件在Bucket中的存储全路径
@@ -239,22 +556,22 @@ public class FileServiceImpl implements IFileService {
      * @return
      */
     @Override
-    public void downloadFile(String filePath, String storeAsFilename, StoreType storeType, HttpServletResponse response) {
+    public void downloadFile(String filePath, String storeAsFilename, StoreType storeType, HttpServletRequest request, HttpServletResponse response) {
         if(storeType==null){//默认MINIO方式
             storeType=StoreType.MINIO;
         }
         HttpResponse httpResponse=null;
         FileResult fileResult=null;
         if( storeType== StoreType.MINIO){//MINIO方式
-            fileResult=this.minioService.downloadFile(filePath,storeAsFilename,response);
+            fileResult=this.minioService.downloadFile(filePath,storeAsFilename,request,response);
         }else if( storeType== StoreType.OSS){//阿里OSS方式
-            fileResult=this.ossService.downloadFile(filePath,storeAsFilename,response);
+            fileResult=this.ossService.downloadFile(filePath,storeAsFilename,request,response);
         }else if( storeType== StoreType.OBS){//华为OBS方式
             httpResponse= HttpResponse.error("存储方式开发中");
         }else if( storeType== StoreType.LOCAL){//本地服务器方式
-            httpResponse= HttpResponse.error("存储方式开发中");
+            fileResult=this.localService.downloadFile(filePath,storeAsFilename,request,response);
         }else if( storeType== StoreType.FTP){//FTP方式
-            fileResult=this.ftpService.downloadFile(filePath,storeAsFilename,response);
+            fileResult=this.ftpService.downloadFile(filePath,storeAsFilename,request,response);
         }else{
             httpResponse= HttpResponse.error("存储方式不支持");
         }
@@ -311,7 +628,7 @@ public class FileServiceImpl implements IFileService {
         }else if( storeType== StoreType.OBS){//华为OBS方式
             return HttpResponse.error("存储方式开发中");
         }else if( storeType== StoreType.LOCAL){//本地服务器方式
-            return HttpResponse.error("存储方式开发中");
+            fileResult=this.localService.getShareLink(filePath,expires);
         }else if( storeType== StoreType.FTP){//FTP方式
             return HttpResponse.error("存储方式开发中");
         }else{
@@ -330,32 +647,149 @@ public class FileServiceImpl implements IFileService {
     }
 
     /**
-     * 删除多个文件
-     * @param filePaths 文件在Bucket中的存储全路径 数组
+     * 获取文件元数据
+     * @param filePath 文件在Bucket中的存储全路径
      * @param storeType 存储方式
      * @return
      */
     @Override
-    public HttpResponse deleteFiles(List<String> filePaths, StoreType storeType){
-        HttpResponse httpResponse=null;
+    public HttpResponse statFile(String filePath, StoreType storeType) {
+        if(storeType==null){//默认MINIO方式
+            storeType=StoreType.MINIO;
+        }
+        FileStat stat=null;
+        try {
+            if( storeType== StoreType.MINIO){//MINIO方式
+                stat=this.minioService.statFile(filePath);
+            }else if( storeType== StoreType.OSS){//阿里OSS方式
+                stat=this.ossService.statFile(filePath);
+            }else if( storeType== StoreType.OBS){//华为OBS方式
+                return HttpResponse.error("存储方式开发中");
+            }else if( storeType== StoreType.LOCAL){//本地服务器方式
+                stat=this.localService.statFile(filePath);
+            }else if( storeType== StoreType.FTP){//FTP方式
+                stat=this.ftpService.statFile(filePath);
+            }else{
+                return HttpResponse.error("存储方式不支持");
+            }
+        } catch (Exception e) {
+            return HttpResponse.error("获取失败,"+e.getMessage());
+        }
+        if(stat==null){
+            return HttpResponse.error("文件不存在:"+filePath);
+        }
+        return HttpResponse.success(stat);
+    }
 
-        for(String filePath:filePaths){
+    /**
+     * 删除多个文件，MINIO、OSS每1000个文件一次批量删除请求并发执行，FTP使用连接池多个会话并发删除
+     * @param filePaths 文件在Bucket中的存储全路径 数组
+     * @param refKeys 与filePaths顺序对应的引用键，删除内容寻址上传的文件时使用，可以为空
+     * @param storeType 存储方式
+     * @return 每个文件的删除结果
+     */
+    @Override
+    public HttpResponse deleteFiles(List<String> filePaths, List<String> refKeys, StoreType storeType){
+        if(storeType==null){//默认MINIO方式
+            storeType=StoreType.MINIO;
+        }
+        if(filePaths==null || filePaths.isEmpty()){
+            return HttpResponse.error("文件路径为空");
+        }
+        if( storeType== StoreType.OBS){//华为OBS方式
+            return HttpResponse.error("存储方式开发中");
+        }else if( storeType!= StoreType.MINIO && storeType!= StoreType.OSS && storeType!= StoreType.LOCAL && storeType!= StoreType.FTP){
+            return HttpResponse.error("存储方式不支持");
+        }
+        //秒传共享且还有其它引用的对象只释放引用，其余的从存储删除
+        List<String> deletePaths=new ArrayList<>(filePaths.size());
+        FileResult[] released=new FileResult[filePaths.size()];
+        for(int i=0;i<filePaths.size();i++){
+            String filePath=filePaths.get(i);
+            String refKey=refKeys!=null && i<refKeys.size()?refKeys.get(i):null;
+            ContentIndex.Release release=contentIndex.release(storeType,filePath,refKey);
+            if(release==ContentIndex.Release.DELETE){
+                deletePaths.add(filePath);
+            }else{
+                released[i]=releaseResult(release,filePath);
+            }
+        }
+        List<FileResult> deleted;
+        if(deletePaths.isEmpty()){//全部只减少引用数
+            deleted=new ArrayList<>();
+        }else if( storeType== StoreType.MINIO){//MINIO方式
+            deleted=this.minioService.deleteFiles(deletePaths);
+        }else if( storeType== StoreType.OSS){//阿里OSS方式
+            deleted=this.ossService.deleteFiles(deletePaths);
+        }else if( storeType== StoreType.LOCAL){//本地服务器方式
+            deleted=new ArrayList<>(deletePaths.size());
+            for(String filePath:deletePaths){
+                FileResult fileResult=this.localService.deleteFile(filePath);
+                fileResult.setFilePath(filePath);
+                deleted.add(fileResult);
+            }
+        }else{//FTP方式
+            deleted=this.ftpService.deleteFiles(deletePaths);
+        }
+        for(int i=0;i<deleted.size();i++){//存储对象删除成功时由存储方式移除索引，失败时恢复最后一个引用
+            if(! deleted.get(i).isOk()){
+                contentIndex.restore(storeType,deletePaths.get(i));
+            }
+        }
+        List<FileResult> fileResults=new ArrayList<>(filePaths.size());
+        int next=0;
+        for(FileResult fileResult:released){
+            fileResults.add(fileResult!=null?fileResult:deleted.get(next++));
+        }
 
-            httpResponse= deleteFile(filePath,storeType);
+        int failed=0;
+        for(FileResult fileResult:fileResults){
+            if(! fileResult.isOk()){
+                failed++;
+            }
         }
-        return httpResponse;
+        return HttpResponse.success("删除完成,成功"+(fileResults.size()-failed)+"个,失败"+failed+"个",fileResults);
     }
+    /**
+     * 释放引用但不删除存储对象时的结果
+     */
+    private static FileResult releaseResult(ContentIndex.Release release,String filePath){
+        if(release==ContentIndex.Release.RELEASED){
+            return FileResult.builder().isOk(true).msg("删除成功,内容仍被其它文件引用").filePath(filePath).build();
+        }else if(release==ContentIndex.Release.SHARED){
+            return FileResult.builder().isOk(false).msg("删除失败,内容被多个文件引用,请传入上传时返回的refKey").filePath(filePath).build();
+        }
+        return FileResult.builder().isOk(false).msg("删除失败,refKey不存在").filePath(filePath).build();
+    }
+
     /**
      * 删除文件
      * @param filePath 文件在Bucket中的存储全路径
+     * @param refKey 内容寻址上传或秒传返回的引用键，可以为空
      * @param storeType 存储方式
      * @return
      */
     @Override
-    public HttpResponse deleteFile(String filePath, StoreType storeType) {
+    public HttpResponse deleteFile(String filePath, String refKey, StoreType storeType) {
         if(storeType==null){//默认MINIO方式
             storeType=StoreType.MINIO;
         }
+        ContentIndex.Release release=contentIndex.release(storeType,filePath,refKey);
+        if(release!=ContentIndex.Release.DELETE){//秒传共享的对象还有其它引用
+            FileResult fileResult=releaseResult(release,filePath);
+            return fileResult.isOk()?HttpResponse.success(fileResult.getMsg()):HttpResponse.error(fileResult.getMsg());
+        }
+        HttpResponse response=storeDelete(filePath,storeType);
+        if(! response.isOK()){//存储对象删除成功时由存储方式移除索引，失败时恢复最后一个引用
+            contentIndex.restore(storeType,filePath);
+        }
+        return response;
+    }
+
+    /**
+     * 删除存储上的文件，不处理引用数
+     */
+    private HttpResponse storeDelete(String filePath, StoreType storeType) {
         FileResult fileResult=null;
         if( storeType== StoreType.MINIO){//MINIO方式
             fileResult=this.minioService.deleteFile(filePath);
@@ -364,9 +798,9 @@ public class FileServiceImpl implements IFileService {
         }else if( storeType== StoreType.OBS){//华为OBS方式
             return HttpResponse.error("存储方式开发中");
         }else if( storeType== StoreType.LOCAL){//本地服务器方式
-            return HttpResponse.error("存储方式开发中");
+            fileResult=this.localService.deleteFile(filePath);
         }else if( storeType== StoreType.FTP){//FTP方式
-            return HttpResponse.error("存储方式开发中");
+            fileResult=this.ftpService.deleteFile(filePath);
         }else{
             return HttpResponse.error("存储方式不支持");
         }
@@ -392,6 +826,39 @@ public class FileServiceImpl implements IFileService {
         if(storeType==null){//默认MINIO方式
             storeType=StoreType.MINIO;
         }
+        String prefix=FileUtil.dirPrefix(folderPathPrefix);
+        if(prefix==null){//空目录前缀会匹配所有文件
+            return HttpResponse.error("目录不能为空");
+        }
+        if( storeType!= StoreType.MINIO && storeType!= StoreType.OSS && storeType!= StoreType.LOCAL){//开发中或不支持的存储方式，不标记索引
+            return storeDeleteDir(folderPathPrefix,storeType);
+        }
+        HttpResponse shared=markDeletingDir(storeType,prefix);
+        if(shared!=null){
+            return shared;
+        }
+        HttpResponse response=storeDeleteDir(folderPathPrefix,storeType);
+        if(! response.isOK()){//删除成功时由存储方式清除缓存和索引
+            contentIndex.restorePrefix(storeType,prefix);
+        }
+        return response;
+    }
+
+    /**
+     * 目录下有被其它文件引用的秒传对象时不能删除目录，返回这些对象；否则标记目录下的对象正在删除
+     */
+    private HttpResponse markDeletingDir(StoreType storeType,String prefix){
+        List<String> shared=contentIndex.markDeletingPrefix(storeType,prefix);
+        if(shared.isEmpty()){
+            return null;
+        }
+        return HttpResponse.error(409,"目录下的文件内容仍被其它文件引用,请先删除这些引用",shared);
+    }
+
+    /**
+     * 删除存储上的目录，不处理缓存和引用
+     */
+    private HttpResponse storeDeleteDir(String folderPathPrefix, StoreType storeType) {
         FileResult fileResult=null;
         if( storeType== StoreType.MINIO){//MINIO方式
             fileResult=this.minioService.deleteDir(folderPathPrefix);
@@ -400,7 +867,7 @@ public class FileServiceImpl implements IFileService {
         }else if( storeType== StoreType.OBS){//华为OBS方式
             return HttpResponse.error("存储方式开发中");
         }else if( storeType== StoreType.LOCAL){//本地服务器方式
-            return HttpResponse.error("存储方式开发中");
+            fileResult=this.localService.deleteDir(folderPathPrefix);
         }else if( storeType== StoreType.FTP){//FTP方式
             return HttpResponse.error("存储方式开发中");
         }else{
@@ -417,4 +884,85 @@ public class FileServiceImpl implements IFileService {
             }
         }
     }
+
+    /**
+     * 后台删除目录及文件，立即返回任务，通过 getJob 查询进度
+     * @param folderPathPrefix 目录
+     * @param storeType 存储方式
+     * @return 任务信息
+     */
+    @Override
+    public HttpResponse deleteDirFileAsync(String folderPathPrefix, StoreType storeType) {
+        if(storeType==null){//默认MINIO方式
+            storeType=StoreType.MINIO;
+        }
+        if(FileUtil.dirPrefix(folderPathPrefix)==null){
+            return HttpResponse.error("目录不能为空");
+        }
+        if( storeType== StoreType.OBS || storeType== StoreType.FTP){
+            return HttpResponse.error("存储方式开发中");
+        }
+        String prefix=FileUtil.dirPrefix(folderPathPrefix);
+        HttpResponse shared=markDeletingDir(storeType,prefix);
+        if(shared!=null){
+            return shared;
+        }
+        StoreType type=storeType;
+        try {
+            FileJob job=fileJobManager.submit(FileJob.TYPE_DELETE_DIR,j->{
+                FileResult fileResult;
+                try {
+                    if( type== StoreType.MINIO){//MINIO方式
+                        fileResult=this.minioService.deleteDir(folderPathPrefix,j);
+                    }else if( type== StoreType.OSS){//阿里OSS方式
+                        fileResult=this.ossService.deleteDir(folderPathPrefix,j);
+                    }else{//本地服务器方式
+                        fileResult=this.localService.deleteDir(folderPathPrefix,j);
+                    }
+                }catch (RuntimeException e){
+                    contentIndex.restorePrefix(type,prefix);
+                    throw e;
+                }
+                if(! fileResult.isOk()){
+                    contentIndex.restorePrefix(type,prefix);
+                    throw new IllegalStateException(fileResult.getMsg());
+                }
+                j.setMsg(fileResult.getMsg());
+                return null;
+            });
+            return HttpResponse.success("任务已提交",job);
+        }catch (RejectedExecutionException e){
+            contentIndex.restorePrefix(type,prefix);
+            return HttpResponse.error("任务过多,请稍后重试");
+        }
+    }
+
+    /**
+     * 查询后台任务
+     * @param jobId 任务ID
+     * @param waitSeconds 任务未完成时等待的秒数，为空或0立即返回
+     * @return 任务状态、进度以及结果
+     */
+    @Override
+    public HttpResponse getJob(String jobId, Integer waitSeconds) {
+        FileJob job=fileJobManager.await(jobId,waitSeconds==null?0:waitSeconds);
+        if(job==null){
+            return HttpResponse.error("任务不存在或已过期");
+        }
+        return HttpResponse.success(job);
+    }
+
+    /**
+     * 缓存键中的桶名称，和各存储方式下载时的FileStat保持一致
+     */
+    private String cacheBucket(StoreType storeType){
+        if(storeType==StoreType.MINIO){
+            return minioClientUtil.getDefaultBucket();
+        }else if(storeType==StoreType.OSS){
+            return ossUtil.getDefaultBucket();
+        }else if(storeType==StoreType.FTP){
+            return ftpClientUtil.getIp()+":"+ftpClientUtil.getPort();
+        }
+        return null;
+    }
 }
@@ -1,11 +1,13 @@
 package com.mscloud.files.service;
 
 import com.mscloud.files.core.constants.FileDirType;
+import com.mscloud.files.core.constants.KeyStrategy;
 import com.mscloud.files.core.constants.StoreType;
 import com.mscloud.files.core.pojo.FileInfo;
 import com.mscloud.files.core.pojo.HttpResponse;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.InputStream;
 import java.util.List;
@@ -25,12 +27,41 @@ public interface IFileService {
      * @param isRename 是否重命名，默认为false， true则使用UUID重命名存储
      * @param fileDirType 目录格式，默认年月日格式目录
      * @param fileDirPath 指定存储目录
+     * @param keyStrategy 目录策略，为空时使用全局配置
      * @param formId 表单ID,不为空则插入表单和文件之间关系
      * @param moduleName 模块标识
      * @param isBackShareLink 是否返回临时链接，默认为是
+     * @param dedup 是否内容寻址存储，相同内容只存储一份
      * @return
      */
-    public HttpResponse uploadFile(InputStream inputStream, FileInfo fileInfo, StoreType storeType, boolean isRename, FileDirType fileDirType, String fileDirPath, String formId, String moduleName, boolean isBackShareLink, Long userId);
+    public HttpResponse uploadFile(InputStream inputStream, FileInfo fileInfo, StoreType storeType, boolean isRename, FileDirType fileDirType, String fileDirPath, KeyStrategy keyStrategy, String formId, String moduleName, boolean isBackShareLink, boolean dedup, Long userId);
+
+    /**
+     * 后台下载网络文件并上传
+     * @param urls 网络URL地址
+     * @param storeType 存储方式
+     * @param isRename 是否重命名
+     * @param fileDirType 目录格式
+     * @param fileDirPath 指定存储目录
+     * @param keyStrategy 目录策略，为空时使用全局配置
+     * @param formId 表单ID
+     * @param moduleName 模块标识
+     * @param isBackShareLink 是否返回临时链接
+     * @return 每个地址的任务ID
+     */
+    HttpResponse ingestUrls(List<String> urls, StoreType storeType, boolean isRename, FileDirType fileDirType, String fileDirPath, KeyStrategy keyStrategy, String formId, String moduleName, boolean isBackShareLink, Long userId);
+
+    /**
+     * 秒传：相同内容已存在时引用已有对象，不需要上传文件内容
+     * @param contentHash 文件内容SHA-256
+     * @param fileName 文件原始名称
+     * @param storeType 存储方式
+     * @param isBackShareLink 是否返回临时链接
+     * @param challengeId 挑战ID，为空时返回挑战区间
+     * @param proof 挑战区间的SHA-256
+     * @return 内容不存在时返回失败，需要上传文件
+     */
+    HttpResponse instantUpload(String contentHash, String fileName, StoreType storeType, boolean isBackShareLink, String challengeId, String proof);
 
 
     /**
@@ -40,12 +71,13 @@ public interface IFileService {
      * @param isRename 是否重命名，默认为false， true则使用UUID重命名存储
      * @param fileDirType 目录格式，默认年月日格式目录
      * @param fileDirPath 指定存储目录
+     * @param keyStrategy 目录策略，为空时使用全局配置
      * @param formId 表单ID,不为空则插入表单和文件之间关系
      * @param moduleName 模块标识
      * @param isBackShareLink 是否返回临时链接，默认为是
      * @return
      */
-    public HttpResponse uploadFiles(MultipartFile[] files, StoreType storeType,  boolean isRename, FileDirType fileDirType, String fileDirPath, String formId, String moduleName, boolean isBackShareLink, Long userId);
+    public HttpResponse uploadFiles(MultipartFile[] files, StoreType storeType,  boolean isRename, FileDirType fileDirType, String fileDirPath, KeyStrategy keyStrategy, String formId, String moduleName, boolean isBackShareLink, Long userId);
 
 
     /**
@@ -55,16 +87,18 @@ public interface IFileService {
      * @param sliceIndex 分片索引
      * @param totalPieces 切片总数
      * @param md5String 文件MD5加密文本
+     * @param sliceMd5 分片MD5，不为空则校验分片
      * @param storeType 存储方式
      * @param isRename 是否重命名，默认为false， true则使用UUID重命名存储
      * @param fileDirType 目录格式，默认年月日格式目录
      * @param fileDirPath 指定存储目录
+     * @param keyStrategy 目录策略，为空时使用全局配置
      * @param formId 表单ID,不为空则插入表单和文件之间关系
      * @param moduleName 模块标识
      * @param isBackShareLink 是否返回临时链接，默认为是
      * @return
      */
-    public HttpResponse uploadPieceFile(MultipartFile file, String fileName, int sliceIndex, int totalPieces, String md5String, StoreType storeType,  boolean isRename, FileDirType fileDirType, String fileDirPath, String formId, String moduleName, boolean isBackShareLink, Long userId);
+    public HttpResponse uploadPieceFile(MultipartFile file, String fileName, int sliceIndex, int totalPieces, String md5String, String sliceMd5, StoreType storeType,  boolean isRename, FileDirType fileDirType, String fileDirPath, KeyStrategy keyStrategy, String formId, String moduleName, boolean isBackShareLink, Long userId);
 
 
 
@@ -75,7 +109,7 @@ public interface IFileService {
      * @param storeType 存储方式
      * @return
      */
-    public void downloadFile(String filePath, String storeAsFilename, StoreType storeType,HttpServletResponse response);
+    public void downloadFile(String filePath, String storeAsFilename, StoreType storeType, HttpServletRequest request, HttpServletResponse response);
     /**
      * 获取文件分享链接
      * @param filePath 指定下载文件在Bucket中的存储全路径
@@ -84,21 +118,31 @@ public interface IFileService {
      * @return
      */
     public HttpResponse getShareLink(String filePath, Integer expires, StoreType storeType);
+
+    /**
+     * 获取文件元数据
+     * @param filePath 文件在Bucket中的存储全路径
+     * @param storeType 存储方式
+     * @return
+     */
+    HttpResponse statFile(String filePath, StoreType storeType);
     /**
      * 删除文件
      * @param filePath 文件在Bucket中的存储全路径
+     * @param refKey 内容寻址上传或秒传返回的引用键，可以为空
      * @param storeType 存储方式
      * @return
      */
-    HttpResponse deleteFile(String filePath, StoreType storeType);
+    HttpResponse deleteFile(String filePath, String refKey, StoreType storeType);
 
     /**
      * 删除多个文件
      * @param filePaths 文件在Bucket中的存储全路径 数组
+     * @param refKeys 与filePaths顺序对应的引用键，可以为空
      * @param storeType 存储方式
      * @return
      */
-    HttpResponse deleteFiles(List<String> filePaths, StoreType storeType);
+    HttpResponse deleteFiles(List<String> filePaths, List<String> refKeys, StoreType storeType);
 
     /**
      * 删除目录及文件
@@ -108,5 +152,29 @@ public interface IFileService {
      */
     HttpResponse deleteDirFile(String dirPath, StoreType storeType);
 
+    /**
+     * 查询分片上传进度
+     * @param md5String 文件MD5加密文本
+     * @param storeType 存储方式
+     * @return 已收到和缺少的分片
+     */
+    HttpResponse getUploadStatus(String md5String, StoreType storeType);
+
+    /**
+     * 后台删除目录及文件
+     * @param dirPath 目录
+     * @param storeType 存储方式
+     * @return 任务信息
+     */
+    HttpResponse deleteDirFileAsync(String dirPath, StoreType storeType);
+
+    /**
+     * 查询后台任务
+     * @param jobId 任务ID
+     * @param waitSeconds 任务未完成时等待的秒数
+     * @return
+     */
+    HttpResponse getJob(String jobId, Integer waitSeconds);
+
 
 }
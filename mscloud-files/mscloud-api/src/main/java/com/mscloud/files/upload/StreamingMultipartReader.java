@@ -0,0 +1,131 @@
+package com.mscloud.files.upload;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.tomcat.util.http.fileupload.FileItemIterator;
+import org.apache.tomcat.util.http.fileupload.FileItemStream;
+import org.apache.tomcat.util.http.fileupload.servlet.ServletFileUpload;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 流式读取multipart请求，文件内容边接收边交给处理方，不缓存到内存或临时文件
+ * 查询参数和普通字段合并为请求参数，文件只能使用在它之前出现的字段，因此参数字段需要放在文件之前；
+ * 文件和请求大小限制沿用 spring.servlet.multipart 的配置
+ */
+@Component
+public class StreamingMultipartReader {
+
+    /**
+     * 流式上传接口的路径前缀，这些请求不经过MultipartResolver解析
+     */
+    public static final String STREAM_PATH_PREFIX="/file/stream/";
+
+    @Value("${spring.servlet.multipart.max-file-size:1MB}")
+    private DataSize maxFileSize;
+    @Value("${spring.servlet.multipart.max-request-size:10MB}")
+    private DataSize maxRequestSize;
+    /**
+     * 普通字段的最大长度，单位字节
+     */
+    @Value("${mscloud.files.upload.maxFieldSize:262144}")
+    private int maxFieldSize;
+
+    /**
+     * 文件处理
+     */
+    @FunctionalInterface
+    public interface FileHandler<T> {
+
+        /**
+         * @param fileName 文件原始名称
+         * @param contentType 文件类型
+         * @param inputStream 文件内容，返回后不能再读取
+         * @param params 当前的请求参数
+         */
+        T handle(String fileName, String contentType, InputStream inputStream, Map<String,String> params) throws Exception;
+    }
+
+    /**
+     * 是否流式上传请求
+     */
+    public static boolean isStreaming(HttpServletRequest request){
+        String uri=request.getRequestURI();
+        String contextPath=request.getContextPath();
+        String path=contextPath !=null && uri.startsWith(contextPath)?uri.substring(contextPath.length()):uri;
+        return path.startsWith(STREAM_PATH_PREFIX);
+    }
+
+    /**
+     * 按顺序读取表单，普通字段加入请求参数，文件交给handler处理，没有选择文件的表单项忽略
+     * @param request 请求
+     * @param maxFiles 最多处理的文件数，达到后不再读取剩余的请求
+     * @param handler 文件处理
+     * @return 每个文件的处理结果
+     */
+    public <T> List<T> readFiles(HttpServletRequest request, int maxFiles, FileHandler<T> handler) throws Exception {
+        if(! ServletFileUpload.isMultipartContent(request)){
+            throw new IllegalStateException("请使用multipart/form-data格式上传");
+        }
+        Map<String,String> params=queryParams(request);
+        ServletFileUpload upload=new ServletFileUpload();
+        upload.setHeaderEncoding(StandardCharsets.UTF_8.name());
+        upload.setFileSizeMax(maxFileSize.toBytes());
+        upload.setSizeMax(maxRequestSize.toBytes());
+
+        List<T> results=new ArrayList<>();
+        FileItemIterator iterator=upload.getItemIterator(request);
+        while(results.size()<maxFiles && iterator.hasNext()){
+            FileItemStream item=iterator.next();
+            try(InputStream inputStream=item.openStream()){
+                if(item.isFormField()){
+                    params.putIfAbsent(item.getFieldName(),readField(item.getFieldName(),inputStream));
+                }else if(StringUtils.isNotEmpty(item.getName())){
+                    results.add(handler.handle(item.getName(),item.getContentType(),inputStream,params));
+                }
+            }
+        }
+        return results;
+    }
+
+    private String readField(String name,InputStream inputStream) throws IOException {
+        byte[] bytes=IOUtils.toByteArray(new BoundedInputStream(inputStream,maxFieldSize+1L));
+        if(bytes.length>maxFieldSize){
+            throw new IllegalStateException("参数"+name+"超出长度限制");
+        }
+        return new String(bytes,StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 解析查询参数，不能使用getParameter，multipart请求会触发容器解析整个请求体
+     */
+    private Map<String,String> queryParams(HttpServletRequest request) throws IOException {
+        Map<String,String> params=new LinkedHashMap<>();
+        String query=request.getQueryString();
+        if(StringUtils.isBlank(query)){
+            return params;
+        }
+        for(String pair:query.split("&")){
+            if(pair.isEmpty()){
+                continue;
+            }
+            int index=pair.indexOf('=');
+            String name=URLDecoder.decode(index<0?pair:pair.substring(0,index),"UTF-8");
+            String value=index<0?"":URLDecoder.decode(pair.substring(index+1),"UTF-8");
+            params.putIfAbsent(name,value);
+        }
+        return params;
+    }
+}
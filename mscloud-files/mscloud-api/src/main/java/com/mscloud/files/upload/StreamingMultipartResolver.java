@@ -0,0 +1,21 @@
+package com.mscloud.files.upload;
+
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.support.StandardServletMultipartResolver;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * 流式上传接口跳过multipart解析，由接口自己边读边上传；其它接口仍由Servlet容器解析为MultipartFile
+ */
+@Component("multipartResolver")
+public class StreamingMultipartResolver extends StandardServletMultipartResolver {
+
+    @Override
+    public boolean isMultipart(HttpServletRequest request) {
+        if(StreamingMultipartReader.isStreaming(request)){
+            return false;
+        }
+        return super.isMultipart(request);
+    }
+}
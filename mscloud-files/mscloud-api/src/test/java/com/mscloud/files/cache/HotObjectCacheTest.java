@@ -0,0 +1,209 @@
+package com.mscloud.files.cache;
+
+import com.mscloud.files.core.constants.StoreType;
+import com.mscloud.files.core.download.RangeReader;
+import com.mscloud.files.core.pojo.FileStat;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HotObjectCacheTest {
+
+    private static final int OBJECT_SIZE=16*1024;
+
+    private HotObjectCache cache;
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        cache=new HotObjectCache();
+        ReflectionTestUtils.setField(cache,"enabled",true);
+        ReflectionTestUtils.setField(cache,"maxObjectSize",1024*1024L);
+        //内存层只能放下1/4的对象
+        ReflectionTestUtils.setField(cache,"memoryMaxBytes",128L*OBJECT_SIZE);
+        ReflectionTestUtils.setField(cache,"diskEnabled",false);
+        cache.afterPropertiesSet();
+        executor=Executors.newFixedThreadPool(16);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+        cache.destroy();
+    }
+
+    @Test
+    void concurrentMissesReadStoreOnce() throws Exception {
+        byte[] data=content(0);
+        CountDownLatch release=new CountDownLatch(1);
+        AtomicInteger reads=new AtomicInteger();
+        FileStat stat=stat(0);
+        RangeReader reader=cache.wrap(stat,(offset,length)->{
+            reads.incrementAndGet();
+            release.await(5,TimeUnit.SECONDS);
+            return new ByteArrayInputStream(data,(int)offset,(int)length);
+        });
+
+        List<Future<byte[]>> results=new ArrayList<>();
+        for(int i=0;i<16;i++){
+            results.add(executor.submit(()->read(reader,0,OBJECT_SIZE)));
+        }
+        //等所有请求都在等待同一次读取
+        long deadline=System.currentTimeMillis()+5000;
+        while((Long)cache.getStats().get("coalescedMisses")<15 && System.currentTimeMillis()<deadline){
+            Thread.sleep(5);
+        }
+        release.countDown();
+        for(Future<byte[]> result:results){
+            assertArrayEquals(data,result.get(5,TimeUnit.SECONDS));
+        }
+        assertEquals(1,reads.get());
+        assertEquals(1L,cache.getStats().get("misses"));
+        assertEquals(15L,cache.getStats().get("coalescedMisses"));
+    }
+
+    @Test
+    void failedLoadIsNotCached() throws Exception {
+        byte[] data=content(0);
+        AtomicInteger reads=new AtomicInteger();
+        RangeReader reader=cache.wrap(stat(0),(offset,length)->{
+            if(reads.incrementAndGet()==1){
+                throw new IllegalStateException("store unavailable");
+            }
+            return new ByteArrayInputStream(data,(int)offset,(int)length);
+        });
+        IllegalStateException error=assertThrows(IllegalStateException.class,()->read(reader,0,OBJECT_SIZE));
+        assertEquals("store unavailable",error.getMessage());
+        assertArrayEquals(Arrays.copyOfRange(data,10,20),read(reader,10,10));
+        assertEquals(2,reads.get());
+    }
+
+    /**
+     * Zipf分布(s=1.0)访问512个对象，存储每次读取耗时1ms，对比不使用缓存和使用缓存的平均延迟和P99
+     */
+    @Test
+    void zipfianLatencyBenchmark() throws Exception {
+        int objects=512;
+        int threads=8;
+        int requestsPerThread=500;
+        ZipfGenerator zipf=new ZipfGenerator(objects,1.0);
+        AtomicInteger storeReads=new AtomicInteger();
+        RangeReader[] direct=new RangeReader[objects];
+        RangeReader[] cached=new RangeReader[objects];
+        for(int i=0;i<objects;i++){
+            byte[] data=content(i);
+            direct[i]=(offset,length)->{
+                storeReads.incrementAndGet();
+                TimeUnit.MILLISECONDS.sleep(1);
+                return new ByteArrayInputStream(data,(int)offset,(int)length);
+            };
+            cached[i]=cache.wrap(stat(i),direct[i]);
+        }
+
+        long[] directLatency=run(direct,zipf,threads,requestsPerThread);
+        int directReads=storeReads.getAndSet(0);
+        long[] cachedLatency=run(cached,zipf,threads,requestsPerThread);
+        int cachedReads=storeReads.get();
+
+        System.out.printf("zipf s=1.0 objects=%d requests=%d%n",objects,threads*requestsPerThread);
+        System.out.printf("  no cache: mean=%.1fus p99=%dus storeReads=%d%n",mean(directLatency)/1000,percentile(directLatency,0.99)/1000,directReads);
+        System.out.printf("  cache:    mean=%.1fus p99=%dus storeReads=%d hitRate=%s%n",mean(cachedLatency)/1000,percentile(cachedLatency,0.99)/1000,cachedReads,cache.getStats().get("hitRate"));
+
+        assertEquals(threads*requestsPerThread,directReads);
+        //内存层放下1/4的对象，热点对象集中在前面，超过一半的请求命中缓存
+        assertTrue(cachedReads<directReads/2);
+        assertTrue(mean(cachedLatency)<mean(directLatency));
+    }
+
+    private long[] run(RangeReader[] readers,ZipfGenerator zipf,int threads,int requestsPerThread) throws Exception {
+        long[] latency=new long[threads*requestsPerThread];
+        List<Future<?>> futures=new ArrayList<>();
+        for(int t=0;t<threads;t++){
+            int thread=t;
+            futures.add(executor.submit(()->{
+                Random random=new Random(thread);
+                for(int i=0;i<requestsPerThread;i++){
+                    RangeReader reader=readers[zipf.next(random)];
+                    long start=System.nanoTime();
+                    read(reader,0,OBJECT_SIZE);
+                    latency[thread*requestsPerThread+i]=System.nanoTime()-start;
+                }
+                return null;
+            }));
+        }
+        for(Future<?> future:futures){
+            future.get(60,TimeUnit.SECONDS);
+        }
+        return latency;
+    }
+
+    private static byte[] read(RangeReader reader,long offset,long length) throws Exception {
+        try(InputStream inputStream=reader.open(offset,length)){
+            return IOUtils.toByteArray(inputStream);
+        }
+    }
+
+    private static FileStat stat(int index){
+        return FileStat.builder().storeType(StoreType.MINIO).bucket("bucket").filePath("file-"+index).fileSize((long)OBJECT_SIZE).etag("etag-"+index).build();
+    }
+
+    private static byte[] content(int index){
+        byte[] data=new byte[OBJECT_SIZE];
+        new Random(index).nextBytes(data);
+        return data;
+    }
+
+    private static double mean(long[] values){
+        return Arrays.stream(values).average().orElse(0);
+    }
+
+    private static long percentile(long[] values,double percentile){
+        long[] sorted=values.clone();
+        Arrays.sort(sorted);
+        return sorted[(int)Math.min(sorted.length-1,Math.ceil(percentile*sorted.length)-1)];
+    }
+
+    /**
+     * 按累积分布二分查找的Zipf分布生成器，排名越靠前的对象访问越多
+     */
+    private static class ZipfGenerator {
+        private final double[] cumulative;
+
+        ZipfGenerator(int size,double exponent){
+            cumulative=new double[size];
+            double sum=0;
+            for(int i=0;i<size;i++){
+                sum+=1/Math.pow(i+1,exponent);
+                cumulative[i]=sum;
+            }
+            for(int i=0;i<size;i++){
+                cumulative[i]/=sum;
+            }
+        }
+
+        int next(Random random){
+            int index=Arrays.binarySearch(cumulative,random.nextDouble());
+            return Math.min(cumulative.length-1,index>=0?index:-index-1);
+        }
+    }
+}
@@ -2,12 +2,15 @@ package com.mscloud.files.core;
 
 
 import com.mscloud.files.core.constants.FileDirType;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.tika.Tika;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
-import java.text.SimpleDateFormat;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
 
 /**
@@ -16,7 +19,17 @@ import java.util.*;
 public class FileUtil {
     private static Map<String, String> types;//contentType集合
     private static List<String> extensions = new ArrayList<String>();//后缀集合
-    public final static Map<String, String> FILE_TYPE_MAP = new HashMap<String, String>();//文件头集合
+    private final static Map<FileDirType, DateTimeFormatter> DATE_FORMATTERS = new EnumMap<>(FileDirType.class);//日期目录格式
+    private final static char[] HEX_CHARS = "0123456789abcdef".toCharArray();
+    public final static Map<String, String> FILE_TYPE_MAP = new HashMap<String, String>();//文件头集合，文件头十六进制 -> 后缀
+    /**
+     * 判断文件类型时读取的字节数，Office文档需要读取zip包内的目录名
+     */
+    public final static int DETECT_SIZE = 4096;
+    /**
+     * 文件头最大字节数
+     */
+    private final static int MAGIC_SIZE = 16;
 
     // 对应的http contenttype
     static  {
@@ -59,6 +72,33 @@ public class FileUtil {
         types.put("video/mpeg", ".mpeg");
         types.put("video/ogg", ".ogg");
         types.put("video/webm", ".webm");
+
+        for(FileDirType dirType:new FileDirType[]{FileDirType.YEAR,FileDirType.MONTH,FileDirType.DAY}){
+            DATE_FORMATTERS.put(dirType,DateTimeFormatter.ofPattern(dirType.value()));
+        }
+
+        FILE_TYPE_MAP.put("FFD8FF", ".jpg");
+        FILE_TYPE_MAP.put("89504E470D0A1A0A", ".png");
+        FILE_TYPE_MAP.put("474946383761", ".gif");
+        FILE_TYPE_MAP.put("474946383961", ".gif");
+        FILE_TYPE_MAP.put("424D", ".bmp");
+        FILE_TYPE_MAP.put("49492A00", ".tiff");
+        FILE_TYPE_MAP.put("4D4D002A", ".tiff");
+        FILE_TYPE_MAP.put("00000100", ".icon");
+        FILE_TYPE_MAP.put("255044462D", ".pdf");
+        FILE_TYPE_MAP.put("7B5C727466", ".rtf");
+        FILE_TYPE_MAP.put("3C3F786D6C", ".xml");
+        FILE_TYPE_MAP.put("D0CF11E0A1B11AE1", ".doc");//Office 97-2003，xls、ppt文件头相同
+        FILE_TYPE_MAP.put("504B0304", ".zip");
+        FILE_TYPE_MAP.put("526172211A07", ".rar");
+        FILE_TYPE_MAP.put("1F8B08", ".gzip");
+        FILE_TYPE_MAP.put("377ABCAF271C", ".7z");
+        FILE_TYPE_MAP.put("1A45DFA3", ".webm");
+        FILE_TYPE_MAP.put("464C5601", ".flv");
+        FILE_TYPE_MAP.put("4F676753", ".ogg");
+        FILE_TYPE_MAP.put("000001BA", ".mpeg");
+        FILE_TYPE_MAP.put("000001B3", ".mpeg");
+        FILE_TYPE_MAP.put("3026B2758E66CF11", ".wmv");
     }
 
     /**
@@ -79,34 +119,120 @@ public class FileUtil {
     }
 
     /**
-     * 截取网络URL文件后缀名
+     * 截取网络URL文件后缀名，只取路径最后一段的后缀，不访问网络；
+     * 没有后缀时可通过 detectSuffix 从已打开的文件流判断
      * @param url 网络地址
-     * @return
+     * @return 没有后缀时返回null
      */
     public static String splitUrlFileSuffix(URL url){
         if(url==null){
             return null;
         }
-        //优先获取URL路径的后缀
         String path=url.getPath();
-        int index=path.lastIndexOf(".");
-        if(index >0){//有后缀
+        String name=path.substring(path.lastIndexOf('/')+1);
+        int index=name.lastIndexOf(".");
+        return index>0?name.substring(index):null;
+    }
 
-            String suffix =path.substring(index);
-            return suffix;
+    /**
+     * 根据文件头判断后缀名，读取流的前 DETECT_SIZE 字节后通过 mark/reset 还原，流可以继续完整读取
+     * @param inputStream 支持mark的文件流，如 BufferedInputStream
+     * @return 无法判断时返回null
+     */
+    public static String detectSuffix(InputStream inputStream) throws IOException {
+        if(! inputStream.markSupported()){
+            return null;
         }
-        //Tika方式获取
-        Tika tika = new Tika();
+        byte[] head=new byte[DETECT_SIZE];
+        inputStream.mark(DETECT_SIZE);
+        int length;
         try {
-            String contentType=tika.detect(url);
-            System.out.println(contentType);
-            if (contentType!=null && types.containsKey(contentType.toLowerCase()))
-                return types.get(contentType);
-        } catch (IOException e) {
+            length=IOUtils.read(inputStream,head);
+        } finally {
+            inputStream.reset();
+        }
+        return detectSuffix(head,length);
+    }
 
+    /**
+     * 根据文件头判断后缀名
+     * @param head 文件开头的字节
+     * @param length 有效长度
+     * @return 无法判断时返回null
+     */
+    public static String detectSuffix(byte[] head,int length){
+        if(length>=12 && startsWith(head,length,0,"RIFF")){//RIFF容器
+            if(startsWith(head,length,8,"WEBP")){
+                return ".webp";
+            }
+            if(startsWith(head,length,8,"AVI ")){
+                return ".avi";
+            }
+        }
+        if(startsWith(head,length,4,"ftyp")){//ISO媒体容器
+            return startsWith(head,length,8,"qt  ")?".mov":".mp4";
+        }
+        if(startsWith(head,length,257,"ustar")){
+            return ".tar";
         }
-        return null;
+        String hex=hex(head,Math.min(length,MAGIC_SIZE));
+        String suffix=null;
+        int matched=0;
+        for(Map.Entry<String,String> entry:FILE_TYPE_MAP.entrySet()){//最长匹配
+            if(entry.getKey().length()>matched && hex.startsWith(entry.getKey())){
+                suffix=entry.getValue();
+                matched=entry.getKey().length();
+            }
+        }
+        if(".zip".equals(suffix)){//Office文档是zip格式，根据包内目录区分
+            String text=new String(head,0,length,StandardCharsets.ISO_8859_1);
+            if(text.contains("word/")){
+                return ".docx";
+            }
+            if(text.contains("xl/")){
+                return ".xlsx";
+            }
+            if(text.contains("ppt/")){
+                return ".pptx";
+            }
+        }
+        return suffix;
     }
+
+    private static boolean startsWith(byte[] head,int length,int offset,String magic){
+        if(offset+magic.length()>length){
+            return false;
+        }
+        for(int i=0;i<magic.length();i++){
+            if(head[offset+i]!=(byte)magic.charAt(i)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String hex(byte[] bytes,int length){
+        StringBuilder builder=new StringBuilder(length*2);
+        for(int i=0;i<length;i++){
+            builder.append(Character.toUpperCase(Character.forDigit((bytes[i]>>4)&0x0f,16)));
+            builder.append(Character.toUpperCase(Character.forDigit(bytes[i]&0x0f,16)));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 根据contentType获取后缀名，忽略charset等参数
+     * @return 未知类型返回null
+     */
+    public static String contentTypeSuffix(String contentType){
+        if(contentType==null){
+            return null;
+        }
+        int index=contentType.indexOf(';');
+        String type=(index>=0?contentType.substring(0,index):contentType).trim().toLowerCase();
+        return types.get(type);
+    }
+
     /**
      * 获取日期格式的目录名
      * @param dirType 日期格式
@@ -118,6 +244,25 @@ public class FileUtil {
        return dirName( dirType, fileDirPath,true);
     }
 
+    /**
+     * 目录前缀，统一以/结尾且不以/开头，避免 oa 误匹配 oa2/ 下的文件
+     * @param dirPath 目录
+     * @return 目录为空时返回null
+     */
+    public static String dirPrefix(String dirPath){
+        if(StringUtils.isBlank(dirPath)){
+            return null;
+        }
+        String prefix=dirPath.trim().replace('\\','/').replaceAll("/{2,}","/");
+        while(prefix.startsWith("/")){
+            prefix=prefix.substring(1);
+        }
+        if(prefix.isEmpty()){
+            return null;
+        }
+        return prefix.endsWith("/")?prefix:prefix+"/";
+    }
+
     /**
      * 截取URL的文件名字
      * @param url
@@ -144,16 +289,15 @@ public class FileUtil {
         if(StringUtils.isNotBlank(fileDirPath)){
             if(dirType==null || dirType.equals(FileDirType.ROOT)){//固定目录
                 if(! isMutiDir){
-                    fileDirPath=fileDirPath.replaceAll("/","");//一层目录
+                    fileDirPath=StringUtils.remove(fileDirPath,'/');//一层目录
                     return fileDirPath;
                 }else{
                     return fileDirPath;
                 }
             }else {//固定目录+日期目录
-                SimpleDateFormat sdf=new SimpleDateFormat(dirType.value());
-                String dirName=sdf.format(new Date());
+                String dirName=dateDir(dirType);
                 if(! isMutiDir){
-                    dirName=dirName.replaceAll("/","");//一层目录
+                    dirName=StringUtils.remove(dirName,'/');//一层目录
                     return fileDirPath+dirName;
                 }else{
                     return fileDirPath+"/"+dirName;
@@ -167,15 +311,39 @@ public class FileUtil {
             if(dirType.equals(FileDirType.EMPTY)){//不需要目录
                 return "";
             }
-            SimpleDateFormat sdf=new SimpleDateFormat(dirType.value());
-            String dirName=sdf.format(new Date());
+            String dirName=dateDir(dirType);
             if(! isMutiDir){
-                dirName= dirName.replaceAll("/","");//一层目录
-            }else{
+                dirName= StringUtils.remove(dirName,'/');//一层目录
             }
             return dirName;
         }
+    }
 
+    /**
+     * 当前日期的目录，如 2022/01/05，使用缓存的线程安全格式化器
+     * @param dirType 日期格式，EMPTY、ROOT 返回空字符串
+     */
+    public static String dateDir(FileDirType dirType){
+        DateTimeFormatter formatter=DATE_FORMATTERS.get(dirType);
+        return formatter==null?"":LocalDate.now().format(formatter);
+    }
+
+    /**
+     * 32位十六进制UUID，不使用正则去除横线
+     */
+    public static String uuid(){
+        UUID uuid=UUID.randomUUID();
+        char[] chars=new char[32];
+        hex(chars,0,uuid.getMostSignificantBits());
+        hex(chars,16,uuid.getLeastSignificantBits());
+        return new String(chars);
+    }
+
+    private static void hex(char[] chars,int offset,long value){
+        for(int i=15;i>=0;i--){
+            chars[offset+i]=HEX_CHARS[(int)(value&0x0f)];
+            value>>>=4;
+        }
     }
 
 }
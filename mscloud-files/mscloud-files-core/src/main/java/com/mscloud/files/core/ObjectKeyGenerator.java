@@ -0,0 +1,96 @@
+package com.mscloud.files.core;
+
+import com.mscloud.files.core.constants.FileDirType;
+import com.mscloud.files.core.constants.KeyStrategy;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * 对象存储名称的目录生成
+ * 目录格式由 FileDirType 决定，策略 KeyStrategy 决定是否以及在什么位置插入由文件名计算的短哈希
+ */
+@Component
+public class ObjectKeyGenerator {
+
+    private static final char[] HEX="0123456789abcdef".toCharArray();
+
+    /**
+     * 目录策略，默认和原有格式一致
+     */
+    @Value("${mscloud.files.key.strategy:DATE}")
+    private KeyStrategy strategy;
+    /**
+     * 哈希长度，十六进制字符数，2位为256个分区
+     */
+    @Value("${mscloud.files.key.hashLength:2}")
+    private int hashLength;
+
+    /**
+     * 文件的存储目录，不以/结尾
+     * @param dirType 目录格式
+     * @param fileDirPath 固定目录
+     * @param keyStrategy 目录策略，为空时使用全局配置
+     * @param fileName 最终的文件名，哈希由文件名计算
+     */
+    public String dirName(FileDirType dirType, String fileDirPath, KeyStrategy keyStrategy, String fileName){
+        return dirName(dirType,fileDirPath,keyStrategy,fileName,true);
+    }
+
+    /**
+     * 文件的存储目录，不以/结尾
+     * @param dirType 目录格式
+     * @param fileDirPath 固定目录
+     * @param keyStrategy 目录策略，为空时使用全局配置
+     * @param fileName 最终的文件名，哈希由文件名计算
+     * @param isMutiDir 是否多层目录，一层目录时哈希直接拼接在目录名中
+     */
+    public String dirName(FileDirType dirType, String fileDirPath, KeyStrategy keyStrategy, String fileName, boolean isMutiDir){
+        String dirName=FileUtil.dirName(dirType,fileDirPath,isMutiDir);
+        KeyStrategy strategy=keyStrategy==null?this.strategy:keyStrategy;
+        String separator=isMutiDir?"/":"";
+        if(strategy==KeyStrategy.HASH_PREFIX){
+            return dirName.isEmpty()?hash(fileName):hash(fileName)+separator+dirName;
+        }
+        if(strategy==KeyStrategy.HASH_DATE){//插入在固定目录和日期目录之间
+            String dateDir=FileUtil.dateDir(dirType==null && StringUtils.isBlank(fileDirPath)?FileDirType.DAY:dirType);
+            if(! isMutiDir){
+                dateDir=StringUtils.remove(dateDir,'/');//一层目录
+            }
+            if(! dateDir.isEmpty() && dirName.endsWith(dateDir)){
+                return dirName.substring(0,dirName.length()-dateDir.length())+hash(fileName)+separator+dateDir;
+            }
+            return dirName.isEmpty()?hash(fileName):dirName+separator+hash(fileName);
+        }
+        return dirName;
+    }
+
+    /**
+     * 文件名的短哈希，取MD5的前 hashLength 个十六进制字符，可用于根据文件名还原存储名称
+     */
+    public String hash(String fileName){
+        try {
+            byte[] digest=MessageDigest.getInstance("MD5").digest(fileName.getBytes(StandardCharsets.UTF_8));
+            int length=Math.max(1,Math.min(hashLength,digest.length*2));
+            char[] chars=new char[length];
+            for(int i=0;i<length;i++){
+                int value=digest[i/2]&0xff;
+                chars[i]=HEX[i%2==0?value>>4:value&0x0f];
+            }
+            return new String(chars);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 全局配置的目录策略
+     */
+    public KeyStrategy getStrategy() {
+        return strategy;
+    }
+}
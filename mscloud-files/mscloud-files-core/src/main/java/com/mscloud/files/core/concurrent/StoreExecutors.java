@@ -0,0 +1,206 @@
+package com.mscloud.files.core.concurrent;
+
+import com.mscloud.files.core.FileUtil;
+import com.mscloud.files.core.constants.StoreType;
+import com.mscloud.files.core.pojo.FileInfo;
+import com.mscloud.files.core.pojo.FileResult;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiFunction;
+import java.util.function.IntFunction;
+
+/**
+ * 各存储方式的并发任务线程池
+ * 每种存储方式单独一个有界线程池，某个存储变慢时不影响其它存储；队列满时由提交任务的线程执行
+ */
+@Slf4j
+@Component
+public class StoreExecutors implements DisposableBean {
+
+    @Value("${mscloud.files.executor.minioThreads:16}")
+    private int minioThreads;
+    @Value("${mscloud.files.executor.ossThreads:16}")
+    private int ossThreads;
+    /**
+     * FTP并发受连接池限制，默认与 mscloud.ftp.pool.maxTotal 一致
+     */
+    @Value("${mscloud.files.executor.ftpThreads:${mscloud.ftp.pool.maxTotal:8}}")
+    private int ftpThreads;
+    @Value("${mscloud.files.executor.localThreads:8}")
+    private int localThreads;
+    /**
+     * 每个线程池的等待队列长度
+     */
+    @Value("${mscloud.files.executor.queueCapacity:1024}")
+    private int queueCapacity;
+
+    private final Map<StoreType,ThreadPoolExecutor> executors=new ConcurrentHashMap<>();
+
+    /**
+     * 获取存储方式对应的线程池
+     */
+    public ExecutorService get(StoreType storeType){
+        return executors.computeIfAbsent(storeType,this::create);
+    }
+
+    /**
+     * 存储方式对应的线程数
+     */
+    public int getThreads(StoreType storeType){
+        if(storeType==StoreType.MINIO){
+            return minioThreads;
+        }else if(storeType==StoreType.OSS){
+            return ossThreads;
+        }else if(storeType==StoreType.FTP){
+            return ftpThreads;
+        }
+        return localThreads;
+    }
+
+    /**
+     * 在存储方式对应的线程池上并发执行count个任务，结果按下标顺序返回
+     * 单次调用最多parallelism个任务同时执行，整体并发受线程池大小限制；
+     * 等待期间线程被中断则不再开始剩余任务，但已开始的任务执行完才返回，保证调用方持有的资源(如上传临时文件)不会提前释放
+     * @param storeType 存储方式
+     * @param count 任务数
+     * @param parallelism 单次调用的最大并发数
+     * @param task 按下标执行任务
+     * @param onError 任务异常或被取消时按下标生成结果
+     * @return 按下标顺序的结果
+     */
+    public <T> List<T> invokeOrdered(StoreType storeType,int count,int parallelism,IntFunction<T> task,BiFunction<Integer,Exception,T> onError){
+        AtomicReferenceArray<T> results=new AtomicReferenceArray<>(count);
+        AtomicInteger next=new AtomicInteger();
+        AtomicBoolean cancelled=new AtomicBoolean();
+        Runnable worker=()->{
+            int index;
+            while(!cancelled.get() && (index=next.getAndIncrement())<count){
+                try {
+                    results.set(index,task.apply(index));
+                } catch (Exception e) {
+                    log.warn("{}任务执行失败{}",storeType.desc(),e.getMessage());
+                    results.set(index,onError.apply(index,e));
+                }
+            }
+        };
+        int workers=Math.min(count,Math.max(1,Math.min(parallelism,getThreads(storeType))));
+        if(workers<=1){
+            worker.run();
+        }else{
+            List<Future<?>> futures=new ArrayList<>(workers);
+            for(int i=0;i<workers;i++){
+                futures.add(get(storeType).submit(worker));
+            }
+            boolean interrupted=false;
+            for(Future<?> future:futures){
+                while(true){
+                    try {
+                        future.get();
+                        break;
+                    } catch (InterruptedException e) {
+                        //不再开始新任务，继续等待执行中的任务结束
+                        interrupted=true;
+                        cancelled.set(true);
+                    } catch (ExecutionException e) {
+                        break;
+                    }
+                }
+            }
+            if(interrupted){
+                Thread.currentThread().interrupt();
+            }
+        }
+        List<T> list=new ArrayList<>(count);
+        for(int i=0;i<count;i++){
+            T result=results.get(i);
+            list.add(result!=null?result:onError.apply(i,new CancellationException("任务已取消")));
+        }
+        return list;
+    }
+
+    /**
+     * 在存储方式对应的线程池上并发上传多个表单文件，结果与传入顺序一致
+     * @param storeType 存储方式
+     * @param multipartFiles 多个文件流数组
+     * @param parallelism 单次调用的最大并发数
+     * @param upload 上传单个文件，参数为文件流和文件基本信息
+     * @return 按传入顺序的上传结果
+     */
+    public List<FileResult> uploadFiles(StoreType storeType,MultipartFile[] multipartFiles,int parallelism,BiFunction<InputStream,FileInfo,FileResult> upload){
+        return invokeOrdered(storeType,multipartFiles.length,parallelism,
+                index->uploadMultipartFile(multipartFiles[index],upload),
+                (index,e)->FileResult.builder().isOk(false).msg("上传失败,"+e.getMessage()).orignalName(multipartFiles[index].getOriginalFilename()).build());
+    }
+
+    /**
+     * 上传单个表单文件
+     */
+    private static FileResult uploadMultipartFile(MultipartFile file,BiFunction<InputStream,FileInfo,FileResult> upload){
+        //文件基本信息
+        String orignalFilename=file.getOriginalFilename();//文件原始名称
+        String fileSuffix= FileUtil.splitFileSuffix(orignalFilename);//后缀
+        FileInfo fileInfo=FileInfo.builder().fileSize(file.getSize()).contentType(file.getContentType()).orignalName(orignalFilename).fileSuffix(fileSuffix).build();
+        try {
+            return upload.apply(file.getInputStream(),fileInfo);
+        } catch (IOException e) {
+            log.warn("上传失败{}",e.getMessage());
+            return FileResult.builder().isOk(false).msg("上传失败,读取文件异常").orignalName(orignalFilename).build();
+        }
+    }
+
+    private ThreadPoolExecutor create(StoreType storeType){
+        int threads=Math.max(1,getThreads(storeType));
+        String prefix="mscloud-"+storeType.value().toLowerCase()+"-";
+        AtomicInteger index=new AtomicInteger();
+        ThreadFactory threadFactory=runnable->{
+            Thread thread=new Thread(runnable,prefix+index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        ThreadPoolExecutor executor=new ThreadPoolExecutor(threads,threads,60,TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(queueCapacity),threadFactory,new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        log.info("{}任务线程池初始化完成,threads={}",storeType.desc(),threads);
+        return executor;
+    }
+
+    @Override
+    public void destroy() {
+        executors.values().forEach(ThreadPoolExecutor::shutdown);
+    }
+
+    public Map<String,Object> getStats(){
+        Map<String,Object> stats=new LinkedHashMap<>();
+        executors.forEach((storeType,executor)->{
+            Map<String,Object> item=new LinkedHashMap<>();
+            item.put("threads",executor.getMaximumPoolSize());
+            item.put("activeThreads",executor.getActiveCount());
+            item.put("queuedTasks",executor.getQueue().size());
+            item.put("completedTasks",executor.getCompletedTaskCount());
+            stats.put(storeType.value(),item);
+        });
+        return stats;
+    }
+}
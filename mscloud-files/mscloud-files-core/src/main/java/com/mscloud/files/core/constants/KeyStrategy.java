@@ -0,0 +1,35 @@
+package com.mscloud.files.core.constants;
+
+/**
+ * 对象存储名称的目录策略
+ * 按前缀分区的对象存储中，同一天的文件都在同一个日期目录下会集中写入同一个分区，
+ * 在日期目录之前加入由文件名计算的短哈希可以分散写入，且根据文件名可以重新计算出完整名称
+ */
+public enum KeyStrategy {
+    DATE("DATE","目录/日期/文件名"),
+    HASH_PREFIX("HASH_PREFIX","哈希/目录/日期/文件名"),
+    HASH_DATE("HASH_DATE","目录/哈希/日期/文件名");
+
+
+    private final String value;
+
+    /** 描述 */
+    private final String desc;
+
+    private KeyStrategy(String value,String desc) {
+        this.value = value;
+        this.desc = desc;
+    }
+
+    public String value() {
+        return this.value;
+    }
+
+    public String desc() {
+        return this.desc;
+    }
+
+    public String toString() {
+        return this.value;
+    }
+}
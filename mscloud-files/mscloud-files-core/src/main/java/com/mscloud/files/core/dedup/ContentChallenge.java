@@ -0,0 +1,32 @@
+package com.mscloud.files.core.dedup;
+
+import com.mscloud.files.core.constants.StoreType;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 秒传的内容证明挑战：客户端需要提交文件 [offset,offset+length) 区间的SHA-256
+ */
+@Data
+@AllArgsConstructor
+public class ContentChallenge {
+
+    private String challengeId;
+    private StoreType storeType;
+    /**
+     * 内容SHA-256
+     */
+    private String hash;
+    /**
+     * 区间起始位置
+     */
+    private long offset;
+    /**
+     * 区间长度
+     */
+    private long length;
+    /**
+     * 过期时间，毫秒
+     */
+    private long expireAt;
+}
@@ -0,0 +1,73 @@
+package com.mscloud.files.core.dedup;
+
+import com.mscloud.files.core.FileUtil;
+import com.mscloud.files.core.constants.StoreType;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 秒传的内容证明
+ * 只知道内容哈希不能引用已有对象：服务端随机选择文件的一个区间，客户端提交该区间的SHA-256证明持有文件内容；
+ * 每个挑战只能使用一次，过期后失效
+ */
+@Component
+public class ContentChallenges {
+
+    /**
+     * 证明区间的最大长度
+     */
+    public static final int MAX_LENGTH=64*1024;
+
+    /**
+     * 挑战的有效时长，单位秒
+     */
+    @Value("${mscloud.files.dedup.challengeSeconds:300}")
+    private long challengeSeconds;
+    /**
+     * 同时有效的最大挑战数
+     */
+    @Value("${mscloud.files.dedup.maxChallenges:10000}")
+    private int maxChallenges;
+
+    private final SecureRandom random=new SecureRandom();
+    private final Map<String,ContentChallenge> challenges=new ConcurrentHashMap<>();
+
+    /**
+     * 为已存在的内容生成挑战
+     * @param fileSize 文件大小
+     * @return 有效的挑战过多时返回null
+     */
+    public ContentChallenge create(StoreType storeType,String hash,long fileSize){
+        long now=System.currentTimeMillis();
+        if(challenges.size()>=maxChallenges){
+            challenges.values().removeIf(challenge->challenge.getExpireAt()<now);
+            if(challenges.size()>=maxChallenges){
+                return null;
+            }
+        }
+        long length=Math.max(0,Math.min(fileSize,MAX_LENGTH));
+        long offset=fileSize>length?Math.floorMod(random.nextLong(),fileSize-length+1):0;
+        ContentChallenge challenge=new ContentChallenge(FileUtil.uuid(),storeType,hash.toLowerCase(),offset,length,now+challengeSeconds*1000);
+        challenges.put(challenge.getChallengeId(),challenge);
+        return challenge;
+    }
+
+    /**
+     * 取出挑战，每个挑战只能取一次
+     * @return 不存在、已过期或与内容不匹配时返回null
+     */
+    public ContentChallenge take(String challengeId,StoreType storeType,String hash){
+        ContentChallenge challenge=challengeId==null?null:challenges.remove(challengeId);
+        if(challenge==null || challenge.getExpireAt()<System.currentTimeMillis()){
+            return null;
+        }
+        if(challenge.getStoreType()!=storeType || hash==null || ! challenge.getHash().equalsIgnoreCase(hash)){
+            return null;
+        }
+        return challenge;
+    }
+}
@@ -0,0 +1,51 @@
+package com.mscloud.files.core.dedup;
+
+import com.mscloud.files.core.constants.StoreType;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * 内容寻址的存储对象：相同内容只存储一份，多次上传共享同一对象，每次上传或秒传登记一个引用键
+ */
+@Data
+@AllArgsConstructor
+public class ContentEntry {
+
+    private StoreType storeType;
+    /**
+     * 内容SHA-256
+     */
+    private String hash;
+    /**
+     * 实际存储名称
+     */
+    private String storeName;
+    /**
+     * 访问地址
+     */
+    private String filePath;
+    private long fileSize;
+    private String contentType;
+    /**
+     * 引用键，删除文件时按引用键释放，全部释放后删除存储对象
+     */
+    private Set<String> refKeys;
+    /**
+     * 最后一个引用已释放，正在删除存储对象，期间不能再被引用
+     */
+    private boolean deleting;
+
+    /**
+     * 引用数
+     */
+    public int getRefs(){
+        return refKeys.size();
+    }
+
+    ContentEntry copy(){
+        return new ContentEntry(storeType,hash,storeName,filePath,fileSize,contentType,new LinkedHashSet<>(refKeys),deleting);
+    }
+}
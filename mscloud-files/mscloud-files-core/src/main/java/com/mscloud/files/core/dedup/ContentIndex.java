@@ -0,0 +1,416 @@
+package com.mscloud.files.core.dedup;
+
+import com.mscloud.files.core.constants.StoreType;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 内容索引，用于秒传和去重
+ * 按 存储方式+内容SHA-256 记录已存储的对象和引用键，同时按 存储方式+存储名称 反查；
+ * 每次上传或秒传登记一个引用键，删除文件时只释放该引用键，最后一个引用在存储对象删除成功后才移除；
+ * 每次变更追加一条记录到本地文件，启动时回放并压缩
+ */
+@Slf4j
+@Component
+public class ContentIndex implements InitializingBean, DisposableBean {
+
+    /**
+     * 旧版本记录：对象和引用数
+     */
+    private static final byte PUT=1;
+    private static final byte REMOVE=2;
+    private static final byte ENTRY=3;
+    private static final byte REF=4;
+    private static final byte UNREF=5;
+    /**
+     * 旧版本记录的引用没有引用键，回放时按该前缀生成
+     */
+    private static final String LEGACY_REF="legacy-";
+
+    /**
+     * 释放引用的结果
+     */
+    public enum Release {
+        /**
+         * 最后一个引用或未登记的文件，需要删除存储对象，删除成功后调用 deleted，失败调用 restore
+         */
+        DELETE,
+        /**
+         * 只释放了引用，存储对象仍被其它引用使用
+         */
+        RELEASED,
+        /**
+         * 还有多个引用且没有指定引用键
+         */
+        SHARED,
+        /**
+         * 引用键不存在
+         */
+        UNKNOWN_REF
+    }
+
+    /**
+     * 索引文件目录
+     */
+    @Value("${mscloud.files.dedup.dir:./mscloud-dedup}")
+    private String dir;
+
+    /**
+     * 存储方式+内容SHA-256 -> 对象
+     */
+    private final Map<String,ContentEntry> byHash=new HashMap<>();
+    /**
+     * 存储方式+存储名称 -> 对象
+     */
+    private final Map<String,ContentEntry> byName=new HashMap<>();
+
+    private Path file;
+    private DataOutputStream out;
+
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        Path path=Paths.get(dir);
+        Files.createDirectories(path);
+        this.file=path.resolve("content.index");
+        load();
+        compact();
+    }
+
+    @Override
+    public synchronized void destroy() throws IOException {
+        if(out!=null){
+            out.close();
+            out=null;
+        }
+    }
+
+    /**
+     * 查找相同内容的对象，不登记引用
+     * @return 不存在或正在删除时返回null
+     */
+    public synchronized ContentEntry find(StoreType storeType,String hash){
+        ContentEntry entry=byHash.get(hashKey(storeType,hash));
+        return entry==null || entry.isDeleting()?null:entry.copy();
+    }
+
+    /**
+     * 查找相同内容的对象并登记引用
+     * @param refKey 新的引用键
+     * @return 不存在或正在删除时返回null
+     */
+    public synchronized ContentEntry acquire(StoreType storeType,String hash,String refKey){
+        ContentEntry entry=byHash.get(hashKey(storeType,hash));
+        if(entry==null || entry.isDeleting()){
+            return null;
+        }
+        entry.getRefKeys().add(refKey);
+        writeRef(REF,entry,refKey);
+        return entry.copy();
+    }
+
+    /**
+     * 登记新上传的对象，相同内容已存在时在已有对象上登记引用
+     * @param refKey 新的引用键
+     * @return 登记后的对象，存储名称和新上传的不一致时新上传的对象是重复的，可以删除
+     */
+    public synchronized ContentEntry register(StoreType storeType,String hash,String storeName,String filePath,long fileSize,String contentType,String refKey){
+        ContentEntry entry=byHash.get(hashKey(storeType,hash));
+        if(entry!=null && entry.isDeleting()){//已有对象正在删除，使用新上传的对象
+            remove(entry);
+            write(REMOVE,entry);
+            entry=null;
+        }
+        if(entry==null){
+            //同名覆盖时原对象的内容已经改变
+            ContentEntry replaced=byName.get(nameKey(storeType,storeName));
+            if(replaced!=null){
+                remove(replaced);
+                write(REMOVE,replaced);
+            }
+            entry=new ContentEntry(storeType,hash.toLowerCase(),storeName,filePath,fileSize,contentType,new LinkedHashSet<>(),false);
+            put(entry);
+            write(ENTRY,entry);
+        }
+        entry.getRefKeys().add(refKey);
+        writeRef(REF,entry,refKey);
+        return entry.copy();
+    }
+
+    /**
+     * 删除文件时释放引用
+     * @param refKey 上传或秒传时返回的引用键；为空时只能释放唯一的引用或旧版本没有引用键的引用
+     * @return 释放结果，DELETE 时最后一个引用要等存储对象删除成功后调用 deleted 才移除
+     */
+    public synchronized Release release(StoreType storeType,String storeName,String refKey){
+        ContentEntry entry=byName.get(nameKey(storeType,storeName));
+        if(entry==null || entry.isDeleting()){
+            return Release.DELETE;
+        }
+        String key=refKey;
+        if(key==null || key.isEmpty()){
+            if(entry.getRefs()>1){
+                key=entry.getRefKeys().stream().filter(item->item.startsWith(LEGACY_REF)).findFirst().orElse(null);
+                if(key==null){
+                    return Release.SHARED;
+                }
+            }else{
+                key=entry.getRefKeys().iterator().next();
+            }
+        }else if(! entry.getRefKeys().contains(key)){
+            return Release.UNKNOWN_REF;
+        }
+        if(entry.getRefs()>1){
+            entry.getRefKeys().remove(key);
+            writeRef(UNREF,entry,key);
+            return Release.RELEASED;
+        }
+        entry.setDeleting(true);
+        return Release.DELETE;
+    }
+
+    /**
+     * 存储对象删除失败时恢复最后一个引用
+     */
+    public synchronized void restore(StoreType storeType,String storeName){
+        ContentEntry entry=byName.get(nameKey(storeType,storeName));
+        if(entry!=null){
+            entry.setDeleting(false);
+        }
+    }
+
+    /**
+     * 存储对象已删除或被覆盖时移除索引
+     */
+    public synchronized void invalidate(StoreType storeType,String storeName){
+        ContentEntry entry=byName.get(nameKey(storeType,storeName));
+        if(entry!=null){
+            remove(entry);
+            write(REMOVE,entry);
+        }
+    }
+
+    /**
+     * 删除目录前检查目录下的对象，没有被多个文件引用时标记为正在删除，之后不能再被引用
+     * @param prefix 目录前缀，以/结尾，为空表示全部
+     * @return 被多个文件引用的存储名称，不为空时不做标记，不能删除目录
+     */
+    public synchronized List<String> markDeletingPrefix(StoreType storeType,String prefix){
+        List<ContentEntry> entries=entriesUnder(storeType,prefix);
+        List<String> shared=new ArrayList<>();
+        for(ContentEntry entry:entries){
+            if(entry.getRefs()>1){
+                shared.add(entry.getStoreName());
+            }
+        }
+        if(shared.isEmpty()){
+            entries.forEach(entry->entry.setDeleting(true));
+        }
+        return shared;
+    }
+
+    /**
+     * 目录删除失败时恢复目录下的对象，已删除的对象在秒传时检查存储后移除
+     */
+    public synchronized void restorePrefix(StoreType storeType,String prefix){
+        entriesUnder(storeType,prefix).forEach(entry->entry.setDeleting(false));
+    }
+
+    private List<ContentEntry> entriesUnder(StoreType storeType,String prefix){
+        String keyPrefix=nameKey(storeType,prefix==null?"":prefix);
+        List<ContentEntry> entries=new ArrayList<>();
+        byName.forEach((key,entry)->{
+            if(key.startsWith(keyPrefix)){
+                entries.add(entry);
+            }
+        });
+        return entries;
+    }
+
+    /**
+     * 目录已删除时移除目录下的索引，删除前需要通过 markDeletingPrefix 确认没有共享的对象
+     * @param prefix 目录前缀，以/结尾，为空表示全部
+     */
+    public synchronized void invalidatePrefix(StoreType storeType,String prefix){
+        String keyPrefix=nameKey(storeType,prefix==null?"":prefix);
+        byName.entrySet().removeIf(item->{
+            if(! item.getKey().startsWith(keyPrefix)){
+                return false;
+            }
+            ContentEntry entry=item.getValue();
+            byHash.remove(hashKey(entry.getStoreType(),entry.getHash()));
+            write(REMOVE,entry);
+            return true;
+        });
+    }
+
+    /**
+     * 已登记的对象数、引用总数以及节省的存储空间
+     */
+    public synchronized Map<String,Object> getStats(){
+        long refs=0;
+        long savedBytes=0;
+        for(ContentEntry entry:byHash.values()){
+            refs+=entry.getRefs();
+            savedBytes+=(entry.getRefs()-1)*entry.getFileSize();
+        }
+        Map<String,Object> stats=new HashMap<>();
+        stats.put("objects",byHash.size());
+        stats.put("refs",refs);
+        stats.put("savedBytes",savedBytes);
+        return stats;
+    }
+
+    private void put(ContentEntry entry){
+        byHash.put(hashKey(entry.getStoreType(),entry.getHash()),entry);
+        byName.put(nameKey(entry.getStoreType(),entry.getStoreName()),entry);
+    }
+
+    private void remove(ContentEntry entry){
+        byHash.remove(hashKey(entry.getStoreType(),entry.getHash()));
+        byName.remove(nameKey(entry.getStoreType(),entry.getStoreName()));
+    }
+
+    private void write(byte type,ContentEntry entry){
+        try {
+            writeRecord(out,type,entry);
+            out.flush();
+        } catch (IOException e) {
+            log.warn("内容索引写入失败,{}",e.getMessage());
+        }
+    }
+
+    private void writeRef(byte type,ContentEntry entry,String refKey){
+        try {
+            writeRefRecord(out,type,entry,refKey);
+            out.flush();
+        } catch (IOException e) {
+            log.warn("内容索引写入失败,{}",e.getMessage());
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out,byte type,ContentEntry entry) throws IOException {
+        out.writeByte(type);
+        out.writeUTF(entry.getStoreType().name());
+        out.writeUTF(entry.getHash());
+        if(type==ENTRY){
+            out.writeUTF(entry.getStoreName());
+            out.writeUTF(entry.getFilePath()==null?"":entry.getFilePath());
+            out.writeLong(entry.getFileSize());
+            out.writeUTF(entry.getContentType()==null?"":entry.getContentType());
+        }
+    }
+
+    private static void writeRefRecord(DataOutputStream out,byte type,ContentEntry entry,String refKey) throws IOException {
+        out.writeByte(type);
+        out.writeUTF(entry.getStoreType().name());
+        out.writeUTF(entry.getHash());
+        out.writeUTF(refKey);
+    }
+
+    /**
+     * 回放索引文件，末尾写入不完整的记录直接忽略
+     */
+    private void load() throws IOException {
+        if(! Files.exists(file)){
+            return;
+        }
+        try (DataInputStream in=new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))){
+            while(true){
+                byte type=in.readByte();
+                StoreType storeType=StoreType.valueOf(in.readUTF());
+                String hash=in.readUTF();
+                if(type==PUT || type==ENTRY){
+                    String storeName=in.readUTF();
+                    String filePath=in.readUTF();
+                    long fileSize=in.readLong();
+                    String contentType=in.readUTF();
+                    LinkedHashSet<String> refKeys=new LinkedHashSet<>();
+                    if(type==PUT){//旧版本只记录了引用数
+                        int refs=in.readInt();
+                        for(int i=0;i<refs;i++){
+                            refKeys.add(LEGACY_REF+i);
+                        }
+                    }
+                    ContentEntry old=byHash.get(hashKey(storeType,hash));
+                    if(old!=null){
+                        remove(old);
+                    }
+                    put(new ContentEntry(storeType,hash,storeName,filePath.isEmpty()?null:filePath,fileSize,contentType.isEmpty()?null:contentType,refKeys,false));
+                }else if(type==REF || type==UNREF){
+                    String refKey=in.readUTF();
+                    ContentEntry entry=byHash.get(hashKey(storeType,hash));
+                    if(entry!=null){
+                        if(type==REF){
+                            entry.getRefKeys().add(refKey);
+                        }else{
+                            entry.getRefKeys().remove(refKey);
+                        }
+                    }
+                }else{
+                    ContentEntry old=byHash.get(hashKey(storeType,hash));
+                    if(old!=null){
+                        remove(old);
+                    }
+                }
+            }
+        }catch (EOFException e){
+            //读取完成
+        }catch (IOException|IllegalArgumentException e){
+            log.warn("内容索引文件损坏,已加载{}条,{}",byHash.size(),e.getMessage());
+        }
+        //登记对象后没来得及登记引用的，按普通文件处理
+        byHash.values().removeIf(entry->{
+            if(entry.getRefs()>0){
+                return false;
+            }
+            byName.remove(nameKey(entry.getStoreType(),entry.getStoreName()));
+            return true;
+        });
+    }
+
+    /**
+     * 只保留当前的对象重写索引文件，之后的变更追加写入
+     */
+    private void compact() throws IOException {
+        Path temp=file.resolveSibling(file.getFileName()+".tmp");
+        try (DataOutputStream tempOut=new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))){
+            for(ContentEntry entry:byHash.values()){
+                writeRecord(tempOut,ENTRY,entry);
+                for(String refKey:entry.getRefKeys()){
+                    writeRefRecord(tempOut,REF,entry,refKey);
+                }
+            }
+        }
+        Files.move(temp,file,StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+        this.out=new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file,StandardOpenOption.APPEND)));
+        log.info("内容索引已加载,对象数{}",byHash.size());
+    }
+
+    private static String hashKey(StoreType storeType,String hash){
+        return storeType.name()+"#"+hash.toLowerCase();
+    }
+
+    private static String nameKey(StoreType storeType,String storeName){
+        return storeType.name()+":"+storeName;
+    }
+}
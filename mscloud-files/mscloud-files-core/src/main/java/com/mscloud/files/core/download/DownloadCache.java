@@ -0,0 +1,37 @@
+package com.mscloud.files.core.download;
+
+import com.mscloud.files.core.constants.StoreType;
+import com.mscloud.files.core.pojo.FileStat;
+
+/**
+ * 下载缓存扩展点
+ * 存在实现时 FileDownloadSupport 在确认需要输出文件内容后，将各存储方式的区间读取交给缓存包装
+ */
+public interface DownloadCache {
+
+    /**
+     * 包装区间读取，不缓存时原样返回
+     * @param stat 文件元数据，用于生成缓存键以及校验缓存是否过期
+     * @param reader 存储方式的区间读取
+     * @return
+     */
+    RangeReader wrap(FileStat stat, RangeReader reader);
+
+    /**
+     * 文件删除或覆盖后清除缓存
+     * @param storeType 存储方式
+     * @param bucket 桶名称
+     * @param filePath 文件路径
+     */
+    default void invalidate(StoreType storeType, String bucket, String filePath){
+    }
+
+    /**
+     * 目录删除后清除目录下所有文件的缓存
+     * @param storeType 存储方式
+     * @param bucket 桶名称
+     * @param dirPrefix 目录前缀
+     */
+    default void invalidatePrefix(StoreType storeType, String bucket, String dirPrefix){
+    }
+}
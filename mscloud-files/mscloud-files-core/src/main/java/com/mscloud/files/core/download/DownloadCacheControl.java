@@ -0,0 +1,82 @@
+package com.mscloud.files.core.download;
+
+import lombok.Data;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 下载响应 Cache-Control 配置
+ * 按文件类型依次匹配 rules，均不匹配时使用 defaultCacheControl，如
+ * <pre>
+ * mscloud.files.download.cache.rules[0].contentType=image/*
+ * mscloud.files.download.cache.rules[0].cacheControl=private, max-age=86400
+ * </pre>
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "mscloud.files.download.cache")
+public class DownloadCacheControl {
+    /**
+     * 是否输出 Cache-Control
+     */
+    private Boolean enabled=true;
+    /**
+     * 未匹配任何规则时的 Cache-Control，默认每次使用前向服务端校验
+     */
+    private String defaultCacheControl="private, no-cache";
+    /**
+     * 文件类型规则，按配置顺序匹配
+     */
+    private List<Rule> rules=new ArrayList<>();
+
+    @Data
+    public static class Rule{
+        /**
+         * 文件类型，支持通配，如 image/* 、application/pdf
+         */
+        private String contentType;
+        private String cacheControl;
+    }
+
+    /**
+     * 获取文件对应的 Cache-Control
+     * @param contentType 文件类型，为空时按文件名后缀推断
+     * @param fileName 文件名
+     * @return 不输出时返回null
+     */
+    public String resolve(String contentType,String fileName){
+        if(! Boolean.TRUE.equals(enabled)){
+            return null;
+        }
+        MediaType mediaType=parse(contentType);
+        if(mediaType==null && fileName !=null){
+            mediaType=MediaTypeFactory.getMediaType(fileName).orElse(null);
+        }
+        if(mediaType !=null){
+            for(Rule rule:rules){
+                MediaType ruleType=parse(rule.getContentType());
+                if(ruleType !=null && ruleType.includes(mediaType)){
+                    return StringUtils.trimToNull(rule.getCacheControl());
+                }
+            }
+        }
+        return StringUtils.trimToNull(defaultCacheControl);
+    }
+
+    private static MediaType parse(String contentType){
+        if(StringUtils.isBlank(contentType)){
+            return null;
+        }
+        try {
+            return MediaType.parseMediaType(contentType);
+        }catch (Exception e){
+            return null;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package com.mscloud.files.core.download;
+
+import com.mscloud.files.core.pojo.FileResult;
+import com.mscloud.files.core.pojo.FileStat;
+import com.mscloud.files.core.transfer.FileTransferEngine;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 文件下载响应公共处理
+ * 支持 Range 单区间、多区间(multipart/byteranges)、If-Range 校验以及 If-None-Match/If-Modified-Since 协商缓存，
+ * 各存储方式只需提供元数据和区间读取，返回304时不会读取文件内容
+ */
+@Slf4j
+@Component
+public class FileDownloadSupport {
+
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+
+    /**
+     * 单次请求允许的最大区间数，超过则返回完整文件
+     */
+    @Value("${mscloud.files.download.maxRanges:16}")
+    private int maxRanges;
+
+    @Autowired
+    FileTransferEngine fileTransferEngine;
+
+    @Autowired
+    DownloadCacheControl downloadCacheControl;
+
+    @Autowired(required = false)
+    DownloadCache downloadCache;
+
+    /**
+     * 输出文件
+     * @param request 请求，读取Range、If-Range、If-None-Match、If-Modified-Since请求头
+     * @param response 响应
+     * @param stat 文件元数据，文件大小必须有值
+     * @param storeAsFilename 下载后文件名
+     * @param reader 区间读取
+     * @return
+     */
+    public FileResult download(HttpServletRequest request, HttpServletResponse response, FileStat stat, String storeAsFilename, RangeReader reader) throws Exception {
+        long fileSize=stat.getFileSize();
+        String etag=quoteEtag(stat.getEtag());
+
+        response.reset();
+        //下载名称
+        String storeAs = storeAsFilename==null?stat.getFilePath():storeAsFilename;
+        if(etag !=null){
+            response.setHeader("ETag",etag);
+        }
+        if(stat.getLastModified() !=null){
+            response.setDateHeader("Last-Modified",stat.getLastModified());
+        }
+        String cacheControl=downloadCacheControl.resolve(stat.getContentType(),storeAs);
+        if(cacheControl !=null){
+            response.setHeader("Cache-Control",cacheControl);
+        }
+        if(request !=null && isNotModified(request,etag,stat.getLastModified())){
+            //客户端缓存仍然有效，不读取文件内容
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return FileResult.builder().isOk(true).msg("文件未修改").build();
+        }
+        response.setHeader("Content-Disposition","attachment;filename=" + URLEncoder.encode(storeAs, "UTF-8"));
+        response.setHeader("Accept-Ranges","bytes");
+        if(downloadCache !=null){
+            reader=downloadCache.wrap(stat,reader);
+        }
+
+        List<HttpRange> ranges=null;
+        String rangeHeader=request==null?null:request.getHeader("Range");
+        if(rangeHeader !=null && isIfRangeMatched(request,etag,stat.getLastModified())){
+            ranges=HttpRange.parse(rangeHeader,fileSize);
+        }
+        if(ranges !=null && ranges.isEmpty()){//区间无法满足
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            response.setHeader("Content-Range","bytes */"+fileSize);
+            return FileResult.builder().isOk(true).msg("请求区间无法满足").build();
+        }
+        if(ranges==null || ranges.size()>maxRanges){//完整文件
+            response.setContentType(DEFAULT_CONTENT_TYPE+";charset=UTF-8");
+            response.setCharacterEncoding("UTF-8");
+            response.setContentLengthLong(fileSize);
+            writeRange(request,response,reader,0,fileSize);
+            return FileResult.builder().isOk(true).msg("下载成功").build();
+        }
+
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        if(ranges.size()==1){//单区间
+            HttpRange range=ranges.get(0);
+            response.setContentType(DEFAULT_CONTENT_TYPE);
+            response.setHeader("Content-Range",range.toContentRange(fileSize));
+            response.setContentLengthLong(range.length());
+            writeRange(request,response,reader,range.getStart(),range.length());
+            return FileResult.builder().isOk(true).msg("下载成功").build();
+        }
+
+        //多区间
+        String boundary=UUID.randomUUID().toString().replace("-","");
+        String partType=StringUtils.isNotBlank(stat.getContentType())?stat.getContentType():DEFAULT_CONTENT_TYPE;
+        long contentLength=0;
+        for(HttpRange range:ranges){
+            contentLength+=partHeader(boundary,partType,range,fileSize).length+range.length();
+        }
+        byte[] end=("\r\n--"+boundary+"--\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        contentLength+=end.length;
+        response.setContentType("multipart/byteranges; boundary="+boundary);
+        response.setContentLengthLong(contentLength);
+        OutputStream outputStream=response.getOutputStream();
+        for(HttpRange range:ranges){
+            outputStream.write(partHeader(boundary,partType,range,fileSize));
+            copyRange(reader,range.getStart(),range.length(),outputStream);
+        }
+        outputStream.write(end);
+        outputStream.flush();
+        return FileResult.builder().isOk(true).msg("下载成功").build();
+    }
+
+    /**
+     * 协商缓存校验，同时存在时 If-None-Match 优先
+     */
+    private boolean isNotModified(HttpServletRequest request,String etag,Long lastModified){
+        String ifNoneMatch=request.getHeader("If-None-Match");
+        if(StringUtils.isNotBlank(ifNoneMatch)){
+            if(etag==null){
+                return false;
+            }
+            String current=weakEtag(etag);
+            for(String tag:ifNoneMatch.split(",")){
+                tag=tag.trim();
+                //弱比较
+                if("*".equals(tag) || current.equals(weakEtag(tag))){
+                    return true;
+                }
+            }
+            return false;
+        }
+        if(lastModified==null || ! ("GET".equals(request.getMethod()) || "HEAD".equals(request.getMethod()))){
+            return false;
+        }
+        try {
+            long since=request.getDateHeader("If-Modified-Since");
+            return since>=0 && lastModified/1000<=since/1000;
+        }catch (IllegalArgumentException e){
+            return false;
+        }
+    }
+
+    private static String weakEtag(String etag){
+        return etag.startsWith("W/")?etag.substring(2):etag;
+    }
+
+    /**
+     * If-Range 校验，不匹配时忽略Range返回完整文件
+     */
+    private boolean isIfRangeMatched(HttpServletRequest request,String etag,Long lastModified){
+        String ifRange=request.getHeader("If-Range");
+        if(StringUtils.isBlank(ifRange)){
+            return true;
+        }
+        ifRange=ifRange.trim();
+        if(ifRange.startsWith("\"") || ifRange.startsWith("W/")){
+            //强校验，弱ETag不匹配
+            return etag !=null && ! etag.startsWith("W/") && etag.equals(ifRange);
+        }
+        if(lastModified==null){
+            return false;
+        }
+        try {
+            long since=request.getDateHeader("If-Range");
+            return since>=0 && lastModified/1000==since/1000;
+        }catch (IllegalArgumentException e){
+            return false;
+        }
+    }
+
+    /**
+     * 输出单个区间，本地文件优先使用Tomcat sendfile
+     */
+    private void writeRange(HttpServletRequest request,HttpServletResponse response,RangeReader reader,long offset,long length) throws Exception {
+        if(length<=0){
+            return;
+        }
+        if(reader instanceof FileRangeReader && request !=null && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))){
+            //交给Tomcat在请求结束后使用sendfile发送，数据不经过用户态
+            request.setAttribute(SENDFILE_FILENAME,((FileRangeReader) reader).getPath().toString());
+            request.setAttribute(SENDFILE_START,offset);
+            request.setAttribute(SENDFILE_END,offset+length);
+            return;
+        }
+        OutputStream outputStream=response.getOutputStream();
+        copyRange(reader,offset,length,outputStream);
+        outputStream.flush();
+    }
+
+    private void copyRange(RangeReader reader,long offset,long length,OutputStream outputStream) throws Exception {
+        if(reader instanceof FileRangeReader){
+            ((FileRangeReader) reader).transferTo(offset,length,Channels.newChannel(outputStream));
+            return;
+        }
+        try(InputStream inputStream=reader.open(offset,length)){
+            fileTransferEngine.copy(inputStream,outputStream,length);
+        }
+    }
+
+    private byte[] partHeader(String boundary,String contentType,HttpRange range,long fileSize){
+        String header="\r\n--"+boundary+"\r\n"
+                +"Content-Type: "+contentType+"\r\n"
+                +"Content-Range: "+range.toContentRange(fileSize)+"\r\n\r\n";
+        return header.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * ETag加上引号
+     */
+    public static String quoteEtag(String etag){
+        if(StringUtils.isBlank(etag)){
+            return null;
+        }
+        if(etag.startsWith("\"") || etag.startsWith("W/")){
+            return etag;
+        }
+        return "\""+etag+"\"";
+    }
+}
@@ -0,0 +1,58 @@
+package com.mscloud.files.core.download;
+
+import org.apache.commons.io.input.BoundedInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 本地文件区间读取，支持通道间直接传输以及Tomcat sendfile
+ */
+public class FileRangeReader implements RangeReader {
+
+    /**
+     * 单次transfer的最大字节数
+     */
+    private static final long TRANSFER_CHUNK = 8 * 1024 * 1024;
+
+    private final Path path;
+
+    public FileRangeReader(Path path) {
+        this.path = path;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public InputStream open(long offset, long length) throws IOException {
+        FileChannel channel=FileChannel.open(path,StandardOpenOption.READ);
+        channel.position(offset);
+        return new BoundedInputStream(Channels.newInputStream(channel),length);
+    }
+
+    /**
+     * 使用 FileChannel.transferTo 将区间写入目标通道
+     * @return 实际写入的字节数
+     */
+    public long transferTo(long offset, long length, WritableByteChannel target) throws IOException {
+        try(FileChannel channel=FileChannel.open(path,StandardOpenOption.READ)){
+            long position=offset;
+            long end=offset+length;
+            while(position<end){
+                long count=channel.transferTo(position,Math.min(TRANSFER_CHUNK,end-position),target);
+                if(count<=0){
+                    break;
+                }
+                position+=count;
+            }
+            return position-offset;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.mscloud.files.core.download;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * HTTP Range 请求区间，start、end均包含
+ */
+@Data
+@AllArgsConstructor
+public class HttpRange {
+
+    private static final String BYTES_UNIT = "bytes=";
+
+    private long start;
+
+    private long end;
+
+    public long length(){
+        return end-start+1;
+    }
+
+    /**
+     * 解析Range请求头
+     * @param header Range请求头，如 bytes=0-99,200-,-500
+     * @param fileSize 文件大小
+     * @return null表示请求头不合法需要忽略，空列表表示所有区间均无法满足
+     */
+    public static List<HttpRange> parse(String header, long fileSize){
+        if(StringUtils.isBlank(header) || ! header.startsWith(BYTES_UNIT)){
+            return null;
+        }
+        List<HttpRange> ranges=new ArrayList<>();
+        for(String spec:header.substring(BYTES_UNIT.length()).split(",")){
+            spec=spec.trim();
+            int index=spec.indexOf('-');
+            if(index==-1){
+                return null;
+            }
+            String first=spec.substring(0,index).trim();
+            String last=spec.substring(index+1).trim();
+            try {
+                if(first.isEmpty()){//后缀区间，最后N个字节
+                    if(last.isEmpty()){
+                        return null;
+                    }
+                    long suffix=Long.parseLong(last);
+                    if(suffix>0 && fileSize>0){
+                        ranges.add(new HttpRange(Math.max(0,fileSize-suffix),fileSize-1));
+                    }
+                }else{
+                    long start=Long.parseLong(first);
+                    long end=last.isEmpty()?fileSize-1:Long.parseLong(last);
+                    if(start<0 || end<start){
+                        return null;
+                    }
+                    if(start<fileSize){
+                        ranges.add(new HttpRange(start,Math.min(end,fileSize-1)));
+                    }
+                }
+            }catch (NumberFormatException e){
+                return null;
+            }
+        }
+        return merge(ranges);
+    }
+
+    /**
+     * 合并重叠以及相邻的区间，避免重复读取
+     */
+    private static List<HttpRange> merge(List<HttpRange> ranges){
+        if(ranges.size()<=1){
+            return ranges;
+        }
+        List<HttpRange> sorted=new ArrayList<>(ranges);
+        Collections.sort(sorted,(a,b)->Long.compare(a.start,b.start));
+        List<HttpRange> merged=new ArrayList<>();
+        HttpRange current=sorted.get(0);
+        for(int i=1;i<sorted.size();i++){
+            HttpRange next=sorted.get(i);
+            if(next.start<=current.end+1){
+                current=new HttpRange(current.start,Math.max(current.end,next.end));
+            }else{
+                merged.add(current);
+                current=next;
+            }
+        }
+        merged.add(current);
+        return merged;
+    }
+
+    public String toContentRange(long fileSize){
+        return "bytes "+start+"-"+end+"/"+fileSize;
+    }
+}
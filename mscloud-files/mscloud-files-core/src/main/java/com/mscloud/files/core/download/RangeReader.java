@@ -0,0 +1,18 @@
+package com.mscloud.files.core.download;
+
+import java.io.InputStream;
+
+/**
+ * 按区间读取文件内容，由各存储方式实现
+ */
+@FunctionalInterface
+public interface RangeReader {
+
+    /**
+     * 打开指定区间的数据流
+     * @param offset 起始位置
+     * @param length 读取长度
+     * @return 数据流，由调用方关闭
+     */
+    InputStream open(long offset, long length) throws Exception;
+}
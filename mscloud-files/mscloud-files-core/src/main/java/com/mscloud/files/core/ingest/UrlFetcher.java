@@ -0,0 +1,206 @@
+package com.mscloud.files.core.ingest;
+
+import com.mscloud.files.core.FileUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 网络文件下载
+ * 下载在独立线程池中执行，不占用请求线程；同一主机同时下载数受限，超出的任务在主机队列中等待，不占用线程；
+ * 连接、读取以及整体下载时间都有超时限制
+ */
+@Slf4j
+@Component
+public class UrlFetcher implements InitializingBean, DisposableBean {
+
+    /**
+     * 同时下载数
+     */
+    @Value("${mscloud.files.ingest.threads:8}")
+    private int threads;
+    /**
+     * 等待下载的最大任务数
+     */
+    @Value("${mscloud.files.ingest.queueCapacity:1000}")
+    private int queueCapacity;
+    /**
+     * 同一主机同时下载数
+     */
+    @Value("${mscloud.files.ingest.perHostLimit:2}")
+    private int perHostLimit;
+    /**
+     * 连接超时，单位毫秒
+     */
+    @Value("${mscloud.files.ingest.connectTimeout:10000}")
+    private int connectTimeout;
+    /**
+     * 读取超时，单位毫秒
+     */
+    @Value("${mscloud.files.ingest.readTimeout:30000}")
+    private int readTimeout;
+    /**
+     * 整体下载最长时间，单位秒
+     */
+    @Value("${mscloud.files.ingest.maxSeconds:1800}")
+    private long maxSeconds;
+
+    private ThreadPoolExecutor executor;
+
+    /**
+     * 主机 -> 正在下载数以及等待的任务
+     */
+    private final Map<String,HostQueue> hosts=new HashMap<>();
+    /**
+     * 已接收还未完成的任务数
+     */
+    private final AtomicInteger admitted=new AtomicInteger();
+
+    @Override
+    public void afterPropertiesSet() {
+        AtomicInteger index=new AtomicInteger();
+        //任务数由 admitted 限制，线程池队列不会超出
+        this.executor=new ThreadPoolExecutor(threads,threads,60,TimeUnit.SECONDS,new LinkedBlockingQueue<>(),runnable->{
+            Thread thread=new Thread(runnable,"mscloud-ingest-"+index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 按主机限制并发的执行器，用于提交下载任务
+     * @throws MalformedURLException 地址错误或不是http、https地址
+     */
+    public Executor executor(String url) throws MalformedURLException {
+        String host=parse(url).getHost().toLowerCase();
+        return task->execute(host,task);
+    }
+
+    /**
+     * 打开网络文件
+     * @throws IOException 地址错误、连接失败或远程返回错误状态
+     */
+    public UrlResource open(String url) throws IOException {
+        URL fileUrl=parse(url);
+        HttpURLConnection connection=(HttpURLConnection) fileUrl.openConnection();
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        connection.setInstanceFollowRedirects(true);
+        try {
+            int code=connection.getResponseCode();
+            if(code>=400){
+                throw new IOException("远程文件下载失败,HTTP "+code);
+            }
+            //后缀优先取地址路径，其次从已打开的流读取文件头判断，最后根据contentType，不再单独请求一次
+            InputStream inputStream=new BufferedInputStream(connection.getInputStream(),FileUtil.DETECT_SIZE);
+            String fileSuffix=FileUtil.splitUrlFileSuffix(fileUrl);
+            if(fileSuffix==null){
+                fileSuffix=FileUtil.detectSuffix(inputStream);
+            }
+            if(fileSuffix==null){
+                fileSuffix=FileUtil.contentTypeSuffix(connection.getContentType());
+            }
+            return new UrlResource(connection,inputStream,System.currentTimeMillis()+TimeUnit.SECONDS.toMillis(maxSeconds),fileSuffix);
+        }catch (IOException|RuntimeException e){
+            connection.disconnect();
+            throw e;
+        }
+    }
+
+    public Map<String,Object> getStats(){
+        Map<String,Object> stats=new LinkedHashMap<>();
+        stats.put("threads",threads);
+        stats.put("activeThreads",executor.getActiveCount());
+        stats.put("admittedTasks",admitted.get());
+        synchronized (hosts){
+            stats.put("hosts",hosts.size());
+        }
+        return stats;
+    }
+
+    private URL parse(String url) throws MalformedURLException {
+        URL fileUrl=new URL(url);
+        String protocol=fileUrl.getProtocol();
+        if(! "http".equalsIgnoreCase(protocol) && ! "https".equalsIgnoreCase(protocol)){
+            throw new MalformedURLException("只支持http、https地址");
+        }
+        return fileUrl;
+    }
+
+    private void execute(String host,Runnable task){
+        if(admitted.incrementAndGet()>threads+queueCapacity){
+            admitted.decrementAndGet();
+            throw new RejectedExecutionException("下载任务已满");
+        }
+        synchronized (hosts){
+            HostQueue queue=hosts.computeIfAbsent(host,k->new HostQueue());
+            if(queue.running>=perHostLimit){//等待同一主机的其它下载完成
+                queue.pending.add(task);
+                return;
+            }
+            queue.running++;
+        }
+        dispatch(host,task);
+    }
+
+    private void dispatch(String host,Runnable task){
+        executor.execute(()->{
+            try {
+                task.run();
+            } finally {
+                admitted.decrementAndGet();
+                next(host);
+            }
+        });
+    }
+
+    /**
+     * 一个下载完成，执行同一主机等待的下一个任务
+     */
+    private void next(String host){
+        Runnable task;
+        synchronized (hosts){
+            HostQueue queue=hosts.get(host);
+            task=queue.pending.poll();
+            if(task==null){
+                queue.running--;
+                if(queue.running==0){
+                    hosts.remove(host);
+                }
+                return;
+            }
+        }
+        dispatch(host,task);
+    }
+
+    private static class HostQueue {
+        private int running;
+        private final Deque<Runnable> pending=new ArrayDeque<>();
+    }
+}
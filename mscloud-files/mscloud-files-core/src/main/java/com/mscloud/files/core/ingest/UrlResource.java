@@ -0,0 +1,87 @@
+package com.mscloud.files.core.ingest;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+/**
+ * 已打开的网络文件，读取超过最长时间时抛出异常，关闭时断开连接
+ */
+public class UrlResource implements Closeable {
+
+    private final HttpURLConnection connection;
+    private final InputStream inputStream;
+    private final Long contentLength;
+    private final String contentType;
+    private final String fileSuffix;
+
+    UrlResource(HttpURLConnection connection, InputStream inputStream, long deadline, String fileSuffix) {
+        this.connection = connection;
+        this.inputStream = new DeadlineInputStream(inputStream,deadline);
+        long length=connection.getContentLengthLong();
+        this.contentLength = length<0?null:length;
+        this.contentType = connection.getContentType();
+        this.fileSuffix = fileSuffix;
+    }
+
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    /**
+     * 文件大小，未知时返回null
+     */
+    public Long getContentLength() {
+        return contentLength;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public String getFileSuffix() {
+        return fileSuffix;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            inputStream.close();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * 整体读取时间限制，readTimeout 只限制单次读取的等待时间
+     */
+    private static class DeadlineInputStream extends FilterInputStream {
+
+        private final long deadline;
+
+        DeadlineInputStream(InputStream in, long deadline) {
+            super(in);
+            this.deadline = deadline;
+        }
+
+        @Override
+        public int read() throws IOException {
+            check();
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            check();
+            return super.read(b, off, len);
+        }
+
+        private void check() throws IOException {
+            if(System.currentTimeMillis()>deadline){
+                throw new IOException("下载超时");
+            }
+        }
+    }
+}
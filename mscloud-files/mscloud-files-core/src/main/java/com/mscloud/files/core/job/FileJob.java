@@ -0,0 +1,196 @@
+package com.mscloud.files.core.job;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 后台任务
+ * 进度以计数器记录，如删除目录的 scanned/deleted/failed
+ */
+public class FileJob {
+
+    /**
+     * 任务类型：删除目录
+     */
+    public static final String TYPE_DELETE_DIR = "DELETE_DIR";
+    /**
+     * 任务类型：合并分片上传
+     */
+    public static final String TYPE_FINISH_UPLOAD = "FINISH_UPLOAD";
+    /**
+     * 任务类型：下载网络文件并上传
+     */
+    public static final String TYPE_INGEST_URL = "INGEST_URL";
+
+    /**
+     * 计数器：已扫描文件数
+     */
+    public static final String COUNTER_SCANNED = "scanned";
+    /**
+     * 计数器：已删除文件数
+     */
+    public static final String COUNTER_DELETED = "deleted";
+    /**
+     * 计数器：失败文件数
+     */
+    public static final String COUNTER_FAILED = "failed";
+
+    public enum Status{
+        /**
+         * 等待执行
+         */
+        PENDING,
+        /**
+         * 执行中
+         */
+        RUNNING,
+        /**
+         * 执行成功
+         */
+        SUCCESS,
+        /**
+         * 执行失败
+         */
+        FAILED
+    }
+
+    private final String jobId;
+    /**
+     * 任务类型
+     */
+    private final String type;
+
+    private volatile Status status=Status.PENDING;
+    /**
+     * 任务说明或失败原因
+     */
+    private volatile String msg;
+    /**
+     * 任务结果
+     */
+    private volatile Object result;
+
+    private final long createTime;
+    private volatile Long finishTime;
+
+    private final Map<String,AtomicLong> counters=new ConcurrentHashMap<>();
+
+    private final CountDownLatch done=new CountDownLatch(1);
+    /**
+     * 完成后执行的回调
+     */
+    private final List<Consumer<FileJob>> listeners=new ArrayList<>();
+
+    public FileJob(String type) {
+        this.jobId = UUID.randomUUID().toString().replace("-","");
+        this.type = type;
+        this.createTime = System.currentTimeMillis();
+    }
+
+    /**
+     * 计数器累加
+     */
+    public long increment(String name,long delta){
+        return counters.computeIfAbsent(name,k->new AtomicLong()).addAndGet(delta);
+    }
+
+    public long getCounter(String name){
+        AtomicLong counter=counters.get(name);
+        return counter==null?0:counter.get();
+    }
+
+    void start(){
+        this.status=Status.RUNNING;
+    }
+
+    void finish(Status status,String msg,Object result){
+        this.msg=msg;
+        this.result=result;
+        this.finishTime=System.currentTimeMillis();
+        //状态最后修改，读取到完成状态时结果已经可见
+        this.status=status;
+        done.countDown();
+        List<Consumer<FileJob>> callbacks;
+        synchronized (listeners){
+            callbacks=new ArrayList<>(listeners);
+            listeners.clear();
+        }
+        callbacks.forEach(this::callback);
+    }
+
+    /**
+     * 注册完成回调，任务已完成时立即执行
+     */
+    public void onDone(Consumer<FileJob> listener){
+        synchronized (listeners){
+            if(! isDone()){
+                listeners.add(listener);
+                return;
+            }
+        }
+        callback(listener);
+    }
+
+    private void callback(Consumer<FileJob> listener){
+        try {
+            listener.accept(this);
+        }catch (Exception e){
+            //回调失败不影响任务结果
+        }
+    }
+
+    /**
+     * 等待任务完成
+     * @return 是否已完成
+     */
+    public boolean await(long timeout,TimeUnit unit) throws InterruptedException {
+        return done.await(timeout,unit);
+    }
+
+    public boolean isDone(){
+        return status==Status.SUCCESS || status==Status.FAILED;
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public String getMsg() {
+        return msg;
+    }
+
+    public void setMsg(String msg) {
+        this.msg = msg;
+    }
+
+    public Object getResult() {
+        return result;
+    }
+
+    public long getCreateTime() {
+        return createTime;
+    }
+
+    public Long getFinishTime() {
+        return finishTime;
+    }
+
+    public Map<String,AtomicLong> getCounters() {
+        return counters;
+    }
+}
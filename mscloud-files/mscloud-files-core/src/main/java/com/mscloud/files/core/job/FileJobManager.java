@@ -0,0 +1,151 @@
+package com.mscloud.files.core.job;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 后台任务管理
+ * 任务在独立线程池中执行，完成后保留 retainMinutes 分钟供查询进度和结果
+ */
+@Slf4j
+@Component
+public class FileJobManager implements InitializingBean, DisposableBean {
+
+    /**
+     * 同时执行的任务数
+     */
+    @Value("${mscloud.files.job.threads:4}")
+    private int threads;
+    /**
+     * 等待执行的最大任务数
+     */
+    @Value("${mscloud.files.job.queueCapacity:1000}")
+    private int queueCapacity;
+    /**
+     * 完成的任务保留时长，单位分钟
+     */
+    @Value("${mscloud.files.job.retainMinutes:60}")
+    private long retainMinutes;
+    /**
+     * 查询任务时最长等待时间，单位秒
+     */
+    @Value("${mscloud.files.job.maxWaitSeconds:30}")
+    private long maxWaitSeconds;
+
+    private ExecutorService executor;
+
+    private final Map<String,FileJob> jobs=new ConcurrentHashMap<>();
+
+    @Override
+    public void afterPropertiesSet() {
+        AtomicInteger index=new AtomicInteger();
+        this.executor=new ThreadPoolExecutor(threads,threads,0,TimeUnit.SECONDS,new LinkedBlockingQueue<>(queueCapacity),runnable->{
+            Thread thread=new Thread(runnable,"mscloud-job-"+index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 提交后台任务
+     * @param type 任务类型
+     * @param task 任务内容
+     * @return 任务，可通过jobId查询进度
+     * @throws RejectedExecutionException 等待执行的任务已满
+     */
+    public FileJob submit(String type,FileJobTask task){
+        return submit(type,task,executor);
+    }
+
+    /**
+     * 在指定的执行器中执行后台任务，任务同样登记到任务列表
+     * @param type 任务类型
+     * @param task 任务内容
+     * @param executor 执行器
+     * @return 任务，可通过jobId查询进度
+     * @throws RejectedExecutionException 执行器拒绝执行
+     */
+    public FileJob submit(String type,FileJobTask task,Executor executor){
+        purge();
+        FileJob job=new FileJob(type);
+        jobs.put(job.getJobId(),job);
+        try {
+            executor.execute(()->run(job,task));
+        }catch (RejectedExecutionException e){
+            jobs.remove(job.getJobId());
+            throw e;
+        }
+        return job;
+    }
+
+    /**
+     * 在当前线程执行任务，不登记到任务列表
+     */
+    public FileJob runNow(String type,FileJobTask task){
+        FileJob job=new FileJob(type);
+        run(job,task);
+        return job;
+    }
+
+    /**
+     * 查询任务
+     * @return 不存在或已过期时返回null
+     */
+    public FileJob get(String jobId){
+        return jobId==null?null:jobs.get(jobId);
+    }
+
+    /**
+     * 查询任务，任务未完成时等待完成或超时，用于长轮询
+     * @param waitSeconds 等待时间，单位秒，不超过 maxWaitSeconds
+     * @return 不存在或已过期时返回null
+     */
+    public FileJob await(String jobId,long waitSeconds){
+        FileJob job=get(jobId);
+        if(job!=null && waitSeconds>0 && ! job.isDone()){
+            try {
+                job.await(Math.min(waitSeconds,maxWaitSeconds),TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return job;
+    }
+
+    private void run(FileJob job,FileJobTask task){
+        job.start();
+        try {
+            Object result=task.run(job);
+            job.finish(FileJob.Status.SUCCESS,job.getMsg()==null?"成功":job.getMsg(),result);
+        }catch (Exception e){
+            log.warn("任务执行失败,jobId={},type={},{}",job.getJobId(),job.getType(),e.getMessage());
+            job.finish(FileJob.Status.FAILED,e.getMessage(),null);
+        }
+    }
+
+    /**
+     * 清理过期的任务
+     */
+    private void purge(){
+        long expireBefore=System.currentTimeMillis()-retainMinutes*60*1000;
+        jobs.values().removeIf(job->job.isDone() && job.getFinishTime()<expireBefore);
+    }
+}
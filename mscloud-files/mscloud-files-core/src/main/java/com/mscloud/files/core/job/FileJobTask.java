@@ -0,0 +1,16 @@
+package com.mscloud.files.core.job;
+
+/**
+ * 后台任务内容
+ */
+@FunctionalInterface
+public interface FileJobTask {
+
+    /**
+     * 执行任务
+     * @param job 当前任务，用于更新进度
+     * @return 任务结果
+     * @throws Exception 抛出异常时任务失败
+     */
+    Object run(FileJob job) throws Exception;
+}
@@ -0,0 +1,149 @@
+package com.mscloud.files.core.link;
+
+import com.mscloud.files.core.constants.StoreType;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 分享链接缓存
+ * 按 存储方式+桶+路径+有效时长 缓存已签名的链接，剩余有效期不少于申请时长的 minRemainingRatio 且大于 safetyMargin 时直接返回，
+ * 避免同一文件重复签名以及重复检查文件是否存在
+ */
+@Component
+public class ShareLinkCache {
+
+    /**
+     * 是否启用缓存
+     */
+    @Value("${mscloud.files.shareLink.cacheEnabled:true}")
+    private boolean enabled;
+    /**
+     * 最多缓存的文件数
+     */
+    @Value("${mscloud.files.shareLink.maxEntries:10000}")
+    private int maxEntries;
+    /**
+     * 距离过期不足该时长的链接不再返回，单位秒
+     */
+    @Value("${mscloud.files.shareLink.safetyMargin:300}")
+    private long safetyMargin;
+    /**
+     * 返回的链接剩余有效期至少为申请时长的比例
+     */
+    @Value("${mscloud.files.shareLink.minRemainingRatio:0.5}")
+    private double minRemainingRatio;
+    /**
+     * 生成链接前是否检查文件存在，关闭后签名只在本地计算，不请求存储
+     */
+    @Value("${mscloud.files.shareLink.checkExists:true}")
+    private boolean checkExists;
+
+    /**
+     * 文件 -> (有效时长 -> 链接)
+     */
+    private final LinkedHashMap<String,Map<Integer,ShareLink>> links=new LinkedHashMap<>(256,0.75f,true);
+
+    private final AtomicLong hits=new AtomicLong();
+    private final AtomicLong misses=new AtomicLong();
+
+    /**
+     * 获取缓存的链接
+     * @param storeType 存储方式
+     * @param bucket 桶名称
+     * @param filePath 文件路径
+     * @param expires 申请的有效时长，单位秒
+     * @return 无可用链接时返回null
+     */
+    public String get(StoreType storeType,String bucket,String filePath,int expires){
+        if(! enabled){
+            return null;
+        }
+        long now=System.currentTimeMillis();
+        long minRemaining=Math.max(safetyMargin*1000,(long)(expires*1000L*minRemainingRatio));
+        synchronized (links){
+            Map<Integer,ShareLink> byExpires=links.get(key(storeType,bucket,filePath));
+            ShareLink link=byExpires==null?null:byExpires.get(expires);
+            if(link !=null && link.expireAt-now>=minRemaining){
+                hits.incrementAndGet();
+                return link.url;
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * 缓存新生成的链接
+     * @param expires 有效时长，单位秒
+     * @param signedAt 签名时间，毫秒时间戳，需在签名前获取
+     */
+    public void put(StoreType storeType,String bucket,String filePath,int expires,long signedAt,String url){
+        if(! enabled || url==null){
+            return;
+        }
+        synchronized (links){
+            links.computeIfAbsent(key(storeType,bucket,filePath),k->new HashMap<>(4))
+                    .put(expires,new ShareLink(url,signedAt+expires*1000L));
+            Iterator<Map<Integer,ShareLink>> iterator=links.values().iterator();
+            while(links.size()>maxEntries && iterator.hasNext()){
+                iterator.next();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * 文件删除后清除链接
+     */
+    public void invalidate(StoreType storeType,String bucket,String filePath){
+        synchronized (links){
+            links.remove(key(storeType,bucket,filePath));
+        }
+    }
+
+    /**
+     * 目录删除后清除目录下所有文件的链接
+     */
+    public void invalidatePrefix(StoreType storeType,String bucket,String dirPrefix){
+        String prefix=key(storeType,bucket,dirPrefix);
+        synchronized (links){
+            links.keySet().removeIf(key->key.startsWith(prefix));
+        }
+    }
+
+    public boolean isCheckExists() {
+        return checkExists;
+    }
+
+    public Map<String,Object> getStats(){
+        Map<String,Object> stats=new LinkedHashMap<>();
+        stats.put("enabled",enabled);
+        stats.put("hits",hits.get());
+        stats.put("misses",misses.get());
+        synchronized (links){
+            stats.put("entries",links.size());
+        }
+        stats.put("checkExists",checkExists);
+        return stats;
+    }
+
+    private static String key(StoreType storeType,String bucket,String filePath){
+        return storeType+"|"+(bucket==null?"":bucket)+"|"+filePath;
+    }
+
+    private static class ShareLink{
+        private final String url;
+        private final long expireAt;
+
+        ShareLink(String url, long expireAt) {
+            this.url = url;
+            this.expireAt = expireAt;
+        }
+    }
+}
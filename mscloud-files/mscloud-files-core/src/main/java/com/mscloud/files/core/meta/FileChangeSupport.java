@@ -0,0 +1,62 @@
+package com.mscloud.files.core.meta;
+
+import com.mscloud.files.core.constants.StoreType;
+import com.mscloud.files.core.dedup.ContentIndex;
+import com.mscloud.files.core.download.DownloadCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * 存储对象变更后清理依赖文件内容的缓存
+ * 由各存储方式在写入、删除成功后调用，不论请求来自哪个接口，下载缓存(存在实现时)和内容寻址索引都不会引用旧的内容；
+ * 只清理本进程内的缓存，多个进程共用存储时其它进程的下载缓存依靠元数据校验过期
+ */
+@Component
+public class FileChangeSupport {
+
+    @Autowired(required = false)
+    DownloadCache downloadCache;
+
+    @Autowired
+    ContentIndex contentIndex;
+
+    /**
+     * 对象写入(新建或覆盖)后，旧内容不再有效
+     * @param storeType 存储方式
+     * @param bucket 桶名称
+     * @param storeName 存储名称
+     */
+    public void written(StoreType storeType,String bucket,String storeName){
+        invalidate(storeType,bucket,storeName);
+    }
+
+    /**
+     * 对象删除后
+     * @param storeType 存储方式
+     * @param bucket 桶名称
+     * @param storeName 存储名称
+     */
+    public void deleted(StoreType storeType,String bucket,String storeName){
+        invalidate(storeType,bucket,storeName);
+    }
+
+    /**
+     * 目录全部删除后
+     * @param storeType 存储方式
+     * @param bucket 桶名称
+     * @param prefix 目录前缀，以/结尾
+     */
+    public void deletedPrefix(StoreType storeType,String bucket,String prefix){
+        if(downloadCache!=null){
+            downloadCache.invalidatePrefix(storeType,bucket,prefix);
+        }
+        contentIndex.invalidatePrefix(storeType,prefix);
+    }
+
+    private void invalidate(StoreType storeType,String bucket,String storeName){
+        if(downloadCache!=null){
+            downloadCache.invalidate(storeType,bucket,storeName);
+        }
+        contentIndex.invalidate(storeType,storeName);
+    }
+}
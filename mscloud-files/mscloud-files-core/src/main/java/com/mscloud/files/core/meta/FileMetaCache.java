@@ -0,0 +1,157 @@
+package com.mscloud.files.core.meta;
+
+import com.mscloud.files.core.constants.StoreType;
+import com.mscloud.files.core.pojo.FileStat;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 文件元数据缓存
+ * 缓存存在文件的元数据以及"文件不存在"结果，两者分别设置有效时长；本服务上传、删除文件时立即更新
+ */
+@Component
+public class FileMetaCache {
+
+    /**
+     * 是否启用缓存
+     */
+    @Value("${mscloud.files.meta.enabled:true}")
+    private boolean enabled;
+    /**
+     * 最多缓存的文件数
+     */
+    @Value("${mscloud.files.meta.maxEntries:10000}")
+    private int maxEntries;
+    /**
+     * 存在文件的元数据有效时长，单位秒
+     */
+    @Value("${mscloud.files.meta.ttl:60}")
+    private long ttl;
+    /**
+     * 文件不存在结果的有效时长，单位秒
+     */
+    @Value("${mscloud.files.meta.negativeTtl:10}")
+    private long negativeTtl;
+
+    private final LinkedHashMap<String,Entry> entries=new LinkedHashMap<>(256,0.75f,true);
+
+    private final AtomicLong hits=new AtomicLong();
+    private final AtomicLong negativeHits=new AtomicLong();
+    private final AtomicLong misses=new AtomicLong();
+
+    /**
+     * 查询缓存
+     * @return 未缓存或已过期时返回null
+     */
+    public Entry get(StoreType storeType,String bucket,String filePath){
+        if(! enabled){
+            return null;
+        }
+        String key=key(storeType,bucket,filePath);
+        synchronized (entries){
+            Entry entry=entries.get(key);
+            if(entry !=null){
+                if(entry.expireAt>System.currentTimeMillis()){
+                    if(entry.isExists()){
+                        hits.incrementAndGet();
+                    }else{
+                        negativeHits.incrementAndGet();
+                    }
+                    return entry;
+                }
+                entries.remove(key);
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * 缓存存在的文件，存储方式、桶、路径取自元数据
+     */
+    public void putFound(FileStat stat){
+        put(key(stat.getStoreType(),stat.getBucket(),stat.getFilePath()),new Entry(stat,System.currentTimeMillis()+ttl*1000));
+    }
+
+    /**
+     * 缓存文件不存在
+     */
+    public void putNotFound(StoreType storeType,String bucket,String filePath){
+        put(key(storeType,bucket,filePath),new Entry(null,System.currentTimeMillis()+negativeTtl*1000));
+    }
+
+    private void put(String key,Entry entry){
+        if(! enabled){
+            return;
+        }
+        synchronized (entries){
+            entries.put(key,entry);
+            Iterator<Entry> iterator=entries.values().iterator();
+            while(entries.size()>maxEntries && iterator.hasNext()){
+                iterator.next();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * 文件变更后清除缓存
+     */
+    public void invalidate(StoreType storeType,String bucket,String filePath){
+        synchronized (entries){
+            entries.remove(key(storeType,bucket,filePath));
+        }
+    }
+
+    /**
+     * 目录删除后清除目录下所有文件的缓存
+     */
+    public void invalidatePrefix(StoreType storeType,String bucket,String dirPrefix){
+        String prefix=key(storeType,bucket,dirPrefix);
+        synchronized (entries){
+            entries.keySet().removeIf(key->key.startsWith(prefix));
+        }
+    }
+
+    public Map<String,Object> getStats(){
+        Map<String,Object> stats=new LinkedHashMap<>();
+        stats.put("enabled",enabled);
+        stats.put("hits",hits.get());
+        stats.put("negativeHits",negativeHits.get());
+        stats.put("misses",misses.get());
+        synchronized (entries){
+            stats.put("entries",entries.size());
+        }
+        return stats;
+    }
+
+    private static String key(StoreType storeType,String bucket,String filePath){
+        return storeType+"|"+(bucket==null?"":bucket)+"|"+filePath;
+    }
+
+    /**
+     * 缓存项，stat为空表示文件不存在
+     */
+    public static class Entry{
+        private final FileStat stat;
+        private final long expireAt;
+
+        Entry(FileStat stat, long expireAt) {
+            this.stat = stat;
+            this.expireAt = expireAt;
+        }
+
+        public boolean isExists(){
+            return stat !=null;
+        }
+
+        public FileStat getStat() {
+            return stat;
+        }
+    }
+}
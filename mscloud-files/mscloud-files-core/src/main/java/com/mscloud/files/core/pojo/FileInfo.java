@@ -28,4 +28,8 @@ public class FileInfo {
      * 文件后缀
      */
     private String fileSuffix;
+    /**
+     * 文件内容SHA-256，秒传时使用
+     */
+    private String contentHash;
 }
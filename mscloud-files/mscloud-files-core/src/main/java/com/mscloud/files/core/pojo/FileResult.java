@@ -75,4 +75,24 @@ public class FileResult implements Serializable{
      */
     private String moduleName;
 
+    /**
+     * 后台合并任务ID，分片上传全部收到后返回，通过任务查询合并结果
+     */
+    private String jobId;
+
+    /**
+     * 分片上传的整体摘要：各分片MD5组成的哈希树根节点
+     */
+    private String digest;
+
+    /**
+     * 内容寻址上传的文件内容SHA-256
+     */
+    private String contentHash;
+
+    /**
+     * 内容寻址上传或秒传的引用键，删除共享内容的文件时需要传入
+     */
+    private String refKey;
+
 }
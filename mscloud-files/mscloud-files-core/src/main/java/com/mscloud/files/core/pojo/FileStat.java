@@ -0,0 +1,49 @@
+package com.mscloud.files.core.pojo;
+
+import com.mscloud.files.core.constants.StoreType;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+/**
+ * 文件元数据
+ */
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Data
+public class FileStat implements Serializable {
+
+    private static final long serialVersionUID = 4127513962174329511L;
+    /**
+     * 存储方式
+     */
+    private StoreType storeType;
+    /**
+     * 桶名称，FTP为服务器地址
+     */
+    private String bucket;
+    /**
+     * 存储路径
+     */
+    private String filePath;
+    /**
+     * 文件大小,单位为字节byte
+     */
+    private Long fileSize;
+    /**
+     * 存储返回的ETag，不含引号
+     */
+    private String etag;
+    /**
+     * 最后修改时间，毫秒时间戳
+     */
+    private Long lastModified;
+    /**
+     * 文件类型
+     */
+    private String contentType;
+}
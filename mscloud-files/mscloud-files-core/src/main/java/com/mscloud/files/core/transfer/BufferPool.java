@@ -0,0 +1,97 @@
+package com.mscloud.files.core.transfer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 有界缓冲池
+ * 缓冲按需创建，最多缓存 maxBuffers 个；池中无可用缓冲时最多等待 borrowTimeoutMillis，超时则临时分配一个，归还时丢弃
+ */
+public class BufferPool {
+
+    private final int bufferSize;
+
+    private final int maxBuffers;
+
+    private final long borrowTimeoutMillis;
+
+    private final BlockingQueue<ByteBuffer> idleBuffers;
+
+    private final AtomicInteger created=new AtomicInteger();
+
+    private final AtomicLong fallbackCount=new AtomicLong();
+
+    public BufferPool(int bufferSize, int maxBuffers, long borrowTimeoutMillis) {
+        this.bufferSize = bufferSize;
+        this.maxBuffers = maxBuffers;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.idleBuffers = new ArrayBlockingQueue<>(maxBuffers);
+    }
+
+    /**
+     * 借出缓冲，用完必须调用 release 归还
+     */
+    public ByteBuffer acquire(){
+        ByteBuffer buffer=idleBuffers.poll();
+        if(buffer !=null){
+            return buffer;
+        }
+        //未达到上限则新建
+        while(true){
+            int count=created.get();
+            if(count>=maxBuffers){
+                break;
+            }
+            if(created.compareAndSet(count,count+1)){
+                return ByteBuffer.allocate(bufferSize);
+            }
+        }
+        try {
+            buffer=idleBuffers.poll(borrowTimeoutMillis,TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if(buffer !=null){
+            return buffer;
+        }
+        //池已耗尽，临时分配，不进入池
+        fallbackCount.incrementAndGet();
+        return ByteBuffer.allocate(bufferSize);
+    }
+
+    /**
+     * 归还缓冲
+     */
+    public void release(ByteBuffer buffer){
+        if(buffer==null || buffer.capacity()!=bufferSize){
+            return;
+        }
+        buffer.clear();
+        //池已满说明是临时分配的缓冲，直接丢弃
+        idleBuffers.offer(buffer);
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public int getMaxBuffers() {
+        return maxBuffers;
+    }
+
+    public int getCreated() {
+        return created.get();
+    }
+
+    public int getIdle() {
+        return idleBuffers.size();
+    }
+
+    public long getFallbackCount() {
+        return fallbackCount.get();
+    }
+}
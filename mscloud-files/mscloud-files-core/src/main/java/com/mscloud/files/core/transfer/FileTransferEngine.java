@@ -0,0 +1,122 @@
+package com.mscloud.files.core.transfer;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 文件传输公共组件
+ * 各存储方式的流复制统一走这里，缓冲从有界缓冲池借出，尽量读满缓冲后一次写出，减少对响应流的小块写入
+ */
+@Slf4j
+@Component
+public class FileTransferEngine implements InitializingBean {
+
+    /**
+     * 单个缓冲大小，单位字节，建议 64KB~256KB
+     */
+    @Value("${mscloud.files.transfer.bufferSize:131072}")
+    private int bufferSize;
+    /**
+     * 缓冲池最多缓存的缓冲个数，约等于同时传输数
+     */
+    @Value("${mscloud.files.transfer.poolSize:64}")
+    private int poolSize;
+    /**
+     * 缓冲池耗尽时的等待时长，单位毫秒，超时后临时分配
+     */
+    @Value("${mscloud.files.transfer.borrowTimeout:100}")
+    private long borrowTimeout;
+
+    private BufferPool bufferPool;
+
+    private final AtomicInteger activeTransfers=new AtomicInteger();
+    private final AtomicLong totalTransfers=new AtomicLong();
+    private final AtomicLong totalBytes=new AtomicLong();
+
+    @Override
+    public void afterPropertiesSet() {
+        this.bufferPool=new BufferPool(bufferSize,poolSize,borrowTimeout);
+        log.info("传输缓冲池初始化完成,bufferSize={},poolSize={}",bufferSize,poolSize);
+    }
+
+    /**
+     * 复制整个输入流
+     */
+    public TransferStats copy(InputStream inputStream, OutputStream outputStream) throws IOException {
+        return copy(inputStream,outputStream,Long.MAX_VALUE);
+    }
+
+    /**
+     * 复制输入流，最多复制 length 个字节，不关闭输入输出流
+     * @param inputStream 输入流
+     * @param outputStream 输出流
+     * @param length 最多复制的字节数
+     * @return 传输统计
+     */
+    public TransferStats copy(InputStream inputStream, OutputStream outputStream, long length) throws IOException {
+        long start=System.currentTimeMillis();
+        long total=0;
+        activeTransfers.incrementAndGet();
+        ByteBuffer buffer=bufferPool.acquire();
+        try {
+            byte[] buf=buffer.array();
+            boolean eof=false;
+            while(! eof && total<length){
+                //读满缓冲，或者源暂时没有更多可读数据时写出一次
+                int limit=(int)Math.min(buf.length,length-total);
+                int filled=0;
+                while(filled<limit){
+                    int count=inputStream.read(buf,filled,limit-filled);
+                    if(count<0){
+                        eof=true;
+                        break;
+                    }
+                    filled+=count;
+                    if(count==0 || inputStream.available()<=0){
+                        break;
+                    }
+                }
+                if(filled>0){
+                    outputStream.write(buf,0,filled);
+                    total+=filled;
+                }
+            }
+        } finally {
+            bufferPool.release(buffer);
+            activeTransfers.decrementAndGet();
+            totalTransfers.incrementAndGet();
+            totalBytes.addAndGet(total);
+        }
+        TransferStats stats=new TransferStats(total,System.currentTimeMillis()-start);
+        log.debug("传输完成,bytes={},cost={}ms,speed={}B/s",stats.getBytes(),stats.getCostMillis(),stats.getBytesPerSecond());
+        return stats;
+    }
+
+    /**
+     * 传输运行情况
+     * @return
+     */
+    public Map<String,Object> getStats(){
+        Map<String,Object> stats=new LinkedHashMap<>();
+        stats.put("bufferSize",bufferPool.getBufferSize());
+        stats.put("poolSize",bufferPool.getMaxBuffers());
+        stats.put("createdBuffers",bufferPool.getCreated());
+        stats.put("idleBuffers",bufferPool.getIdle());
+        stats.put("fallbackBuffers",bufferPool.getFallbackCount());
+        stats.put("activeTransfers",activeTransfers.get());
+        stats.put("totalTransfers",totalTransfers.get());
+        stats.put("totalBytes",totalBytes.get());
+        return stats;
+    }
+}
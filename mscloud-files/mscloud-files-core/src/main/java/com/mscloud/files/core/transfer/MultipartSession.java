@@ -0,0 +1,30 @@
+package com.mscloud.files.core.transfer;
+
+import java.util.List;
+
+/**
+ * 一次分块上传会话，由各存储方式基于原生的分块上传接口实现
+ */
+public interface MultipartSession {
+
+    /**
+     * 上传一个分块，可能被多个线程同时调用
+     * @param partNumber 分块序号，从1开始
+     * @param data 分块数据，调用返回后缓冲会被复用
+     * @param length 分块有效长度
+     * @return 分块ETag
+     */
+    String uploadPart(int partNumber, byte[] data, int length) throws Exception;
+
+    /**
+     * 合并分块
+     * @param partETags 按分块序号排列的ETag
+     * @return 合并后对象的ETag
+     */
+    String complete(List<String> partETags) throws Exception;
+
+    /**
+     * 取消上传，清理已上传的分块
+     */
+    void abort() throws Exception;
+}
@@ -0,0 +1,21 @@
+package com.mscloud.files.core.transfer;
+
+/**
+ * 分块上传的目标对象，由各存储方式实现
+ * 上传引擎先读第一个分块，流在第一个分块内结束时直接上传，否则创建分块上传会话
+ */
+public interface MultipartTarget {
+
+    /**
+     * 数据不超过一个分块时直接上传
+     * @param data 数据
+     * @param length 有效长度
+     * @return 对象ETag
+     */
+    String put(byte[] data, int length) throws Exception;
+
+    /**
+     * 创建分块上传会话
+     */
+    MultipartSession create() throws Exception;
+}
@@ -0,0 +1,422 @@
+package com.mscloud.files.core.transfer;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 大文件流式分块上传
+ * 把输入流按 partSize 切成分块，通过存储的原生分块接口并发上传；不需要预先知道文件大小，
+ * 大小未知时先读第一个分块，流在第一个分块内结束则直接上传，缓冲按读到的数据从64KB逐步扩大；
+ * 单个上传最多占用 parallelism 个分块缓冲，所有上传的缓冲合计不超过 maxBufferBytes，任一分块失败则停止读取并取消整个上传
+ */
+@Slf4j
+@Component
+public class MultipartUploadEngine implements InitializingBean, DisposableBean {
+
+    /**
+     * 分块上传的最小分块，除最后一块外不能小于5MB
+     */
+    public static final int MIN_PART_SIZE=5*1024*1024;
+    /**
+     * 单个上传的最大分块数
+     */
+    public static final int MAX_PARTS=10000;
+    /**
+     * 大小未知时第一个分块的初始缓冲
+     */
+    private static final int INITIAL_BUFFER_SIZE=64*1024;
+
+    /**
+     * 分块大小，单位字节
+     */
+    @Value("${mscloud.files.multipart.partSize:16777216}")
+    private int partSize;
+    /**
+     * 文件大小已知且超过该值时使用分块上传，单位字节；大小未知时交给上传引擎，读到的数据不超过一个分块时直接上传
+     */
+    @Value("${mscloud.files.multipart.threshold:67108864}")
+    private long threshold;
+    /**
+     * 单个上传同时上传的分块数
+     */
+    @Value("${mscloud.files.multipart.parallelism:4}")
+    private int parallelism;
+    /**
+     * 上传分块的线程数，所有上传共用
+     */
+    @Value("${mscloud.files.multipart.threads:16}")
+    private int threads;
+    /**
+     * 所有上传的分块缓冲合计上限，单位字节
+     */
+    @Value("${mscloud.files.multipart.maxBufferBytes:268435456}")
+    private long maxBufferBytes;
+    /**
+     * 缓冲不足时第一个分块等待缓冲的最长时间，单位毫秒；之后的分块拿不到额度时复用本次上传已有的缓冲
+     */
+    @Value("${mscloud.files.multipart.bufferWaitMillis:30000}")
+    private long bufferWaitMillis;
+
+    /**
+     * 分块上传单独使用线程池，避免和调用方所在的存储线程池互相等待
+     */
+    private ThreadPoolExecutor executor;
+    /**
+     * 全局缓冲额度，单位KB
+     */
+    private Semaphore bufferBudget;
+    private int bufferBudgetKb;
+
+    private final AtomicInteger activeUploads=new AtomicInteger();
+    private final AtomicLong totalUploads=new AtomicLong();
+    private final AtomicLong totalParts=new AtomicLong();
+    private final AtomicLong totalBytes=new AtomicLong();
+    private final AtomicLong abortedUploads=new AtomicLong();
+
+    @Override
+    public void afterPropertiesSet() {
+        this.partSize=Math.max(partSize,MIN_PART_SIZE);
+        this.parallelism=Math.max(1,parallelism);
+        this.bufferBudgetKb=(int)Math.min(Integer.MAX_VALUE,Math.max(partSize,maxBufferBytes)/1024);
+        this.bufferBudget=new Semaphore(bufferBudgetKb);
+        AtomicInteger index=new AtomicInteger();
+        this.executor=new ThreadPoolExecutor(threads,threads,60,TimeUnit.SECONDS,new LinkedBlockingQueue<>(1024),runnable->{
+            Thread thread=new Thread(runnable,"mscloud-multipart-"+index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        },(runnable,pool)->{
+            //队列满时由调用方执行；关闭后拒绝，避免分块被静默丢弃而占住并发额度
+            if(pool.isShutdown()){
+                throw new RejectedExecutionException("分块上传线程池已关闭");
+            }
+            runnable.run();
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+        log.info("分块上传初始化完成,partSize={},parallelism={},threads={},maxBufferBytes={}",partSize,parallelism,threads,bufferBudgetKb*1024L);
+    }
+
+    @Override
+    public void destroy() {
+        if(executor !=null){
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * 是否交给上传引擎，大小未知时也返回true，由引擎读完第一个分块后决定是否直接上传
+     * @param fileSize 文件大小，未知时为空或小于0
+     */
+    public boolean isMultipart(Long fileSize){
+        return fileSize==null || fileSize<0 || fileSize>threshold;
+    }
+
+    /**
+     * 单个上传同时上传的分块数
+     */
+    public int getParallelism(){
+        return parallelism;
+    }
+
+    /**
+     * 缓冲不足时等待缓冲的最长时间，单位毫秒
+     */
+    public long getBufferWaitMillis(){
+        return bufferWaitMillis;
+    }
+
+    /**
+     * 从全局缓冲额度中申请，不等待；供自行聚合分块数据的调用方(如非阻塞上传)使用，
+     * 额度不足时由调用方稍后重试，最多重试 bufferWaitMillis，分块上传结束后调用 releaseBuffer 归还
+     * @param bytes 缓冲大小
+     * @return 是否申请成功
+     */
+    public boolean tryReserveBuffer(int bytes) throws IOException {
+        int permits=kb(bytes);
+        if(permits>bufferBudgetKb){
+            throw new IOException("分块大小超出缓冲上限,请调大 mscloud.files.multipart.maxBufferBytes");
+        }
+        return bufferBudget.tryAcquire(permits);
+    }
+
+    /**
+     * 归还 reserveBuffer 申请的额度
+     * @param bytes 缓冲大小
+     */
+    public void releaseBuffer(int bytes){
+        bufferBudget.release(kb(bytes));
+    }
+
+    /**
+     * 分块大小，文件较大时放大分块保证不超过最大分块数
+     */
+    public int partSizeFor(Long fileSize){
+        if(fileSize==null || fileSize<=0){
+            return partSize;
+        }
+        long min=(fileSize+MAX_PARTS-1)/MAX_PARTS;
+        return (int)Math.min(Integer.MAX_VALUE-8,Math.max(partSize,min));
+    }
+
+    /**
+     * 流式分块上传，不关闭输入流；失败时取消上传并抛出第一个异常
+     * 先读第一个分块，流在第一个分块内结束时直接上传，否则创建分块上传会话
+     * @param inputStream 输入流
+     * @param fileSize 文件大小，未知时为空或小于0
+     * @param target 上传目标
+     * @return 上传结果，直接上传时分块数为0
+     */
+    public MultipartUploadResult upload(InputStream inputStream, Long fileSize, MultipartTarget target) throws Exception {
+        int size=partSizeFor(fileSize);
+        PartBuffers buffers=new PartBuffers(size);
+        Semaphore permits=new Semaphore(parallelism);
+        Map<Integer,String> partETags=new ConcurrentSkipListMap<>();
+        AtomicReference<Exception> error=new AtomicReference<>();
+        MultipartSession session=null;
+        long total=0;
+        int partNumber=0;
+        activeUploads.incrementAndGet();
+        totalUploads.incrementAndGet();
+        try {
+            byte[] buffer=buffers.first(fileSize!=null && fileSize>0);
+            int length=readFully(inputStream,buffer);
+            while(length==buffer.length && length<size){//大小未知，逐步扩大第一个分块的缓冲
+                buffer=buffers.grow(buffer);
+                length+=readFully(inputStream,buffer,length);
+            }
+            if(length<size){//流在第一个分块内结束，直接上传
+                String etag=target.put(buffer,length);
+                totalBytes.addAndGet(length);
+                return new MultipartUploadResult(length,0,etag);
+            }
+            session=target.create();
+            MultipartSession current=session;
+            permits.acquire();
+            while(true){
+                if(partNumber>=MAX_PARTS){
+                    permits.release();
+                    throw new IOException("分块数超过"+MAX_PARTS+",请调大 mscloud.files.multipart.partSize");
+                }
+                partNumber++;
+                total+=length;
+                int number=partNumber;
+                int dataLength=length;
+                byte[] data=buffer;
+                try {
+                    executor.execute(()->{
+                        try {
+                            if(error.get()==null){
+                                partETags.put(number,current.uploadPart(number,data,dataLength));
+                                totalParts.incrementAndGet();
+                                totalBytes.addAndGet(dataLength);
+                            }
+                        } catch (Exception e) {
+                            error.compareAndSet(null,e);
+                        } finally {
+                            buffers.recycle(data);
+                            permits.release();
+                        }
+                    });
+                } catch (RuntimeException e) {//分块未提交，归还额度
+                    buffers.recycle(data);
+                    permits.release();
+                    throw e;
+                }
+                if(length<size || error.get()!=null){//读到结尾或已有分块失败
+                    break;
+                }
+                permits.acquire();
+                try {
+                    buffer=buffers.take();
+                } catch (InterruptedException e) {
+                    permits.release();
+                    throw e;
+                }
+                try {
+                    length=readFully(inputStream,buffer);
+                } catch (IOException e) {
+                    buffers.recycle(buffer);
+                    permits.release();
+                    throw e;
+                }
+                if(length==0){//上一块正好读到结尾
+                    buffers.recycle(buffer);
+                    permits.release();
+                    break;
+                }
+            }
+            //等待所有分块上传完成
+            permits.acquire(parallelism);
+            permits.release(parallelism);
+            if(error.get()!=null){
+                throw error.get();
+            }
+            String etag=session.complete(new ArrayList<>(partETags.values()));
+            return new MultipartUploadResult(total,partNumber,etag);
+        } catch (Exception e) {
+            if(session!=null){
+                //等待执行中的分块结束后再取消，避免取消后仍有分块写入
+                permits.acquireUninterruptibly(parallelism);
+                permits.release(parallelism);
+                abortedUploads.incrementAndGet();
+                try {
+                    session.abort();
+                } catch (Exception ex) {
+                    log.warn("取消分块上传失败{}",ex.getMessage());
+                }
+                log.warn("分块上传失败,已上传{}块,{}",partETags.size(),e.getMessage());
+            }
+            throw e;
+        } finally {
+            buffers.release();
+            activeUploads.decrementAndGet();
+        }
+    }
+
+    /**
+     * 读满缓冲或读到结尾
+     */
+    private int readFully(InputStream inputStream, byte[] buffer) throws IOException {
+        return readFully(inputStream,buffer,0);
+    }
+
+    /**
+     * 从offset开始读满缓冲或读到结尾
+     * @return 本次读到的字节数
+     */
+    private int readFully(InputStream inputStream, byte[] buffer, int offset) throws IOException {
+        int filled=offset;
+        while(filled<buffer.length){
+            int count=inputStream.read(buffer,filled,buffer.length-filled);
+            if(count<0){
+                break;
+            }
+            filled+=count;
+        }
+        return filled-offset;
+    }
+
+    private static int kb(int bytes){
+        return (bytes+1023)/1024;
+    }
+
+    /**
+     * 单个上传使用的分块缓冲，从全局额度中申请，上传结束后归还
+     * 第一个缓冲拿不到额度时等待，超时则上传失败；之后的缓冲拿不到额度时等待本次上传已有的缓冲空出来
+     */
+    private class PartBuffers {
+        private final int size;
+        private final BlockingQueue<byte[]> free;
+        /**
+         * 已申请的完整分块缓冲数
+         */
+        private int count;
+        /**
+         * 已占用的额度，单位KB
+         */
+        private int heldKb;
+
+        PartBuffers(int size){
+            this.size=size;
+            this.free=new ArrayBlockingQueue<>(parallelism);
+        }
+
+        /**
+         * 第一个缓冲，大小已知时直接申请完整分块，未知时从64KB开始
+         */
+        byte[] first(boolean sizeKnown) throws Exception {
+            int length=sizeKnown?size:Math.min(INITIAL_BUFFER_SIZE,size);
+            acquire(kb(length));
+            if(length==size){
+                count++;
+            }
+            return new byte[length];
+        }
+
+        /**
+         * 缓冲加倍，不超过分块大小
+         */
+        byte[] grow(byte[] buffer) throws Exception {
+            int length=(int)Math.min(size,buffer.length*2L);
+            acquire(kb(length)-kb(buffer.length));
+            if(length==size){
+                count++;
+            }
+            return Arrays.copyOf(buffer,length);
+        }
+
+        /**
+         * 取一个完整分块缓冲，优先复用空闲缓冲
+         */
+        byte[] take() throws InterruptedException {
+            byte[] buffer=free.poll();
+            if(buffer!=null){
+                return buffer;
+            }
+            if(count<parallelism && bufferBudget.tryAcquire(kb(size))){
+                heldKb+=kb(size);
+                count++;
+                return new byte[size];
+            }
+            return free.take();
+        }
+
+        void recycle(byte[] buffer){
+            if(buffer.length==size){
+                free.offer(buffer);
+            }
+        }
+
+        void release(){
+            if(heldKb>0){
+                bufferBudget.release(heldKb);
+                heldKb=0;
+            }
+        }
+
+        private void acquire(int permits) throws Exception {
+            if(heldKb+permits>bufferBudgetKb){
+                throw new IOException("分块大小超出缓冲上限,请调大 mscloud.files.multipart.maxBufferBytes");
+            }
+            if(! bufferBudget.tryAcquire(permits,bufferWaitMillis,TimeUnit.MILLISECONDS)){
+                throw new IOException("分块上传缓冲不足,请稍后重试");
+            }
+            heldKb+=permits;
+        }
+    }
+
+    public Map<String,Object> getStats(){
+        Map<String,Object> stats=new LinkedHashMap<>();
+        stats.put("partSize",partSize);
+        stats.put("parallelism",parallelism);
+        stats.put("activeUploads",activeUploads.get());
+        stats.put("totalUploads",totalUploads.get());
+        stats.put("abortedUploads",abortedUploads.get());
+        stats.put("totalParts",totalParts.get());
+        stats.put("totalBytes",totalBytes.get());
+        stats.put("activeThreads",executor.getActiveCount());
+        stats.put("maxBufferBytes",bufferBudgetKb*1024L);
+        stats.put("bufferBytes",(bufferBudgetKb-bufferBudget.availablePermits())*1024L);
+        return stats;
+    }
+}
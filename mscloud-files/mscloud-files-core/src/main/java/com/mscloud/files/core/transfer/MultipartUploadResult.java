@@ -0,0 +1,24 @@
+package com.mscloud.files.core.transfer;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 分块上传结果
+ */
+@Data
+@AllArgsConstructor
+public class MultipartUploadResult {
+    /**
+     * 上传字节数
+     */
+    private long bytes;
+    /**
+     * 分块数
+     */
+    private int parts;
+    /**
+     * 合并后对象的ETag
+     */
+    private String etag;
+}
@@ -0,0 +1,22 @@
+package com.mscloud.files.core.transfer;
+
+import com.mscloud.files.core.pojo.FileResult;
+
+/**
+ * 由调用方推送数据的对象上传，存储名称已生成
+ * 非阻塞服务把收到的数据按分块聚合后通过 target 上传，等待客户端数据时不占用存储线程；数据全部写入后调用 complete
+ */
+public interface PushUpload {
+
+    /**
+     * 上传目标，数据不超过一个分块时直接上传，否则创建分块上传会话
+     */
+    MultipartTarget target();
+
+    /**
+     * 数据已全部写入，更新缓存并生成上传结果
+     * @param etag 对象ETag
+     * @param fileSize 文件大小
+     */
+    FileResult complete(String etag, long fileSize);
+}
@@ -0,0 +1,27 @@
+package com.mscloud.files.core.transfer;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 单次传输统计
+ */
+@Data
+@AllArgsConstructor
+public class TransferStats {
+    /**
+     * 传输字节数
+     */
+    private long bytes;
+    /**
+     * 耗时，单位毫秒
+     */
+    private long costMillis;
+
+    /**
+     * 传输速度，单位 字节/秒
+     */
+    public long getBytesPerSecond(){
+        return costMillis<=0?bytes*1000:bytes*1000/costMillis;
+    }
+}
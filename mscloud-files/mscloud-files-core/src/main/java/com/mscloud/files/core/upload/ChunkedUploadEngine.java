@@ -0,0 +1,223 @@
+package com.mscloud.files.core.upload;
+
+import com.mscloud.files.core.job.FileJob;
+import com.mscloud.files.core.job.FileJobManager;
+import com.mscloud.files.core.job.FileJobTask;
+import com.mscloud.files.core.pojo.FileResult;
+import com.mscloud.files.core.transfer.MultipartSession;
+import com.mscloud.files.core.transfer.MultipartUploadEngine;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.IOUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 分片上传直接对应存储的原生分块上传
+ * 分片不小于最小分块时直接作为一个分块上传；分片较小时先暂存到本地，相邻的分片凑够最小分块后合并为一个分块上传。
+ * 全部分块上传后一次合并完成，不需要临时对象、服务端复制以及清理。
+ * 收到全部分片后合并在后台任务中执行，最后一个分片请求立即返回任务ID
+ */
+@Slf4j
+@Component
+public class ChunkedUploadEngine {
+
+    @Autowired
+    private UploadSessionRegistry uploadSessionRegistry;
+
+    @Autowired
+    private FileJobManager fileJobManager;
+
+    /**
+     * 合并时等待其它请求上传中分块的最长时间，单位秒
+     */
+    @Value("${mscloud.files.upload.finishTimeout:600}")
+    private long finishTimeout;
+
+    /**
+     * 接收一个分片，重复的分片直接忽略
+     * @param session 上传会话
+     * @param index 分片索引
+     * @param inputStream 分片流，不关闭
+     * @param size 分片大小
+     * @param expectedMd5 分片期望的MD5，为空不校验
+     * @param multipart 存储的分块上传
+     * @return 是否已收到全部分片，可以合并
+     * @throws SliceDigestException 分片MD5校验不通过，分片未登记，需要重新上传
+     */
+    public boolean accept(UploadSession session, int index, InputStream inputStream, long size, String expectedMd5, MultipartSession multipart) throws Exception {
+        if(! session.isReceived(index)){
+            int slicesPerPart=slicesPerPart(session,index,size);
+            if(slicesPerPart==1){//分片直接作为分块上传，校验通过后再上传
+                byte[] data=IOUtils.toByteArray(inputStream,size);
+                String md5=SliceDigest.md5Hex(data,data.length);
+                SliceDigest.verify(index,expectedMd5,md5);
+                String etag=multipart.uploadPart(index+1,data,data.length);
+                uploadSessionRegistry.markPart(session,index+1,etag);
+                uploadSessionRegistry.markReceived(session,index,size,md5);
+            }else{//暂存到本地，先写完并校验再登记，保证登记的分片都可以读取
+                String md5=stage(session,index,inputStream,expectedMd5);
+                uploadSessionRegistry.markReceived(session,index,size,md5);
+            }
+        }
+        if(session.getSlicesPerPart()>0){//剩余的分块在合并任务中上传
+            uploadPart(session,index/session.getSlicesPerPart(),session.getSlicesPerPart(),multipart);
+        }
+        return session.isComplete();
+    }
+
+    /**
+     * 分片写入本地暂存文件，写入时计算MD5，校验不通过时删除暂存文件
+     * @param expectedMd5 分片期望的MD5，为空不校验
+     * @return 分片MD5
+     * @throws SliceDigestException 分片MD5校验不通过
+     */
+    public String stage(UploadSession session, int index, InputStream inputStream, String expectedMd5) throws IOException {
+        Path file=uploadSessionRegistry.stagingFile(session,index);
+        DigestInputStream digestStream=SliceDigest.digestStream(inputStream);
+        Files.copy(digestStream,file,StandardCopyOption.REPLACE_EXISTING);
+        String md5=SliceDigest.hex(digestStream.getMessageDigest().digest());
+        try {
+            SliceDigest.verify(index,expectedMd5,md5);
+        }catch (SliceDigestException e){
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        return md5;
+    }
+
+    /**
+     * 提交后台合并任务：上传剩余分块、合并全部分块并删除会话，只有一个请求会提交
+     * @param onComplete 合并成功后根据合并后对象的ETag生成上传结果
+     * @return 合并任务，其它请求已提交时返回该任务，还未登记时返回null
+     * @throws RejectedExecutionException 等待执行的任务已满
+     */
+    public FileJob finish(UploadSession session, MultipartSession multipart, Function<String,FileResult> onComplete){
+        return finish(session,job->{
+            uploadRemainingParts(session,multipart);
+            String etag=multipart.complete(session.getPartETags());
+            uploadSessionRegistry.remove(session);
+            return onComplete.apply(etag);
+        });
+    }
+
+    /**
+     * 提交后台合并任务，只有一个请求会提交，合并失败后允许重新提交
+     * @param task 合并内容，返回上传结果
+     * @return 合并任务，其它请求已提交时返回该任务，还未登记时返回null
+     * @throws RejectedExecutionException 等待执行的任务已满
+     */
+    public FileJob finish(UploadSession session, FileJobTask task){
+        if(! session.tryFinish()){
+            return fileJobManager.get(session.getFinishJobId());
+        }
+        try {
+            FileJob job=fileJobManager.submit(FileJob.TYPE_FINISH_UPLOAD,j->{
+                try {
+                    FileResult result=(FileResult) task.run(j);
+                    if(! result.isOk()){
+                        throw new IllegalStateException(result.getMsg());
+                    }
+                    j.setMsg(result.getMsg());
+                    return result;
+                }catch (Exception e){
+                    log.warn("分片合并失败,key={},{}",session.getKey(),e.getMessage());
+                    session.cancelFinish();
+                    throw e;
+                }
+            });
+            session.setFinishJobId(job.getJobId());
+            return job;
+        }catch (RejectedExecutionException e){
+            session.cancelFinish();
+            throw e;
+        }
+    }
+
+    /**
+     * 上传全部分片收齐后还未上传的分块，并等待其它请求正在上传的分块
+     */
+    private void uploadRemainingParts(UploadSession session, MultipartSession multipart) throws Exception {
+        int slicesPerPart=session.getSlicesPerPart();
+        if(slicesPerPart==0){
+            throw new IllegalStateException("分块大小未确定");
+        }
+        long deadline=System.currentTimeMillis()+TimeUnit.SECONDS.toMillis(finishTimeout);
+        while(! session.isAllPartsUploaded()){
+            for(int part=0;part<session.getTotalParts();part++){
+                uploadPart(session,part,slicesPerPart,multipart);
+            }
+            if(session.isAllPartsUploaded()){
+                break;
+            }
+            if(System.currentTimeMillis()>deadline){
+                throw new IllegalStateException("等待分块上传超时");
+            }
+            //其它请求正在上传，等待其完成
+            Thread.sleep(200);
+        }
+    }
+
+    /**
+     * 每个分块包含的分片数，由第一个非最后分片的大小确定；还不能确定时返回0
+     */
+    private int slicesPerPart(UploadSession session, int index, long size){
+        int slicesPerPart=session.getSlicesPerPart();
+        int totalPieces=session.getTotalPieces();
+        if(slicesPerPart==0 && (index<totalPieces-1 || totalPieces==1)){
+            long count=(MultipartUploadEngine.MIN_PART_SIZE+Math.max(1,size)-1)/Math.max(1,size);
+            //分块数不能超过上限
+            count=Math.max(count,(totalPieces+MultipartUploadEngine.MAX_PARTS-1)/MultipartUploadEngine.MAX_PARTS);
+            slicesPerPart=uploadSessionRegistry.initSlicesPerPart(session,(int)Math.min(count,totalPieces));
+        }
+        return slicesPerPart;
+    }
+
+    private void uploadPart(UploadSession session, int part, int slicesPerPart, MultipartSession multipart) throws Exception {
+        int partNumber=part+1;
+        int from=part*slicesPerPart;
+        int to=Math.min(from+slicesPerPart,session.getTotalPieces());
+        if(session.isPartUploaded(partNumber) || ! session.isReceived(from,to) || ! session.tryUploadPart(partNumber)){
+            return;
+        }
+        try {
+            if(session.isPartUploaded(partNumber)){
+                return;
+            }
+            long total=0;
+            for(int i=from;i<to;i++){
+                total+=session.getSize(i);
+            }
+            if(total>Integer.MAX_VALUE-8){
+                throw new IOException("分块过大,请减小分片大小");
+            }
+            byte[] data=new byte[(int)total];
+            int offset=0;
+            for(int i=from;i<to;i++){
+                Path file=uploadSessionRegistry.stagingFile(session,i);
+                try (InputStream in=Files.newInputStream(file)){
+                    int length=(int)session.getSize(i);
+                    IOUtils.readFully(in,data,offset,length);
+                    offset+=length;
+                }
+            }
+            String etag=multipart.uploadPart(partNumber,data,data.length);
+            uploadSessionRegistry.markPart(session,partNumber,etag);
+            for(int i=from;i<to;i++){
+                Files.deleteIfExists(uploadSessionRegistry.stagingFile(session,i));
+            }
+        } finally {
+            session.releasePart(partNumber);
+        }
+    }
+}
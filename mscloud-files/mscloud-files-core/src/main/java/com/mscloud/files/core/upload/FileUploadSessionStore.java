@@ -0,0 +1,202 @@
+package com.mscloud.files.core.upload;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.input.CountingInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 基于本地文件的分片上传会话存储
+ * 每个会话一个文件，文件头记录会话信息，之后每收到一个分片、每上传一个分块追加一条记录，重启后回放记录恢复会话
+ */
+@Slf4j
+public class FileUploadSessionStore implements UploadSessionStore {
+
+    private static final int VERSION=2;
+    private static final byte SLICE=1;
+    private static final byte PART=2;
+    private static final byte SLICES_PER_PART=3;
+    private static final String SUFFIX=".session";
+
+    private final Path dir;
+    /**
+     * 最大分片数，超出的会话文件不回放，避免按损坏或伪造的分片总数分配内存
+     */
+    private final int maxPieces;
+
+    public FileUploadSessionStore(Path dir, int maxPieces) throws IOException {
+        this.dir=dir;
+        this.maxPieces=maxPieces;
+        Files.createDirectories(dir);
+    }
+
+    @Override
+    public void create(UploadSession session) throws IOException {
+        try (DataOutputStream out=new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path(session.getKey()))))){
+            out.writeInt(VERSION);
+            out.writeUTF(session.getKey());
+            out.writeInt(session.getTotalPieces());
+            out.writeUTF(session.getFileName()==null?"":session.getFileName());
+            out.writeLong(session.getCreateTime());
+            out.writeUTF(session.getObjectName());
+            out.writeUTF(session.getUploadId());
+        }
+    }
+
+    @Override
+    public void appendSlice(UploadSession session, int index, long size, String checksum) throws IOException {
+        try (DataOutputStream out=append(session)){
+            out.writeByte(SLICE);
+            out.writeInt(index);
+            out.writeLong(size);
+            out.writeUTF(checksum==null?"":checksum);
+        }
+    }
+
+    @Override
+    public void appendPart(UploadSession session, int partNumber, String etag) throws IOException {
+        try (DataOutputStream out=append(session)){
+            out.writeByte(PART);
+            out.writeInt(partNumber);
+            out.writeUTF(etag);
+        }
+    }
+
+    @Override
+    public void appendSlicesPerPart(UploadSession session, int slicesPerPart) throws IOException {
+        try (DataOutputStream out=append(session)){
+            out.writeByte(SLICES_PER_PART);
+            out.writeInt(slicesPerPart);
+        }
+    }
+
+    private DataOutputStream append(UploadSession session) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path(session.getKey()),StandardOpenOption.CREATE,StandardOpenOption.APPEND)));
+    }
+
+    @Override
+    public UploadSession load(String key) throws IOException {
+        Path path=path(key);
+        if(! Files.exists(path)){
+            return null;
+        }
+        long validLength;
+        UploadSession session;
+        try (CountingInputStream counting=new CountingInputStream(new BufferedInputStream(Files.newInputStream(path)));
+             DataInputStream in=new DataInputStream(counting)){
+            if(in.readInt()!=VERSION || ! key.equals(in.readUTF())){
+                return null;
+            }
+            int totalPieces=in.readInt();
+            if(totalPieces<=0 || totalPieces>maxPieces){
+                log.warn("分片上传会话分片总数超出限制{}",path);
+                return null;
+            }
+            String fileName=in.readUTF();
+            long createTime=in.readLong();
+            session=new UploadSession(key,totalPieces,fileName,createTime,in.readUTF(),in.readUTF());
+            while(true){
+                validLength=counting.getByteCount();
+                try {
+                    byte type=in.readByte();
+                    if(type==SLICE){
+                        int index=in.readInt();
+                        long size=in.readLong();
+                        String checksum=in.readUTF();
+                        if(index>=0 && index<totalPieces){
+                            session.markReceived(index,size,checksum.isEmpty()?null:checksum);
+                        }
+                    }else if(type==PART){
+                        session.markPart(in.readInt(),in.readUTF());
+                    }else if(type==SLICES_PER_PART){
+                        session.initSlicesPerPart(in.readInt());
+                    }else{
+                        log.warn("分片上传会话文件格式错误{}",path);
+                        validLength=Files.size(path);
+                        break;
+                    }
+                } catch (EOFException e) {//最后一条记录可能写了一半
+                    break;
+                }
+            }
+        } catch (EOFException e) {
+            log.warn("分片上传会话文件不完整{}",path);
+            return null;
+        }
+        if(validLength<Files.size(path)){
+            //截掉写了一半的记录，避免之后追加的记录错位
+            try (FileChannel channel=FileChannel.open(path,StandardOpenOption.WRITE)){
+                channel.truncate(validLength);
+            }
+        }
+        session.setUpdateTime(Files.getLastModifiedTime(path).toMillis());
+        return session;
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        Files.deleteIfExists(path(key));
+    }
+
+    @Override
+    public List<String> expiredKeys(long expireBefore) throws IOException {
+        List<String> keys=new ArrayList<>();
+        try (DirectoryStream<Path> paths=Files.newDirectoryStream(dir,"*"+SUFFIX)){
+            for(Path path:paths){
+                if(Files.getLastModifiedTime(path).toMillis()>=expireBefore){
+                    continue;
+                }
+                try (DataInputStream in=new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))){
+                    if(in.readInt()==VERSION){
+                        keys.add(in.readUTF());
+                    }
+                } catch (EOFException e) {//文件头不完整，由purge删除
+                    log.warn("分片上传会话文件不完整{}",path);
+                }
+            }
+        }
+        return keys;
+    }
+
+    @Override
+    public int purge(long expireBefore) throws IOException {
+        int count=0;
+        try (DirectoryStream<Path> paths=Files.newDirectoryStream(dir,"*"+SUFFIX)){
+            for(Path path:paths){
+                if(Files.getLastModifiedTime(path).toMillis()<expireBefore){
+                    Files.deleteIfExists(path);
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 会话文件，键中含有文件名不允许的字符时使用键的UUID
+     */
+    private Path path(String key){
+        return dir.resolve(fileName(key)+SUFFIX);
+    }
+
+    /**
+     * 会话键对应的文件名，键中含有文件名不允许的字符时使用键的UUID
+     */
+    static String fileName(String key){
+        return key.matches("[A-Za-z0-9_\\-]{1,128}")?key:UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)).toString();
+    }
+}
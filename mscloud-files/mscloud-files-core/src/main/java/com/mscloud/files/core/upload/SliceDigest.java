@@ -0,0 +1,133 @@
+package com.mscloud.files.core.upload;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 分片校验
+ * 分片MD5在接收分片时边读边计算；整体文件摘要由各分片MD5逐层两两合并为哈希树，
+ * 各分片可以并发校验，合并时只读取会话中的分片MD5，不重新读取已存储的数据
+ */
+public final class SliceDigest {
+
+    private static final char[] HEX="0123456789abcdef".toCharArray();
+
+    private SliceDigest() {
+    }
+
+    public static MessageDigest md5(){
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 读取时计算MD5的输入流，读取完成后通过 hex(stream.getMessageDigest().digest()) 取值
+     */
+    public static DigestInputStream digestStream(InputStream inputStream){
+        return new DigestInputStream(inputStream,md5());
+    }
+
+    public static String md5Hex(byte[] data,int length){
+        MessageDigest digest=md5();
+        digest.update(data,0,length);
+        return hex(digest.digest());
+    }
+
+    /**
+     * 分片期望的MD5：优先使用分片MD5；只有一个分片时整体文件MD5就是分片MD5
+     * @return 不需要校验时返回null
+     */
+    public static String expected(String sliceMd5,String md5String,int totalPieces){
+        if(isMd5(sliceMd5)){
+            return sliceMd5;
+        }
+        if(totalPieces==1 && isMd5(md5String)){
+            return md5String;
+        }
+        return null;
+    }
+
+    /**
+     * 校验分片MD5，期望值为空时不校验
+     * @throws SliceDigestException 校验不通过
+     */
+    public static void verify(int index,String expected,String actual) throws SliceDigestException {
+        if(expected!=null && ! expected.equalsIgnoreCase(actual)){
+            throw new SliceDigestException(index,expected,actual);
+        }
+    }
+
+    /**
+     * 哈希树根节点：叶子为各分片MD5，相邻两个节点拼接后计算MD5作为上一层节点，奇数个时最后一个直接进入上一层
+     * @return 有分片缺少MD5时返回null
+     */
+    public static String treeRoot(UploadSession session){
+        List<byte[]> level=new ArrayList<>(session.getTotalPieces());
+        for(int i=0;i<session.getTotalPieces();i++){
+            String checksum=session.getChecksum(i);
+            if(! isMd5(checksum)){
+                return null;
+            }
+            level.add(unhex(checksum));
+        }
+        if(level.isEmpty()){
+            return null;
+        }
+        while(level.size()>1){
+            List<byte[]> parent=new ArrayList<>((level.size()+1)/2);
+            for(int i=0;i<level.size();i+=2){
+                if(i+1<level.size()){
+                    MessageDigest digest=md5();
+                    digest.update(level.get(i));
+                    digest.update(level.get(i+1));
+                    parent.add(digest.digest());
+                }else{
+                    parent.add(level.get(i));
+                }
+            }
+            level=parent;
+        }
+        return hex(level.get(0));
+    }
+
+    public static String hex(byte[] bytes){
+        char[] chars=new char[bytes.length*2];
+        for(int i=0;i<bytes.length;i++){
+            chars[i*2]=HEX[(bytes[i]>>4)&0x0f];
+            chars[i*2+1]=HEX[bytes[i]&0x0f];
+        }
+        return new String(chars);
+    }
+
+    private static byte[] unhex(String hex){
+        byte[] bytes=new byte[hex.length()/2];
+        for(int i=0;i<bytes.length;i++){
+            bytes[i]=(byte)Integer.parseInt(hex.substring(i*2,i*2+2),16);
+        }
+        return bytes;
+    }
+
+    /**
+     * 是否32位十六进制的MD5
+     */
+    public static boolean isMd5(String value){
+        if(StringUtils.length(value)!=32){
+            return false;
+        }
+        for(int i=0;i<value.length();i++){
+            if(Character.digit(value.charAt(i),16)<0){
+                return false;
+            }
+        }
+        return true;
+    }
+}
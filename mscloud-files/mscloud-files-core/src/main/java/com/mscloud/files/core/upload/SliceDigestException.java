@@ -0,0 +1,22 @@
+package com.mscloud.files.core.upload;
+
+import java.io.IOException;
+
+/**
+ * 分片MD5校验不通过，分片不会登记为已收到，需要重新上传该分片
+ */
+public class SliceDigestException extends IOException {
+
+    private static final long serialVersionUID = 2190434631905526487L;
+
+    private final int sliceIndex;
+
+    public SliceDigestException(int sliceIndex, String expected, String actual) {
+        super("分片"+sliceIndex+"校验失败,期望MD5为"+expected+",实际为"+actual+",请重新上传该分片");
+        this.sliceIndex = sliceIndex;
+    }
+
+    public int getSliceIndex() {
+        return sliceIndex;
+    }
+}
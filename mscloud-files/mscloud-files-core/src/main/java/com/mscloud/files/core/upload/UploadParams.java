@@ -0,0 +1,84 @@
+package com.mscloud.files.core.upload;
+
+import com.mscloud.files.core.FileAllowSuffix;
+import com.mscloud.files.core.FileUtil;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.function.Function;
+
+/**
+ * 上传参数的读取和校验，各上传入口共用
+ * 参数通过名称读取，来源可以是查询参数、表单字段等；校验不通过时抛出IllegalStateException，异常信息直接返回给调用方
+ */
+public final class UploadParams {
+
+    private UploadParams() {
+    }
+
+    /**
+     * 必填参数
+     * @param params 按名称读取参数
+     * @param name 参数名称
+     * @return 去掉首尾空白的参数值
+     */
+    public static String requiredParam(Function<String,String> params,String name){
+        String value=params.apply(name);
+        if(StringUtils.isBlank(value)){
+            throw new IllegalStateException("缺少参数："+name);
+        }
+        return value.trim();
+    }
+
+    public static boolean booleanParam(Function<String,String> params,String name,boolean defaultValue){
+        String value=params.apply(name);
+        return StringUtils.isBlank(value)?defaultValue:Boolean.parseBoolean(value.trim());
+    }
+
+    public static <E extends Enum<E>> E enumParam(Function<String,String> params,String name,Class<E> type,E defaultValue){
+        String value=params.apply(name);
+        if(StringUtils.isBlank(value)){
+            return defaultValue;
+        }
+        try {
+            return Enum.valueOf(type,value.trim());
+        }catch (IllegalArgumentException e){
+            throw new IllegalStateException("参数错误："+name+"="+value);
+        }
+    }
+
+    /**
+     * 检查表单绑定参数，绑定formId时需要传入模块标识
+     */
+    public static void checkForm(String formId,String moduleName){
+        if(StringUtils.isNotBlank(formId)){
+            if(StringUtils.isBlank(moduleName)){//绑定表单和文档关系，需要传入模块标识
+                throw new IllegalStateException("绑定formId时，需要传递参数：moduleName模块标识");
+            }
+        }
+    }
+
+    /**
+     * 检查文件格式
+     * @param fileSuffix 文件后缀
+     * @return 小写的文件后缀
+     */
+    public static String checkSuffix(FileAllowSuffix fileAllowSuffix,String fileSuffix){
+        if(StringUtils.isNotBlank(fileSuffix)){//统一转为小写
+            fileSuffix =fileSuffix.toLowerCase();
+        }
+        if(fileAllowSuffix.getEnabled() && ! fileAllowSuffix.isAllow(fileSuffix)){//开启后缀过滤
+            throw new IllegalStateException(fileSuffix+"文件格式不允许上传");
+        }
+        return fileSuffix;
+    }
+
+    /**
+     * 检查表单绑定参数和文件格式
+     * @param orignalFilename 文件原始名称
+     * @return 小写的文件后缀
+     */
+    public static String checkUpload(FileAllowSuffix fileAllowSuffix,String orignalFilename,String formId,String moduleName){
+        checkForm(formId,moduleName);
+        return checkSuffix(fileAllowSuffix,FileUtil.splitFileSuffix(orignalFilename));
+    }
+}
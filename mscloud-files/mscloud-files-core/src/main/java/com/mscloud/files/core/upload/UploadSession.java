@@ -0,0 +1,271 @@
+package com.mscloud.files.core.upload;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 分片上传会话
+ * 用位图记录已收到的分片，同时记录每个分片的大小和校验值，分片可以乱序、并发上传；
+ * 会话对应存储上的一个原生分块上传(uploadId)，相邻的若干分片合并为一个分块上传
+ */
+public class UploadSession {
+
+    private final String key;
+    private final int totalPieces;
+    private final String fileName;
+    private final long createTime;
+    /**
+     * 最终的存储名称
+     */
+    private final String objectName;
+    /**
+     * 存储返回的分块上传ID
+     */
+    private final String uploadId;
+    private volatile long updateTime;
+    private final BitSet received;
+    private final long[] sizes;
+    private final String[] checksums;
+    /**
+     * 每个分块包含的分片数，0表示还不确定
+     */
+    private volatile int slicesPerPart;
+    /**
+     * 已上传的分块：分块序号 -> ETag
+     */
+    private final TreeMap<Integer,String> partETags=new TreeMap<>();
+    /**
+     * 正在上传的分块序号
+     */
+    private final Set<Integer> uploadingParts=ConcurrentHashMap.newKeySet();
+    /**
+     * 只能顺序追加写入的存储(如FTP)按分片顺序写入时使用，同一时间只有一个请求写入
+     */
+    private final ReentrantLock appendLock=new ReentrantLock();
+    /**
+     * 是否正在合并，保证只合并一次
+     */
+    private final AtomicBoolean finishing=new AtomicBoolean();
+    /**
+     * 后台合并任务ID
+     */
+    private volatile String finishJobId;
+
+    public UploadSession(String key, int totalPieces, String fileName, long createTime, String objectName, String uploadId) {
+        this.key = key;
+        this.totalPieces = totalPieces;
+        this.fileName = fileName;
+        this.createTime = createTime;
+        this.objectName = objectName;
+        this.uploadId = uploadId;
+        this.updateTime = createTime;
+        this.received = new BitSet(totalPieces);
+        this.sizes = new long[totalPieces];
+        this.checksums = new String[totalPieces];
+    }
+
+    /**
+     * 记录收到的分片
+     * @return 是否第一次收到该分片
+     */
+    public synchronized boolean markReceived(int index, long size, String checksum){
+        boolean isNew=! received.get(index);
+        received.set(index);
+        sizes[index]=size;
+        checksums[index]=checksum;
+        updateTime=System.currentTimeMillis();
+        return isNew;
+    }
+
+    public synchronized boolean isReceived(int index){
+        return received.get(index);
+    }
+
+    public synchronized int getReceivedCount(){
+        return received.cardinality();
+    }
+
+    public synchronized boolean isComplete(){
+        return received.nextClearBit(0)>=totalPieces;
+    }
+
+    /**
+     * [from,to) 之间的分片是否全部收到
+     */
+    public synchronized boolean isReceived(int from, int to){
+        return received.nextClearBit(from)>=to;
+    }
+
+    /**
+     * 缺少的分片序号
+     */
+    public synchronized List<Integer> getMissing(){
+        List<Integer> missing=new ArrayList<>();
+        for(int i=received.nextClearBit(0);i<totalPieces;i=received.nextClearBit(i+1)){
+            missing.add(i);
+        }
+        return missing;
+    }
+
+    /**
+     * 从 from 开始的下一个缺少的分片序号，之后没有则从头查找，全部收到返回-1
+     */
+    public synchronized int nextMissing(int from){
+        int index=received.nextClearBit(Math.max(0,from));
+        if(index>=totalPieces){
+            index=received.nextClearBit(0);
+        }
+        return index>=totalPieces?-1:index;
+    }
+
+    /**
+     * 已收到的字节数
+     */
+    public synchronized long getUploadedBytes(){
+        long total=0;
+        for(int i=received.nextSetBit(0);i>=0;i=received.nextSetBit(i+1)){
+            total+=sizes[i];
+        }
+        return total;
+    }
+
+    public synchronized long getSize(int index){
+        return sizes[index];
+    }
+
+    public synchronized String getChecksum(int index){
+        return checksums[index];
+    }
+
+    public int getSlicesPerPart() {
+        return slicesPerPart;
+    }
+
+    /**
+     * 确定每个分块包含的分片数，已经确定则不修改
+     * @return 最终的分片数
+     */
+    synchronized int initSlicesPerPart(int slicesPerPart){
+        if(this.slicesPerPart==0){
+            this.slicesPerPart=slicesPerPart;
+        }
+        return this.slicesPerPart;
+    }
+
+    /**
+     * 分块总数，每个分块的分片数还不确定时返回-1
+     */
+    public int getTotalParts(){
+        int count=slicesPerPart;
+        return count==0?-1:(totalPieces+count-1)/count;
+    }
+
+    /**
+     * 记录已上传的分块
+     */
+    public synchronized void markPart(int partNumber, String etag){
+        partETags.put(partNumber,etag);
+        updateTime=System.currentTimeMillis();
+    }
+
+    public synchronized boolean isPartUploaded(int partNumber){
+        return partETags.containsKey(partNumber);
+    }
+
+    /**
+     * 全部分块是否已上传
+     */
+    public synchronized boolean isAllPartsUploaded(){
+        int totalParts=getTotalParts();
+        return totalParts>0 && partETags.size()>=totalParts;
+    }
+
+    /**
+     * 已上传的分块数
+     */
+    public synchronized int getPartCount(){
+        return partETags.size();
+    }
+
+    /**
+     * 按分块序号排列的ETag
+     */
+    public synchronized List<String> getPartETags(){
+        return new ArrayList<>(partETags.values());
+    }
+
+    /**
+     * 占用分块，其它请求正在上传该分块返回false
+     */
+    public boolean tryUploadPart(int partNumber){
+        return uploadingParts.add(partNumber);
+    }
+
+    public void releasePart(int partNumber){
+        uploadingParts.remove(partNumber);
+    }
+
+    public ReentrantLock getAppendLock() {
+        return appendLock;
+    }
+
+    /**
+     * 开始合并，已经在合并中返回false
+     */
+    public boolean tryFinish(){
+        return finishing.compareAndSet(false,true);
+    }
+
+    /**
+     * 合并失败后允许重新合并
+     */
+    public void cancelFinish(){
+        finishing.set(false);
+    }
+
+    public String getFinishJobId() {
+        return finishJobId;
+    }
+
+    public void setFinishJobId(String finishJobId) {
+        this.finishJobId = finishJobId;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public int getTotalPieces() {
+        return totalPieces;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public long getCreateTime() {
+        return createTime;
+    }
+
+    public String getObjectName() {
+        return objectName;
+    }
+
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    public long getUpdateTime() {
+        return updateTime;
+    }
+
+    void setUpdateTime(long updateTime) {
+        this.updateTime = updateTime;
+    }
+}
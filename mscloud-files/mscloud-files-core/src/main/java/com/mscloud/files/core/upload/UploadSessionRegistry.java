@@ -0,0 +1,320 @@
+package com.mscloud.files.core.upload;
+
+import com.mscloud.files.core.constants.StoreType;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * 分片上传会话登记
+ * 已收到的分片记录在内存位图中并持久化到 UploadSessionStore，查询上传进度不需要列出存储中的临时分片
+ */
+@Slf4j
+@Component
+public class UploadSessionRegistry implements InitializingBean {
+
+    /**
+     * 默认文件存储以及分片暂存的目录
+     */
+    @Value("${mscloud.files.upload.session.dir:./mscloud-sessions}")
+    private String dir;
+    /**
+     * 会话超过该时长没有更新则清理，单位小时
+     */
+    @Value("${mscloud.files.upload.session.expireHours:24}")
+    private long expireHours;
+    /**
+     * 单个文件的最大分片数，会话按分片总数分配位图和数组，超出的请求直接拒绝
+     */
+    @Value("${mscloud.files.upload.maxPieces:10000}")
+    private int maxPieces;
+
+    /**
+     * 自定义的会话存储，没有则使用本地文件
+     */
+    @Autowired(required = false)
+    private UploadSessionStore uploadSessionStore;
+
+    private final Map<String,UploadSession> sessions=new ConcurrentHashMap<>();
+    /**
+     * 各存储方式取消分块上传的方法
+     */
+    private final Map<StoreType,Consumer<UploadSession>> aborters=new ConcurrentHashMap<>();
+    private volatile long lastPurgeTime=0;
+    private Path stagingDir;
+
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        stagingDir=Paths.get(dir,"staging").toAbsolutePath().normalize();
+        Files.createDirectories(stagingDir);
+        if(uploadSessionStore==null){
+            uploadSessionStore=new FileUploadSessionStore(Paths.get(dir),maxPieces);
+        }
+        log.info("分片上传会话初始化完成,store={}",uploadSessionStore.getClass().getSimpleName());
+    }
+
+    /**
+     * 会话键，md5String必须是32位十六进制，键会作为会话文件和暂存目录的名称
+     */
+    public static String key(StoreType storeType, String md5String){
+        if(! SliceDigest.isMd5(md5String)){
+            throw new IllegalArgumentException("md5String必须是32位十六进制MD5");
+        }
+        return storeType.value()+"_"+md5String;
+    }
+
+    /**
+     * 登记存储方式取消分块上传的方法，清理过期会话时调用，删除存储上已上传的分块或临时文件
+     */
+    public void registerAborter(StoreType storeType, Consumer<UploadSession> aborter){
+        aborters.put(storeType,aborter);
+    }
+
+    /**
+     * 分片总数是否在允许范围内
+     */
+    public boolean isAllowedPieces(int totalPieces){
+        return totalPieces>0 && totalPieces<=maxPieces;
+    }
+
+    public int getMaxPieces(){
+        return maxPieces;
+    }
+
+    /**
+     * 新建会话，并发新建时以先登记的为准
+     * @param objectName 最终的存储名称
+     * @param uploadId 存储返回的分块上传ID
+     * @return 登记的会话，uploadId与传入的不同说明其它请求已经新建
+     */
+    public UploadSession create(StoreType storeType, String md5String, int totalPieces, String fileName, String objectName, String uploadId){
+        if(! isAllowedPieces(totalPieces)){
+            throw new IllegalArgumentException("分片总数超出限制:"+maxPieces);
+        }
+        purgeIfDue();
+        String key=key(storeType,md5String);
+        UploadSession created=new UploadSession(key,totalPieces,fileName,System.currentTimeMillis(),objectName,uploadId);
+        UploadSession session=sessions.putIfAbsent(key,created);
+        if(session!=null){
+            return session;
+        }
+        try {
+            uploadSessionStore.create(created);
+        } catch (IOException e) {
+            log.warn("保存分片上传会话失败{},{}",key,e.getMessage());
+        }
+        return created;
+    }
+
+    /**
+     * 查询会话，不存在返回null
+     */
+    public UploadSession get(StoreType storeType, String md5String){
+        return sessions.computeIfAbsent(key(storeType,md5String),this::load);
+    }
+
+    /**
+     * 记录收到的分片
+     * @return 是否已收到全部分片
+     */
+    public boolean markReceived(UploadSession session, int index, long size, String checksum){
+        synchronized (session){
+            if(session.markReceived(index,size,checksum)){
+                try {
+                    uploadSessionStore.appendSlice(session,index,size,checksum);
+                } catch (IOException e) {
+                    log.warn("保存分片上传会话失败{},{}",session.getKey(),e.getMessage());
+                }
+            }
+            return session.isComplete();
+        }
+    }
+
+    /**
+     * 记录已上传的分块
+     */
+    public void markPart(UploadSession session, int partNumber, String etag){
+        synchronized (session){
+            session.markPart(partNumber,etag);
+            try {
+                uploadSessionStore.appendPart(session,partNumber,etag);
+            } catch (IOException e) {
+                log.warn("保存分片上传会话失败{},{}",session.getKey(),e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 确定每个分块包含的分片数，已经确定则不修改
+     * @return 最终的分片数
+     */
+    public int initSlicesPerPart(UploadSession session, int slicesPerPart){
+        synchronized (session){
+            if(session.getSlicesPerPart()!=0){
+                return session.getSlicesPerPart();
+            }
+            session.initSlicesPerPart(slicesPerPart);
+            try {
+                uploadSessionStore.appendSlicesPerPart(session,slicesPerPart);
+            } catch (IOException e) {
+                log.warn("保存分片上传会话失败{},{}",session.getKey(),e.getMessage());
+            }
+            return slicesPerPart;
+        }
+    }
+
+    /**
+     * 分片的本地暂存文件，凑够一个分块后再上传
+     */
+    public Path stagingFile(UploadSession session, int index) throws IOException {
+        Path path=stagingPath(session.getKey());
+        Files.createDirectories(path);
+        return path.resolve(Integer.toString(index));
+    }
+
+    /**
+     * 上传完成或取消后移除会话
+     */
+    public void remove(UploadSession session){
+        sessions.remove(session.getKey(),session);
+        try {
+            uploadSessionStore.delete(session.getKey());
+            deleteStaging(stagingPath(session.getKey()));
+        } catch (IOException e) {
+            log.warn("删除分片上传会话失败{},{}",session.getKey(),e.getMessage());
+        }
+    }
+
+    /**
+     * 会话的暂存目录，名称规则与会话文件相同，并且必须在暂存目录下
+     */
+    private Path stagingPath(String key) throws IOException {
+        Path path=stagingDir.resolve(FileUploadSessionStore.fileName(key)).normalize();
+        if(! path.startsWith(stagingDir) || path.equals(stagingDir)){
+            throw new IOException("分片暂存目录不合法:"+key);
+        }
+        return path;
+    }
+
+    private void deleteStaging(Path path) throws IOException {
+        if(! Files.isDirectory(path)){
+            return;
+        }
+        try (Stream<Path> files=Files.list(path)){
+            for(Path file:(Iterable<Path>)files::iterator){
+                Files.deleteIfExists(file);
+            }
+        }
+        Files.deleteIfExists(path);
+    }
+
+    private UploadSession load(String key){
+        try {
+            UploadSession session=uploadSessionStore.load(key);
+            if(session!=null && ! isAllowedPieces(session.getTotalPieces())){
+                log.warn("分片上传会话分片总数超出限制{},{}",key,session.getTotalPieces());
+                return null;
+            }
+            return session;
+        } catch (IOException e) {
+            log.warn("加载分片上传会话失败{},{}",key,e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 每分钟最多清理一次过期会话，先取消存储上的分块上传并删除暂存分片，再删除会话
+     */
+    private void purgeIfDue(){
+        long now=System.currentTimeMillis();
+        if(now-lastPurgeTime<TimeUnit.MINUTES.toMillis(1)){
+            return;
+        }
+        lastPurgeTime=now;
+        long expireBefore=now-TimeUnit.HOURS.toMillis(expireHours);
+        List<UploadSession> expired=new ArrayList<>();
+        sessions.values().removeIf(session->{
+            if(session.getUpdateTime()<expireBefore){
+                expired.add(session);
+                return true;
+            }
+            return false;
+        });
+        try {
+            //没有加载到内存的过期会话，如重启前的会话
+            for(String key:uploadSessionStore.expiredKeys(expireBefore)){
+                if(sessions.containsKey(key) || expired.stream().anyMatch(session->session.getKey().equals(key))){
+                    continue;
+                }
+                UploadSession session=load(key);
+                if(session!=null){
+                    expired.add(session);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("读取过期分片上传会话失败{}",e.getMessage());
+        }
+        for(UploadSession session:expired){
+            abort(session);
+            try {
+                uploadSessionStore.delete(session.getKey());
+                deleteStaging(stagingPath(session.getKey()));
+            } catch (IOException e) {
+                log.warn("删除分片上传会话失败{},{}",session.getKey(),e.getMessage());
+            }
+        }
+        try {
+            int count=expired.size()+uploadSessionStore.purge(expireBefore);
+            if(count>0){
+                log.info("清理过期分片上传会话{}个",count);
+            }
+            try (Stream<Path> dirs=Files.list(stagingDir)){
+                for(Path path:(Iterable<Path>)dirs::iterator){
+                    if(Files.getLastModifiedTime(path).toMillis()<expireBefore){
+                        deleteStaging(path);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.warn("清理分片上传会话失败{}",e.getMessage());
+        }
+    }
+
+    /**
+     * 按会话键的存储方式前缀取消分块上传
+     */
+    private void abort(UploadSession session){
+        for(Map.Entry<StoreType,Consumer<UploadSession>> entry:aborters.entrySet()){
+            if(session.getKey().startsWith(entry.getKey().value()+"_")){
+                try {
+                    entry.getValue().accept(session);
+                } catch (Exception e) {
+                    log.warn("取消过期分片上传失败{},{}",session.getKey(),e.getMessage());
+                }
+                return;
+            }
+        }
+    }
+
+    public Map<String,Object> getStats(){
+        Map<String,Object> stats=new LinkedHashMap<>();
+        stats.put("store",uploadSessionStore.getClass().getSimpleName());
+        stats.put("activeSessions",sessions.size());
+        return stats;
+    }
+}
@@ -0,0 +1,51 @@
+package com.mscloud.files.core.upload;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 分片上传会话持久化，默认使用本地文件，可注册自定义实现(如数据库、Redis)替换
+ */
+public interface UploadSessionStore {
+
+    /**
+     * 新建会话
+     */
+    void create(UploadSession session) throws IOException;
+
+    /**
+     * 追加收到的分片
+     */
+    void appendSlice(UploadSession session, int index, long size, String checksum) throws IOException;
+
+    /**
+     * 追加已上传的分块
+     */
+    void appendPart(UploadSession session, int partNumber, String etag) throws IOException;
+
+    /**
+     * 保存每个分块包含的分片数
+     */
+    void appendSlicesPerPart(UploadSession session, int slicesPerPart) throws IOException;
+
+    /**
+     * 加载会话，不存在返回null
+     */
+    UploadSession load(String key) throws IOException;
+
+    /**
+     * 删除会话
+     */
+    void delete(String key) throws IOException;
+
+    /**
+     * 在 expireBefore 之前没有更新的会话键，清理前用于取消存储上的分块上传
+     */
+    List<String> expiredKeys(long expireBefore) throws IOException;
+
+    /**
+     * 删除在 expireBefore 之前没有更新的会话
+     * @return 删除的会话数
+     */
+    int purge(long expireBefore) throws IOException;
+}
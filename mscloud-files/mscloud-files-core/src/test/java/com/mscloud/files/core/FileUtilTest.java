@@ -0,0 +1,101 @@
+package com.mscloud.files.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class FileUtilTest {
+
+    @Test
+    void detectsMagicNumbers() {
+        assertEquals(".png",detect(bytes(0x89,0x50,0x4E,0x47,0x0D,0x0A,0x1A,0x0A,0,0)));
+        assertEquals(".jpg",detect(bytes(0xFF,0xD8,0xFF,0xE0)));
+        assertEquals(".pdf",detect("%PDF-1.7".getBytes(StandardCharsets.ISO_8859_1)));
+        assertEquals(".gif",detect("GIF89a".getBytes(StandardCharsets.ISO_8859_1)));
+    }
+
+    @Test
+    void detectsContainers() {
+        assertEquals(".webp",detect("RIFF\0\0\0\0WEBPVP8 ".getBytes(StandardCharsets.ISO_8859_1)));
+        assertEquals(".mp4",detect("\0\0\0\u0018ftypisom".getBytes(StandardCharsets.ISO_8859_1)));
+        assertEquals(".mov",detect("\0\0\0\u0014ftypqt  ".getBytes(StandardCharsets.ISO_8859_1)));
+        byte[] tar=new byte[512];
+        System.arraycopy("ustar".getBytes(StandardCharsets.ISO_8859_1),0,tar,257,5);
+        assertEquals(".tar",detect(tar));
+    }
+
+    @Test
+    void distinguishesOfficeDocumentsFromZip() {
+        assertEquals(".docx",detect(zip("word/document.xml")));
+        assertEquals(".xlsx",detect(zip("xl/workbook.xml")));
+        assertEquals(".pptx",detect(zip("ppt/presentation.xml")));
+        assertEquals(".zip",detect(zip("readme.txt")));
+    }
+
+    @Test
+    void unknownOrShortContentIsNotDetected() {
+        assertNull(detect("hello world".getBytes(StandardCharsets.ISO_8859_1)));
+        assertNull(detect(bytes(0xFF,0xD8)));
+        assertNull(detect(new byte[0]));
+    }
+
+    @Test
+    void streamCanBeReadAgainAfterDetection() throws Exception {
+        byte[] data=new byte[FileUtil.DETECT_SIZE*2];
+        System.arraycopy("%PDF-1.4".getBytes(StandardCharsets.ISO_8859_1),0,data,0,8);
+        Arrays.fill(data,8,data.length,(byte)'x');
+        InputStream inputStream=new BufferedInputStream(new ByteArrayInputStream(data));
+        assertEquals(".pdf",FileUtil.detectSuffix(inputStream));
+        ByteArrayOutputStream out=new ByteArrayOutputStream();
+        byte[] buffer=new byte[1024];
+        int length;
+        while((length=inputStream.read(buffer))!=-1){
+            out.write(buffer,0,length);
+        }
+        assertArrayEquals(data,out.toByteArray());
+    }
+
+    @Test
+    void streamWithoutMarkIsNotRead() throws Exception {
+        InputStream inputStream=new ByteArrayInputStream("%PDF-1.4".getBytes(StandardCharsets.ISO_8859_1)){
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+        };
+        assertNull(FileUtil.detectSuffix(inputStream));
+        assertEquals('%',inputStream.read());
+    }
+
+    private static String detect(byte[] head){
+        return FileUtil.detectSuffix(head,head.length);
+    }
+
+    private static byte[] zip(String firstEntry){
+        byte[] name=firstEntry.getBytes(StandardCharsets.ISO_8859_1);
+        byte[] head=new byte[30+name.length];
+        head[0]=0x50;
+        head[1]=0x4B;
+        head[2]=0x03;
+        head[3]=0x04;
+        System.arraycopy(name,0,head,30,name.length);
+        return head;
+    }
+
+    private static byte[] bytes(int... values){
+        byte[] bytes=new byte[values.length];
+        for(int i=0;i<values.length;i++){
+            bytes[i]=(byte)values[i];
+        }
+        return bytes;
+    }
+}
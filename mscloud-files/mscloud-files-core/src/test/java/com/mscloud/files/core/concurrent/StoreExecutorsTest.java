@@ -0,0 +1,149 @@
+package com.mscloud.files.core.concurrent;
+
+import com.mscloud.files.core.constants.StoreType;
+import com.mscloud.files.core.pojo.FileInfo;
+import com.mscloud.files.core.pojo.FileResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StoreExecutorsTest {
+
+    private StoreExecutors storeExecutors;
+
+    @BeforeEach
+    void setUp() {
+        storeExecutors=new StoreExecutors();
+        ReflectionTestUtils.setField(storeExecutors,"minioThreads",4);
+        ReflectionTestUtils.setField(storeExecutors,"queueCapacity",16);
+    }
+
+    @AfterEach
+    void tearDown() {
+        storeExecutors.destroy();
+    }
+
+    @Test
+    void resultsFollowIndexOrder() {
+        List<Integer> results=storeExecutors.invokeOrdered(StoreType.MINIO,8,4,index->{
+            sleep((8-index)*5L);//后面的任务先完成
+            return index*10;
+        },(index,e)->-1);
+        assertEquals(Arrays.asList(0,10,20,30,40,50,60,70),results);
+    }
+
+    @Test
+    void failedTaskGetsErrorResult() {
+        List<String> results=storeExecutors.invokeOrdered(StoreType.MINIO,3,2,index->{
+            if(index==1){
+                throw new IllegalStateException("boom");
+            }
+            return "ok"+index;
+        },(index,e)->"error"+index+":"+e.getMessage());
+        assertEquals(Arrays.asList("ok0","error1:boom","ok2"),results);
+    }
+
+    @Test
+    void runsAtMostParallelismTasks() {
+        AtomicInteger running=new AtomicInteger();
+        AtomicInteger maxRunning=new AtomicInteger();
+        storeExecutors.invokeOrdered(StoreType.MINIO,12,2,index->{
+            maxRunning.accumulateAndGet(running.incrementAndGet(),Math::max);
+            sleep(10);
+            running.decrementAndGet();
+            return index;
+        },(index,e)->-1);
+        assertTrue(maxRunning.get()<=2);
+    }
+
+    @Test
+    void interruptStopsRemainingTasksAndWaitsForRunning() throws Exception {
+        CountDownLatch started=new CountDownLatch(2);
+        CountDownLatch release=new CountDownLatch(1);
+        AtomicInteger finished=new AtomicInteger();
+        Thread caller=Thread.currentThread();
+        new Thread(()->{
+            try {
+                started.await();
+            } catch (InterruptedException e) {
+                return;
+            }
+            caller.interrupt();
+            sleep(20);
+            release.countDown();
+        }).start();
+
+        List<String> results=storeExecutors.invokeOrdered(StoreType.MINIO,10,2,index->{
+            started.countDown();
+            try {
+                release.await(5,TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            finished.incrementAndGet();
+            return "ok";
+        },(index,e)->e instanceof CancellationException?"cancelled":"error");
+
+        assertTrue(Thread.interrupted());
+        //已开始的两个任务执行完才返回，剩余任务不再开始
+        assertEquals(2,finished.get());
+        assertEquals("ok",results.get(0));
+        assertEquals("ok",results.get(1));
+        assertEquals("cancelled",results.get(9));
+    }
+
+    /**
+     * 模拟每个文件上传耗时20ms的存储，对比顺序上传(parallelism=1)和并行上传16个文件的耗时
+     */
+    @Test
+    void parallelUploadIsFasterThanSequential() {
+        MultipartFile[] files=new MultipartFile[16];
+        for(int i=0;i<files.length;i++){
+            files[i]=new MockMultipartFile("files","file-"+i+".txt","text/plain",new byte[]{(byte)i});
+        }
+        BiFunction<InputStream,FileInfo,FileResult> delayedStore=(inputStream,fileInfo)->{
+            sleep(20);
+            return FileResult.builder().isOk(true).orignalName(fileInfo.getOrignalName()).build();
+        };
+
+        long start=System.nanoTime();
+        List<FileResult> sequential=storeExecutors.uploadFiles(StoreType.MINIO,files,1,delayedStore);
+        long sequentialMillis=TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-start);
+        start=System.nanoTime();
+        List<FileResult> parallel=storeExecutors.uploadFiles(StoreType.MINIO,files,4,delayedStore);
+        long parallelMillis=TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-start);
+        System.out.printf("uploadFiles files=%d delay=20ms: sequential=%dms parallel(4)=%dms%n",files.length,sequentialMillis,parallelMillis);
+
+        for(int i=0;i<files.length;i++){
+            assertEquals("file-"+i+".txt",sequential.get(i).getOrignalName());
+            assertEquals("file-"+i+".txt",parallel.get(i).getOrignalName());
+            assertTrue(parallel.get(i).isOk());
+        }
+        //顺序上传至少16*20ms，4个并行理论上约为1/4
+        assertTrue(sequentialMillis>=16*20);
+        assertTrue(parallelMillis<sequentialMillis/2);
+    }
+
+    private static void sleep(long millis){
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.mscloud.files.core.dedup;
+
+import com.mscloud.files.core.constants.StoreType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ContentIndexTest {
+
+    private static final String HASH="9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+    private static final String OTHER_HASH="60303ae22b998861bce3b28f33eec1be758a213c86c93c076dbe9f558c11c752";
+
+    @TempDir
+    Path dir;
+
+    private ContentIndex index;
+
+    @AfterEach
+    void close() throws Exception {
+        if(index!=null){
+            index.destroy();
+        }
+    }
+
+    @Test
+    void releasesReferencesByKey() throws Exception {
+        index=open();
+        index.register(StoreType.MINIO,HASH,"a.txt","/b/a.txt",4,"text/plain","ref-1");
+        ContentEntry shared=index.register(StoreType.MINIO,HASH,"a-copy.txt","/b/a-copy.txt",4,"text/plain","ref-2");
+        //相同内容引用已有对象
+        assertEquals("a.txt",shared.getStoreName());
+        assertEquals(2,shared.getRefs());
+
+        assertEquals(ContentIndex.Release.SHARED,index.release(StoreType.MINIO,"a.txt",null));
+        assertEquals(ContentIndex.Release.UNKNOWN_REF,index.release(StoreType.MINIO,"a.txt","ref-x"));
+        assertEquals(ContentIndex.Release.RELEASED,index.release(StoreType.MINIO,"a.txt","ref-1"));
+        assertEquals(ContentIndex.Release.DELETE,index.release(StoreType.MINIO,"a.txt","ref-2"));
+        //删除中的对象不能再被引用
+        assertNull(index.acquire(StoreType.MINIO,HASH,"ref-3"));
+
+        index.restore(StoreType.MINIO,"a.txt");
+        assertNotNull(index.acquire(StoreType.MINIO,HASH,"ref-3"));
+    }
+
+    @Test
+    void replaysAndCompactsLog() throws Exception {
+        index=open();
+        index.register(StoreType.MINIO,HASH,"a.txt","/b/a.txt",4,"text/plain","ref-1");
+        index.acquire(StoreType.MINIO,HASH,"ref-2");
+        index.release(StoreType.MINIO,"a.txt","ref-1");
+        index.register(StoreType.OSS,OTHER_HASH,"b.txt","/b/b.txt",8,null,"ref-3");
+        index.invalidate(StoreType.OSS,"b.txt");
+        Path file=dir.resolve("content.index");
+        long appended=Files.size(file);
+        index.destroy();
+
+        index=open();
+        //压缩后只剩一个对象和一个引用
+        assertTrue(Files.size(file)<appended);
+        ContentEntry entry=index.find(StoreType.MINIO,HASH);
+        assertNotNull(entry);
+        assertEquals(Collections.singleton("ref-2"),entry.getRefKeys());
+        assertEquals(4,entry.getFileSize());
+        assertNull(index.find(StoreType.OSS,OTHER_HASH));
+
+        //压缩后继续追加，再次回放结果一致
+        index.acquire(StoreType.MINIO,HASH,"ref-4");
+        index.destroy();
+        index=open();
+        assertEquals(Arrays.asList("ref-2","ref-4"),new ArrayList<>(index.find(StoreType.MINIO,HASH).getRefKeys()));
+    }
+
+    @Test
+    void refusesPrefixWithSharedContent() throws Exception {
+        index=open();
+        index.register(StoreType.LOCAL,HASH,"dir/a.txt",null,4,null,"ref-1");
+        index.acquire(StoreType.LOCAL,HASH,"ref-2");
+        index.register(StoreType.LOCAL,OTHER_HASH,"dir/b.txt",null,8,null,"ref-3");
+
+        assertEquals(Collections.singletonList("dir/a.txt"),index.markDeletingPrefix(StoreType.LOCAL,"dir/"));
+        assertNotNull(index.find(StoreType.LOCAL,OTHER_HASH));
+
+        index.release(StoreType.LOCAL,"dir/a.txt","ref-2");
+        assertTrue(index.markDeletingPrefix(StoreType.LOCAL,"dir/").isEmpty());
+        assertNull(index.find(StoreType.LOCAL,OTHER_HASH));
+        index.invalidatePrefix(StoreType.LOCAL,"dir/");
+        assertEquals(0,index.getStats().get("objects"));
+    }
+
+    private ContentIndex open() throws Exception {
+        ContentIndex contentIndex=new ContentIndex();
+        ReflectionTestUtils.setField(contentIndex,"dir",dir.toString());
+        contentIndex.afterPropertiesSet();
+        return contentIndex;
+    }
+}
@@ -0,0 +1,57 @@
+package com.mscloud.files.core.download;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HttpRangeTest {
+
+    @Test
+    void parsesSingleRanges() {
+        assertEquals(Collections.singletonList(new HttpRange(0,99)),HttpRange.parse("bytes=0-99",1000));
+        assertEquals(Collections.singletonList(new HttpRange(500,999)),HttpRange.parse("bytes=500-",1000));
+        assertEquals(Collections.singletonList(new HttpRange(900,999)),HttpRange.parse("bytes=-100",1000));
+    }
+
+    @Test
+    void clampsToFileSize() {
+        assertEquals(Collections.singletonList(new HttpRange(900,999)),HttpRange.parse("bytes=900-5000",1000));
+        assertEquals(Collections.singletonList(new HttpRange(0,999)),HttpRange.parse("bytes=-5000",1000));
+    }
+
+    @Test
+    void mergesOverlappingAndAdjacentRanges() {
+        List<HttpRange> ranges=HttpRange.parse("bytes=200-299, 0-99,100-150,250-400",1000);
+        assertEquals(Arrays.asList(new HttpRange(0,150),new HttpRange(200,400)),ranges);
+    }
+
+    @Test
+    void unsatisfiableRangesGiveEmptyList() {
+        assertTrue(HttpRange.parse("bytes=1000-1100",1000).isEmpty());
+        assertTrue(HttpRange.parse("bytes=-0",1000).isEmpty());
+        assertTrue(HttpRange.parse("bytes=-10",0).isEmpty());
+    }
+
+    @Test
+    void invalidHeadersAreIgnored() {
+        assertNull(HttpRange.parse(null,1000));
+        assertNull(HttpRange.parse("items=0-1",1000));
+        assertNull(HttpRange.parse("bytes=100",1000));
+        assertNull(HttpRange.parse("bytes=-",1000));
+        assertNull(HttpRange.parse("bytes=100-50",1000));
+        assertNull(HttpRange.parse("bytes=a-b",1000));
+    }
+
+    @Test
+    void formatsContentRange() {
+        HttpRange range=new HttpRange(10,19);
+        assertEquals(10,range.length());
+        assertEquals("bytes 10-19/1000",range.toContentRange(1000));
+    }
+}
@@ -0,0 +1,141 @@
+package com.mscloud.files.core.transfer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MultipartUploadEngineTest {
+
+    private static final int PART_SIZE=MultipartUploadEngine.MIN_PART_SIZE;
+
+    private MultipartUploadEngine engine;
+
+    @BeforeEach
+    void setUp() {
+        engine=new MultipartUploadEngine();
+        ReflectionTestUtils.setField(engine,"partSize",PART_SIZE);
+        ReflectionTestUtils.setField(engine,"threshold",(long)PART_SIZE);
+        ReflectionTestUtils.setField(engine,"parallelism",2);
+        ReflectionTestUtils.setField(engine,"threads",2);
+        //全局额度只够一个分块，第二个分块需要等第一个分块的缓冲空出来
+        ReflectionTestUtils.setField(engine,"maxBufferBytes",(long)PART_SIZE);
+        ReflectionTestUtils.setField(engine,"bufferWaitMillis",1000L);
+        engine.afterPropertiesSet();
+    }
+
+    @AfterEach
+    void tearDown() {
+        engine.destroy();
+    }
+
+    @Test
+    void uploadsPartsInOrder() throws Exception {
+        FakeTarget target=new FakeTarget(null);
+        MultipartUploadResult result=engine.upload(new ByteArrayInputStream(new byte[PART_SIZE*2+10]),null,target);
+        assertEquals(PART_SIZE*2+10L,result.getBytes());
+        assertEquals(3,result.getParts());
+        assertEquals("etag-1,etag-2,etag-3",result.getEtag());
+        assertFalse(target.aborted.get());
+    }
+
+    @Test
+    void interruptWhileWaitingForBufferAbortsUpload() throws Exception {
+        CountDownLatch uploading=new CountDownLatch(1);
+        CountDownLatch release=new CountDownLatch(1);
+        FakeTarget target=new FakeTarget(()->{
+            uploading.countDown();
+            release.await(5,TimeUnit.SECONDS);
+        });
+        AtomicReference<Exception> error=new AtomicReference<>();
+        Thread uploader=new Thread(()->{
+            try {
+                engine.upload(new ByteArrayInputStream(new byte[PART_SIZE*3]),(long)PART_SIZE*3,target);
+            } catch (Exception e) {
+                error.set(e);
+            }
+        });
+        uploader.start();
+        assertTrue(uploading.await(5,TimeUnit.SECONDS));
+        //第一个分块上传中，上传线程在等待缓冲
+        waitForState(uploader,Thread.State.WAITING);
+        uploader.interrupt();
+        release.countDown();
+        uploader.join(5000);
+
+        assertFalse(uploader.isAlive());
+        assertTrue(error.get() instanceof InterruptedException);
+        assertTrue(target.aborted.get());
+        assertEquals(0L,engine.getStats().get("bufferBytes"));
+    }
+
+    @Test
+    void rejectedPartAbortsUpload() throws Exception {
+        FakeTarget target=new FakeTarget(null);
+        engine.destroy();
+        assertThrows(RejectedExecutionException.class,()->engine.upload(new ByteArrayInputStream(new byte[PART_SIZE*2]),null,target));
+        assertTrue(target.aborted.get());
+    }
+
+    private static void waitForState(Thread thread,Thread.State state) throws InterruptedException {
+        long deadline=System.currentTimeMillis()+5000;
+        while(thread.getState()!=state && System.currentTimeMillis()<deadline){
+            Thread.sleep(5);
+        }
+        assertEquals(state,thread.getState());
+    }
+
+    private interface PartHook {
+        void run() throws Exception;
+    }
+
+    private static class FakeTarget implements MultipartTarget, MultipartSession {
+        private final PartHook hook;
+        private final AtomicBoolean aborted=new AtomicBoolean();
+
+        FakeTarget(PartHook hook){
+            this.hook=hook;
+        }
+
+        @Override
+        public String put(byte[] data, int length) {
+            return "etag";
+        }
+
+        @Override
+        public MultipartSession create() {
+            return this;
+        }
+
+        @Override
+        public String uploadPart(int partNumber, byte[] data, int length) throws Exception {
+            if(hook!=null){
+                hook.run();
+            }
+            return "etag-"+partNumber;
+        }
+
+        @Override
+        public String complete(List<String> partETags) {
+            return String.join(",",partETags);
+        }
+
+        @Override
+        public void abort() {
+            aborted.set(true);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.mscloud.files.core.upload;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileUploadSessionStoreTest {
+
+    private static final String MD5_0="0cc175b9c0f1b6a831c399e269772661";
+    private static final String MD5_1="92eb5ffee6ae2fec3ad71c777531578f";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replaysSlicesAndParts() throws Exception {
+        FileUploadSessionStore store=new FileUploadSessionStore(dir,100);
+        UploadSession session=new UploadSession("abc",3,"a.txt",1000L,"2024/a.txt","upload-1");
+        store.create(session);
+        store.appendSlicesPerPart(session,2);
+        store.appendSlice(session,0,10,MD5_0);
+        store.appendSlice(session,2,5,null);
+        store.appendPart(session,1,"etag-1");
+
+        UploadSession loaded=store.load("abc");
+        assertNotNull(loaded);
+        assertEquals(3,loaded.getTotalPieces());
+        assertEquals("a.txt",loaded.getFileName());
+        assertEquals(1000L,loaded.getCreateTime());
+        assertEquals("2024/a.txt",loaded.getObjectName());
+        assertEquals("upload-1",loaded.getUploadId());
+        assertEquals(2,loaded.getSlicesPerPart());
+        assertEquals(2,loaded.getTotalParts());
+        assertEquals(Arrays.asList(1),loaded.getMissing());
+        assertEquals(15,loaded.getUploadedBytes());
+        assertEquals(MD5_0,loaded.getChecksum(0));
+        assertNull(loaded.getChecksum(2));
+        assertTrue(loaded.isPartUploaded(1));
+        assertEquals(Arrays.asList("etag-1"),loaded.getPartETags());
+    }
+
+    @Test
+    void dropsHalfWrittenRecordAndKeepsAppending() throws Exception {
+        FileUploadSessionStore store=new FileUploadSessionStore(dir,100);
+        UploadSession session=new UploadSession("abc",2,"a.txt",1000L,"a.txt","upload-1");
+        store.create(session);
+        store.appendSlice(session,0,10,MD5_0);
+        Path file=dir.resolve("abc.session");
+        long complete=Files.size(file);
+        store.appendSlice(session,1,10,MD5_1);
+        //模拟最后一条记录只写了一半
+        try (FileChannel channel=FileChannel.open(file,StandardOpenOption.WRITE)){
+            channel.truncate(complete+5);
+        }
+
+        UploadSession loaded=store.load("abc");
+        assertTrue(loaded.isReceived(0));
+        assertFalse(loaded.isReceived(1));
+        assertEquals(complete,Files.size(file));
+
+        store.appendSlice(loaded,1,10,MD5_1);
+        UploadSession reloaded=store.load("abc");
+        assertTrue(reloaded.isComplete());
+        assertEquals(MD5_1,reloaded.getChecksum(1));
+    }
+
+    @Test
+    void rejectsSessionOverMaxPieces() throws Exception {
+        new FileUploadSessionStore(dir,100).create(new UploadSession("abc",50,"a.txt",1000L,"a.txt","upload-1"));
+        assertNull(new FileUploadSessionStore(dir,10).load("abc"));
+    }
+
+    @Test
+    void hashesKeysThatAreNotFileNames() throws Exception {
+        FileUploadSessionStore store=new FileUploadSessionStore(dir,100);
+        String key="MINIO:../a b";
+        store.create(new UploadSession(key,1,"a.txt",1000L,"a.txt","upload-1"));
+        assertEquals(key,store.load(key).getKey());
+        assertFalse(FileUploadSessionStore.fileName(key).contains("/"));
+        store.delete(key);
+        assertNull(store.load(key));
+    }
+}
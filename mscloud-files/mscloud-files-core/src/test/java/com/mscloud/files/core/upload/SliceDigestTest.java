@@ -0,0 +1,74 @@
+package com.mscloud.files.core.upload;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class SliceDigestTest {
+
+    @Test
+    void singleSliceRootIsSliceMd5() {
+        String md5=md5Hex("a");
+        assertEquals(md5,SliceDigest.treeRoot(session(md5)));
+    }
+
+    @Test
+    void oddLeafIsPromotedToNextLevel() {
+        byte[] a=md5("a");
+        byte[] b=md5("b");
+        byte[] c=md5("c");
+        //((a,b),c)
+        String expected=SliceDigest.hex(md5(md5(a,b),c));
+        assertEquals(expected,SliceDigest.treeRoot(session(SliceDigest.hex(a),SliceDigest.hex(b),SliceDigest.hex(c))));
+    }
+
+    @Test
+    void fourLeavesMakeBalancedTree() {
+        byte[] a=md5("a");
+        byte[] b=md5("b");
+        byte[] c=md5("c");
+        byte[] d=md5("d");
+        String expected=SliceDigest.hex(md5(md5(a,b),md5(c,d)));
+        assertEquals(expected,SliceDigest.treeRoot(session(SliceDigest.hex(a),SliceDigest.hex(b),SliceDigest.hex(c),SliceDigest.hex(d))));
+    }
+
+    @Test
+    void upperCaseChecksumsGiveSameRoot() {
+        String a=md5Hex("a");
+        String b=md5Hex("b");
+        assertEquals(SliceDigest.treeRoot(session(a,b)),SliceDigest.treeRoot(session(a.toUpperCase(),b.toUpperCase())));
+    }
+
+    @Test
+    void missingChecksumHasNoRoot() {
+        assertNull(SliceDigest.treeRoot(session(md5Hex("a"),null)));
+        assertNull(SliceDigest.treeRoot(session(md5Hex("a"),"not-a-md5")));
+    }
+
+    private static UploadSession session(String... checksums){
+        UploadSession session=new UploadSession("key",checksums.length,"a.txt",0L,"a.txt","upload");
+        for(int i=0;i<checksums.length;i++){
+            session.markReceived(i,1,checksums[i]);
+        }
+        return session;
+    }
+
+    private static String md5Hex(String text){
+        return SliceDigest.hex(md5(text));
+    }
+
+    private static byte[] md5(String text){
+        return SliceDigest.md5().digest(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] md5(byte[] left,byte[] right){
+        MessageDigest digest=SliceDigest.md5();
+        digest.update(left);
+        digest.update(right);
+        return digest.digest();
+    }
+}
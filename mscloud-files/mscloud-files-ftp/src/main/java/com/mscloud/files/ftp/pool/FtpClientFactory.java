@@ -0,0 +1,130 @@
+package com.mscloud.files.ftp.pool;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPReply;
+import org.apache.commons.pool2.BasePooledObjectFactory;
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.impl.DefaultPooledObject;
+
+import java.io.IOException;
+
+/**
+ * FTP连接池对象工厂，负责创建已登录的长连接，以及借出前的校验和销毁
+ */
+@Slf4j
+public class FtpClientFactory extends BasePooledObjectFactory<FTPClient> {
+
+    private final String ip;
+    private final int port;
+    private final String username;
+    private final String password;
+    /**
+     * 连接超时，单位毫秒
+     */
+    private final int connectTimeout;
+    /**
+     * 数据传输超时，单位毫秒
+     */
+    private final int dataTimeout;
+    /**
+     * 传输缓冲大小，单位字节
+     */
+    private final int bufferSize;
+    /**
+     * 传输过程中控制连接发送NOOP的间隔，单位秒
+     */
+    private final long controlKeepAliveTimeout;
+
+    public FtpClientFactory(String ip, int port, String username, String password, int connectTimeout, int dataTimeout, int bufferSize, long controlKeepAliveTimeout) {
+        this.ip = ip;
+        this.port = port;
+        this.username = username;
+        this.password = password;
+        this.connectTimeout = connectTimeout;
+        this.dataTimeout = dataTimeout;
+        this.bufferSize = bufferSize;
+        this.controlKeepAliveTimeout = controlKeepAliveTimeout;
+    }
+
+    /**
+     * 创建连接并登录
+     */
+    @Override
+    public FTPClient create() throws Exception {
+        FTPClient ftpClient = new FTPClient();
+        ftpClient.setConnectTimeout(connectTimeout);
+        ftpClient.setDataTimeout(dataTimeout);
+        //设置编码
+        ftpClient.setControlEncoding("UTF-8");
+        ftpClient.connect(ip, port);
+        if (!FTPReply.isPositiveCompletion(ftpClient.getReplyCode())) {
+            ftpClient.disconnect();
+            throw new IOException("FTP服务器拒绝连接,replyCode=" + ftpClient.getReplyCode());
+        }
+        if (!ftpClient.login(username, password)) {
+            int replyCode = ftpClient.getReplyCode();
+            ftpClient.disconnect();
+            throw new IOException("FTP登录失败,replyCode=" + replyCode);
+        }
+        ftpClient.setFileType(FTP.BINARY_FILE_TYPE);
+        ftpClient.enterLocalPassiveMode();
+        ftpClient.setBufferSize(bufferSize);
+        //保持连接
+        ftpClient.setKeepAlive(true);
+        ftpClient.setControlKeepAliveTimeout(controlKeepAliveTimeout);
+        log.info("创建FTP连接,ip={},port={}", ip, port);
+        return ftpClient;
+    }
+
+    @Override
+    public PooledObject<FTPClient> wrap(FTPClient ftpClient) {
+        return new DefaultPooledObject<>(ftpClient);
+    }
+
+    /**
+     * 校验连接是否可用
+     */
+    @Override
+    public boolean validateObject(PooledObject<FTPClient> p) {
+        FTPClient ftpClient = p.getObject();
+        try {
+            return ftpClient.isConnected() && ftpClient.sendNoOp();
+        } catch (IOException e) {
+            log.warn("FTP连接校验失败{}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 归还连接时切换回根目录，避免影响下一个使用者
+     */
+    @Override
+    public void passivateObject(PooledObject<FTPClient> p) throws Exception {
+        p.getObject().changeWorkingDirectory("/");
+    }
+
+    /**
+     * 销毁连接
+     */
+    @Override
+    public void destroyObject(PooledObject<FTPClient> p) {
+        FTPClient ftpClient = p.getObject();
+        try {
+            if (ftpClient.isConnected()) {
+                ftpClient.logout();
+            }
+        } catch (IOException e) {
+            log.warn("FTP退出登录失败{}", e.getMessage());
+        } finally {
+            if (ftpClient.isConnected()) {
+                try {
+                    ftpClient.disconnect();
+                } catch (IOException e) {
+                    log.warn("FTP断开连接失败{}", e.getMessage());
+                }
+            }
+        }
+    }
+}
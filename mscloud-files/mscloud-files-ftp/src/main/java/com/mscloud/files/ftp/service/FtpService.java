@@ -1,38 +1,91 @@
 package com.mscloud.files.ftp.service;
 
 import com.mscloud.files.core.FileUtil;
+import com.mscloud.files.core.ObjectKeyGenerator;
 import com.mscloud.files.core.constants.FileDirType;
+import com.mscloud.files.core.constants.KeyStrategy;
+import com.mscloud.files.core.concurrent.StoreExecutors;
 import com.mscloud.files.core.constants.StoreType;
+import com.mscloud.files.core.download.FileDownloadSupport;
+import com.mscloud.files.core.job.FileJob;
+import com.mscloud.files.core.meta.FileChangeSupport;
+import com.mscloud.files.core.meta.FileMetaCache;
 import com.mscloud.files.core.pojo.FileInfo;
 import com.mscloud.files.core.pojo.FileResult;
+import com.mscloud.files.core.pojo.FileStat;
+import com.mscloud.files.core.upload.ChunkedUploadEngine;
+import com.mscloud.files.core.upload.SliceDigest;
+import com.mscloud.files.core.upload.SliceDigestException;
+import com.mscloud.files.core.upload.UploadSession;
+import com.mscloud.files.core.upload.UploadSessionRegistry;
 import com.mscloud.files.ftp.util.FtpClientUtil;
+import com.mscloud.files.ftp.util.FtpRetrieveInputStream;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.net.ftp.FTPClient;
 import org.apache.commons.net.ftp.FTPFile;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 @Slf4j
 @Service
-public class FtpService {
+public class FtpService implements InitializingBean {
 
 
 
     @Autowired
     private FtpClientUtil ftpClientUtil;
 
+    @Autowired
+    private FileDownloadSupport fileDownloadSupport;
+
+    @Autowired
+    private FileMetaCache fileMetaCache;
+
+    @Autowired
+    private FileChangeSupport fileChangeSupport;
+
+    @Autowired
+    private StoreExecutors storeExecutors;
+
+    @Autowired
+    private UploadSessionRegistry uploadSessionRegistry;
+
+    @Autowired
+    private ChunkedUploadEngine chunkedUploadEngine;
+
+    @Autowired
+    private ObjectKeyGenerator objectKeyGenerator;
+
+    /**
+     * 批量上传时单次请求同时上传的文件数，整体并发受 mscloud.files.executor 线程池限制
+     */
+    @Value("${mscloud.files.upload.parallelism:4}")
+    private int uploadParallelism;
+
+    @Override
+    public void afterPropertiesSet() {
+        //清理过期的分片上传会话时删除FTP上的临时文件
+        uploadSessionRegistry.registerAborter(StoreType.FTP,session->deleteFile(session.getUploadId()));
+    }
 
     /**
      * 上传单个文件
@@ -41,20 +94,20 @@ public class FtpService {
      * @param isRename 是否重命名，默认为false， true则使用UUID重命名存储
      * @param fileDirType 目录格式，默认年月日格式目录
      * @param fileDirPath 指定目录
+     * @param keyStrategy 目录策略，为空时使用全局配置
      * @param isBackShareLink 是否返回临时链接，默认为是
      * @return
      */
-    public FileResult uploadFile(InputStream inputStream, FileInfo fileInfo, boolean isRename, FileDirType fileDirType, String fileDirPath,boolean isBackShareLink){
+    public FileResult uploadFile(InputStream inputStream, FileInfo fileInfo, boolean isRename, FileDirType fileDirType, String fileDirPath,KeyStrategy keyStrategy,boolean isBackShareLink){
 
         FTPClient ftpClient= null;
         try {
-            ftpClient = ftpClientUtil.open();
-            if(ftpClient==null){
-                return FileResult.builder().isOk(false).msg("上传失败,找不到FTP数据源配置").build();
-            }
-        } catch (IOException e) {
+            ftpClient = ftpClientUtil.borrowClient();
+        } catch (Exception e) {
+            log.warn("连接FTP失败{}",e.getMessage());
             return FileResult.builder().isOk(false).msg("上传失败,连接FTP失败").build();
         }
+        boolean isBroken=false;//连接是否已损坏，损坏的连接不再归还连接池
 
         String ip=ftpClientUtil.getIp();
         String username=ftpClientUtil.getUsername();
@@ -67,14 +120,14 @@ public class FtpService {
             String contentType=fileInfo.getContentType();//文件类型
             String orignalFilename=fileInfo.getOrignalName();//文件原始名称
             String fileSuffix= fileInfo.getFileSuffix();//后缀
-            String reName= UUID.randomUUID().toString().replaceAll("-","")+ (fileSuffix==null?"":fileSuffix);
+            String reName= FileUtil.uuid()+ (fileSuffix==null?"":fileSuffix);
             String  newStoreName=(isRename?reName:orignalFilename);
 
             String dir="";
             //创建目录格式
             if(fileDirType==null|| ! fileDirType.equals(FileDirType.EMPTY)){
-                //拼接目录
-                dir= FileUtil.dirName(fileDirType,fileDirPath,false);
+                //拼接目录，FTP只能创建一级目录
+                dir= objectKeyGenerator.dirName(fileDirType,fileDirPath,keyStrategy,newStoreName,false);
             }else{
                 dir=fileDirPath;
             }
@@ -88,11 +141,6 @@ public class FtpService {
             //FTPClient工作目录必须切换到文件所在的目录
             ftpClient.changeWorkingDirectory(dir);
 
-            ftpClient.enterLocalPassiveMode();
-            //设置缓冲
-            ftpClient.setBufferSize(1024 * 1024 * 20);
-            //保持连接
-            ftpClient.setKeepAlive(true);
             //上传FTP
             boolean isSuccess = ftpClient.storeFile(new String(newStoreName.getBytes("utf-8"),"iso-8859-1"), inputStream);
             inputStream.close();
@@ -104,6 +152,8 @@ public class FtpService {
                 }else{
                     storeName="/"+dir+"/"+newStoreName;
                 }
+                fileMetaCache.invalidate(StoreType.FTP,serverName(),storeName);
+                fileChangeSupport.written(StoreType.FTP,serverName(),storeName);
 
                 if(isBackShareLink){
                     shareLink ="ftp://"+username+":"+password+"@"+ip+storeName;
@@ -115,6 +165,7 @@ public class FtpService {
 
 
         } catch (IOException e) {
+            isBroken=true;
             log.warn("上传失败{}",e.getMessage());
             return FileResult.builder().isOk(false).msg("上传失败,FTP链接IO异常,"+e.getMessage()).build();
 
@@ -126,12 +177,13 @@ public class FtpService {
                 if(inputStream !=null){
                     inputStream.close();
                 }
-                if(ftpClientUtil !=null){
-                    ftpClientUtil.close();
-                }
-
             } catch (IOException e) {
             }
+            if(isBroken){
+                ftpClientUtil.invalidateClient(ftpClient);
+            }else{
+                ftpClientUtil.returnClient(ftpClient);
+            }
         }
     }
 
@@ -143,48 +195,33 @@ public class FtpService {
      * @param isRename 是否重命名，默认为false， true则使用UUID重命名存储
      * @param fileDirType 目录格式，默认年月日格式目录
      * @param fileDirPath 指定目录
+     * @param keyStrategy 目录策略，为空时使用全局配置
      * @param isBackShareLink 是否返回临时链接，默认为是
      * @return
      */
-    public List<FileResult> uploadFiles(MultipartFile[] multipartFiles, boolean isRename, FileDirType fileDirType, String fileDirPath, boolean isBackShareLink){
-        List<FileResult> list=new ArrayList<>();
-        for(MultipartFile file:multipartFiles){
-            //文件基本信息
-            String orignalFilename=file.getOriginalFilename();//文件原始名称
-            String fileSuffix= FileUtil.splitFileSuffix(orignalFilename);//后缀
-            FileInfo fileInfo=FileInfo.builder().fileSize(file.getSize()).contentType(file.getContentType()).orignalName(orignalFilename).fileSuffix(fileSuffix).build();
-            InputStream inputStream= null;
-            try {
-                inputStream = file.getInputStream();
-                FileResult fileResult= this.uploadFile(inputStream,fileInfo,isRename,fileDirType,fileDirPath,isBackShareLink);
-                list.add(fileResult);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-
-        }
-        return list;
+    public List<FileResult> uploadFiles(MultipartFile[] multipartFiles, boolean isRename, FileDirType fileDirType, String fileDirPath, KeyStrategy keyStrategy, boolean isBackShareLink){
+        //按文件并发上传，整体耗时接近最慢的文件；结果与传入顺序一致
+        return storeExecutors.uploadFiles(StoreType.FTP,multipartFiles,uploadParallelism,
+                (inputStream,fileInfo)->uploadFile(inputStream,fileInfo,isRename,fileDirType,fileDirPath,keyStrategy,isBackShareLink));
     }
 
     /**
-     * 下载文件
+     * 下载文件，支持Range区间下载，区间通过REST偏移读取
      * @param filePath 指定下载的文件全路径 如： oa/test.txt
      * @param storeAsFilename 下载后文件名
+     * @param request 请求
      * @param response  响应文件流
      */
-    public FileResult downloadFile(String filePath,String storeAsFilename,HttpServletResponse response){
+    public FileResult downloadFile(String filePath,String storeAsFilename,HttpServletRequest request,HttpServletResponse response){
 
         FTPClient ftpClient= null;
         try {
-            ftpClient = ftpClientUtil.open();
-            if(ftpClient==null){
-                return FileResult.builder().isOk(false).msg("上传失败,找不到FTP数据源配置").build();
-            }
-        } catch (IOException e) {
-            return FileResult.builder().isOk(false).msg("上传失败,连接FTP失败").build();
+            ftpClient = ftpClientUtil.borrowClient();
+        } catch (Exception e) {
+            log.warn("连接FTP失败{}",e.getMessage());
+            return FileResult.builder().isOk(false).msg("下载失败,连接FTP失败").build();
         }
-        BufferedInputStream inputStream = null;
-        OutputStream outputStream =null;
+        boolean isBroken=false;//连接是否已损坏，损坏的连接不再归还连接池
         try{
             /**没有对应路径时，FTPFile[] 大小为0，不会为null*/
             FTPFile[] ftpFiles = ftpClient.listFiles(filePath);
@@ -193,48 +230,384 @@ public class FtpService {
                 ftpFile = ftpFiles[0];
             }
             if (ftpFile != null && ftpFile.isFile()) {
-                String workDir = filePath.substring(0, filePath.lastIndexOf("/"));
+                String workDir = filePath.substring(0, filePath.lastIndexOf("/")+1);
                 if (StringUtils.isBlank(workDir)) {
                     workDir = "/";
                 }
                 /**文件下载前，FTPClient工作目录必须切换到文件所在的目录，否则下载失败
                  * "/" 表示用户根目录*/
                 ftpClient.changeWorkingDirectory(workDir);
-                inputStream=new BufferedInputStream(ftpClient.retrieveFileStream(ftpFile.getName()));
-                byte buf[] = new byte[1024];
-                int length = 0;
-
-                response.reset();
-                //下载名称
-                String storeAs = storeAsFilename==null?filePath:storeAsFilename;
-                response.setHeader("Content-Disposition","attachment;filename=" + URLEncoder.encode(storeAs, "UTF-8"));
-                response.setContentType("application/octet-stream;charset=UTF-8");
-                response.setCharacterEncoding("UTF-8");
-                outputStream = response.getOutputStream();
-                while((length = inputStream.read(buf)) > 0){
-                    outputStream.write(buf,0,length);
-                }
-                return FileResult.builder().isOk(true).msg("下载成功").build();
+                FileStat stat=toFileStat(filePath,ftpFile);
+                fileMetaCache.putFound(stat);
+                String fileName=ftpFile.getName();
+                FTPClient client=ftpClient;
+                return fileDownloadSupport.download(request,response,stat,storeAsFilename,(offset,length)->{
+                    client.setRestartOffset(offset);
+                    InputStream inputStream=client.retrieveFileStream(fileName);
+                    if(inputStream==null){
+                        throw new IOException("FTP读取文件失败,replyCode="+client.getReplyCode());
+                    }
+                    return new FtpRetrieveInputStream(inputStream,length,client);
+                });
             }
             return FileResult.builder().isOk(false).msg("下载失败,找不到文件").build();
         }catch (IOException e) {
+            isBroken=true;
             log.warn("下载失败{}",e.getMessage());
             return FileResult.builder().isOk(false).msg("下载失败,FTP链接IO异常,"+e.getMessage()).build();
 
         }catch (Exception e){
             log.warn("下载失败{}",e.getMessage());
+            isBroken=true;
             return FileResult.builder().isOk(false).msg("下载失败,FTP异常").build();
         }finally {
-            try {
-                if(inputStream !=null){
-                    inputStream.close();
+            if(isBroken){
+                ftpClientUtil.invalidateClient(ftpClient);
+            }else{
+                ftpClientUtil.returnClient(ftpClient);
+            }
+        }
+    }
+
+    /**
+     * 打开文件指定区间的数据流，数据流占用一个FTP连接，关闭后归还连接池
+     * @param filePath 文件全路径 如： oa/test.txt
+     * @param offset 起始位置
+     * @param length 读取长度
+     * @return 数据流，由调用方关闭
+     */
+    public InputStream openFile(String filePath,long offset,long length) throws Exception {
+        FTPClient ftpClient=ftpClientUtil.borrowClient();
+        try {
+            String workDir = filePath.substring(0, filePath.lastIndexOf("/")+1);
+            if (StringUtils.isBlank(workDir)) {
+                workDir = "/";
+            }
+            ftpClient.changeWorkingDirectory(workDir);
+            ftpClient.setRestartOffset(offset);
+            InputStream inputStream=ftpClient.retrieveFileStream(filePath.substring(filePath.lastIndexOf("/")+1));
+            if(inputStream==null){
+                throw new IOException("FTP读取文件失败,replyCode="+ftpClient.getReplyCode());
+            }
+            return new FtpRetrieveInputStream(inputStream,length,ftpClient,ftpClientUtil);
+        }catch (Exception e){
+            ftpClientUtil.invalidateClient(ftpClient);
+            throw e;
+        }
+    }
+
+    /**
+     * 分片上传文件，分片先暂存到本地，再按分片顺序通过 REST 偏移续写到FTP上的临时文件，全部写入后重命名为正式文件
+     * 分片可以乱序、并发上传，重复的分片直接忽略；REST+STOR 按偏移覆盖写入，中断后重写同一分片不会产生重复数据
+     * @param file 分片文件流
+     * @param fileName 文件名称
+     * @param sliceIndex 分片索引
+     * @param totalPieces 切片总数
+     * @param md5String 整体文件MD5
+     * @param sliceMd5 分片MD5，不为空则校验分片，校验不通过需要重新上传该分片
+     * @return
+     */
+    public FileResult uploadPieceFile(MultipartFile file, String fileName, int sliceIndex, int totalPieces, String md5String, String sliceMd5, boolean isRename, FileDirType fileDirType, String fileDirPath, KeyStrategy keyStrategy, boolean isBackShareLink){
+        if(! SliceDigest.isMd5(md5String)){
+            return FileResult.builder().isOk(false).msg("上传失败,md5String必须是32位十六进制MD5").build();
+        }
+        if(! uploadSessionRegistry.isAllowedPieces(totalPieces)){
+            return FileResult.builder().isOk(false).msg("上传失败,分片总数超出限制:"+uploadSessionRegistry.getMaxPieces()).build();
+        }
+        if(sliceIndex<0 || sliceIndex>=totalPieces){
+            return FileResult.builder().isOk(false).msg("上传失败,分片索引超出范围").build();
+        }
+        try {
+            // 会话的uploadId记录FTP上的临时文件
+            UploadSession session=uploadSessionRegistry.get(StoreType.FTP,md5String);
+            if(session!=null && session.getTotalPieces()!=totalPieces){//分片总数变化，重新上传
+                deleteFile(session.getUploadId());
+                uploadSessionRegistry.remove(session);
+                session=null;
+            }
+            if(session==null){
+                String storeName=pieceStoreName(fileName,isRename,fileDirType,fileDirPath,keyStrategy);
+                String tempName=storeName+"."+FileUtil.uuid()+".uploading";
+                session=uploadSessionRegistry.create(StoreType.FTP,md5String,totalPieces,fileName,storeName,tempName);
+            }
+            //每个分片单独续写
+            uploadSessionRegistry.initSlicesPerPart(session,1);
+
+            if(! session.isReceived(sliceIndex)){
+                String md5;
+                try (InputStream inputStream=file.getInputStream()){
+                    md5=chunkedUploadEngine.stage(session,sliceIndex,inputStream,SliceDigest.expected(sliceMd5,md5String,totalPieces));
+                }
+                uploadSessionRegistry.markReceived(session,sliceIndex,file.getSize(),md5);
+            }
+            // 其它请求正在写入时由其负责写入新到的分片
+            ReentrantLock lock=session.getAppendLock();
+            while(hasReadySlice(session) && lock.tryLock()){
+                try {
+                    appendSlices(session);
+                } finally {
+                    lock.unlock();
+                }
+            }
+            if(! session.isComplete()){
+                // 返回下一个需要上传的分片序号
+                return FileResult.builder().isOk(true).sliceIndex(session.nextMissing(sliceIndex+1)).msg("分片上传成功").build();
+            }
+            // 全部分片已收到，后台写入剩余分片并重命名，返回合并任务ID，通过任务查询合并结果
+            UploadSession finishSession=session;
+            FileJob job=chunkedUploadEngine.finish(session,j->{
+                lock.lock();
+                try {
+                    appendSlices(finishSession);
+                } finally {
+                    lock.unlock();
+                }
+                if(! finishSession.isAllPartsUploaded()){
+                    throw new IOException("分片写入不完整");
                 }
-                if(outputStream !=null){
-                    outputStream.close();
+                String storeName=finishSession.getObjectName();
+                renameFile(finishSession.getUploadId(),storeName);
+                uploadSessionRegistry.remove(finishSession);
+                fileMetaCache.invalidate(StoreType.FTP,serverName(),storeName);
+                fileChangeSupport.written(StoreType.FTP,serverName(),storeName);
+                String shareLink ="";
+                if(isBackShareLink){
+                    shareLink ="ftp://"+ftpClientUtil.getUsername()+":"+ftpClientUtil.getPassword()+"@"+ftpClientUtil.getIp()+storeName;
                 }
+                return FileResult.builder().isOk(true).sliceIndex(-1).msg("全部上传成功").digest(SliceDigest.treeRoot(finishSession)).storeType(StoreType.FTP.value()).shareLink(shareLink).fileSize(finishSession.getUploadedBytes()).storeName(storeName).orignalName(fileName).fileSuffix(FileUtil.splitFileSuffix(fileName)).build();
+            });
+            return FileResult.builder().isOk(true).sliceIndex(-2).msg("分片已全部上传,正在合并").storeType(StoreType.FTP.value()).storeName(session.getObjectName()).jobId(job==null?null:job.getJobId()).build();
+        } catch (SliceDigestException e) {
+            log.warn("上传失败{}",e.getMessage());
+            return FileResult.builder().isOk(false).sliceIndex(e.getSliceIndex()).msg("上传失败,"+e.getMessage()).build();
+        } catch (RejectedExecutionException e) {
+            log.warn("上传失败{}",e.getMessage());
+            return FileResult.builder().isOk(false).msg("上传失败,合并任务过多,请稍后重新上传最后一个分片").build();
+        } catch (IOException e) {
+            log.warn("上传失败{}",e.getMessage());
+            return FileResult.builder().isOk(false).msg("上传失败,FTP链接IO异常,"+e.getMessage()).build();
+        } catch (Exception e) {
+            log.warn("上传失败{}",e.getMessage());
+            return FileResult.builder().isOk(false).msg("上传失败,FTP异常").build();
+        }
+    }
+
+    /**
+     * 分片上传的最终存储名称，目录规则和 uploadFile 一致
+     */
+    private String pieceStoreName(String fileName,boolean isRename,FileDirType fileDirType,String fileDirPath,KeyStrategy keyStrategy){
+        String fileSuffix= FileUtil.splitFileSuffix(fileName);//后缀
+        String reName= FileUtil.uuid()+ (fileSuffix==null?"":fileSuffix);
+        String  newStoreName=(isRename?reName:fileName);
+        String dir="";
+        //创建目录格式
+        if(fileDirType==null|| ! fileDirType.equals(FileDirType.EMPTY)){
+            //拼接目录，FTP只能创建一级目录
+            dir= objectKeyGenerator.dirName(fileDirType,fileDirPath,keyStrategy,newStoreName,false);
+        }else{
+            dir=fileDirPath;
+        }
+        String workDir=ftpClientUtil.getWorkDir();
+        if(StringUtils.isNotBlank(workDir)){
+            dir =workDir+"/"+dir;
+        }
+        if(! dir.startsWith("/")){
+            dir ="/"+dir;
+        }
+        return dir+"/"+newStoreName;
+    }
+
+    /**
+     * 下一个待写入的分片是否已收到
+     */
+    private boolean hasReadySlice(UploadSession session){
+        int next=session.getPartCount();
+        return next<session.getTotalPieces() && session.isReceived(next);
+    }
+
+    /**
+     * 从已写入的位置开始，按顺序把已收到的分片续写到临时文件
+     */
+    private void appendSlices(UploadSession session) throws Exception {
+        FTPClient ftpClient=ftpClientUtil.borrowClient();
+        boolean isBroken=false;//连接是否已损坏，损坏的连接不再归还连接池
+        try {
+            String tempName=session.getUploadId();
+            int next=session.getPartCount();
+            long offset=0;
+            for(int i=0;i<next;i++){
+                offset+=session.getSize(i);
+            }
+            if(next==0 && tempName.lastIndexOf('/')>0){//创建目录,只能创建一级目录
+                ftpClient.makeDirectory(tempName.substring(0,tempName.lastIndexOf('/')));
+            }
+            while(next<session.getTotalPieces() && session.isReceived(next)){
+                Path staged=uploadSessionRegistry.stagingFile(session,next);
+                ftpClient.setRestartOffset(offset);
+                boolean isSuccess;
+                try (InputStream inputStream=Files.newInputStream(staged)){
+                    isSuccess=ftpClient.storeFile(tempName,inputStream);
+                }
+                if(! isSuccess){
+                    throw new IOException("续写分片"+next+"失败,"+StringUtils.trim(ftpClient.getReplyString()));
+                }
+                offset+=session.getSize(next);
+                //分块记录为已写入的分片，ETag记录写入后的偏移
+                uploadSessionRegistry.markPart(session,next+1,Long.toString(offset));
+                Files.deleteIfExists(staged);
+                next++;
+            }
+        } catch (IOException e) {
+            isBroken=true;
+            throw e;
+        } finally {
+            if(isBroken){
+                ftpClientUtil.invalidateClient(ftpClient);
+            }else{
+                ftpClientUtil.returnClient(ftpClient);
+            }
+        }
+    }
+
+    /**
+     * 重命名文件，目标文件已存在时覆盖
+     */
+    private void renameFile(String from,String to) throws Exception {
+        FTPClient ftpClient=ftpClientUtil.borrowClient();
+        boolean isBroken=false;//连接是否已损坏，损坏的连接不再归还连接池
+        try {
+            ftpClient.deleteFile(to);
+            if(! ftpClient.rename(from,to)){
+                throw new IOException("重命名失败,"+StringUtils.trim(ftpClient.getReplyString()));
+            }
+        } catch (IOException e) {
+            isBroken=true;
+            throw e;
+        } finally {
+            if(isBroken){
+                ftpClientUtil.invalidateClient(ftpClient);
+            }else{
+                ftpClientUtil.returnClient(ftpClient);
+            }
+        }
+    }
 
+    /**
+     * 删除文件
+     * @param filePath 文件全路径 如： /oa/test.txt
+     * @return
+     */
+    public FileResult deleteFile(String filePath){
+        return deleteFiles(Collections.singletonList(filePath)).get(0);
+    }
+
+    /**
+     * 批量删除文件，多个线程各自从连接池借用一个会话，依次领取待删除的文件
+     * @param filePaths 文件路径
+     * @return 每个文件的删除结果，顺序与filePaths一致
+     */
+    public List<FileResult> deleteFiles(List<String> filePaths){
+        FileResult[] results=new FileResult[filePaths.size()];
+        AtomicInteger next=new AtomicInteger();
+        int workers=Math.max(1,Math.min(storeExecutors.getThreads(StoreType.FTP),filePaths.size()));
+        List<CompletableFuture<Void>> futures=new ArrayList<>(workers);
+        for(int i=0;i<workers;i++){
+            futures.add(CompletableFuture.runAsync(()->deleteWorker(filePaths,results,next),storeExecutors.get(StoreType.FTP)));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        return Arrays.asList(results);
+    }
+
+    private void deleteWorker(List<String> filePaths,FileResult[] results,AtomicInteger next){
+        FTPClient ftpClient=null;
+        int index;
+        while((index=next.getAndIncrement())<filePaths.size()){
+            String filePath=filePaths.get(index);
+            if(StringUtils.isBlank(filePath)){
+                results[index]=FileResult.builder().isOk(false).filePath(filePath).msg("删除失败,文件路径为空").build();
+                continue;
+            }
+            try {
+                if(ftpClient==null){
+                    ftpClient=ftpClientUtil.borrowClient();
+                }
+                if(ftpClient.deleteFile(filePath)){
+                    fileMetaCache.putNotFound(StoreType.FTP,serverName(),filePath);
+                    fileChangeSupport.deleted(StoreType.FTP,serverName(),filePath);
+                    log.info("删除文件file={}",filePath);
+                    results[index]=FileResult.builder().isOk(true).filePath(filePath).msg("删除成功").build();
+                }else{
+                    results[index]=FileResult.builder().isOk(false).filePath(filePath).msg("删除失败,"+StringUtils.trim(ftpClient.getReplyString())).build();
+                }
             } catch (IOException e) {
+                //连接已损坏，换一个会话继续
+                log.warn("删除失败{}",e.getMessage());
+                ftpClientUtil.invalidateClient(ftpClient);
+                ftpClient=null;
+                results[index]=FileResult.builder().isOk(false).filePath(filePath).msg("删除失败,FTP链接IO异常,"+e.getMessage()).build();
+            } catch (Exception e) {
+                log.warn("删除失败{}",e.getMessage());
+                results[index]=FileResult.builder().isOk(false).filePath(filePath).msg("删除失败,连接FTP失败").build();
             }
         }
+        if(ftpClient !=null){
+            ftpClientUtil.returnClient(ftpClient);
+        }
+    }
+
+    /**
+     * 获取文件元数据，优先使用元数据缓存
+     * @param filePath 文件全路径 如： oa/test.txt
+     * @return 文件不存在时返回null
+     */
+    public FileStat statFile(String filePath) throws Exception {
+        if(StringUtils.isEmpty(filePath)){
+            return null;
+        }
+        FileMetaCache.Entry entry=fileMetaCache.get(StoreType.FTP,serverName(),filePath);
+        if(entry !=null){
+            return entry.getStat();
+        }
+        FTPClient ftpClient=ftpClientUtil.borrowClient();
+        boolean isBroken=false;
+        try {
+            FTPFile[] ftpFiles = ftpClient.listFiles(filePath);
+            if(ftpFiles.length==0 || ! ftpFiles[0].isFile()){
+                fileMetaCache.putNotFound(StoreType.FTP,serverName(),filePath);
+                return null;
+            }
+            FileStat stat=toFileStat(filePath,ftpFiles[0]);
+            fileMetaCache.putFound(stat);
+            return stat;
+        }catch (IOException e){
+            isBroken=true;
+            throw e;
+        }finally {
+            if(isBroken){
+                ftpClientUtil.invalidateClient(ftpClient);
+            }else{
+                ftpClientUtil.returnClient(ftpClient);
+            }
+        }
+    }
+
+    /**
+     * FTP文件信息转换
+     */
+    private FileStat toFileStat(String filePath,FTPFile ftpFile){
+        return FileStat.builder()
+                .storeType(StoreType.FTP)
+                .bucket(serverName())
+                .filePath(filePath)
+                .fileSize(ftpFile.getSize())
+                .lastModified(ftpFile.getTimestamp()==null?null:ftpFile.getTimestamp().getTimeInMillis())
+                .build();
+    }
+
+    /**
+     * FTP服务器地址，作为缓存键中的桶名称
+     */
+    private String serverName(){
+        return ftpClientUtil.getIp()+":"+ftpClientUtil.getPort();
     }
 }
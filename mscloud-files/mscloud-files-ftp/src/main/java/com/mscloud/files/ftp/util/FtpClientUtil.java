@@ -1,26 +1,31 @@
 package com.mscloud.files.ftp.util;
 
 
+import com.mscloud.files.ftp.pool.FtpClientFactory;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.net.ftp.FTP;
 import org.apache.commons.net.ftp.FTPClient;
-import org.apache.commons.net.ftp.FTPReply;
+import org.apache.commons.pool2.impl.GenericObjectPool;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 
 /**
- * FTP上传
+ * FTP配置以及连接池
+ * 每个连接均为已登录的长连接，使用时借出，用完后归还，并发上传时各自使用独立的连接
  * @author User
  *
  */
 @Slf4j
 @Component
-public class FtpClientUtil {
+public class FtpClientUtil implements InitializingBean, DisposableBean {
 
-	private  FTPClient ftpClient =null;
+	private GenericObjectPool<FTPClient> ftpClientPool =null;
 
 	@Value("${mscloud.ftp.ip:'127.0.0.1'}")
 	private String ip;
@@ -33,56 +38,132 @@ public class FtpClientUtil {
 	@Value("${mscloud.ftp.workDir:''}")
 	private String workDir;
 
-
-	public FtpClientUtil(){
-		ftpClient = new FTPClient();
-	}
-
 	/**
-	 * 连接FTP
+	 * 连接超时，单位毫秒
 	 */
-	public FTPClient open() throws IOException {
-
+	@Value("${mscloud.ftp.connectTimeout:30000}")
+	private int connectTimeout;
+	/**
+	 * 数据传输超时，单位毫秒
+	 */
+	@Value("${mscloud.ftp.dataTimeout:300000}")
+	private int dataTimeout;
+	/**
+	 * 传输缓冲大小，单位字节
+	 */
+	@Value("${mscloud.ftp.bufferSize:1048576}")
+	private int bufferSize;
+	/**
+	 * 传输过程中控制连接发送NOOP的间隔，单位秒
+	 */
+	@Value("${mscloud.ftp.controlKeepAliveTimeout:300}")
+	private long controlKeepAliveTimeout;
 
-		 //设置超时
-		 ftpClient.setConnectTimeout(60*60*1000);
-		 //设置编码
-		 ftpClient.setControlEncoding("UTF-8");
+	/**
+	 * 连接池最大连接数
+	 */
+	@Value("${mscloud.ftp.pool.maxTotal:8}")
+	private int maxTotal;
+	/**
+	 * 连接池最大空闲连接数
+	 */
+	@Value("${mscloud.ftp.pool.maxIdle:8}")
+	private int maxIdle;
+	/**
+	 * 连接池最小空闲连接数
+	 */
+	@Value("${mscloud.ftp.pool.minIdle:0}")
+	private int minIdle;
+	/**
+	 * 连接耗尽时借出连接的最大等待时间，单位毫秒
+	 */
+	@Value("${mscloud.ftp.pool.maxWaitMillis:30000}")
+	private long maxWaitMillis;
+	/**
+	 * 空闲连接检测周期，单位毫秒
+	 */
+	@Value("${mscloud.ftp.pool.timeBetweenEvictionRunsMillis:60000}")
+	private long timeBetweenEvictionRunsMillis;
+	/**
+	 * 连接空闲超过该时长则被回收，单位毫秒
+	 */
+	@Value("${mscloud.ftp.pool.minEvictableIdleTimeMillis:300000}")
+	private long minEvictableIdleTimeMillis;
+
+
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		GenericObjectPoolConfig<FTPClient> poolConfig = new GenericObjectPoolConfig<>();
+		poolConfig.setMaxTotal(maxTotal);
+		poolConfig.setMaxIdle(maxIdle);
+		poolConfig.setMinIdle(minIdle);
+		poolConfig.setMaxWaitMillis(maxWaitMillis);
+		//借出时校验，失效的连接会被销毁并重新创建
+		poolConfig.setTestOnBorrow(true);
+		poolConfig.setTestWhileIdle(true);
+		poolConfig.setTimeBetweenEvictionRunsMillis(timeBetweenEvictionRunsMillis);
+		poolConfig.setMinEvictableIdleTimeMillis(minEvictableIdleTimeMillis);
+		poolConfig.setJmxEnabled(false);
+		FtpClientFactory factory = new FtpClientFactory(ip, port, username, password, connectTimeout, dataTimeout, bufferSize, controlKeepAliveTimeout);
+		ftpClientPool = new GenericObjectPool<>(factory, poolConfig);
+	}
 
-		 //连接FTP服务器
-		ftpClient.connect(ip, port);
-		 //登录FTP服务器
-		 ftpClient.login(username, password);
-		 ftpClient.setFileType(FTP.BINARY_FILE_TYPE);
-		 //是否成功登录FTP服务器
-		 int replyCode = ftpClient.getReplyCode();
-		 if(!FTPReply.isPositiveCompletion(replyCode)){
-			return ftpClient;
-		 }
+	@Override
+	public void destroy() {
+		if(ftpClientPool !=null){
+			ftpClientPool.close();
+		}
+	}
 
+	/**
+	 * 从连接池借出一个已登录的FTP连接，用完必须调用 returnClient 归还
+	 */
+	public FTPClient borrowClient() throws Exception {
+		return ftpClientPool.borrowObject();
+	}
 
-		 return ftpClient;
+	/**
+	 * 归还FTP连接
+	 */
+	public void returnClient(FTPClient ftpClient) {
+		if(ftpClient ==null){
+			return;
+		}
+		try {
+			ftpClientPool.returnObject(ftpClient);
+		} catch (Exception e) {
+			log.warn("归还FTP连接失败{}",e.getMessage());
+		}
 	}
-	
+
 	/**
-	 * 关闭FTP
+	 * 连接发生IO异常后不再复用，直接销毁
 	 */
-	public void close() {
+	public void invalidateClient(FTPClient ftpClient) {
+		if(ftpClient ==null){
+			return;
+		}
 		try {
-			ftpClient.logout();
-		} catch (IOException e) {
-			e.printStackTrace();
-			
-		}finally {
-			if(ftpClient.isConnected()){
-	 			try {
-	 				ftpClient.disconnect();
-	 			} catch (IOException e) {
-	 				e.printStackTrace();
-	 			}
-	 		}
+			ftpClientPool.invalidateObject(ftpClient);
+		} catch (Exception e) {
+			log.warn("销毁FTP连接失败{}",e.getMessage());
 		}
 	}
+
+	/**
+	 * 连接池使用情况
+	 */
+	public Map<String,Object> getPoolStats() {
+		Map<String,Object> stats = new LinkedHashMap<>();
+		stats.put("maxTotal", ftpClientPool.getMaxTotal());
+		stats.put("active", ftpClientPool.getNumActive());
+		stats.put("idle", ftpClientPool.getNumIdle());
+		stats.put("waiters", ftpClientPool.getNumWaiters());
+		stats.put("created", ftpClientPool.getCreatedCount());
+		stats.put("destroyed", ftpClientPool.getDestroyedCount());
+		return stats;
+	}
+
 	public String getIp() {
 		return ip;
 	}
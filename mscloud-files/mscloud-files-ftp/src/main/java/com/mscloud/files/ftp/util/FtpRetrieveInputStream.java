@@ -0,0 +1,60 @@
+package com.mscloud.files.ftp.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.net.ftp.FTPClient;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * FTP下载数据流，最多读取指定长度
+ * 关闭时读取服务器的传输完成应答，使控制连接可以继续复用；指定连接池时关闭后归还连接
+ */
+@Slf4j
+public class FtpRetrieveInputStream extends BoundedInputStream {
+
+    private final FTPClient ftpClient;
+
+    /**
+     * 连接所属的连接池，为空时由调用方归还连接
+     */
+    private final FtpClientUtil ftpClientUtil;
+
+    private boolean closed=false;
+
+    public FtpRetrieveInputStream(InputStream in, long length, FTPClient ftpClient) {
+        this(in, length, ftpClient, null);
+    }
+
+    public FtpRetrieveInputStream(InputStream in, long length, FTPClient ftpClient, FtpClientUtil ftpClientUtil) {
+        super(in, length);
+        this.ftpClient = ftpClient;
+        this.ftpClientUtil = ftpClientUtil;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(closed){
+            return;
+        }
+        closed=true;
+        boolean isBroken=true;//连接是否已损坏，损坏的连接不再归还连接池
+        try {
+            super.close();
+            //提前关闭数据连接时服务器会返回426，不影响控制连接继续使用
+            if(! ftpClient.completePendingCommand()){
+                log.debug("FTP传输提前结束,replyCode={}",ftpClient.getReplyCode());
+            }
+            isBroken=false;
+        }finally {
+            if(ftpClientUtil !=null){
+                if(isBroken){
+                    ftpClientUtil.invalidateClient(ftpClient);
+                }else{
+                    ftpClientUtil.returnClient(ftpClient);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.mscloud.files.local.service;
+
+import com.mscloud.files.core.pojo.FileInfo;
+import com.mscloud.files.core.pojo.FileResult;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * 由调用方写入数据的本地上传，存储名称和临时文件已生成
+ * 非阻塞服务通过异步文件通道写入 tempFile，写入期间不占用线程；写完后调用 complete 原子重命名，失败时调用 discard 删除临时文件
+ */
+@Slf4j
+public class LocalPushUpload {
+
+    private final LocalService localService;
+    private final String storeName;
+    private final Path target;
+    private final Path tempFile;
+    private final FileInfo fileInfo;
+    private final boolean isBackShareLink;
+
+    LocalPushUpload(LocalService localService, String storeName, Path target, Path tempFile, FileInfo fileInfo, boolean isBackShareLink) {
+        this.localService = localService;
+        this.storeName = storeName;
+        this.target = target;
+        this.tempFile = tempFile;
+        this.fileInfo = fileInfo;
+        this.isBackShareLink = isBackShareLink;
+    }
+
+    /**
+     * 写入数据的临时文件，与目标文件在同一目录，调用方以 CREATE_NEW 方式创建
+     */
+    public Path getTempFile() {
+        return tempFile;
+    }
+
+    /**
+     * 数据已全部写入临时文件，重命名为目标文件并生成上传结果
+     * @param written 写入的字节数
+     */
+    public FileResult complete(long written) {
+        try {
+            return localService.complete(storeName,target,tempFile,written,fileInfo,isBackShareLink);
+        } finally {
+            discard();
+        }
+    }
+
+    /**
+     * 删除临时文件，已重命名时忽略
+     */
+    public void discard() {
+        try {
+            Files.deleteIfExists(tempFile);
+        } catch (IOException e) {
+            log.warn("删除临时文件失败{}",e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,407 @@
+package com.mscloud.files.local.service;
+
+import com.mscloud.files.core.FileUtil;
+import com.mscloud.files.core.ObjectKeyGenerator;
+import com.mscloud.files.core.concurrent.StoreExecutors;
+import com.mscloud.files.core.constants.FileDirType;
+import com.mscloud.files.core.constants.KeyStrategy;
+import com.mscloud.files.core.constants.StoreType;
+import com.mscloud.files.core.download.FileDownloadSupport;
+import com.mscloud.files.core.download.FileRangeReader;
+import com.mscloud.files.core.job.FileJob;
+import com.mscloud.files.core.meta.FileChangeSupport;
+import com.mscloud.files.core.pojo.FileInfo;
+import com.mscloud.files.core.pojo.FileResult;
+import com.mscloud.files.core.pojo.FileStat;
+import com.mscloud.files.core.transfer.FileTransferEngine;
+import com.mscloud.files.local.util.LocalStoreUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 本地服务器文件操作服务类
+ * 上传时文件流使用 FileChannel.transferFrom 写盘，其余流使用 FileTransferEngine，下载由 FileDownloadSupport 优先使用Tomcat的sendfile，不支持时使用 FileChannel.transferTo
+ */
+@Slf4j
+@Component
+public class LocalService {
+
+    /**
+     * 单次transfer的最大字节数
+     */
+    private static final long TRANSFER_CHUNK = 8 * 1024 * 1024;
+
+    @Autowired
+    private LocalStoreUtil localStoreUtil;
+
+    @Autowired
+    private FileDownloadSupport fileDownloadSupport;
+
+    @Autowired
+    private FileTransferEngine fileTransferEngine;
+
+    @Autowired
+    private StoreExecutors storeExecutors;
+
+    @Autowired
+    private ObjectKeyGenerator objectKeyGenerator;
+
+    @Autowired
+    private FileChangeSupport fileChangeSupport;
+
+    /**
+     * 批量上传时单次请求同时上传的文件数，整体并发受 mscloud.files.executor 线程池限制
+     */
+    @Value("${mscloud.files.upload.parallelism:4}")
+    private int uploadParallelism;
+
+    /**
+     * 上传多个文件
+     * @param multipartFiles 多个文件流数组
+     * @param isRename 是否重命名，默认为false， true则使用UUID重命名存储
+     * @param fileDirType 目录格式，默认年月日格式目录
+     * @param fileDirPath 指定目录
+     * @param keyStrategy 目录策略，为空时使用全局配置
+     * @param isBackShareLink 是否返回临时链接，默认为是
+     * @return
+     */
+    public List<FileResult> uploadFiles(MultipartFile[] multipartFiles, boolean isRename, FileDirType fileDirType, String fileDirPath, KeyStrategy keyStrategy, boolean isBackShareLink){
+        //按文件并发上传，整体耗时接近最慢的文件；结果与传入顺序一致
+        return storeExecutors.uploadFiles(StoreType.LOCAL,multipartFiles,uploadParallelism,
+                (inputStream,fileInfo)->uploadFile(inputStream,fileInfo,isRename,fileDirType,fileDirPath,keyStrategy,isBackShareLink));
+    }
+
+    /**
+     * 上传单个文件，先写入同目录的临时文件，完成后原子重命名，避免读到写了一半的文件
+     * @param inputStream 文件流
+     * @param fileInfo 文件基本信息
+     * @param isRename 是否重命名，默认为false， true则使用UUID重命名存储
+     * @param fileDirType 目录格式，默认年月日格式目录
+     * @param fileDirPath 指定目录
+     * @param keyStrategy 目录策略，为空时使用全局配置
+     * @param isBackShareLink 是否返回临时链接，默认为是
+     * @return
+     */
+    public FileResult uploadFile(InputStream inputStream, FileInfo fileInfo, boolean isRename, FileDirType fileDirType, String fileDirPath, KeyStrategy keyStrategy, boolean isBackShareLink){
+        LocalPushUpload upload=null;
+        try {
+            upload=pushUpload(fileInfo,isRename,fileDirType,fileDirPath,keyStrategy,isBackShareLink);
+            long written;
+            try(FileChannel out=FileChannel.open(upload.getTempFile(),StandardOpenOption.CREATE_NEW,StandardOpenOption.WRITE)){
+                written=transferFrom(inputStream,out);
+            }
+            return upload.complete(written);
+        } catch (IllegalStateException e) {
+            return FileResult.builder().isOk(false).msg(e.getMessage()).build();
+        } catch (IOException e) {
+            log.warn("上传失败{}",e.getMessage());
+            return FileResult.builder().isOk(false).msg("上传失败,本地存储IO异常,"+e.getMessage()).build();
+        } catch (Exception e){
+            log.warn("上传失败{}",e.getMessage());
+            return FileResult.builder().isOk(false).msg("上传失败,本地存储异常").build();
+        } finally {
+            try {
+                if(inputStream !=null){
+                    inputStream.close();
+                }
+            } catch (IOException e) {
+            }
+            if(upload !=null){
+                upload.discard();
+            }
+        }
+    }
+
+    /**
+     * 推送方式上传单个文件，由调用方写入临时文件，用于非阻塞服务；参数同 uploadFile
+     * @throws IllegalStateException 文件名称不合法
+     */
+    public LocalPushUpload pushUpload(FileInfo fileInfo, boolean isRename, FileDirType fileDirType, String fileDirPath, KeyStrategy keyStrategy, boolean isBackShareLink) throws IOException {
+        String fileSuffix=fileInfo.getFileSuffix();//后缀
+        String reName=FileUtil.uuid()+ (fileSuffix==null?"":fileSuffix);
+        String  newStoreName=(isRename?reName:fileInfo.getOrignalName());
+
+        //创建目录格式
+        if(fileDirType==null|| ! fileDirType.equals(FileDirType.EMPTY)){
+            //拼接目录
+            newStoreName=objectKeyGenerator.dirName(fileDirType,fileDirPath,keyStrategy,newStoreName)+"/"+newStoreName;
+        }else if(StringUtils.isNotBlank(fileDirPath)){
+            newStoreName=fileDirPath+"/"+newStoreName;
+        }
+        String storeName=localStoreUtil.normalize(newStoreName);
+        Path target=localStoreUtil.resolveFile(storeName);
+        if(target==null){
+            throw new IllegalStateException("上传失败,文件名称不合法:"+newStoreName);
+        }
+        Files.createDirectories(target.getParent());
+        Path tempFile=target.resolveSibling(target.getFileName()+"."+FileUtil.uuid()+".tmp");
+        return new LocalPushUpload(this,storeName,target,tempFile,fileInfo,isBackShareLink);
+    }
+
+    /**
+     * 临时文件写完后原子重命名为目标文件，生成上传结果
+     */
+    FileResult complete(String storeName, Path target, Path tempFile, long written, FileInfo fileInfo, boolean isBackShareLink){
+        try {
+            Long fileSize=fileInfo.getFileSize();//文件大小字节
+            Files.move(tempFile,target,StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+            fileChangeSupport.written(StoreType.LOCAL,null,storeName);
+            log.info("上传文件file={},size={}",target,written);
+
+            String filePath=downloadUrl(storeName);
+            String shareLink ="";
+            if(isBackShareLink){
+                FileResult linkResult=getShareLink(storeName,5*24*60*60);
+                shareLink =linkResult.getFilePath();
+            }
+            return FileResult.builder().isOk(true).msg("上传成功").storeType(StoreType.LOCAL.value()).shareLink(shareLink).filePath(filePath).fileSize(fileSize==null||fileSize<0?written:fileSize).contentType(fileInfo.getContentType()).storeName(storeName).orignalName(fileInfo.getOrignalName()).fileSuffix(fileInfo.getFileSuffix()).build();
+        } catch (IOException e) {
+            log.warn("上传失败{}",e.getMessage());
+            return FileResult.builder().isOk(false).msg("上传失败,本地存储IO异常,"+e.getMessage()).build();
+        } catch (Exception e){
+            log.warn("上传失败{}",e.getMessage());
+            return FileResult.builder().isOk(false).msg("上传失败,本地存储异常").build();
+        }
+    }
+
+    /**
+     * 下载文件，支持Range区间下载
+     * @param filePath 指定下载的文件全路径
+     * @param storeAsFilename 下载后文件名
+     * @param request 请求
+     * @param response  响应文件流
+     */
+    public FileResult downloadFile(String filePath, String storeAsFilename, HttpServletRequest request, HttpServletResponse response){
+        Path path=localStoreUtil.resolveFile(filePath);
+        if(path==null || ! Files.isRegularFile(path)){
+            return FileResult.builder().isOk(false).msg("下载失败,文件不存在").build();
+        }
+        try {
+            FileStat stat=toFileStat(filePath,Files.readAttributes(path,BasicFileAttributes.class));
+            return fileDownloadSupport.download(request,response,stat,storeAsFilename,new FileRangeReader(path));
+        } catch (IOException e) {
+            log.warn("下载失败{}",e.getMessage());
+            return FileResult.builder().isOk(false).msg("下载失败,本地存储IO异常,"+e.getMessage()).build();
+        } catch (Exception e){
+            log.warn("下载失败{}",e.getMessage());
+            return FileResult.builder().isOk(false).msg("下载失败,本地存储异常").build();
+        }
+    }
+
+    /**
+     * 获取带签名和过期时间的下载链接，由 /file/local/share 接口校验后下载
+     * @param filePath 文件名称
+     * @param expires 过期时间 单位：秒
+     * @return url
+     */
+    public FileResult getShareLink(String filePath,Integer expires){
+        if(expires !=null){
+            if(expires <= 0 ){
+                return FileResult.builder().isOk(false).msg("链接有效时长不能为负数").build();
+            }
+        }else{//默认为7天
+            expires =7*24*60*60;
+        }
+        String storeName=localStoreUtil.normalize(filePath);
+        if(! fileExists(storeName)){//检测是否存在
+            return FileResult.builder().isOk(false).msg("文件不存在:"+filePath).build();
+        }
+        long expireAt=System.currentTimeMillis()/1000+expires;
+        String sign=localStoreUtil.sign(storeName,expireAt);
+        try {
+            String url=localStoreUtil.getReplaceUrlPrefix()+"/file/local/share?filePath="+URLEncoder.encode(storeName,"UTF-8")+"&expireAt="+expireAt+"&sign="+sign;
+            return FileResult.builder().isOk(true).msg("获取链接成功").filePath(url).build();
+        } catch (IOException e) {
+            return FileResult.builder().isOk(false).msg("获取失败").build();
+        }
+    }
+
+    /**
+     * 校验分享链接
+     * @param filePath 文件名称
+     * @param expireAt 过期时间戳，单位：秒
+     * @param sign 签名
+     * @return true有效
+     */
+    public boolean verifyShareLink(String filePath,long expireAt,String sign){
+        if(StringUtils.isBlank(sign) || expireAt < System.currentTimeMillis()/1000){
+            return false;
+        }
+        String expected=localStoreUtil.sign(filePath,expireAt);
+        return MessageDigest.isEqual(expected.getBytes(),sign.toLowerCase().getBytes());
+    }
+
+    /**
+     * 判断文件是否存在
+     * @param filePath 文件路径
+     * @return true存在，false不存在
+     */
+    public Boolean fileExists(String filePath) {
+        if( StringUtils.isEmpty(filePath)){
+            return false;
+        }
+        Path path=localStoreUtil.resolveFile(filePath);
+        return path !=null && Files.isRegularFile(path);
+    }
+
+    /**
+     * 获取文件元数据，本地文件直接读取文件属性
+     * @param filePath 文件路径
+     * @return 文件不存在时返回null
+     */
+    public FileStat statFile(String filePath) throws IOException {
+        Path path=localStoreUtil.resolveFile(filePath);
+        if(path==null || ! Files.isRegularFile(path)){
+            return null;
+        }
+        FileStat stat=toFileStat(filePath,Files.readAttributes(path,BasicFileAttributes.class));
+        stat.setContentType(Files.probeContentType(path));
+        return stat;
+    }
+
+    /**
+     * 打开文件指定区间的数据流
+     * @param filePath 文件路径
+     * @param offset 起始位置
+     * @param length 读取长度
+     * @return 数据流，由调用方关闭
+     */
+    public InputStream openFile(String filePath,long offset,long length) throws IOException {
+        Path path=localStoreUtil.resolveFile(filePath);
+        if(path==null || ! Files.isRegularFile(path)){
+            throw new IOException("文件不存在:"+filePath);
+        }
+        return new FileRangeReader(path).open(offset,length);
+    }
+
+    /**
+     * 文件属性转换，ETag由修改时间和大小生成
+     */
+    private FileStat toFileStat(String filePath,BasicFileAttributes attributes){
+        long size=attributes.size();
+        long lastModified=attributes.lastModifiedTime().toMillis();
+        return FileStat.builder()
+                .storeType(StoreType.LOCAL)
+                .filePath(filePath)
+                .fileSize(size)
+                .etag(Long.toHexString(lastModified)+"-"+Long.toHexString(size))
+                .lastModified(lastModified)
+                .build();
+    }
+
+    /**
+     * 删除文件
+     * @param filePath 文件路径
+     * @return
+     */
+    public FileResult deleteFile(String filePath) {
+        Path path=localStoreUtil.resolveFile(filePath);
+        try {
+            if(path==null || ! Files.deleteIfExists(path)){
+                return FileResult.builder().isOk(false).msg("删除失败，文件不存在:"+filePath).build();
+            }
+            fileChangeSupport.deleted(StoreType.LOCAL,null,filePath);
+            log.info("删除文件file={}",path);
+            return FileResult.builder().isOk(true).msg("删除成功").build();
+        } catch (IOException e) {
+            log.warn("删除失败{}",e.getMessage());
+            return FileResult.builder().isOk(false).msg("删除失败,本地存储IO异常").build();
+        }
+    }
+
+    /**
+     * 本方法会清空目录的所有文件，请谨慎使用
+     * 删除目录以及以下的所有文件
+     * @param folderPathPrefix 目录
+     */
+    public FileResult deleteDir(String folderPathPrefix){
+        return deleteDir(folderPathPrefix,new FileJob(FileJob.TYPE_DELETE_DIR));
+    }
+
+    /**
+     * 删除目录以及以下的所有文件
+     * @param folderPathPrefix 目录
+     * @param job 记录进度 scanned/deleted
+     */
+    public FileResult deleteDir(String folderPathPrefix,FileJob job){
+        Path dir=localStoreUtil.resolveDir(folderPathPrefix);
+        if(dir==null){
+            return FileResult.builder().isOk(false).msg("删除失败,目录不合法:"+folderPathPrefix).build();
+        }
+        if(! Files.isDirectory(dir)){
+            fileChangeSupport.deletedPrefix(StoreType.LOCAL,null,FileUtil.dirPrefix(folderPathPrefix));
+            return FileResult.builder().isOk(true).msg("成功").build();
+        }
+        try {
+            Files.walkFileTree(dir,new SimpleFileVisitor<Path>(){
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    job.increment(FileJob.COUNTER_SCANNED,1);
+                    Files.delete(file);
+                    job.increment(FileJob.COUNTER_DELETED,1);
+                    return FileVisitResult.CONTINUE;
+                }
+                @Override
+                public FileVisitResult postVisitDirectory(Path d, IOException exc) throws IOException {
+                    if(exc !=null){
+                        throw exc;
+                    }
+                    Files.delete(d);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            fileChangeSupport.deletedPrefix(StoreType.LOCAL,null,FileUtil.dirPrefix(folderPathPrefix));
+            log.info("删除目录dir={},删除{}个文件",dir,job.getCounter(FileJob.COUNTER_DELETED));
+            return FileResult.builder().isOk(true).msg("删除"+job.getCounter(FileJob.COUNTER_DELETED)+"个").build();
+        } catch (IOException e) {
+            log.warn("删除失败{}",e.getMessage());
+            job.increment(FileJob.COUNTER_FAILED,1);
+            return FileResult.builder().isOk(false).msg("删除失败,本地存储IO异常").build();
+        }
+    }
+
+    /**
+     * 流写入文件，文件流直接使用通道间传输，其余流经传输组件的池化缓冲写入
+     */
+    private long transferFrom(InputStream inputStream,FileChannel out) throws IOException {
+        long position=0;
+        if(inputStream instanceof FileInputStream){
+            FileChannel in=((FileInputStream) inputStream).getChannel();
+            long size=in.size()-in.position();
+            while(position<size){
+                long count=out.transferFrom(in,position,Math.min(TRANSFER_CHUNK,size-position));
+                if(count<=0){
+                    break;
+                }
+                position+=count;
+            }
+            return position;
+        }
+        return fileTransferEngine.copy(inputStream,Channels.newOutputStream(out)).getBytes();
+    }
+
+    /**
+     * 通过本服务下载的地址
+     */
+    private String downloadUrl(String storeName) throws IOException {
+        return localStoreUtil.getReplaceUrlPrefix()+"/file/downloadFile?storeType="+StoreType.LOCAL.value()+"&filePath="+URLEncoder.encode(storeName,"UTF-8");
+    }
+}
@@ -0,0 +1,189 @@
+package com.mscloud.files.local.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * 本地存储配置以及路径映射
+ * 存储名称 a/b/name.pdf 映射到物理路径 rootDir/a/b/xx/yy/name.pdf，xx/yy 为文件名哈希的前两个字节，
+ * 保证同一日期目录下的文件分散到 65536 个子目录中
+ */
+@Slf4j
+@Component
+public class LocalStoreUtil implements InitializingBean {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    /**
+     * 未配置签名密钥时自动生成的密钥文件，放在根目录下，不在任何存储名称映射的路径中
+     */
+    private static final String SECRET_FILE = ".share-secret";
+
+    private Path rootPath;
+
+    /**
+     * 本地存储根目录
+     */
+    @Value("${mscloud.local.rootDir:./mscloud-data}")
+    private String rootDir;
+    /**
+     * 访问本服务的地址前缀，如 http://127.0.0.1:8000/api ，用于生成下载链接和分享链接
+     */
+    @Value("${mscloud.local.replaceUrlPrefix:}")
+    private String replaceUrlPrefix;
+    /**
+     * 分享链接签名密钥，为空时使用根目录下自动生成的随机密钥
+     */
+    @Value("${mscloud.local.shareSecret:}")
+    private String shareSecret;
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        rootPath = Paths.get(rootDir).toAbsolutePath().normalize();
+        Files.createDirectories(rootPath);
+        if(StringUtils.isBlank(shareSecret)){
+            shareSecret=loadOrCreateSecret(rootPath.resolve(SECRET_FILE));
+        }
+        log.info("本地存储根目录:{}",rootPath);
+    }
+
+    /**
+     * 读取自动生成的签名密钥，不存在时生成随机密钥并保存，重启以及共用根目录的多个实例使用同一密钥
+     */
+    private static String loadOrCreateSecret(Path file) throws Exception {
+        if(! Files.exists(file)){
+            byte[] bytes=new byte[32];
+            new SecureRandom().nextBytes(bytes);
+            try {
+                Files.write(file,toHex(bytes,bytes.length).getBytes(StandardCharsets.US_ASCII),StandardOpenOption.CREATE_NEW,StandardOpenOption.WRITE);
+                try {
+                    Files.setPosixFilePermissions(file,PosixFilePermissions.fromString("rw-------"));
+                }catch (UnsupportedOperationException e){
+                    //非POSIX文件系统
+                }
+                log.info("未配置mscloud.local.shareSecret,已生成分享链接签名密钥{}",file);
+            }catch (FileAlreadyExistsException e){
+                //其它实例已生成
+            }
+        }
+        String secret=new String(Files.readAllBytes(file),StandardCharsets.US_ASCII).trim();
+        if(secret.isEmpty()){
+            throw new IllegalStateException("分享链接签名密钥文件为空:"+file);
+        }
+        return secret;
+    }
+
+    /**
+     * 存储名称转为物理文件路径
+     * @param storeName 存储名称，如 2022/01/01/test.pdf
+     * @return 物理路径，名称非法时返回null
+     */
+    public Path resolveFile(String storeName){
+        String name=normalize(storeName);
+        if(StringUtils.isBlank(name)){
+            return null;
+        }
+        int index=name.lastIndexOf('/');
+        String dir=index==-1?"":name.substring(0,index);
+        String fileName=name.substring(index+1);
+        if(".".equals(fileName) || "..".equals(fileName)){
+            return null;
+        }
+        Path path=(dir.isEmpty()?rootPath:rootPath.resolve(dir)).resolve(shardDir(fileName)).resolve(fileName).normalize();
+        return path.startsWith(rootPath)?path:null;
+    }
+
+    /**
+     * 目录名称转为物理目录路径
+     * @param dirName 目录名称
+     * @return 物理路径，名称非法时返回null
+     */
+    public Path resolveDir(String dirName){
+        String name=normalize(dirName);
+        if(StringUtils.isBlank(name)){
+            return null;
+        }
+        Path path=rootPath.resolve(name).normalize();
+        //不允许删除根目录以及根目录之外的目录
+        return path.startsWith(rootPath) && ! path.equals(rootPath)?path:null;
+    }
+
+    /**
+     * 分享链接签名
+     * @param storeName 存储名称
+     * @param expireAt 过期时间戳，单位秒
+     * @return
+     */
+    public String sign(String storeName,long expireAt){
+        try {
+            Mac mac=Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(shareSecret.getBytes(StandardCharsets.UTF_8),"HmacSHA256"));
+            byte[] digest=mac.doFinal((normalize(storeName)+":"+expireAt).getBytes(StandardCharsets.UTF_8));
+            return toHex(digest,digest.length);
+        } catch (Exception e) {
+            throw new IllegalStateException("分享链接签名失败",e);
+        }
+    }
+
+    /**
+     * 去掉多余的/以及开头的/
+     */
+    public String normalize(String storeName){
+        if(storeName==null){
+            return null;
+        }
+        String name=storeName.replace('\\','/').replaceAll("/{2,}","/");
+        while(name.startsWith("/")){
+            name=name.substring(1);
+        }
+        while(name.endsWith("/")){
+            name=name.substring(0,name.length()-1);
+        }
+        return name;
+    }
+
+    /**
+     * 文件名哈希分片目录，如 3f/a2
+     */
+    private String shardDir(String fileName){
+        try {
+            byte[] digest=MessageDigest.getInstance("MD5").digest(fileName.getBytes(StandardCharsets.UTF_8));
+            String hex=toHex(digest,2);
+            return hex.substring(0,2)+"/"+hex.substring(2,4);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes,int length){
+        char[] chars=new char[length*2];
+        for(int i=0;i<length;i++){
+            chars[i*2]=HEX[(bytes[i]>>4)&0x0f];
+            chars[i*2+1]=HEX[bytes[i]&0x0f];
+        }
+        return new String(chars);
+    }
+
+    public Path getRootPath() {
+        return rootPath;
+    }
+
+    public String getReplaceUrlPrefix() {
+        return replaceUrlPrefix;
+    }
+}
@@ -1,36 +1,64 @@
 package com.mscloud.files.minio.service;
 
 
+import com.google.common.collect.Multimap;
 import com.mscloud.files.core.FileUtil;
+import com.mscloud.files.core.ObjectKeyGenerator;
 import com.mscloud.files.core.constants.FileDirType;
+import com.mscloud.files.core.constants.KeyStrategy;
+import com.mscloud.files.core.concurrent.StoreExecutors;
 import com.mscloud.files.core.constants.StoreType;
+import com.mscloud.files.core.download.FileDownloadSupport;
+import com.mscloud.files.core.job.FileJob;
+import com.mscloud.files.core.link.ShareLinkCache;
+import com.mscloud.files.core.meta.FileChangeSupport;
+import com.mscloud.files.core.meta.FileMetaCache;
 import com.mscloud.files.core.pojo.FileInfo;
 import com.mscloud.files.core.pojo.FileResult;
+import com.mscloud.files.core.pojo.FileStat;
+import com.mscloud.files.core.transfer.MultipartSession;
+import com.mscloud.files.core.transfer.MultipartUploadEngine;
+import com.mscloud.files.core.transfer.MultipartTarget;
+import com.mscloud.files.core.transfer.MultipartUploadResult;
+import com.mscloud.files.core.transfer.PushUpload;
+import com.mscloud.files.core.upload.ChunkedUploadEngine;
+import com.mscloud.files.core.upload.SliceDigest;
+import com.mscloud.files.core.upload.SliceDigestException;
+import com.mscloud.files.core.upload.UploadSession;
+import com.mscloud.files.core.upload.UploadSessionRegistry;
 import com.mscloud.files.minio.util.MinioClientUtil;
+import com.mscloud.files.minio.util.MinioMultipartClient;
 import io.minio.*;
 import io.minio.errors.*;
 import io.minio.http.Method;
+import io.minio.messages.DeleteError;
+import io.minio.messages.DeleteObject;
 import io.minio.messages.Item;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.ConnectException;
 import java.net.URLEncoder;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 /**
  * Minio文件操作服务类
@@ -42,10 +70,141 @@ public class MinioService implements InitializingBean {
     @Autowired
     private MinioClientUtil minioClientUtil;
 
+    @Autowired
+    private FileDownloadSupport fileDownloadSupport;
+
+    @Autowired
+    private ObjectKeyGenerator objectKeyGenerator;
+
+    @Autowired
+    private ShareLinkCache shareLinkCache;
+
+    @Autowired
+    private FileMetaCache fileMetaCache;
+
+    @Autowired
+    private FileChangeSupport fileChangeSupport;
+
+    @Autowired
+    private StoreExecutors storeExecutors;
+
+    @Autowired
+    private MultipartUploadEngine multipartUploadEngine;
+
+    @Autowired
+    private UploadSessionRegistry uploadSessionRegistry;
+
+    @Autowired
+    private ChunkedUploadEngine chunkedUploadEngine;
+
+    /**
+     * 批量删除每次请求的最大文件数
+     */
+    private static final int DELETE_BATCH_SIZE = 1000;
+
+    /**
+     * 删除目录时同时执行的批量删除请求数
+     */
+    @Value("${mscloud.files.deleteDir.parallelism:4}")
+    private int deleteParallelism;
+
+    /**
+     * 批量上传时单次请求同时上传的文件数，整体并发受 mscloud.files.executor 线程池限制
+     */
+    @Value("${mscloud.files.upload.parallelism:4}")
+    private int uploadParallelism;
+
+    /**
+     * 默认桶已确认存在
+     */
+    private volatile boolean bucketChecked=false;
+
 
     @Override
     public void afterPropertiesSet() throws Exception {
+        //清理过期的分片上传会话时取消对应的分块上传
+        uploadSessionRegistry.registerAborter(StoreType.MINIO,session->abortQuietly(minioClientUtil.getMultipartClient(),minioClientUtil.getDefaultBucket(),session));
+        //启动时检查一次默认桶，失败时在首次生成分享链接时再检查
+        MinioClient minioClient=minioClientUtil.getMinioClient();
+        String bucket=minioClientUtil.getDefaultBucket();
+        if(minioClient==null || StringUtils.isBlank(bucket)){
+            return;
+        }
+        try {
+            checkBucket(minioClient,bucket);
+        }catch (Exception e){
+            log.warn("检查Minio默认桶失败{}",e.getMessage());
+        }
+    }
 
+    /**
+     * 检查默认桶是否存在，存在后不再检查
+     */
+    private boolean checkBucket(MinioClient minioClient,String bucket) throws Exception {
+        if(! bucketChecked){
+            bucketChecked=minioClient.bucketExists(BucketExistsArgs.builder().bucket(bucket).build());
+            if(! bucketChecked){
+                log.warn("Minio默认桶{}不存在",bucket);
+            }
+        }
+        return bucketChecked;
+    }
+
+    /**
+     * 流式分块上传，各分块并发上传，失败时取消上传；数据不超过一个分块时直接上传
+     * @param bucket 桶
+     * @param object 存储名称
+     * @param inputStream 文件流
+     * @param fileSize 文件大小，未知时为空或小于0
+     * @param tagMap 标签，同时作为用户元数据
+     */
+    private MultipartUploadResult multipartUpload(String bucket,String object,InputStream inputStream,Long fileSize,Map<String,String> tagMap) throws Exception {
+        return multipartUploadEngine.upload(inputStream,fileSize,multipartTarget(bucket,object,tagMap));
+    }
+
+    /**
+     * 分块上传目标，小于一个分块的数据直接上传
+     */
+    private MultipartTarget multipartTarget(String bucket,String object,Map<String,String> tagMap){
+        return new MultipartTarget() {
+            @Override
+            public String put(byte[] data, int length) throws Exception {
+                ObjectWriteResponse response=minioClientUtil.getMinioClient().putObject(PutObjectArgs.builder()
+                        .bucket(bucket)
+                        .tags(tagMap)
+                        .userMetadata(tagMap)
+                        .object(object)
+                        .stream(new ByteArrayInputStream(data,0,length),length,-1)
+                        .build());
+                return response.etag();
+            }
+
+            @Override
+            public MultipartSession create() throws Exception {
+                MinioMultipartClient client=minioClientUtil.getMultipartClient();
+                String uploadId=client.createMultipartUpload(bucket,object,multipartHeaders(tagMap));
+                return multipartSession(client,bucket,object,uploadId);
+            }
+        };
+    }
+
+    /**
+     * 分块上传的请求头，标签同时作为用户元数据
+     */
+    private Multimap<String,String> multipartHeaders(Map<String,String> tagMap) throws UnsupportedEncodingException {
+        Multimap<String,String> headers=MinioMultipartClient.headers();
+        StringBuilder tagging=new StringBuilder();
+        for(Map.Entry<String,String> tag:tagMap.entrySet()){
+            headers.put("x-amz-meta-"+tag.getKey(),tag.getValue());
+            if(tagging.length()>0){
+                tagging.append('&');
+            }
+            tagging.append(URLEncoder.encode(tag.getKey(),"UTF-8")).append('=').append(URLEncoder.encode(tag.getValue(),"UTF-8"));
+        }
+        if(tagging.length()>0){
+            headers.put("x-amz-tagging",tagging.toString());
+        }
+        return headers;
     }
 
     /**
@@ -54,26 +213,14 @@ public class MinioService implements InitializingBean {
      * @param isRename 是否重命名，默认为false， true则使用UUID重命名存储
      * @param fileDirType 目录格式，默认年月日格式目录
      * @param fileDirPath 指定目录
+     * @param keyStrategy 目录策略，为空时使用全局配置
      * @param isBackShareLink 是否返回临时链接，默认为是
      * @return
      */
-    public List<FileResult> uploadFiles(MultipartFile[] multipartFiles, boolean isRename, FileDirType fileDirType, String fileDirPath,  boolean isBackShareLink, Map<String,String> tagMap){
-        List<FileResult> list=new ArrayList<>();
-        for(MultipartFile file:multipartFiles){
-            //文件基本信息
-            String orignalFilename=file.getOriginalFilename();//文件原始名称
-            String fileSuffix= FileUtil.splitFileSuffix(orignalFilename);//后缀
-           FileInfo fileInfo=FileInfo.builder().fileSize(file.getSize()).contentType(file.getContentType()).orignalName(orignalFilename).fileSuffix(fileSuffix).build();
-            InputStream inputStream= null;
-            try {
-                inputStream = file.getInputStream();
-                FileResult fileResult= this.uploadFile(inputStream,fileInfo,isRename,fileDirType,fileDirPath,isBackShareLink,tagMap);
-                list.add(fileResult);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
-        return list;
+    public List<FileResult> uploadFiles(MultipartFile[] multipartFiles, boolean isRename, FileDirType fileDirType, String fileDirPath, KeyStrategy keyStrategy,  boolean isBackShareLink, Map<String,String> tagMap){
+        //按文件并发上传，整体耗时接近最慢的文件；结果与传入顺序一致
+        return storeExecutors.uploadFiles(StoreType.MINIO,multipartFiles,uploadParallelism,
+                (inputStream,fileInfo)->uploadFile(inputStream,fileInfo,isRename,fileDirType,fileDirPath,keyStrategy,isBackShareLink,tagMap));
     }
     /**
      * 上传单个文件
@@ -82,17 +229,16 @@ public class MinioService implements InitializingBean {
      * @param isRename 是否重命名，默认为false， true则使用UUID重命名存储
      * @param fileDirType 目录格式，默认年月日格式目录
      * @param fileDirPath 指定目录
+     * @param keyStrategy 目录策略，为空时使用全局配置
      * @param isBackShareLink 是否返回临时链接，默认为是
      * @return
      */
-    public FileResult uploadFile(InputStream inputStream, FileInfo fileInfo, boolean isRename, FileDirType fileDirType, String fileDirPath, boolean isBackShareLink,Map<String,String> tagMap){
+    public FileResult uploadFile(InputStream inputStream, FileInfo fileInfo, boolean isRename, FileDirType fileDirType, String fileDirPath, KeyStrategy keyStrategy, boolean isBackShareLink,Map<String,String> tagMap){
 
         MinioClient minioClient=minioClientUtil.getMinioClient();
         if(minioClient==null){
             return FileResult.builder().isOk(false).msg("上传失败,找不到Minio数据源配置").build();
         }
-        String endpoint=minioClientUtil.getEndpoint();
-        String prefixUrl=minioClientUtil.getReplaceUrlPrefix();
         String bucket =minioClientUtil.getDefaultBucket();
         if(StringUtils.isBlank(bucket)){
             bucket=minioClientUtil.getDefaultBucket();
@@ -104,49 +250,33 @@ public class MinioService implements InitializingBean {
         try {
 
             Long fileSize=fileInfo.getFileSize();//文件大小字节
-            String contentType=fileInfo.getContentType();//文件类型
-            String orignalFilename=fileInfo.getOrignalName();//文件原始名称
-            String fileSuffix=fileInfo.getFileSuffix();//后缀
-            String reName=UUID.randomUUID().toString().replaceAll("-","")+ (fileSuffix==null?"":fileSuffix);;
-            String  newStoreName=(isRename?reName:orignalFilename);
-
-            //创建目录格式
-            if(fileDirType==null|| ! fileDirType.equals(FileDirType.EMPTY)){
-                //拼接目录
-                newStoreName=FileUtil.dirName(fileDirType,fileDirPath)+"/"+newStoreName;
-            }else{
-                newStoreName=fileDirPath+"/"+newStoreName;
-            };
+            String newStoreName=storeName(fileInfo,isRename,fileDirType,fileDirPath,keyStrategy);
             //
             if(tagMap==null){
                 tagMap=new HashMap<>();
             }
 
-           ObjectWriteResponse response = minioClient.putObject(PutObjectArgs.builder()
-                    .bucket(bucket)
-                    .tags(tagMap)
-                    .userMetadata(tagMap)
-                    .object(newStoreName)
-//                    .contentType(contentType)
-                    .stream(inputStream,inputStream.available(),-1)
-                    .build());
-
-            String filePath="/"+bucket+"/"+response.object();
-            filePath=filePath.replaceAll("//","/");
-            if(StringUtils.isNotBlank(prefixUrl)){
-                filePath=prefixUrl+filePath;
+            String storeName;//存储返回的名称
+            String etag;
+            if(multipartUploadEngine.isMultipart(fileSize)){
+                //大小未知或大文件，流式分块并发上传；大小未知且不超过一个分块时直接上传
+                MultipartUploadResult result=multipartUpload(bucket,newStoreName,inputStream,fileSize,tagMap);
+                storeName=newStoreName;
+                etag=result.getEtag();
+                fileSize=result.getBytes();
             }else{
-                filePath=endpoint+filePath;
-            }
-
-            String storeName=response.object();//存储返回的名称
-            String shareLink ="";
-            if(isBackShareLink){
-                FileResult linkResult=getShareLink(storeName,5*24*60*60);
-                shareLink =linkResult.getFilePath();
+                ObjectWriteResponse response = minioClient.putObject(PutObjectArgs.builder()
+                        .bucket(bucket)
+                        .tags(tagMap)
+                        .userMetadata(tagMap)
+                        .object(newStoreName)
+//                        .contentType(contentType)
+                        .stream(inputStream,fileSize,-1)
+                        .build());
+                storeName=response.object();
+                etag=response.etag();
             }
-
-            return FileResult.builder().isOk(true).msg("上传成功").bucketName(bucket).storeType(StoreType.MINIO.value()).shareLink(shareLink).filePath(filePath).fileSize(fileSize).contentType(contentType).storeName(storeName).orignalName(orignalFilename).fileSuffix(fileSuffix).build();
+            return uploaded(bucket,storeName,etag,fileSize,fileInfo,isBackShareLink);
         }catch (ConnectException e){
             log.warn("上传失败{}",e.getMessage());
             return FileResult.builder().isOk(false).msg("上传失败,minio链接endpoint错误,"+e.getMessage()).build();
@@ -192,15 +322,83 @@ public class MinioService implements InitializingBean {
     }
 
     /**
-     * 分片上传文件，先上传到临时目录，然后合并所有分片文件
+     * 推送方式上传单个文件，由调用方按分块写入数据，用于非阻塞服务；参数同 uploadFile
+     * @throws IllegalStateException 找不到Minio数据源配置或默认bucket为空
+     */
+    public PushUpload pushUpload(FileInfo fileInfo, boolean isRename, FileDirType fileDirType, String fileDirPath, KeyStrategy keyStrategy, boolean isBackShareLink,Map<String,String> tagMap){
+        if(minioClientUtil.getMinioClient()==null){
+            throw new IllegalStateException("上传失败,找不到Minio数据源配置");
+        }
+        String bucket =minioClientUtil.getDefaultBucket();
+        if(StringUtils.isBlank(bucket)){
+            log.error("默认的Bucket桶为空，请检测配置");
+            throw new IllegalStateException("上传失败,Minio数据源配置默认bucket为空,请指定Bucket");
+        }
+        String storeName=storeName(fileInfo,isRename,fileDirType,fileDirPath,keyStrategy);
+        MultipartTarget target=multipartTarget(bucket,storeName,tagMap==null?new HashMap<>():tagMap);
+        return new PushUpload() {
+            @Override
+            public MultipartTarget target() {
+                return target;
+            }
+
+            @Override
+            public FileResult complete(String etag, long fileSize) {
+                return uploaded(bucket,storeName,etag,fileSize,fileInfo,isBackShareLink);
+            }
+        };
+    }
+
+    /**
+     * 生成存储名称：按需重命名，并拼接目录
+     */
+    private String storeName(FileInfo fileInfo,boolean isRename,FileDirType fileDirType,String fileDirPath,KeyStrategy keyStrategy){
+        String fileSuffix=fileInfo.getFileSuffix();//后缀
+        String reName=FileUtil.uuid()+ (fileSuffix==null?"":fileSuffix);
+        String  newStoreName=(isRename?reName:fileInfo.getOrignalName());
+
+        //创建目录格式
+        if(fileDirType==null|| ! fileDirType.equals(FileDirType.EMPTY)){
+            //拼接目录
+            return objectKeyGenerator.dirName(fileDirType,fileDirPath,keyStrategy,newStoreName)+"/"+newStoreName;
+        }
+        return fileDirPath+"/"+newStoreName;
+    }
+
+    /**
+     * 对象写入后更新缓存并生成上传结果
+     */
+    private FileResult uploaded(String bucket,String storeName,String etag,Long fileSize,FileInfo fileInfo,boolean isBackShareLink){
+        String filePath="/"+bucket+"/"+storeName;
+        filePath=filePath.replaceAll("//","/");
+        String prefixUrl=minioClientUtil.getReplaceUrlPrefix();
+        if(StringUtils.isNotBlank(prefixUrl)){
+            filePath=prefixUrl+filePath;
+        }else{
+            filePath=minioClientUtil.getEndpoint()+filePath;
+        }
+
+        cacheUploaded(bucket,storeName,etag,fileSize,fileInfo.getContentType());
+        String shareLink ="";
+        if(isBackShareLink){
+            FileResult linkResult=getShareLink(storeName,5*24*60*60);
+            shareLink =linkResult.getFilePath();
+        }
+
+        return FileResult.builder().isOk(true).msg("上传成功").bucketName(bucket).storeType(StoreType.MINIO.value()).shareLink(shareLink).filePath(filePath).fileSize(fileSize).contentType(fileInfo.getContentType()).storeName(storeName).orignalName(fileInfo.getOrignalName()).fileSuffix(fileInfo.getFileSuffix()).build();
+    }
+
+    /**
+     * 分片上传文件，上传会话对应一个Minio分块上传，分片作为分块上传(较小的分片凑够5MB再上传)，收到全部分片后一次合并
+     * 已收到的分片记录在上传会话中，分片可以乱序、并发上传，重复的分片直接忽略
      * @param file 分片文件流
      * @param sliceIndex 分片索引
      * @param totalPieces 切片总数
      * @param md5String 整体文件MD5
+     * @param sliceMd5 分片MD5，不为空则校验分片，校验不通过需要重新上传该分片
      * @return
      */
-    public FileResult uploadPieceFile(MultipartFile file, String fileName,int sliceIndex, int totalPieces,String md5String,boolean isRename,FileDirType fileDirType,String fileDirPath,boolean isBackShareLink,Map<String,String> tagMap){
-        int index =-2;//-1表示已全部分片上传完毕
+    public FileResult uploadPieceFile(MultipartFile file, String fileName,int sliceIndex, int totalPieces,String md5String,String sliceMd5,boolean isRename,FileDirType fileDirType,String fileDirPath,KeyStrategy keyStrategy,boolean isBackShareLink,Map<String,String> tagMap){
         MinioClient minioClient=minioClientUtil.getMinioClient();
         if(minioClient==null){
             return FileResult.builder().isOk(false).msg("上传失败,找不到Minio数据源配置").build();
@@ -213,57 +411,73 @@ public class MinioService implements InitializingBean {
             return FileResult.builder().isOk(false).msg("上传失败,Minio数据源配置默认bucket为空,请指定Bucket").build();
         }
 
+        if(! SliceDigest.isMd5(md5String)){
+            return FileResult.builder().isOk(false).msg("上传失败,md5String必须是32位十六进制MD5").build();
+        }
+        if(! uploadSessionRegistry.isAllowedPieces(totalPieces)){
+            return FileResult.builder().isOk(false).msg("上传失败,分片总数超出限制:"+uploadSessionRegistry.getMaxPieces()).build();
+        }
+        if(sliceIndex<0 || sliceIndex>=totalPieces){
+            return FileResult.builder().isOk(false).msg("上传失败,分片索引超出范围").build();
+        }
+
         try {
-            // 存放临时目录
-            String tempDir="temp_upload".concat("/").concat(md5String).concat("/");
-
-            // 查询已经上传成功的文件序号
-            Iterable<Result<Item>> results = minioClient.listObjects(ListObjectsArgs.builder().bucket(bucket).prefix(tempDir).build());
-            Set<String> objectNames = new HashSet();
-            for (Result<Item> item : results) {
-                objectNames.add(item.get().objectName());
-            }
-            //查询已经上传成功的最大序号的分片临时文件
-            List<Integer> indexs = Stream.iterate(0, i -> ++i)
-                    .limit(totalPieces)
-                    .filter(i -> !objectNames.contains(tempDir.concat(Integer.toString(i))))
-                    .sorted()
-                    .collect(Collectors.toList());
-            // 返回需要上传的文件序号，-1是上传完成
-            if (indexs.size() > 0) {
-                if (!indexs.get(0).equals(sliceIndex)) {
-                    index = indexs.get(0);
-                    return FileResult.builder().isOk(true).sliceIndex(index).msg("分片上传成功").build();//单个分片上传成功
-                }
-            } else {
-                index = -1;//全部分片上传完成
+            MinioMultipartClient client=minioClientUtil.getMultipartClient();
+            // 已收到的分片记录在会话中，会话对应一个Minio分块上传
+            UploadSession session=uploadSessionRegistry.get(StoreType.MINIO,md5String);
+            if(session!=null && session.getTotalPieces()!=totalPieces){//分片总数变化，重新上传
+                abortQuietly(client,bucket,session);
+                uploadSessionRegistry.remove(session);
+                session=null;
             }
-
-            if (index != -1) {
-                // 写入文件
-                String objectName=tempDir.concat(Integer.toString(sliceIndex));
-                minioClient.putObject(
-                        PutObjectArgs.builder()
-                                .bucket(bucket)
-                                .object(objectName)
-                                .stream(file.getInputStream(), file.getSize(), -1)
-                                .contentType(file.getContentType())
-                                .build());
+            if(session==null){
+                String objectName=pieceStoreName(fileName,isRename,fileDirType,fileDirPath,keyStrategy);
+                if(tagMap==null){
+                    tagMap=new HashMap<>();
+                }
+                String uploadId=client.createMultipartUpload(bucket,objectName,multipartHeaders(tagMap));
+                session=uploadSessionRegistry.create(StoreType.MINIO,md5String,totalPieces,fileName,objectName,uploadId);
+                if(! uploadId.equals(session.getUploadId())){//其它请求已经新建
+                    client.abortMultipartUpload(bucket,objectName,uploadId);
+                }
             }
+            MultipartSession multipart=multipartSession(client,bucket,session.getObjectName(),session.getUploadId());
 
-            if (sliceIndex < totalPieces - 1) {
-                index = ++sliceIndex;
-            } else {
-                index = -1;
+            boolean ready;
+            try (InputStream inputStream=file.getInputStream()){
+                ready=chunkedUploadEngine.accept(session,sliceIndex,inputStream,file.getSize(),SliceDigest.expected(sliceMd5,md5String,totalPieces),multipart);
             }
-
-            if (index == -1) {//合并迁移临时分片文件
-                FileResult tempResult = this.composePieceFile(minioClient, fileName, totalPieces, md5String,prefixUrl ,endpoint,bucket,isRename,fileDirType,fileDirPath,isBackShareLink,tagMap);
-
-               return tempResult;
-
+            if(! ready){
+                // 返回下一个需要上传的分片序号，分片可以乱序、并发上传
+                return FileResult.builder().isOk(true).sliceIndex(session.nextMissing(sliceIndex+1)).msg("分片上传成功").build();
             }
-            return FileResult.builder().isOk(true).sliceIndex(index).msg("分片上传成功").build();
+            // 全部分片已收到，后台合并，返回合并任务ID，通过任务查询合并结果
+            UploadSession finishSession=session;
+            FileJob job=chunkedUploadEngine.finish(session,multipart,etag->{
+                String storeName=finishSession.getObjectName();//存储返回的名称
+                String filePath="";
+                if(StringUtils.isNotBlank(prefixUrl)){
+                    filePath=prefixUrl+"/"+bucket+"/"+storeName;
+                }else{
+                    filePath=endpoint+"/"+bucket+"/"+storeName;
+                }
+                long fileSize=finishSession.getUploadedBytes();
+                cacheUploaded(bucket,storeName,etag,fileSize,null);
+                String shareLink ="";
+                if(isBackShareLink){
+                    FileResult linkResult=getShareLink(storeName,1*24*60*60);
+                    shareLink =linkResult.getFilePath();
+                }
+                String orignalFilename=fileName;//文件原始名称
+                return FileResult.builder().isOk(true).sliceIndex(-1).msg("全部上传成功").digest(SliceDigest.treeRoot(finishSession)).bucketName(bucket).storeType(StoreType.MINIO.value()).shareLink(shareLink).filePath(filePath).fileSize(fileSize).storeName(storeName).fileSuffix(FileUtil.splitFileSuffix(orignalFilename)).orignalName(orignalFilename).build();
+            });
+            return FileResult.builder().isOk(true).sliceIndex(-2).msg("分片已全部上传,正在合并").storeType(StoreType.MINIO.value()).storeName(session.getObjectName()).jobId(job==null?null:job.getJobId()).build();
+        }catch (SliceDigestException e){
+            log.warn("上传失败{}",e.getMessage());
+            return FileResult.builder().isOk(false).sliceIndex(e.getSliceIndex()).msg("上传失败,"+e.getMessage()).build();
+        }catch (RejectedExecutionException e){
+            log.warn("上传失败{}",e.getMessage());
+            return FileResult.builder().isOk(false).msg("上传失败,合并任务过多,请稍后重新上传最后一个分片").build();
         }catch (ConnectException e){
             log.warn("上传失败{}",e.getMessage());
             return FileResult.builder().isOk(false).msg("上传失败,minio链接endpoint错误,"+e.getMessage()).build();
@@ -301,78 +515,59 @@ public class MinioService implements InitializingBean {
     }
 
     /**
-     * 上传从临时目录合并分片文件迁移到正式目录
-     * @param totalPieces 切片总数
-     * @param md5String 整体文件MD5
-     * @return
-     * @throws Exception
+     * 分片上传的最终存储名称
      */
-    private FileResult composePieceFile(MinioClient minioClient ,String fileName, Integer totalPieces,String md5String,String prefixUrl,String endpoint,String bucket,boolean isRename,FileDirType fileDirType,String fileDirPath,boolean isBackShareLink,Map<String,String> tagMap) throws Exception {
-
-        String orignalFilename= fileName;//文件原始名称,传入的名字为空
-        String fileSuffix=FileUtil.splitFileSuffix(orignalFilename);//后缀
-        String reName=UUID.randomUUID().toString().replaceAll("-","")+ (fileSuffix==null?"":fileSuffix);
-        String  newStoreName=(isRename?reName:orignalFilename);
+    private String pieceStoreName(String fileName,boolean isRename,FileDirType fileDirType,String fileDirPath,KeyStrategy keyStrategy){
+        String fileSuffix=FileUtil.splitFileSuffix(fileName);//后缀
+        String reName=FileUtil.uuid()+ (fileSuffix==null?"":fileSuffix);
+        String  newStoreName=(isRename?reName:fileName);
 
         //创建目录格式
         if(fileDirType==null|| ! fileDirType.equals(FileDirType.EMPTY)){
             //拼接目录
-            newStoreName=FileUtil.dirName(fileDirType,fileDirPath)+"/"+newStoreName;
+            newStoreName=objectKeyGenerator.dirName(fileDirType,fileDirPath,keyStrategy,newStoreName)+"/"+newStoreName;
         }
-        String tempDir="temp_upload".concat("/").concat(md5String).concat("/");
-
-        if(tagMap==null){
-            tagMap=new HashMap<>();
-        }
-
-        // 完成上传从缓存目录合并迁移到正式目录
-        List<ComposeSource> sourceObjectList = Stream.iterate(0, i -> ++i)
-                .limit(totalPieces)
-                .map(i -> ComposeSource.builder()
-                        .bucket(bucket)
-                        .object(tempDir.concat(Integer.toString(i)))
-                        .build())
-                .collect(Collectors.toList());
+        return newStoreName;
+    }
 
-        if (!minioClient.bucketExists(BucketExistsArgs.builder().bucket(bucket).build())) {
-            minioClient.makeBucket(MakeBucketArgs.builder().bucket(bucket).build());
-        }
+    /**
+     * 分片上传会话对应的Minio分块上传
+     */
+    private MultipartSession multipartSession(MinioMultipartClient client,String bucket,String object,String uploadId){
+        return new MultipartSession() {
+            @Override
+            public String uploadPart(int partNumber, byte[] data, int length) throws Exception {
+                return client.uploadPart(bucket,object,uploadId,partNumber,data,length);
+            }
 
-        ObjectWriteResponse response = minioClient.composeObject(
-                ComposeObjectArgs.builder()
-                        .bucket(bucket)
-                        .object(newStoreName)
-                        .tags(tagMap)
-                        .sources(sourceObjectList)
-                        .build());
-        // 删除所有的分片文件
-        deleteDir(tempDir);
+            @Override
+            public String complete(List<String> partETags) throws Exception {
+                return client.completeMultipartUpload(bucket,object,uploadId,partETags).etag();
+            }
 
-        // 验证md5
+            @Override
+            public void abort() throws Exception {
+                client.abortMultipartUpload(bucket,object,uploadId);
+            }
+        };
+    }
 
-        String filePath="";
-        if(StringUtils.isNotBlank(prefixUrl)){
-            filePath=prefixUrl+"/"+bucket+"/"+response.object();
-        }else{
-            filePath=endpoint+"/"+bucket+"/"+response.object();
-        }
-        String storeName=response.object();//存储返回的名称
-        String shareLink ="";
-        if(isBackShareLink){
-            FileResult linkResult=getShareLink(storeName,1*24*60*60);
-            shareLink =linkResult.getFilePath();
+    private void abortQuietly(MinioMultipartClient client,String bucket,UploadSession session){
+        try {
+            client.abortMultipartUpload(bucket,session.getObjectName(),session.getUploadId());
+        } catch (Exception e) {
+            log.warn("取消分块上传失败{},{}",session.getObjectName(),e.getMessage());
         }
-
-        return FileResult.builder().isOk(true).sliceIndex(-1).msg("全部上传成功").bucketName(bucket).storeType(StoreType.MINIO.value()).shareLink(shareLink).filePath(filePath).storeName(storeName).fileSuffix(fileSuffix).orignalName(orignalFilename).build();
-
     }
+
     /**
-     * 下载文件
-     @param filePath 指定下载的文件全路径
+     * 下载文件，支持Range区间下载
+     * @param filePath 指定下载的文件全路径
      * @param storeAsFilename 下载后文件名
+     * @param request 请求
      * @param response  响应文件流
      */
-    public FileResult downloadFile(String filePath,String storeAsFilename,HttpServletResponse response){
+    public FileResult downloadFile(String filePath,String storeAsFilename,HttpServletRequest request,HttpServletResponse response){
 
         MinioClient minioClient=minioClientUtil.getMinioClient();
         if(minioClient==null){
@@ -380,37 +575,25 @@ public class MinioService implements InitializingBean {
         }
         String bucket=minioClientUtil.getDefaultBucket();
         if(StringUtils.isBlank(bucket)){
-            bucket=minioClientUtil.getDefaultBucket();
-            if(bucket==null){
-                log.error("默认的Bucket桶为空，请检测配置");
-                return FileResult.builder().isOk(false).msg("下载失败,Minio数据源配置默认bucket为空,请指定Bucket").build();
-            }
+            log.error("默认的Bucket桶为空，请检测配置");
+            return FileResult.builder().isOk(false).msg("下载失败,Minio数据源配置默认bucket为空,请指定Bucket").build();
         }
-        BufferedInputStream inputStream = null;
-        OutputStream outputStream =null;
         try{
-             inputStream = new BufferedInputStream(minioClient.getObject(GetObjectArgs.builder()
+            StatObjectResponse objectStat=minioClient.statObject(StatObjectArgs.builder().bucket(bucket).object(filePath).build());
+            FileStat stat=toFileStat(bucket,filePath,objectStat);
+            fileMetaCache.putFound(stat);
+            //按区间读取
+            return fileDownloadSupport.download(request,response,stat,storeAsFilename,(offset,length)->minioClient.getObject(GetObjectArgs.builder()
                     .bucket(bucket)
                     .object(filePath)
+                    .offset(offset)
+                    .length(length)
                     .build()));
-            byte buf[] = new byte[1024];
-            int length = 0;
-
-            response.reset();
-            //下载名称
-            String storeAs = storeAsFilename==null?filePath:storeAsFilename;
-            response.setHeader("Content-Disposition","attachment;filename=" + URLEncoder.encode(storeAs, "UTF-8"));
-            response.setContentType("application/octet-stream;charset=UTF-8");
-            response.setCharacterEncoding("UTF-8");
-            outputStream = response.getOutputStream();
-            while((length = inputStream.read(buf)) > 0){
-                outputStream.write(buf,0,length);
-            }
-            return FileResult.builder().isOk(true).msg("下载成功").build();
         }catch (ErrorResponseException e){
             log.warn("minio下载文件失败，找不到文件,bucket="+bucket+" , fileName="+filePath);
 
             if("NoSuchKey".equals(e.errorResponse().code())){//
+                fileMetaCache.putNotFound(StoreType.MINIO,bucket,filePath);
                 log.warn("下载失败{}",e.getMessage());
                 return FileResult.builder().isOk(false).msg("下载失败,文件不存在").build();
             }else if("NoSuchBucket".equals(e.errorResponse().code())){
@@ -449,18 +632,43 @@ public class MinioService implements InitializingBean {
         }catch (Exception e){
             log.warn("下载失败{}",e.getMessage());
             return FileResult.builder().isOk(false).msg("下载失败,minio异常").build();
-        }finally {
-            try {
-                if(inputStream !=null){
-                    inputStream.close();
-                }
-                if(outputStream !=null){
-                    outputStream.close();
-                }
+        }
+    }
 
-            } catch (IOException e) {
-            }
+    /**
+     * 打开文件指定区间的数据流
+     * @param filePath 文件路径
+     * @param offset 起始位置
+     * @param length 读取长度
+     * @return 数据流，由调用方关闭
+     */
+    public InputStream openFile(String filePath,long offset,long length) throws Exception {
+        MinioClient minioClient=minioClientUtil.getMinioClient();
+        String bucket=minioClientUtil.getDefaultBucket();
+        if(minioClient==null || StringUtils.isBlank(bucket)){
+            throw new IOException("找不到Minio数据源配置");
         }
+        return minioClient.getObject(GetObjectArgs.builder()
+                .bucket(bucket)
+                .object(filePath)
+                .offset(offset)
+                .length(length)
+                .build());
+    }
+
+    /**
+     * Minio元数据转换
+     */
+    private FileStat toFileStat(String bucket,String filePath,StatObjectResponse objectStat){
+        return FileStat.builder()
+                .storeType(StoreType.MINIO)
+                .bucket(bucket)
+                .filePath(filePath)
+                .fileSize(objectStat.size())
+                .etag(objectStat.etag())
+                .lastModified(objectStat.lastModified()==null?null:objectStat.lastModified().toInstant().toEpochMilli())
+                .contentType(objectStat.contentType())
+                .build();
     }
 
 
@@ -475,7 +683,6 @@ public class MinioService implements InitializingBean {
      */
     public FileResult getShareLink(String filePath,Integer expires){
 
-        boolean bucketExists = false;
         try {
             MinioClient minioClient=minioClientUtil.getMinioClient();
             if(minioClient==null){
@@ -488,31 +695,37 @@ public class MinioService implements InitializingBean {
                 return FileResult.builder().isOk(false).msg("获取失败,Minio数据源配置默认bucket为空,请指定Bucket").build();
             }
 
-            bucketExists = minioClient.bucketExists(BucketExistsArgs.builder().bucket(bucket).build());
-            if(!bucketExists){
-                return FileResult.builder().isOk(false).msg(bucket+"桶不存在").build();
-            }
             if(expires !=null){
                 if(expires <= 0 || expires > 7*24*60*60){
                     return FileResult.builder().isOk(false).msg("链接有效时长：最小为1秒，最大为7天").build();
                 }
+            }else{//默认为7天
+                expires=7*24*60*60;
             }
             filePath=filePath.replaceAll("//","/");
             if(filePath.startsWith("/")){//去掉开头的/
                 filePath=filePath.substring(1);
             }
-            if(! fileExists(filePath)){//检测是否存在
+            String url=shareLinkCache.get(StoreType.MINIO,bucket,filePath,expires);
+            if(url !=null){
+                return FileResult.builder().isOk(true).msg("获取链接成功").filePath(url).build();
+            }
+            if(! checkBucket(minioClient,bucket)){
+                return FileResult.builder().isOk(false).msg(bucket+"桶不存在").build();
+            }
+            if(shareLinkCache.isCheckExists() && ! fileExists(filePath)){//检测是否存在
                 return FileResult.builder().isOk(false).msg("文件不存在:"+filePath).build();
             }
             //文件存在生成分享链接
-            String url  = minioClient.getPresignedObjectUrl(
+            long signedAt=System.currentTimeMillis();
+            url  = minioClient.getPresignedObjectUrl(
                         GetPresignedObjectUrlArgs.builder()
                                 .method(Method.GET)
                                 .bucket(bucket)
                                 .object(filePath)
-                                .expiry(expires == null ? 7*24*60*60 : expires, TimeUnit.SECONDS)
+                                .expiry(expires, TimeUnit.SECONDS)
                                 .build());
-
+            shareLinkCache.put(StoreType.MINIO,bucket,filePath,expires,signedAt,url);
             return FileResult.builder().isOk(true).msg("获取链接成功").filePath(url).build();
         } catch (IOException e) {
             log.warn("获取失败{}",e.getMessage());
@@ -544,6 +757,73 @@ public class MinioService implements InitializingBean {
         }
     }
 
+    /**
+     * 批量删除文件，每1000个文件一次removeObjects请求，多个请求并发执行
+     * @param filePaths 文件路径
+     * @return 每个文件的删除结果，顺序与filePaths一致
+     */
+    public List<FileResult> deleteFiles(List<String> filePaths){
+        List<FileResult> results=new ArrayList<>(filePaths.size());
+        MinioClient minioClient=minioClientUtil.getMinioClient();
+        String bucket=minioClientUtil.getDefaultBucket();
+        if(minioClient==null || StringUtils.isBlank(bucket)){
+            for(String filePath:filePaths){
+                results.add(FileResult.builder().isOk(false).filePath(filePath).msg("删除失败,Minio数据源配置错误").build());
+            }
+            return results;
+        }
+        //删除失败的文件 -> 原因
+        Map<String,String> errors=new ConcurrentHashMap<>();
+        List<String> keys=filePaths.stream().filter(StringUtils::isNotBlank).distinct().collect(Collectors.toList());
+        List<CompletableFuture<Void>> futures=new ArrayList<>();
+        for(int i=0;i<keys.size();i+=DELETE_BATCH_SIZE){
+            List<String> batch=keys.subList(i,Math.min(i+DELETE_BATCH_SIZE,keys.size()));
+            futures.add(CompletableFuture.runAsync(()->errors.putAll(removeBatch(minioClient,bucket,batch)),storeExecutors.get(StoreType.MINIO)));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+
+        for(String filePath:filePaths){
+            if(StringUtils.isBlank(filePath)){
+                results.add(FileResult.builder().isOk(false).filePath(filePath).msg("删除失败,文件路径为空").build());
+                continue;
+            }
+            String error=errors.get(filePath);
+            if(error==null){
+                shareLinkCache.invalidate(StoreType.MINIO,bucket,filePath);
+                fileMetaCache.putNotFound(StoreType.MINIO,bucket,filePath);
+                fileChangeSupport.deleted(StoreType.MINIO,bucket,filePath);
+                results.add(FileResult.builder().isOk(true).filePath(filePath).msg("删除成功").build());
+            }else{
+                results.add(FileResult.builder().isOk(false).filePath(filePath).msg(error).build());
+            }
+        }
+        log.info("批量删除文件bucket={},total={},failed={}",bucket,keys.size(),errors.size());
+        return results;
+    }
+
+    /**
+     * 删除一批文件
+     * @return 删除失败的文件 -> 原因
+     */
+    private Map<String,String> removeBatch(MinioClient minioClient,String bucket,List<String> batch){
+        Map<String,String> errors=new HashMap<>();
+        try {
+            List<DeleteObject> objects=batch.stream().map(DeleteObject::new).collect(Collectors.toList());
+            //结果只包含删除失败的文件，必须遍历才会发出请求
+            Iterable<Result<DeleteError>> results=minioClient.removeObjects(RemoveObjectsArgs.builder().bucket(bucket).objects(objects).build());
+            for(Result<DeleteError> result:results){
+                DeleteError error=result.get();
+                errors.put(error.objectName(),"删除失败,"+error.code()+" "+error.message());
+            }
+        } catch (Exception e) {
+            log.warn("批量删除失败{}",e.getMessage());
+            for(String key:batch){
+                errors.put(key,"删除失败,minio异常,"+e.getMessage());
+            }
+        }
+        return errors;
+    }
+
     /**
      * 删除文件
      * @param filePath 文件路径
@@ -568,6 +848,9 @@ public class MinioService implements InitializingBean {
                 return FileResult.builder().isOk(false).msg("删除失败，文件不存在:"+filePath).build();
             }
             minioClient.removeObject(RemoveObjectArgs.builder().bucket(bucket).object(filePath).build());
+            shareLinkCache.invalidate(StoreType.MINIO,bucket,filePath);
+            fileMetaCache.putNotFound(StoreType.MINIO,bucket,filePath);
+            fileChangeSupport.deleted(StoreType.MINIO,bucket,filePath);
             log.info("删除文件bucket={},file={}",bucket,filePath);
             return FileResult.builder().isOk(true).msg("删除成功").build();
         }catch (ConnectException e){
@@ -612,10 +895,21 @@ public class MinioService implements InitializingBean {
      * @param folderPathPrefix 目录
      */
     public FileResult deleteDir(String folderPathPrefix){
+        return deleteDir(folderPathPrefix,new FileJob(FileJob.TYPE_DELETE_DIR));
+    }
+
+    /**
+     * 本方法会清空目录的所有文件，请谨慎使用
+     * 递归分页列出目录下的文件，每1000个文件一次批量删除，最多 deleteParallelism 个批次同时执行，
+     * 内存中最多保留 deleteParallelism+1 个批次，与目录大小无关
+     * @param folderPathPrefix 目录
+     * @param job 记录进度 scanned/deleted/failed
+     */
+    public FileResult deleteDir(String folderPathPrefix,FileJob job){
 
         MinioClient minioClient=minioClientUtil.getMinioClient();
         if(minioClient==null){
-            return FileResult.builder().isOk(false).msg("上传失败,找不到Minio数据源配置").build();
+            return FileResult.builder().isOk(false).msg("删除失败,找不到Minio数据源配置").build();
         }
         String bucket=minioClientUtil.getDefaultBucket();
 
@@ -623,60 +917,66 @@ public class MinioService implements InitializingBean {
             log.error("默认的Bucket桶为空，请检测配置");
             return FileResult.builder().isOk(false).msg("删除失败,Minio数据源配置默认bucket为空,请指定Bucket").build();
         }
+        String prefix=FileUtil.dirPrefix(folderPathPrefix);
+        if(prefix==null){
+            return FileResult.builder().isOk(false).msg("删除失败,目录不能为空").build();
+        }
 
-        Iterable<Result<Item>> list= minioClient.listObjects(ListObjectsArgs.builder().bucket(bucket).prefix(folderPathPrefix).recursive(false).build());
+        shareLinkCache.invalidatePrefix(StoreType.MINIO,bucket,prefix);
+        fileMetaCache.invalidatePrefix(StoreType.MINIO,bucket,prefix);
+        Semaphore permits=new Semaphore(deleteParallelism);
+        try {
+            Iterable<Result<Item>> list= minioClient.listObjects(ListObjectsArgs.builder().bucket(bucket).prefix(prefix).recursive(true).build());
+            List<String> batch=new ArrayList<>(DELETE_BATCH_SIZE);
+            for(Result<Item> result:list){
+                Item item=result.get();
+                if(item.isDir()){
+                    continue;
+                }
+                batch.add(item.objectName());
+                job.increment(FileJob.COUNTER_SCANNED,1);
+                if(batch.size()==DELETE_BATCH_SIZE){
+                    submitRemoveBatch(minioClient,bucket,batch,permits,job);
+                    batch=new ArrayList<>(DELETE_BATCH_SIZE);
+                }
+            }
+            if(! batch.isEmpty()){
+                submitRemoveBatch(minioClient,bucket,batch,permits,job);
+            }
+        } catch (Exception e){
+            log.warn("删除失败{}",e.getMessage());
+            return FileResult.builder().isOk(false).msg("删除失败,minio异常,"+e.getMessage()).build();
+        } finally {
+            //等待已提交的批次完成
+            permits.acquireUninterruptibly(deleteParallelism);
+        }
+        long failed=job.getCounter(FileJob.COUNTER_FAILED);
+        String msg="扫描"+job.getCounter(FileJob.COUNTER_SCANNED)+"个,删除"+job.getCounter(FileJob.COUNTER_DELETED)+"个,失败"+failed+"个";
+        log.info("删除目录bucket={},dir={},{}",bucket,prefix,msg);
+        if(failed==0){
+            fileChangeSupport.deletedPrefix(StoreType.MINIO,bucket,prefix);
+        }
+        return FileResult.builder().isOk(failed==0).msg(msg).build();
+    }
 
-        for(Result<Item> item:list){
-            //是否文件夹
+    /**
+     * 提交一个删除批次，并发批次达到上限时等待
+     */
+    private void submitRemoveBatch(MinioClient minioClient,String bucket,List<String> batch,Semaphore permits,FileJob job) throws InterruptedException {
+        permits.acquire();
+        storeExecutors.get(StoreType.MINIO).execute(()->{
             try {
-                String objectName=item.get().objectName();
-                System.out.println( objectName);
-                boolean isDir =item.get().isDir();
-                if(isDir){//递归删除下一级
-                    deleteDir(objectName);
-                }
-                minioClient.removeObject(RemoveObjectArgs.builder().bucket(bucket).object(objectName).build());
-                log.info("删除文件bucket={},file={}",bucket,objectName);
-            } catch (ConnectException e){
-                log.warn("删除失败{}",e.getMessage());
-                return FileResult.builder().isOk(false).msg("删除失败,minio链接endpoint错误,"+e.getMessage()).build();
-            } catch (IOException e) {
-                log.warn("删除失败{}",e.getMessage());
-                return FileResult.builder().isOk(false).msg("删除失败,minio链接IO异常,"+e.getMessage()).build();
-            } catch (XmlParserException e) {
-                log.warn("删除失败{}",e.getMessage());
-                return FileResult.builder().isOk(false).msg("删除失败,minio链接XML异常,"+e.getMessage()).build();
-            } catch (ServerException e) {
-                log.warn("删除失败{}",e.getMessage());
-                return FileResult.builder().isOk(false).msg("删除失败,minio ServerL异常,"+e.getMessage()).build();
-            } catch (NoSuchAlgorithmException e) {
-                log.warn("删除失败{}",e.getMessage());
-                return FileResult.builder().isOk(false).msg("删除失败,minio Algorithm异常,"+e.getMessage()).build();
-            } catch (InsufficientDataException e) {
-                log.warn("删除失败{}",e.getMessage());
-                return FileResult.builder().isOk(false).msg("删除失败,"+e.getMessage()).build();
-            } catch (InvalidKeyException e) {
-                log.warn("删除失败{}",e.getMessage());
-                return FileResult.builder().isOk(false).msg("删除失败,InvalidKey错误"+e.getMessage()).build();
-            } catch (InvalidResponseException e) {
-                log.warn("删除失败{}",e.getMessage());
-                return FileResult.builder().isOk(false).msg("删除失败,Invalid响应错误"+e.getMessage()).build();
-            } catch (ErrorResponseException e) {
-                log.warn("删除失败{}",e.getMessage());
-                return FileResult.builder().isOk(false).msg("删除失败,minio错误认证信息"+e.getMessage()).build();
-            } catch (InternalException e) {
-                log.warn("删除失败{}",e.getMessage());
-                return FileResult.builder().isOk(false).msg("删除失败,minio Internal错误").build();
-            }catch (Exception e){
-                log.warn("删除失败{}",e.getMessage());
-                return FileResult.builder().isOk(false).msg("删除失败,minio异常").build();
-            }
-        }
-
-        return FileResult.builder().isOk(true).msg("成功").build();
+                Map<String,String> errors=removeBatch(minioClient,bucket,batch);
+                job.increment(FileJob.COUNTER_DELETED,batch.size()-errors.size());
+                job.increment(FileJob.COUNTER_FAILED,errors.size());
+            }finally {
+                permits.release();
+            }
+        });
     }
+
     /**
-     * 判断文件是否存在
+     * 判断文件是否存在，优先使用元数据缓存
      * @param objectName 文件路径
      * @return true存在，false不存在
      */
@@ -685,19 +985,59 @@ public class MinioService implements InitializingBean {
             return false;
         }
         try {
-            MinioClient minioClient=minioClientUtil.getMinioClient();
-            String bucket=minioClientUtil.getDefaultBucket();
-            if(minioClient==null){
-                return false;
-            }
-            StatObjectResponse response = minioClient.statObject(StatObjectArgs.builder().bucket(bucket).object(objectName).build());
-            if(response !=null){
-                return true;
-            }else {
-                return false;
-            }
+            return statFile(objectName) !=null;
         } catch (Exception e) {
+            log.warn("查询文件失败{}",e.getMessage());
         }
         return false;
     }
+
+    /**
+     * 获取文件元数据，优先使用元数据缓存
+     * @param filePath 文件路径
+     * @return 文件不存在时返回null
+     */
+    public FileStat statFile(String filePath) throws Exception {
+        MinioClient minioClient=minioClientUtil.getMinioClient();
+        String bucket=minioClientUtil.getDefaultBucket();
+        if(minioClient==null || StringUtils.isBlank(bucket) || StringUtils.isEmpty(filePath)){
+            return null;
+        }
+        FileMetaCache.Entry entry=fileMetaCache.get(StoreType.MINIO,bucket,filePath);
+        if(entry !=null){
+            return entry.getStat();
+        }
+        try {
+            StatObjectResponse response = minioClient.statObject(StatObjectArgs.builder().bucket(bucket).object(filePath).build());
+            FileStat stat=toFileStat(bucket,filePath,response);
+            fileMetaCache.putFound(stat);
+            return stat;
+        } catch (ErrorResponseException e) {
+            if("NoSuchKey".equals(e.errorResponse().code())){
+                fileMetaCache.putNotFound(StoreType.MINIO,bucket,filePath);
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 上传完成后更新元数据缓存，文件大小未知时只清除旧的缓存
+     */
+    private void cacheUploaded(String bucket,String storeName,String etag,Long fileSize,String contentType){
+        fileChangeSupport.written(StoreType.MINIO,bucket,storeName);
+        if(fileSize==null){
+            fileMetaCache.invalidate(StoreType.MINIO,bucket,storeName);
+            return;
+        }
+        fileMetaCache.putFound(FileStat.builder()
+                .storeType(StoreType.MINIO)
+                .bucket(bucket)
+                .filePath(storeName)
+                .fileSize(fileSize)
+                .etag(etag)
+                .lastModified(System.currentTimeMillis())
+                .contentType(contentType)
+                .build());
+    }
 }
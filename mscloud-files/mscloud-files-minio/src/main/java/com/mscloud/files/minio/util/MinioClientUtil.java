@@ -1,15 +1,36 @@
 package com.mscloud.files.minio.util;
 
+import io.minio.MinioAsyncClient;
 import io.minio.MinioClient;
 import lombok.extern.slf4j.Slf4j;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Minio配置以及初始化链接
+ * 启动时基于自定义的OkHttpClient创建唯一的MinioClient，连接池和并发数由 mscloud.minio.http.* 配置
+ */
 @Slf4j
 @Component
-public class MinioClientUtil {
+public class MinioClientUtil implements InitializingBean, DisposableBean {
 
-    private MinioClient minioClient =null;
+    private volatile MinioClient minioClient =null;
+    /**
+     * 与 minioClient 共用连接池，用于并发分块上传
+     */
+    private volatile MinioMultipartClient multipartClient =null;
+    private OkHttpClient httpClient =null;
     @Value("${mscloud.minio.endpoint:'http://localhost:9000'}")
     private String endpoint;
     /**
@@ -24,23 +45,117 @@ public class MinioClientUtil {
     @Value("${mscloud.minio.replaceUrlPrefix:''}")
     private String replaceUrlPrefix;
 
-
     /**
-     * MinioClient初始化
-     * @return
+     * 连接池最大空闲连接数
      */
-    public  MinioClient getMinioClient(){
-        if(minioClient !=null){
-            return minioClient;
-        }
-         this.minioClient =
+    @Value("${mscloud.minio.http.maxIdleConnections:64}")
+    private int maxIdleConnections;
+    /**
+     * 空闲连接保活时长，单位秒
+     */
+    @Value("${mscloud.minio.http.keepAliveDuration:300}")
+    private long keepAliveDuration;
+    /**
+     * 最大并发请求数
+     */
+    @Value("${mscloud.minio.http.maxRequests:512}")
+    private int maxRequests;
+    /**
+     * 每个主机的最大并发请求数
+     */
+    @Value("${mscloud.minio.http.maxRequestsPerHost:256}")
+    private int maxRequestsPerHost;
+    /**
+     * 建立连接超时，单位秒
+     */
+    @Value("${mscloud.minio.http.connectTimeout:10}")
+    private long connectTimeout;
+    /**
+     * 读超时，单位秒
+     */
+    @Value("${mscloud.minio.http.readTimeout:300}")
+    private long readTimeout;
+    /**
+     * 写超时，单位秒
+     */
+    @Value("${mscloud.minio.http.writeTimeout:300}")
+    private long writeTimeout;
+
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        Dispatcher dispatcher=new Dispatcher();
+        dispatcher.setMaxRequests(maxRequests);
+        dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+        this.httpClient=new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(maxIdleConnections,keepAliveDuration,TimeUnit.SECONDS))
+                .dispatcher(dispatcher)
+                .connectTimeout(connectTimeout,TimeUnit.SECONDS)
+                .readTimeout(readTimeout,TimeUnit.SECONDS)
+                .writeTimeout(writeTimeout,TimeUnit.SECONDS)
+                .protocols(Collections.singletonList(Protocol.HTTP_1_1))
+                .build();
+        this.minioClient =
                 MinioClient.builder()
                         .endpoint(endpoint)
                         .credentials(accessKey, secretKey)
+                        .httpClient(httpClient)
                         .build();
+        this.multipartClient =new MinioMultipartClient(
+                MinioAsyncClient.builder()
+                        .endpoint(endpoint)
+                        .credentials(accessKey, secretKey)
+                        .httpClient(httpClient)
+                        .build());
+        log.info("MinioClient初始化完成,endpoint={},maxIdleConnections={},maxRequestsPerHost={}",endpoint,maxIdleConnections,maxRequestsPerHost);
+    }
+
+    @Override
+    public void destroy() {
+        if(httpClient !=null){
+            httpClient.dispatcher().executorService().shutdown();
+            httpClient.connectionPool().evictAll();
+        }
+    }
+
+    /**
+     * MinioClient，全局唯一
+     * @return
+     */
+    public  MinioClient getMinioClient(){
         return minioClient;
     }
 
+    /**
+     * Minio分块上传客户端，全局唯一
+     * @return
+     */
+    public MinioMultipartClient getMultipartClient(){
+        return multipartClient;
+    }
+
+    /**
+     * 连接池使用情况
+     * @return
+     */
+    public Map<String,Object> getPoolStats(){
+        Map<String,Object> stats=new LinkedHashMap<>();
+        ConnectionPool connectionPool=httpClient.connectionPool();
+        Dispatcher dispatcher=httpClient.dispatcher();
+        int total=connectionPool.connectionCount();
+        int idle=connectionPool.idleConnectionCount();
+        stats.put("endpoint",endpoint);
+        stats.put("connections",total);
+        stats.put("idleConnections",idle);
+        stats.put("activeConnections",total-idle);
+        stats.put("maxIdleConnections",maxIdleConnections);
+        stats.put("runningCalls",dispatcher.runningCallsCount());
+        stats.put("queuedCalls",dispatcher.queuedCallsCount());
+        stats.put("maxRequests",dispatcher.getMaxRequests());
+        stats.put("maxRequestsPerHost",dispatcher.getMaxRequestsPerHost());
+        return stats;
+    }
+
     public String getEndpoint() {
         return endpoint;
     }
@@ -0,0 +1,81 @@
+package com.mscloud.files.minio.util;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+import io.minio.MinioAsyncClient;
+import io.minio.ObjectWriteResponse;
+import io.minio.messages.Part;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Minio原生分块上传接口
+ * MinioClient 只在 putObject 内部使用分块上传且各分块串行，这里公开分块接口以便并发上传分块
+ * 使用 S3Base 的异步分块接口，8.4.x 中对应的同步接口已废弃
+ */
+public class MinioMultipartClient extends MinioAsyncClient {
+
+    public MinioMultipartClient(MinioAsyncClient client) {
+        super(client);
+    }
+
+    /**
+     * 初始化分块上传
+     * @param headers 请求头，如用户元数据 x-amz-meta-*、标签 x-amz-tagging
+     * @return uploadId
+     */
+    public String createMultipartUpload(String bucket, String object, Multimap<String,String> headers) throws Exception {
+        return join(createMultipartUploadAsync(bucket,null,object,headers,headers())).result().uploadId();
+    }
+
+    /**
+     * 上传分块
+     * @return 分块ETag
+     */
+    public String uploadPart(String bucket, String object, String uploadId, int partNumber, byte[] data, int length) throws Exception {
+        return join(uploadPartAsync(bucket,null,object,data,length,uploadId,partNumber,headers(),headers())).etag();
+    }
+
+    /**
+     * 合并分块
+     * @param partETags 按分块序号排列的ETag
+     */
+    public ObjectWriteResponse completeMultipartUpload(String bucket, String object, String uploadId, List<String> partETags) throws Exception {
+        Part[] parts=new Part[partETags.size()];
+        for(int i=0;i<parts.length;i++){
+            parts[i]=new Part(i+1,partETags.get(i));
+        }
+        return join(completeMultipartUploadAsync(bucket,null,object,uploadId,parts,headers(),headers()));
+    }
+
+    /**
+     * 取消分块上传
+     */
+    public void abortMultipartUpload(String bucket, String object, String uploadId) throws Exception {
+        join(abortMultipartUploadAsync(bucket,null,object,uploadId,headers(),headers()));
+    }
+
+    /**
+     * 等待异步请求完成，抛出请求本身的异常
+     */
+    private static <T> T join(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause=e.getCause();
+            if(cause instanceof Exception){
+                throw (Exception)cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 新建空的请求头或请求参数
+     */
+    public static Multimap<String,String> headers(){
+        return HashMultimap.create();
+    }
+}
@@ -1,29 +1,54 @@
 package com.mscloud.files.oss.service;
 
 import com.aliyun.oss.OSS;
+import com.aliyun.oss.OSSException;
 import com.aliyun.oss.model.*;
 import com.mscloud.files.core.FileUtil;
+import com.mscloud.files.core.ObjectKeyGenerator;
 import com.mscloud.files.core.constants.FileDirType;
+import com.mscloud.files.core.constants.KeyStrategy;
+import com.mscloud.files.core.concurrent.StoreExecutors;
 import com.mscloud.files.core.constants.StoreType;
+import com.mscloud.files.core.download.FileDownloadSupport;
+import com.mscloud.files.core.job.FileJob;
+import com.mscloud.files.core.link.ShareLinkCache;
+import com.mscloud.files.core.meta.FileChangeSupport;
+import com.mscloud.files.core.meta.FileMetaCache;
 import com.mscloud.files.core.pojo.FileInfo;
 import com.mscloud.files.core.pojo.FileResult;
+import com.mscloud.files.core.pojo.FileStat;
 import com.mscloud.files.core.pojo.HttpResponse;
+import com.mscloud.files.core.transfer.MultipartSession;
+import com.mscloud.files.core.transfer.MultipartUploadEngine;
+import com.mscloud.files.core.transfer.MultipartTarget;
+import com.mscloud.files.core.transfer.MultipartUploadResult;
+import com.mscloud.files.core.transfer.PushUpload;
+import com.mscloud.files.core.upload.ChunkedUploadEngine;
+import com.mscloud.files.core.upload.SliceDigest;
+import com.mscloud.files.core.upload.SliceDigestException;
+import com.mscloud.files.core.upload.UploadSession;
+import com.mscloud.files.core.upload.UploadSessionRegistry;
 import com.mscloud.files.oss.util.OssUtil;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.URL;
-import java.net.URLEncoder;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
 
 /**
  * 阿里OSS文件操作服务类
@@ -32,16 +57,70 @@ import java.util.*;
 @Component
 public class OssService implements InitializingBean {
 
+    @Autowired
+    OssUtil ossUtil;
 
+    @Autowired
+    FileDownloadSupport fileDownloadSupport;
 
-    private OSS ossClient;
+    @Autowired
+    ObjectKeyGenerator objectKeyGenerator;
 
     @Autowired
-    OssUtil ossUtil;
+    ShareLinkCache shareLinkCache;
+
+    @Autowired
+    FileMetaCache fileMetaCache;
+
+    @Autowired
+    FileChangeSupport fileChangeSupport;
+
+    @Autowired
+    StoreExecutors storeExecutors;
+
+    @Autowired
+    MultipartUploadEngine multipartUploadEngine;
+
+    @Autowired
+    UploadSessionRegistry uploadSessionRegistry;
+
+    @Autowired
+    ChunkedUploadEngine chunkedUploadEngine;
+
+    /**
+     * 批量删除每次请求的最大文件数，OSS限制为1000
+     */
+    private static final int DELETE_BATCH_SIZE = 1000;
+
+    /**
+     * 删除目录时同时执行的批量删除请求数
+     */
+    @Value("${mscloud.files.deleteDir.parallelism:4}")
+    private int deleteParallelism;
+
+    /**
+     * 批量上传时单次请求同时上传的文件数，整体并发受 mscloud.files.executor 线程池限制
+     */
+    @Value("${mscloud.files.upload.parallelism:4}")
+    private int uploadParallelism;
 
     @Override
     public void afterPropertiesSet() throws Exception {
-
+        //清理过期的分片上传会话时取消对应的分块上传
+        uploadSessionRegistry.registerAborter(StoreType.OSS,session->abortQuietly(ossUtil.getOssClient(),ossUtil.getDefaultBucket(),session));
+        //启动时检查一次默认桶，生成分享链接时不再检查
+        OSS ossClient=ossUtil.getOssClient();
+        String bucket=ossUtil.getDefaultBucket();
+        if(ossClient==null || StringUtils.isBlank(bucket)){
+            return;
+        }
+        try {
+            if(! ossClient.doesBucketExist(bucket)){
+                log.warn("OSS默认桶{}不存在",bucket);
+            }
+        }catch (Exception e){
+            log.warn("检查OSS默认桶失败{}",e.getMessage());
+        }
     }
     /**
      * 上传单个文件
@@ -50,17 +129,16 @@ public class OssService implements InitializingBean {
      * @param isRename 是否重命名，默认为false， true则使用UUID重命名存储
      * @param fileDirType 目录格式，默认年月日格式目录
      * @param fileDirPath 指定目录
+     * @param keyStrategy 目录策略，为空时使用全局配置
      * @param isBackShareLink 是否返回临时链接
      * @return
      */
-    public FileResult uploadFile(InputStream inputStream, FileInfo fileInfo,boolean isRename, FileDirType fileDirType, String fileDirPath, boolean isBackShareLink, Map<String,String> tagMap) {
+    public FileResult uploadFile(InputStream inputStream, FileInfo fileInfo,boolean isRename, FileDirType fileDirType, String fileDirPath, KeyStrategy keyStrategy, boolean isBackShareLink, Map<String,String> tagMap) {
 
-        ossClient= ossUtil.getOssClient();
+        OSS ossClient= ossUtil.getOssClient();
         if(ossClient==null){
             return FileResult.builder().isOk(false).msg("上传失败,找不到OSS数据源配置").build();
         }
-        String endpoint=ossUtil.getEndpoint();
-        String prefixUrl=ossUtil.getReplaceUrlPrefix();
         String bucket=ossUtil.getDefaultBucket();
         if(bucket==null){
             log.error("默认的Bucket桶为空，请检测配置");
@@ -69,19 +147,7 @@ public class OssService implements InitializingBean {
 
         try {
             Long fileSize=fileInfo.getFileSize();//文件大小字节
-            String contentType=fileInfo.getContentType();//文件类型
-            String orignalFilename=fileInfo.getOrignalName();//文件原始名称
-            String fileSuffix= fileInfo.getFileSuffix();//后缀
-            String reName= UUID.randomUUID().toString().replaceAll("-","")+ (fileSuffix==null?"":fileSuffix);
-            String  newStoreName=(isRename?reName:orignalFilename);
-
-            //创建目录格式
-            if(fileDirType==null|| ! fileDirType.equals(FileDirType.EMPTY)){
-                //拼接目录
-                newStoreName= FileUtil.dirName(fileDirType,fileDirPath)+"/"+newStoreName;
-            }else{
-                newStoreName=fileDirPath+"/"+newStoreName;
-            }
+            String newStoreName=storeName(fileInfo,isRename,fileDirType,fileDirPath,keyStrategy);
 
             // 创建PutObjectRequest对象并设置ObjectMetadata
             ObjectMetadata metadata = new ObjectMetadata();
@@ -89,28 +155,19 @@ public class OssService implements InitializingBean {
                 String value = tagMap.get(key).toString();
                 metadata.addUserMetadata(key, value);
             }
-            // 上传文件到指定的存储空间（bucketName）并将其保存为指定的文件名称（objectName）。
-            PutObjectResult putObjectResult= ossClient.putObject(bucket, newStoreName, inputStream,metadata);
-
-            System.out.println(putObjectResult);
-            String filePath="";
-            if(StringUtils.isNotBlank(prefixUrl)){
-                //替换应用域名前缀
-                filePath=prefixUrl+"/"+newStoreName;
+            String etag;
+            if(multipartUploadEngine.isMultipart(fileSize)){
+                //大小未知或大文件，流式分块并发上传；大小未知且不超过一个分块时直接上传
+                MultipartUploadResult result=multipartUpload(ossClient,bucket,newStoreName,inputStream,fileSize,metadata);
+                etag=result.getEtag();
+                fileSize=result.getBytes();
             }else{
-                //将bucket名称拼接到域名上
-                String url=endpoint.replace("https://","https://"+bucket+".");
-                filePath=url+"/"+newStoreName;
-            }
-
-            String storeName=newStoreName;//存储返回的名称
-
-            String shareLink ="";
-            if(isBackShareLink){
-                FileResult linkResult=getShareLink(storeName,1*24*60*60);
-                shareLink =linkResult.getFilePath();
+                metadata.setContentLength(fileSize);
+                // 上传文件到指定的存储空间（bucketName）并将其保存为指定的文件名称（objectName）。
+                PutObjectResult putObjectResult= ossClient.putObject(bucket, newStoreName, inputStream,metadata);
+                etag=putObjectResult.getETag();
             }
-            return FileResult.builder().isOk(true).msg("上传成功").bucketName(bucket).storeType(StoreType.OSS.value()).shareLink(shareLink).filePath(filePath).fileSize(fileSize).contentType(contentType).storeName(storeName).orignalName(orignalFilename).fileSuffix(fileSuffix).build();
+            return uploaded(bucket,newStoreName,etag,fileSize,fileInfo,isBackShareLink);
 
         }catch (Exception e){
             e.printStackTrace();
@@ -129,42 +186,285 @@ public class OssService implements InitializingBean {
 
     }
 
+    /**
+     * 流式分块上传，各分块并发上传，失败时取消上传；数据不超过一个分块时直接上传
+     * @param ossClient OSS客户端
+     * @param bucket 桶
+     * @param key 存储名称
+     * @param inputStream 文件流
+     * @param fileSize 文件大小，未知时为空或小于0
+     * @param metadata 用户元数据
+     */
+    private MultipartUploadResult multipartUpload(OSS ossClient,String bucket,String key,InputStream inputStream,Long fileSize,ObjectMetadata metadata) throws Exception {
+        return multipartUploadEngine.upload(inputStream,fileSize,multipartTarget(ossClient,bucket,key,metadata));
+    }
+
+    /**
+     * 分块上传目标，小于一个分块的数据直接上传
+     */
+    private MultipartTarget multipartTarget(OSS ossClient,String bucket,String key,ObjectMetadata metadata){
+        return new MultipartTarget() {
+            @Override
+            public String put(byte[] data, int length) {
+                metadata.setContentLength(length);
+                return ossClient.putObject(bucket,key,new ByteArrayInputStream(data,0,length),metadata).getETag();
+            }
+
+            @Override
+            public MultipartSession create() {
+                String uploadId=ossClient.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucket,key,metadata)).getUploadId();
+                return multipartSession(ossClient,bucket,key,uploadId);
+            }
+        };
+    }
+
+    /**
+     * OSS分块上传
+     */
+    private MultipartSession multipartSession(OSS ossClient,String bucket,String key,String uploadId){
+        return new MultipartSession() {
+            @Override
+            public String uploadPart(int partNumber, byte[] data, int length) {
+                UploadPartRequest request=new UploadPartRequest(bucket,key,uploadId,partNumber,new ByteArrayInputStream(data,0,length),length);
+                return ossClient.uploadPart(request).getETag();
+            }
+
+            @Override
+            public String complete(List<String> partETags) {
+                List<PartETag> parts=new ArrayList<>(partETags.size());
+                for(int i=0;i<partETags.size();i++){
+                    parts.add(new PartETag(i+1,partETags.get(i)));
+                }
+                return ossClient.completeMultipartUpload(new CompleteMultipartUploadRequest(bucket,key,uploadId,parts)).getETag();
+            }
+
+            @Override
+            public void abort() {
+                ossClient.abortMultipartUpload(new AbortMultipartUploadRequest(bucket,key,uploadId));
+            }
+        };
+    }
+
+    /**
+     * 推送方式上传单个文件，由调用方按分块写入数据，用于非阻塞服务；参数同 uploadFile
+     * @throws IllegalStateException 找不到OSS数据源配置或默认bucket为空
+     */
+    public PushUpload pushUpload(FileInfo fileInfo,boolean isRename, FileDirType fileDirType, String fileDirPath, KeyStrategy keyStrategy, boolean isBackShareLink, Map<String,String> tagMap){
+        OSS ossClient= ossUtil.getOssClient();
+        if(ossClient==null){
+            throw new IllegalStateException("上传失败,找不到OSS数据源配置");
+        }
+        String bucket=ossUtil.getDefaultBucket();
+        if(bucket==null){
+            log.error("默认的Bucket桶为空，请检测配置");
+            throw new IllegalStateException("上传失败,OSS数据源配置默认bucket为空,请指定Bucket");
+        }
+        String storeName=storeName(fileInfo,isRename,fileDirType,fileDirPath,keyStrategy);
+        ObjectMetadata metadata = new ObjectMetadata();
+        if(tagMap!=null){
+            for(Map.Entry<String,String> tag:tagMap.entrySet()){
+                metadata.addUserMetadata(tag.getKey(),tag.getValue());
+            }
+        }
+        MultipartTarget target=multipartTarget(ossClient,bucket,storeName,metadata);
+        return new PushUpload() {
+            @Override
+            public MultipartTarget target() {
+                return target;
+            }
+
+            @Override
+            public FileResult complete(String etag, long fileSize) {
+                return uploaded(bucket,storeName,etag,fileSize,fileInfo,isBackShareLink);
+            }
+        };
+    }
+
+    /**
+     * 生成存储名称：按需重命名，并拼接目录
+     */
+    private String storeName(FileInfo fileInfo,boolean isRename,FileDirType fileDirType,String fileDirPath,KeyStrategy keyStrategy){
+        String fileSuffix= fileInfo.getFileSuffix();//后缀
+        String reName= FileUtil.uuid()+ (fileSuffix==null?"":fileSuffix);
+        String  newStoreName=(isRename?reName:fileInfo.getOrignalName());
+
+        //创建目录格式
+        if(fileDirType==null|| ! fileDirType.equals(FileDirType.EMPTY)){
+            //拼接目录
+            return objectKeyGenerator.dirName(fileDirType,fileDirPath,keyStrategy,newStoreName)+"/"+newStoreName;
+        }
+        return fileDirPath+"/"+newStoreName;
+    }
+
+    /**
+     * 对象写入后更新缓存并生成上传结果
+     */
+    private FileResult uploaded(String bucket,String storeName,String etag,Long fileSize,FileInfo fileInfo,boolean isBackShareLink){
+        cacheUploaded(bucket,storeName,etag,fileSize,fileInfo.getContentType());
+
+        String filePath=objectUrl(bucket,storeName);
+
+        String shareLink ="";
+        if(isBackShareLink){
+            FileResult linkResult=getShareLink(storeName,1*24*60*60);
+            shareLink =linkResult.getFilePath();
+        }
+        return FileResult.builder().isOk(true).msg("上传成功").bucketName(bucket).storeType(StoreType.OSS.value()).shareLink(shareLink).filePath(filePath).fileSize(fileSize).contentType(fileInfo.getContentType()).storeName(storeName).orignalName(fileInfo.getOrignalName()).fileSuffix(fileInfo.getFileSuffix()).build();
+    }
+
+    /**
+     * 分片上传文件，上传会话对应一个OSS分块上传，分片作为分块上传(较小的分片凑够最小分块再上传)，收到全部分片后一次合并
+     * 已收到的分片记录在上传会话中，分片可以乱序、并发上传，重复的分片直接忽略
+     * @param file 分片文件流
+     * @param fileName 文件名称
+     * @param sliceIndex 分片索引
+     * @param totalPieces 切片总数
+     * @param md5String 整体文件MD5
+     * @param sliceMd5 分片MD5，不为空则校验分片，校验不通过需要重新上传该分片
+     * @return
+     */
+    public FileResult uploadPieceFile(MultipartFile file, String fileName, int sliceIndex, int totalPieces, String md5String, String sliceMd5, boolean isRename, FileDirType fileDirType, String fileDirPath, KeyStrategy keyStrategy, boolean isBackShareLink, Map<String,String> tagMap){
+        OSS ossClient= ossUtil.getOssClient();
+        if(ossClient==null){
+            return FileResult.builder().isOk(false).msg("上传失败,找不到OSS数据源配置").build();
+        }
+        String bucket=ossUtil.getDefaultBucket();
+        if(bucket==null){
+            log.error("默认的Bucket桶为空，请检测配置");
+            return FileResult.builder().isOk(false).msg("上传失败,OSS数据源配置默认bucket为空,请指定Bucket").build();
+        }
+        if(! SliceDigest.isMd5(md5String)){
+            return FileResult.builder().isOk(false).msg("上传失败,md5String必须是32位十六进制MD5").build();
+        }
+        if(! uploadSessionRegistry.isAllowedPieces(totalPieces)){
+            return FileResult.builder().isOk(false).msg("上传失败,分片总数超出限制:"+uploadSessionRegistry.getMaxPieces()).build();
+        }
+        if(sliceIndex<0 || sliceIndex>=totalPieces){
+            return FileResult.builder().isOk(false).msg("上传失败,分片索引超出范围").build();
+        }
+        try {
+            // 已收到的分片记录在会话中，会话对应一个OSS分块上传
+            UploadSession session=uploadSessionRegistry.get(StoreType.OSS,md5String);
+            if(session!=null && session.getTotalPieces()!=totalPieces){//分片总数变化，重新上传
+                abortQuietly(ossClient,bucket,session);
+                uploadSessionRegistry.remove(session);
+                session=null;
+            }
+            if(session==null){
+                String key=pieceStoreName(fileName,isRename,fileDirType,fileDirPath,keyStrategy);
+                ObjectMetadata metadata = new ObjectMetadata();
+                if(tagMap!=null){
+                    for(String tagKey:tagMap.keySet()){
+                        metadata.addUserMetadata(tagKey, tagMap.get(tagKey));
+                    }
+                }
+                String uploadId=ossClient.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucket,key,metadata)).getUploadId();
+                session=uploadSessionRegistry.create(StoreType.OSS,md5String,totalPieces,fileName,key,uploadId);
+                if(! uploadId.equals(session.getUploadId())){//其它请求已经新建
+                    ossClient.abortMultipartUpload(new AbortMultipartUploadRequest(bucket,key,uploadId));
+                }
+            }
+            MultipartSession multipart=multipartSession(ossClient,bucket,session.getObjectName(),session.getUploadId());
+
+            boolean ready;
+            try (InputStream inputStream=file.getInputStream()){
+                ready=chunkedUploadEngine.accept(session,sliceIndex,inputStream,file.getSize(),SliceDigest.expected(sliceMd5,md5String,totalPieces),multipart);
+            }
+            if(! ready){
+                // 返回下一个需要上传的分片序号，分片可以乱序、并发上传
+                return FileResult.builder().isOk(true).sliceIndex(session.nextMissing(sliceIndex+1)).msg("分片上传成功").build();
+            }
+            // 全部分片已收到，后台合并，返回合并任务ID，通过任务查询合并结果
+            UploadSession finishSession=session;
+            FileJob job=chunkedUploadEngine.finish(session,multipart,etag->{
+                String storeName=finishSession.getObjectName();//存储返回的名称
+                String filePath=objectUrl(bucket,storeName);
+                long fileSize=finishSession.getUploadedBytes();
+                cacheUploaded(bucket,storeName,etag,fileSize,null);
+                String shareLink ="";
+                if(isBackShareLink){
+                    FileResult linkResult=getShareLink(storeName,1*24*60*60);
+                    shareLink =linkResult.getFilePath();
+                }
+                return FileResult.builder().isOk(true).sliceIndex(-1).msg("全部上传成功").digest(SliceDigest.treeRoot(finishSession)).bucketName(bucket).storeType(StoreType.OSS.value()).shareLink(shareLink).filePath(filePath).fileSize(fileSize).storeName(storeName).orignalName(fileName).fileSuffix(FileUtil.splitFileSuffix(fileName)).build();
+            });
+            return FileResult.builder().isOk(true).sliceIndex(-2).msg("分片已全部上传,正在合并").storeType(StoreType.OSS.value()).storeName(session.getObjectName()).jobId(job==null?null:job.getJobId()).build();
+        }catch (SliceDigestException e){
+            log.warn("上传失败{}",e.getMessage());
+            return FileResult.builder().isOk(false).sliceIndex(e.getSliceIndex()).msg("上传失败,"+e.getMessage()).build();
+        }catch (RejectedExecutionException e){
+            log.warn("上传失败{}",e.getMessage());
+            return FileResult.builder().isOk(false).msg("上传失败,合并任务过多,请稍后重新上传最后一个分片").build();
+        }catch (Exception e){
+            log.warn("上传失败{}",e.getMessage());
+            return FileResult.builder().isOk(false).msg("上传失败,"+e.getMessage()).build();
+        }
+    }
+
+    /**
+     * 分片上传的最终存储名称
+     */
+    private String pieceStoreName(String fileName,boolean isRename,FileDirType fileDirType,String fileDirPath,KeyStrategy keyStrategy){
+        String fileSuffix= FileUtil.splitFileSuffix(fileName);//后缀
+        String reName= FileUtil.uuid()+ (fileSuffix==null?"":fileSuffix);
+        String  newStoreName=(isRename?reName:fileName);
+
+        //创建目录格式
+        if(fileDirType==null|| ! fileDirType.equals(FileDirType.EMPTY)){
+            //拼接目录
+            newStoreName= objectKeyGenerator.dirName(fileDirType,fileDirPath,keyStrategy,newStoreName)+"/"+newStoreName;
+        }else{
+            newStoreName=fileDirPath+"/"+newStoreName;
+        }
+        return newStoreName;
+    }
+
+    private void abortQuietly(OSS ossClient,String bucket,UploadSession session){
+        try {
+            ossClient.abortMultipartUpload(new AbortMultipartUploadRequest(bucket,session.getObjectName(),session.getUploadId()));
+        } catch (Exception e) {
+            log.warn("取消分块上传失败{},{}",session.getObjectName(),e.getMessage());
+        }
+    }
+
+    /**
+     * 文件访问地址
+     */
+    private String objectUrl(String bucket,String storeName){
+        String prefixUrl=ossUtil.getReplaceUrlPrefix();
+        if(StringUtils.isNotBlank(prefixUrl)){
+            //替换应用域名前缀
+            return prefixUrl+"/"+storeName;
+        }
+        //将bucket名称拼接到域名上
+        String url=ossUtil.getEndpoint().replace("https://","https://"+bucket+".");
+        return url+"/"+storeName;
+    }
+
     /**
      * 上传多个文件
      * @param multipartFiles 多个文件流数组
      * @param isRename 是否重命名，默认为false， true则使用UUID重命名存储
      * @param fileDirType 目录格式，默认年月日格式目录
      * @param fileDirPath 指定目录
+     * @param keyStrategy 目录策略，为空时使用全局配置
      * @return
      */
-    public List<FileResult> uploadFiles(MultipartFile[] multipartFiles,boolean isRename,FileDirType fileDirType,String fileDirPath,boolean isBackShareLink,Map<String,String> tagMap){
-        List<FileResult> list=new ArrayList<>();
-        for(MultipartFile file:multipartFiles){
-            //文件基本信息
-            String orignalFilename=file.getOriginalFilename();//文件原始名称
-            String fileSuffix= FileUtil.splitFileSuffix(orignalFilename);//后缀
-            FileInfo fileInfo=FileInfo.builder().fileSize(file.getSize()).contentType(file.getContentType()).orignalName(orignalFilename).fileSuffix(fileSuffix).build();
-            InputStream inputStream= null;
-            try {
-                inputStream = file.getInputStream();
-                FileResult fileResult= this.uploadFile(inputStream,fileInfo,isRename,fileDirType,fileDirPath,isBackShareLink,tagMap);
-                list.add(fileResult);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-
-        }
-        return list;
+    public List<FileResult> uploadFiles(MultipartFile[] multipartFiles,boolean isRename,FileDirType fileDirType,String fileDirPath,KeyStrategy keyStrategy,boolean isBackShareLink,Map<String,String> tagMap){
+        //按文件并发上传，整体耗时接近最慢的文件；结果与传入顺序一致
+        return storeExecutors.uploadFiles(StoreType.OSS,multipartFiles,uploadParallelism,
+                (inputStream,fileInfo)->uploadFile(inputStream,fileInfo,isRename,fileDirType,fileDirPath,keyStrategy,isBackShareLink,tagMap));
     }
 
     /**
-     * 下载文件
-     @param filePath 指定下载的文件全路径
+     * 下载文件，支持Range区间下载
+     * @param filePath 指定下载的文件全路径
      * @param storeAsFilename 下载后文件名
+     * @param request 请求
      * @param response  响应文件流
      */
-    public FileResult downloadFile(String filePath,String storeAsFilename,HttpServletResponse response){
-        ossClient=ossUtil.getOssClient();
+    public FileResult downloadFile(String filePath,String storeAsFilename,HttpServletRequest request,HttpServletResponse response){
+        OSS ossClient=ossUtil.getOssClient();
         if(ossClient==null){
             return FileResult.builder().isOk(false).msg("上传失败,找不到OSS数据源配置").build();
         }
@@ -172,49 +472,69 @@ public class OssService implements InitializingBean {
           String  bucket=ossUtil.getDefaultBucket();
             if(bucket==null){
                 log.error("默认的Bucket桶为空，请检测配置");
-                return FileResult.builder().isOk(false).msg("下载失败,Minio数据源配置默认bucket为空,请指定Bucket").build();
+                return FileResult.builder().isOk(false).msg("下载失败,OSS数据源配置默认bucket为空,请指定Bucket").build();
             }
 
-        BufferedInputStream inputStream = null;
-        OutputStream outputStream =null;
         try{
-
-            OSSObject ossObject = ossClient.getObject(bucket, filePath);
-            inputStream =new BufferedInputStream(ossObject.getObjectContent());
-            byte buf[] = new byte[1024];
-            int length = 0;
-            response.reset();
-            //下载名称
-            String storeAs = storeAsFilename==null?filePath:storeAsFilename;
-            response.setHeader("Content-Disposition","attachment;filename=" + URLEncoder.encode(storeAs, "UTF-8"));
-            response.setContentType("application/octet-stream;charset=UTF-8");
-            response.setCharacterEncoding("UTF-8");
-            outputStream = response.getOutputStream();
-            while((length = inputStream.read(buf)) > 0){
-                outputStream.write(buf,0,length);
+            ObjectMetadata metadata=ossClient.getObjectMetadata(bucket,filePath);
+            FileStat stat=toFileStat(bucket,filePath,metadata);
+            fileMetaCache.putFound(stat);
+            //按区间读取
+            return fileDownloadSupport.download(request,response,stat,storeAsFilename,(offset,length)->{
+                GetObjectRequest getObjectRequest=new GetObjectRequest(bucket,filePath);
+                getObjectRequest.setRange(offset,offset+length-1);
+                return ossClient.getObject(getObjectRequest).getObjectContent();
+            });
+        } catch (OSSException e) {
+            log.warn("下载失败{}",e.getMessage());
+            if("NoSuchKey".equals(e.getErrorCode())){
+                fileMetaCache.putNotFound(StoreType.OSS,bucket,filePath);
+                return FileResult.builder().isOk(false).msg("下载失败,文件不存在").build();
             }
-            return FileResult.builder().isOk(true).msg("下载成功").build();
+            return FileResult.builder().isOk(false).msg("下载失败,OSS异常,"+e.getErrorMessage()).build();
         } catch (IOException e) {
             log.warn("下载失败{}",e.getMessage());
             return FileResult.builder().isOk(false).msg("下载失败,OSS链接IO异常,"+e.getMessage()).build();
 
         } catch (Throwable throwable) {
             log.warn("下载失败{}",throwable.getMessage());
-        } finally {
-            try {
-                if(inputStream !=null){
-                    inputStream.close();
-                }
-                if(outputStream !=null){
-                    outputStream.close();
-                }
-
-            } catch (IOException e) {
-            }
         }
         return FileResult.builder().isOk(false).msg("下载失败,OSS异常").build();
     }
 
+    /**
+     * 打开文件指定区间的数据流
+     * @param filePath 文件路径
+     * @param offset 起始位置
+     * @param length 读取长度
+     * @return 数据流，由调用方关闭
+     */
+    public InputStream openFile(String filePath,long offset,long length) throws IOException {
+        OSS ossClient=ossUtil.getOssClient();
+        String bucket=ossUtil.getDefaultBucket();
+        if(ossClient==null || bucket==null){
+            throw new IOException("找不到OSS数据源配置");
+        }
+        GetObjectRequest getObjectRequest=new GetObjectRequest(bucket,filePath);
+        getObjectRequest.setRange(offset,offset+length-1);
+        return ossClient.getObject(getObjectRequest).getObjectContent();
+    }
+
+    /**
+     * OSS元数据转换
+     */
+    private FileStat toFileStat(String bucket,String filePath,ObjectMetadata metadata){
+        return FileStat.builder()
+                .storeType(StoreType.OSS)
+                .bucket(bucket)
+                .filePath(filePath)
+                .fileSize(metadata.getContentLength())
+                .etag(metadata.getETag())
+                .lastModified(metadata.getLastModified()==null?null:metadata.getLastModified().getTime())
+                .contentType(metadata.getContentType())
+                .build();
+    }
+
 
     /**
      * 获取一个指定了 HTTP 方法、到期时间和自定义请求参数的对象URL地址，也就是返回带签名的URL，
@@ -226,8 +546,7 @@ public class OssService implements InitializingBean {
      */
     public FileResult getShareLink(String filePath,Integer expires){
 
-        boolean bucketExists = false;
-        ossClient=ossUtil.getOssClient();
+        OSS ossClient=ossUtil.getOssClient();
         if(ossClient==null){
             return FileResult.builder().isOk(false).msg("上传失败,找不到OSS数据源配置").build();
         }
@@ -245,16 +564,20 @@ public class OssService implements InitializingBean {
         }else{//默认为7天
             expires =7*24*60*60;
         }
-        // 设置URL过期时间
-        long expireTime=expires+(new Date().getTime());
-        Date expiration=new Date(expireTime);
-
-        if(! fileExists(filePath)){//检测是否存在
+        String cachedUrl=shareLinkCache.get(StoreType.OSS,bucket,filePath,expires);
+        if(cachedUrl !=null){
+            return FileResult.builder().isOk(true).msg("获取链接成功").filePath(cachedUrl).build();
+        }
+        if(shareLinkCache.isCheckExists() && ! fileExists(filePath)){//检测是否存在
             return FileResult.builder().isOk(false).msg("文件不存在:"+filePath).build();
         }
+        // 设置URL过期时间，单位毫秒
+        long signedAt=System.currentTimeMillis();
+        Date expiration=new Date(signedAt+expires*1000L);
         //文件存在生成分享链接
         URL url = ossClient.generatePresignedUrl(bucket, filePath, expiration);
         if(url !=null){
+            shareLinkCache.put(StoreType.OSS,bucket,filePath,expires,signedAt,url.toString());
             return FileResult.builder().isOk(true).msg("获取链接成功").filePath(url.toString()).build();
         }else{
             return FileResult.builder().isOk(false).msg("获取败").build();
@@ -262,7 +585,7 @@ public class OssService implements InitializingBean {
     }
 
     /**
-     * 判断文件是否存在
+     * 判断文件是否存在，优先使用元数据缓存
      * @param objectName 文件路径
      * @return true存在，false不存在
      */
@@ -271,20 +594,129 @@ public class OssService implements InitializingBean {
             return false;
         }
         try {
-            ossClient=ossUtil.getOssClient();
-            String  bucket=ossUtil.getDefaultBucket();
-            if(ossClient==null){
-                return  false;
+            return statFile(objectName) !=null;
+        } catch (Exception e) {
+            log.warn("查询文件失败{}",e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * 获取文件元数据，优先使用元数据缓存
+     * @param filePath 文件路径
+     * @return 文件不存在时返回null
+     */
+    public FileStat statFile(String filePath) {
+        OSS ossClient=ossUtil.getOssClient();
+        String bucket=ossUtil.getDefaultBucket();
+        if(ossClient==null || StringUtils.isBlank(bucket) || StringUtils.isEmpty(filePath)){
+            return null;
+        }
+        FileMetaCache.Entry entry=fileMetaCache.get(StoreType.OSS,bucket,filePath);
+        if(entry !=null){
+            return entry.getStat();
+        }
+        try {
+            FileStat stat=toFileStat(bucket,filePath,ossClient.getObjectMetadata(bucket,filePath));
+            fileMetaCache.putFound(stat);
+            return stat;
+        } catch (OSSException e) {
+            if("NoSuchKey".equals(e.getErrorCode())){
+                fileMetaCache.putNotFound(StoreType.OSS,bucket,filePath);
+                return null;
             }
-            boolean isExists = ossClient.doesObjectExist(bucket,objectName);
-            if(isExists){
-                return true;
-            }else {
-                return false;
+            throw e;
+        }
+    }
+
+    /**
+     * 上传完成后更新元数据缓存，文件大小未知时只清除旧的缓存
+     */
+    private void cacheUploaded(String bucket,String storeName,String etag,Long fileSize,String contentType){
+        fileChangeSupport.written(StoreType.OSS,bucket,storeName);
+        if(fileSize==null){
+            fileMetaCache.invalidate(StoreType.OSS,bucket,storeName);
+            return;
+        }
+        fileMetaCache.putFound(FileStat.builder()
+                .storeType(StoreType.OSS)
+                .bucket(bucket)
+                .filePath(storeName)
+                .fileSize(fileSize)
+                .etag(etag)
+                .lastModified(System.currentTimeMillis())
+                .contentType(contentType)
+                .build());
+    }
+
+    /**
+     * 批量删除文件，每1000个文件一次DeleteObjects请求，多个请求并发执行
+     * @param filePaths 文件路径
+     * @return 每个文件的删除结果，顺序与filePaths一致
+     */
+    public List<FileResult> deleteFiles(List<String> filePaths){
+        List<FileResult> results=new ArrayList<>(filePaths.size());
+        OSS ossClient=ossUtil.getOssClient();
+        String bucket=ossUtil.getDefaultBucket();
+        if(ossClient==null || StringUtils.isBlank(bucket)){
+            for(String filePath:filePaths){
+                results.add(FileResult.builder().isOk(false).filePath(filePath).msg("删除失败,OSS数据源配置错误").build());
+            }
+            return results;
+        }
+        //删除失败的文件 -> 原因
+        Map<String,String> errors=new ConcurrentHashMap<>();
+        List<String> keys=filePaths.stream().filter(StringUtils::isNotBlank).distinct().collect(Collectors.toList());
+        List<CompletableFuture<Void>> futures=new ArrayList<>();
+        for(int i=0;i<keys.size();i+=DELETE_BATCH_SIZE){
+            List<String> batch=keys.subList(i,Math.min(i+DELETE_BATCH_SIZE,keys.size()));
+            futures.add(CompletableFuture.runAsync(()->errors.putAll(deleteBatch(ossClient,bucket,batch)),storeExecutors.get(StoreType.OSS)));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+
+        for(String filePath:filePaths){
+            if(StringUtils.isBlank(filePath)){
+                results.add(FileResult.builder().isOk(false).filePath(filePath).msg("删除失败,文件路径为空").build());
+                continue;
+            }
+            String error=errors.get(filePath);
+            if(error==null){
+                shareLinkCache.invalidate(StoreType.OSS,bucket,filePath);
+                fileMetaCache.putNotFound(StoreType.OSS,bucket,filePath);
+                fileChangeSupport.deleted(StoreType.OSS,bucket,filePath);
+                results.add(FileResult.builder().isOk(true).filePath(filePath).msg("删除成功").build());
+            }else{
+                results.add(FileResult.builder().isOk(false).filePath(filePath).msg(error).build());
+            }
+        }
+        log.info("批量删除文件bucket={},total={},failed={}",bucket,keys.size(),errors.size());
+        return results;
+    }
+
+    /**
+     * 删除一批文件，返回结果中没有的文件视为删除失败
+     * @return 删除失败的文件 -> 原因
+     */
+    private Map<String,String> deleteBatch(OSS ossClient,String bucket,List<String> batch){
+        Map<String,String> errors=new HashMap<>();
+        try {
+            DeleteObjectsRequest request=new DeleteObjectsRequest(bucket).withKeys(new ArrayList<>(batch));
+            //非简单模式，返回所有删除成功的文件
+            request.setQuiet(false);
+            DeleteObjectsResult result=ossClient.deleteObjects(request);
+            Set<String> deleted=new HashSet<>(result.getDeletedObjects());
+            for(String key:batch){
+                if(! deleted.contains(key)){
+                    errors.put(key,"删除失败");
+                }
             }
         } catch (Exception e) {
+            log.warn("批量删除失败{}",e.getMessage());
+            for(String key:batch){
+                errors.put(key,"删除失败,OSS异常,"+e.getMessage());
+            }
         }
-        return false;
+        return errors;
     }
 
     /**
@@ -295,7 +727,7 @@ public class OssService implements InitializingBean {
     public FileResult deleteFile(String filePath) {
 
         try {
-            ossClient=ossUtil.getOssClient();
+            OSS ossClient=ossUtil.getOssClient();
             if(ossClient==null){
                 return FileResult.builder().isOk(false).msg("上传失败,找不到OSS数据源配置").build();
             }
@@ -310,6 +742,9 @@ public class OssService implements InitializingBean {
                 return FileResult.builder().isOk(false).msg("删除失败，文件不存在:"+filePath).build();
             }
             ossClient.deleteObject(bucket,filePath);
+            shareLinkCache.invalidate(StoreType.OSS,bucket,filePath);
+            fileMetaCache.putNotFound(StoreType.OSS,bucket,filePath);
+            fileChangeSupport.deleted(StoreType.OSS,bucket,filePath);
             log.info("删除文件bucket={},file={}",bucket,filePath);
             return FileResult.builder().isOk(true).msg("删除成功").build();
         }catch (Exception e){
@@ -324,9 +759,20 @@ public class OssService implements InitializingBean {
      * @param folderPathPrefix 目录
      */
     public FileResult deleteDir(String folderPathPrefix){
-        ossClient=ossUtil.getOssClient();
+        return deleteDir(folderPathPrefix,new FileJob(FileJob.TYPE_DELETE_DIR));
+    }
+
+    /**
+     * 本方法会清空目录的所有文件，请谨慎使用
+     * 按Marker逐页列出目录下的文件，每页(1000个)一次批量删除，最多 deleteParallelism 个批次同时执行，
+     * 内存中最多保留 deleteParallelism+1 页，与目录大小无关
+     * @param folderPathPrefix 目录
+     * @param job 记录进度 scanned/deleted/failed
+     */
+    public FileResult deleteDir(String folderPathPrefix,FileJob job){
+        OSS ossClient=ossUtil.getOssClient();
         if(ossClient==null){
-            return FileResult.builder().isOk(false).msg("上传失败,找不到OSS数据源配置").build();
+            return FileResult.builder().isOk(false).msg("删除失败,找不到OSS数据源配置").build();
         }
 
          String  bucket=ossUtil.getDefaultBucket();
@@ -334,25 +780,55 @@ public class OssService implements InitializingBean {
                 log.error("默认的Bucket桶为空，请检测配置");
                 return FileResult.builder().isOk(false).msg("删除失败,OSS数据源配置默认bucket为空,请指定Bucket").build();
             }
+        String prefix=FileUtil.dirPrefix(folderPathPrefix);
+        if(prefix==null){
+            return FileResult.builder().isOk(false).msg("删除失败,目录不能为空").build();
+        }
 
-        ObjectListing list= this.ossClient.listObjects(bucket,folderPathPrefix);
-        System.out.println(list.getObjectSummaries());
-        if(list !=null && list.getObjectSummaries().size()>0){
-            List<OSSObjectSummary> objList= list.getObjectSummaries();
-            for(OSSObjectSummary item:objList){
-                //是否文件夹
-                try {
-
-                    this.ossClient.deleteObject(bucket,item.getKey());
-                    log.info("删除文件bucket={},file={}",bucket,item.getKey());
-                }catch (Exception e){
-                    log.warn("删除失败{}",e.getMessage());
-                    return FileResult.builder().isOk(false).msg("删除失败,OSS异常").build();
+        shareLinkCache.invalidatePrefix(StoreType.OSS,bucket,prefix);
+        fileMetaCache.invalidatePrefix(StoreType.OSS,bucket,prefix);
+        Semaphore permits=new Semaphore(deleteParallelism);
+        try {
+            String marker=null;
+            ObjectListing listing;
+            do {
+                listing=ossClient.listObjects(new ListObjectsRequest(bucket).withPrefix(prefix).withMarker(marker).withMaxKeys(DELETE_BATCH_SIZE));
+                List<String> batch=listing.getObjectSummaries().stream().map(OSSObjectSummary::getKey).collect(Collectors.toList());
+                job.increment(FileJob.COUNTER_SCANNED,batch.size());
+                if(! batch.isEmpty()){
+                    submitDeleteBatch(ossClient,bucket,batch,permits,job);
                 }
-            }
+                marker=listing.getNextMarker();
+            }while (listing.isTruncated());
+        } catch (Exception e){
+            log.warn("删除失败{}",e.getMessage());
+            return FileResult.builder().isOk(false).msg("删除失败,OSS异常,"+e.getMessage()).build();
+        } finally {
+            //等待已提交的批次完成
+            permits.acquireUninterruptibly(deleteParallelism);
         }
+        long failed=job.getCounter(FileJob.COUNTER_FAILED);
+        String msg="扫描"+job.getCounter(FileJob.COUNTER_SCANNED)+"个,删除"+job.getCounter(FileJob.COUNTER_DELETED)+"个,失败"+failed+"个";
+        log.info("删除目录bucket={},dir={},{}",bucket,prefix,msg);
+        if(failed==0){
+            fileChangeSupport.deletedPrefix(StoreType.OSS,bucket,prefix);
+        }
+        return FileResult.builder().isOk(failed==0).msg(msg).build();
+    }
 
-
-        return FileResult.builder().isOk(true).msg("成功").build();
+    /**
+     * 提交一个删除批次，并发批次达到上限时等待
+     */
+    private void submitDeleteBatch(OSS ossClient,String bucket,List<String> batch,Semaphore permits,FileJob job) throws InterruptedException {
+        permits.acquire();
+        storeExecutors.get(StoreType.OSS).execute(()->{
+            try {
+                Map<String,String> errors=deleteBatch(ossClient,bucket,batch);
+                job.increment(FileJob.COUNTER_DELETED,batch.size()-errors.size());
+                job.increment(FileJob.COUNTER_FAILED,errors.size());
+            }finally {
+                permits.release();
+            }
+        });
     }
 }
@@ -1,18 +1,26 @@
 package com.mscloud.files.oss.util;
 
+import com.aliyun.oss.ClientBuilderConfiguration;
 import com.aliyun.oss.OSS;
+import com.aliyun.oss.OSSClient;
 import com.aliyun.oss.OSSClientBuilder;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  * OSS配置以及初始化链接
+ * 启动时创建唯一的OSSClient并复用其HTTP连接池，容器关闭时释放
  */
 @Slf4j
 @Component
-public class OssUtil {
-    private OSS ossClient =null;
+public class OssUtil implements InitializingBean, DisposableBean {
+    private volatile OSS ossClient =null;
     @Value("${mscloud.oss.endpoint:'http://XXXXX'}")
     private String endpoint;
     /**
@@ -27,21 +35,87 @@ public class OssUtil {
     @Value("${mscloud.oss.replaceUrlPrefix:''}")
     private String replaceUrlPrefix;
 
+    /**
+     * 最大HTTP连接数
+     */
+    @Value("${mscloud.oss.maxConnections:1024}")
+    private int maxConnections;
+    /**
+     * Socket读写超时，单位毫秒
+     */
+    @Value("${mscloud.oss.socketTimeout:50000}")
+    private int socketTimeout;
+    /**
+     * 建立连接超时，单位毫秒
+     */
+    @Value("${mscloud.oss.connectionTimeout:50000}")
+    private int connectionTimeout;
+    /**
+     * 从连接池获取连接的超时，单位毫秒
+     */
+    @Value("${mscloud.oss.connectionRequestTimeout:5000}")
+    private int connectionRequestTimeout;
+    /**
+     * 连接空闲超过该时长则关闭，单位毫秒
+     */
+    @Value("${mscloud.oss.idleConnectionTime:60000}")
+    private long idleConnectionTime;
+    /**
+     * 是否开启空闲连接回收线程
+     */
+    @Value("${mscloud.oss.useReaper:true}")
+    private boolean useReaper;
+    /**
+     * 请求失败重试次数
+     */
+    @Value("${mscloud.oss.maxErrorRetry:3}")
+    private int maxErrorRetry;
+
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        ClientBuilderConfiguration conf = new ClientBuilderConfiguration();
+        conf.setMaxConnections(maxConnections);
+        conf.setSocketTimeout(socketTimeout);
+        conf.setConnectionTimeout(connectionTimeout);
+        conf.setConnectionRequestTimeout(connectionRequestTimeout);
+        conf.setIdleConnectionTime(idleConnectionTime);
+        conf.setUseReaper(useReaper);
+        conf.setMaxErrorRetry(maxErrorRetry);
+        this.ossClient = new OSSClientBuilder().build(endpoint, accessKey, secretKey, conf);
+        log.info("OSSClient初始化完成,endpoint={},maxConnections={}",endpoint,maxConnections);
+    }
+
+    @Override
+    public void destroy() {
+        if(ossClient !=null){
+            ossClient.shutdown();
+            ossClient =null;
+        }
+    }
 
     /**
-     * OSSClient初始化
+     * OSSClient，全局唯一
      * @return
      */
     public OSS getOssClient(){
-
-      if(ossClient !=null){
-          return ossClient;
-      }
-      OSS ossClient = new OSSClientBuilder().build(endpoint, accessKey, secretKey);
-
         return ossClient;
     }
 
+    /**
+     * 连接池使用情况
+     * @return
+     */
+    public Map<String,Object> getPoolStats(){
+        Map<String,Object> stats=new LinkedHashMap<>();
+        stats.put("endpoint",endpoint);
+        stats.put("maxConnections",maxConnections);
+        if(ossClient instanceof OSSClient){
+            stats.put("connectionPool",((OSSClient) ossClient).getConnectionPoolStats());
+        }
+        return stats;
+    }
+
 
     public String getEndpoint() {
         return endpoint;